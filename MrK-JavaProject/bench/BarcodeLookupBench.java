@@ -0,0 +1,125 @@
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+/**
+ * Measures the scan-to-product lookup of Database.getProductByBarcode over a catalog with millions of
+ * EAN-13 barcodes: the throughput, the latency distribution of single lookups, and the bytes allocated
+ * per lookup, which must be zero. One in ten scanned codes is unknown, as happens with items from other
+ * stores. Barcodes are numbered consecutively under one company prefix, as a manufacturer's are.
+ *
+ * Usage: java BarcodeLookupBench [products] [barcodes per product] [lookups]
+ * <pre>
+ *   java -Xmx2g -cp out/bench BarcodeLookupBench 1000000 3 20000000
+ * </pre>
+ */
+class BarcodeLookupBench {
+    // GS1 company prefix of the generated barcodes, followed by a 9 digit item number.
+    private static final long COMPANY_PREFIX = 400;
+    // Number of codes in the scan sequence, cycled through by the measurements.
+    private static final int SCANS = 1 << 20;
+
+    /**
+     * Builds the catalog, then measures the lookups and prints the results.
+     *
+     * @param args Optional number of products, barcodes per product and lookups per measurement.
+     */
+    public static void main(String[] args) {
+        int products = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int perProduct = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 20_000_000;
+
+        Database database = new Database();
+        LocalDate expiry = LocalDate.now().plusMonths(3);
+        long start = System.nanoTime();
+        for (int id = 0; id < products; id++) {
+            Product product = new Product(id, "Product " + id, expiry, expiry.minusDays(6));
+            database.putProductIfAbsent(product);
+            for (int k = 0; k < perProduct; k++) {
+                database.addBarcode(product, barcode((long) id * perProduct + k));
+            }
+        }
+        System.out.printf("Catalog of %,d products and %,d barcodes built in %d ms%n",
+                products, database.getBarcodeCount(), (System.nanoTime() - start) / 1_000_000);
+
+        long codes = (long) products * perProduct;
+        SplittableRandom random = new SplittableRandom(42);
+        long[] scans = new long[SCANS];
+        for (int i = 0; i < SCANS; i++) {
+            // One in ten codes lies past the catalog, so the lookup has to probe to an empty slot.
+            scans[i] = random.nextInt(10) == 0 ? barcode(codes + random.nextLong(codes)) : barcode(random.nextLong(codes));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            measureThroughput(database, scans, lookups, round < 2);
+        }
+        measureLatency(database, scans, lookups);
+    }
+
+    /**
+     * Looks up the scan sequence in a tight loop and prints the average time and allocation per lookup.
+     *
+     * @param database The database.
+     * @param scans    The codes to look up, cycled through.
+     * @param lookups  The number of lookups.
+     * @param warmup   Whether this is a warmup round, which is not printed.
+     */
+    private static void measureThroughput(Database database, long[] scans, int lookups, boolean warmup) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < lookups; i++) {
+            if (database.getProductByBarcode(scans[i & (SCANS - 1)]) != null) {
+                found++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        if (!warmup) {
+            System.out.printf("Throughput: %,d lookups in %d ms, %.1f ns per lookup, %,d found, %.3f bytes allocated per lookup%n",
+                    lookups, nanos / 1_000_000, (double) nanos / lookups, found, (double) allocated / lookups);
+        }
+    }
+
+    /**
+     * Times every lookup on its own and prints the percentiles, next to those of an empty timed block,
+     * which is the cost of reading the clock twice.
+     *
+     * @param database The database.
+     * @param scans    The codes to look up, cycled through.
+     * @param lookups  The number of lookups.
+     */
+    private static void measureLatency(Database database, long[] scans, int lookups) {
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram clock = new LatencyHistogram();
+        long found = 0;
+        for (int i = 0; i < lookups; i++) {
+            long gtin = scans[i & (SCANS - 1)];
+            long start = System.nanoTime();
+            Product product = database.getProductByBarcode(gtin);
+            long end = System.nanoTime();
+            latency.record(end - start);
+            found += product != null ? 1 : 0;
+
+            start = System.nanoTime();
+            end = System.nanoTime();
+            clock.record(end - start);
+        }
+        System.out.printf("Latency:  p50 %d ns, p99 %d ns, p99.9 %d ns, max %,d ns (%,d found)%n",
+                latency.getPercentile(50), latency.getPercentile(99), latency.getPercentile(99.9), latency.getMax(), found);
+        System.out.printf("Clock:    p50 %d ns, p99 %d ns, p99.9 %d ns%n",
+                clock.getPercentile(50), clock.getPercentile(99), clock.getPercentile(99.9));
+    }
+
+    /**
+     * Makes the EAN-13 barcode of an item number under the company prefix.
+     *
+     * @param item The item number, below 10^9.
+     * @return The barcode, with its check digit.
+     */
+    private static long barcode(long item) {
+        long payload = COMPANY_PREFIX * 1_000_000_000L + item;
+        return payload * 10 + Gtin.checkDigit(payload);
+    }
+}
@@ -0,0 +1,160 @@
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * A small benchmark harness in the spirit of JMH, for running the benchmarks with plain javac and java where
+ * the Gradle build is not available. The JMH benchmarks in the jmh subproject are the reference measurements.
+ *
+ * Each benchmark runs for a number of timed warmup iterations, whose results are discarded, followed by
+ * timed measurement iterations. An iteration calls the operation in batches until its time is up, so fast
+ * and slow operations are measured over the same wall time. Every result is folded into a volatile sink,
+ * so the JIT cannot remove the work as dead code. Besides throughput, the bytes allocated by the
+ * measuring thread are read before and after the measurement, which gives the allocation per operation
+ * that JMH reports with -prof gc.
+ */
+class BenchmarkRunner {
+
+    /**
+     * One benchmarked operation.
+     */
+    interface Operation {
+        /**
+         * Runs the operation once.
+         *
+         * @param invocation The number of the invocation, counting from 0 across all iterations.
+         * @return Any value derived from the result, consumed so the work cannot be optimized away.
+         */
+        long run(long invocation);
+    }
+
+    // Number of invocations between two checks of the clock.
+    private static final int BATCH = 16;
+
+    // Consumes the results of operations. Volatile so that the writes cannot be eliminated.
+    private static volatile long sink;
+
+    // Thread MXBean of the HotSpot JVM, which can report per-thread allocation, or null on other JVMs.
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    // Number of warmup iterations per benchmark.
+    private final int warmupIterations;
+    // Number of measurement iterations per benchmark.
+    private final int iterations;
+    // Duration of one iteration in nanoseconds.
+    private final long iterationNanos;
+
+    /**
+     * Constructs a BenchmarkRunner.
+     *
+     * @param warmupIterations The number of warmup iterations per benchmark.
+     * @param iterations       The number of measurement iterations per benchmark.
+     * @param iterationMillis  The duration of one iteration in milliseconds.
+     */
+    public BenchmarkRunner(int warmupIterations, int iterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+    }
+
+    /**
+     * Prints the header of the result table.
+     */
+    public static void printHeader() {
+        System.out.printf(Locale.ROOT, "%-36s %12s %16s %8s %14s %14s%n",
+                "Benchmark", "Catalog", "ops/s", "error", "ns/op", "B/op");
+    }
+
+    /**
+     * Runs a benchmark and prints one row of results: mean throughput with its 99.9% confidence error,
+     * average time and allocated bytes per operation.
+     *
+     * @param name      The name of the benchmark.
+     * @param catalog   The catalog size the benchmark runs against, printed with the results.
+     * @param operation The operation to measure.
+     */
+    public void run(String name, int catalog, Operation operation) {
+        long invocation = 0;
+        for (int i = 0; i < this.warmupIterations; i++) {
+            invocation = iterate(operation, invocation, new long[1]);
+        }
+
+        double[] throughput = new double[this.iterations];
+        long totalOps = 0;
+        long totalNanos = 0;
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < this.iterations; i++) {
+            long[] ops = new long[1];
+            long start = System.nanoTime();
+            invocation = iterate(operation, invocation, ops);
+            long elapsed = System.nanoTime() - start;
+            throughput[i] = ops[0] * 1e9 / elapsed;
+            totalOps += ops[0];
+            totalNanos += elapsed;
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        double mean = 0;
+        for (double value : throughput) {
+            mean += value;
+        }
+        mean /= throughput.length;
+        double variance = 0;
+        for (double value : throughput) {
+            variance += (value - mean) * (value - mean);
+        }
+        // 3.29 standard errors cover 99.9% of a normal distribution, the interval JMH prints by default.
+        double error = throughput.length > 1 ? 3.29 * Math.sqrt(variance / (throughput.length - 1) / throughput.length) : 0;
+        System.out.printf(Locale.ROOT, "%-36s %12d %16.1f %8s %14.1f %14s%n",
+                name, catalog, mean, "+-" + Math.round(100 * error / mean) + "%",
+                (double) totalNanos / totalOps,
+                allocated >= 0 ? String.format(Locale.ROOT, "%.1f", (double) allocated / totalOps) : "n/a");
+    }
+
+    /**
+     * Runs one iteration: calls the operation in batches until the iteration time has passed.
+     *
+     * @param operation  The operation to call.
+     * @param invocation The number of the first invocation.
+     * @param ops        A one-element array that receives the number of invocations.
+     * @return The number of the next invocation.
+     */
+    private long iterate(Operation operation, long invocation, long[] ops) {
+        long deadline = System.nanoTime() + this.iterationNanos;
+        long result = 0;
+        long count = 0;
+        do {
+            for (int i = 0; i < BATCH; i++) {
+                result += operation.run(invocation++);
+            }
+            count += BATCH;
+        } while (System.nanoTime() < deadline);
+        sink += result;
+        ops[0] = count;
+        return invocation;
+    }
+
+    /**
+     * Gets the number of bytes allocated so far by the current thread.
+     *
+     * @return The allocated bytes, or -1 if the JVM cannot report them.
+     */
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    /**
+     * Finds the HotSpot thread MXBean and enables allocation tracking on it.
+     *
+     * @return The MXBean, or null if the JVM does not provide one that tracks allocation.
+     */
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                return bean;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a ProductApiServer over loopback with many concurrent clients and prints throughput and latency.
+ * Each client holds its own keep-alive connection and sends lookups of random products one after another,
+ * so the number of clients is the number of requests in flight.
+ *
+ * Usage: java ProductApiLoad [clients] [seconds] [products]
+ * <pre>
+ *   java -Xss256k -cp out/bench ProductApiLoad 10000 10 100000
+ * </pre>
+ * On JDK 21 and later the clients run on virtual threads as well; on older JDKs each client is a
+ * platform thread, which limits how many clients the machine can start.
+ */
+class ProductApiLoad {
+
+    /**
+     * Starts a server over a generated catalog, runs the clients for a fixed time and prints the results.
+     *
+     * @param args Optional number of clients, duration in seconds and catalog size.
+     * @throws Exception if the server cannot start or a client thread is interrupted.
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int products = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+        Database database = new Database();
+        ProductService service = new ProductService(database, new ReportWriter(new StringWriter()));
+        LocalDate expiry = LocalDate.now().plusMonths(3);
+        List<Product> batch = new ArrayList<>(products);
+        for (int id = 0; id < products; id++) {
+            batch.add(new Product(id, "Product " + id, expiry, expiry.minusDays(6)));
+        }
+        service.createProducts(batch);
+
+        try (ProductApiServer server = new ProductApiServer(service, new InetSocketAddress("127.0.0.1", 0), clients)) {
+            server.start();
+            int port = server.getAddress().getPort();
+            LongAdder requests = new LongAdder();
+            LongAdder failures = new LongAdder();
+            AtomicLong maxLatency = new AtomicLong();
+            LongAdder totalLatency = new LongAdder();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            CountDownLatch done = new CountDownLatch(clients);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < clients; i++) {
+                startThread(() -> {
+                    try (Socket socket = new Socket("127.0.0.1", port)) {
+                        socket.setTcpNoDelay(true);
+                        OutputStream out = socket.getOutputStream();
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        byte[] buffer = new byte[4096];
+                        while (System.nanoTime() < deadline) {
+                            int id = ThreadLocalRandom.current().nextInt(products);
+                            long sent = System.nanoTime();
+                            out.write(("GET /products/" + id + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                                    .getBytes(StandardCharsets.US_ASCII));
+                            out.flush();
+                            if (!readChunkedResponse(in, buffer)) {
+                                failures.increment();
+                                break;
+                            }
+                            long latency = System.nanoTime() - sent;
+                            totalLatency.add(latency);
+                            maxLatency.accumulateAndGet(latency, Math::max);
+                            requests.increment();
+                        }
+                    } catch (IOException e) {
+                        failures.increment();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            long count = requests.sum();
+            System.out.printf("%d clients, %d requests in %.1f s: %.0f requests/s, mean latency %.2f ms, max %.2f ms, %d failed clients%n",
+                    clients, count, elapsed, count / elapsed,
+                    count > 0 ? totalLatency.sum() / 1e6 / count : 0.0, maxLatency.get() / 1e6, failures.sum());
+        }
+    }
+
+    /**
+     * Starts a client on a virtual thread if the JDK has them, otherwise on a small-stack platform thread.
+     *
+     * @param task The client to run.
+     */
+    private static void startThread(Runnable task) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder.getClass().getMethod("start", Runnable.class).invoke(builder, task);
+        } catch (ReflectiveOperationException e) {
+            new Thread(null, task, "client", 256 * 1024).start();
+        }
+    }
+
+    /**
+     * Reads one chunked HTTP response and discards its body.
+     *
+     * @param in     The connection input.
+     * @param buffer A scratch buffer.
+     * @return true if a complete 200 response was read; false otherwise.
+     * @throws IOException if the connection fails.
+     */
+    private static boolean readChunkedResponse(InputStream in, byte[] buffer) throws IOException {
+        String status = readLine(in);
+        if (status == null || !status.startsWith("HTTP/1.1 200")) {
+            return false;
+        }
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            // Skip headers; the server always uses chunked encoding.
+        }
+        while (true) {
+            String sizeLine = readLine(in);
+            if (sizeLine == null) {
+                return false;
+            }
+            int size = Integer.parseInt(sizeLine.trim(), 16);
+            if (size == 0) {
+                readLine(in);
+                return true;
+            }
+            while (size > 0) {
+                int read = in.read(buffer, 0, Math.min(size, buffer.length));
+                if (read < 0) {
+                    return false;
+                }
+                size -= read;
+            }
+            readLine(in);
+        }
+    }
+
+    /**
+     * Reads a line terminated by CRLF.
+     *
+     * @param in The connection input.
+     * @return The line without its terminator, or null at the end of the stream.
+     * @throws IOException if the connection fails.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks the hot paths of ProductService over synthetic catalogs: product creation, lookup by ID,
+ * the refill calculation of ProductShelfService, each expiry and markdown report with and without the
+ * report cache, the first page of a paged query, the same reports over a ColumnarProductTable, name searches
+ * and the markdown repricing.
+ *
+ * Usage: java ProductServiceBench [catalog sizes] [warmup iterations] [iterations] [iteration millis]
+ * <pre>
+ *   javac -d out/bench src/*.java bench/*.java
+ *   java -Xmx8g -cp out/bench ProductServiceBench 10000,1000000,10000000 3 5 1000
+ * </pre>
+ * The catalog sizes default to 10000 and 1000000, as a catalog of 10 million products needs a heap of
+ * several gigabytes. Reports are written to a discarding writer, so they measure formatting but not the console.
+ * The same benchmarks run under JMH with gradle :jmh:jmh; this harness is the fallback without Gradle.
+ */
+class ProductServiceBench {
+    // Number of products per batch when a catalog is generated.
+    private static final int LOAD_BATCH = 10_000;
+    // Number of distinct expiry days in a generated catalog, starting a month before today.
+    private static final int EXPIRY_DAYS = 120;
+
+    /**
+     * Runs every benchmark against every catalog size and prints the results.
+     *
+     * @param args Optional catalog sizes separated by commas, warmup iterations, iterations and iteration length.
+     */
+    public static void main(String[] args) {
+        String sizes = args.length > 0 ? args[0] : "10000,1000000";
+        int warmupIterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        long iterationMillis = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+        BenchmarkRunner runner = new BenchmarkRunner(warmupIterations, iterations, iterationMillis);
+
+        BenchmarkRunner.printHeader();
+        for (String size : sizes.split(",")) {
+            run(runner, Integer.parseInt(size.trim()));
+        }
+    }
+
+    /**
+     * Generates a catalog of the given size and runs every benchmark against it.
+     *
+     * @param runner  The harness that measures the benchmarks.
+     * @param catalog The number of products in the catalog.
+     */
+    private static void run(BenchmarkRunner runner, int catalog) {
+        Database database = new Database();
+        ProductService service = new ProductService(database, new ReportWriter(Writer.nullWriter()));
+        ProductShelf[] shelves = load(service, catalog);
+        LocalDate today = LocalDate.now();
+
+        runner.run("findProductById", catalog, i -> service.findProductById(spread(i, catalog)).getId());
+        runner.run("quantityToRefill", catalog, i -> ProductShelfService.quantityToRefill(shelves[spread(i, catalog)]));
+        runner.run("findExpiredProducts", catalog, i -> service.findExpiredProducts(today).size());
+        runner.run("findProductsInMarkDown", catalog, i -> service.findProductsInMarkDown(today).size());
+        runner.run("findProductsForMarkDown", catalog, i -> service.findProductsForMarkDown(today).size());
+        // The same reports when every call misses the report cache
+        ReportCache cache = service.getReportCache();
+        runner.run("findExpiredProducts.uncached", catalog, i -> {
+            cache.clear();
+            return service.findExpiredProducts(today).size();
+        });
+        runner.run("findProductsInMarkDown.uncached", catalog, i -> {
+            cache.clear();
+            return service.findProductsInMarkDown(today).size();
+        });
+        // The first page of the same lists, read lazily through a query instead of materialized
+        runner.run("findPage.expired", catalog, i -> service.findPage(ProductQuery.expired(today), null, 50).getProducts().size());
+        runner.run("findPage.all", catalog, i -> service.findPage(ProductQuery.all(), null, 50).getProducts().size());
+        runner.run("displayProductsExpiryDate", catalog, i -> {
+            service.displayProductsExpiryDate();
+            return 0;
+        });
+        runner.run("displayExpiredProducts", catalog, i -> {
+            service.displayExpiredProducts();
+            return 0;
+        });
+        runner.run("displayProductsInMarkDown", catalog, i -> {
+            service.displayProductsInMarkDown();
+            return 0;
+        });
+        runner.run("displayProductsForMarkDown", catalog, i -> {
+            service.displayProductsForMarkDown();
+            return 0;
+        });
+        // The same reports scanning a columnar copy of the catalog
+        ColumnarProductTable table = new ColumnarProductTable();
+        service.useColumnarTable(table);
+        runner.run("columnar.countExpired", catalog, i -> table.countExpired(today));
+        runner.run("columnar.selectExpired", catalog, i -> table.selectExpired(today).length);
+        runner.run("columnar.selectInMarkDown", catalog, i -> table.selectInMarkDown(today).length);
+        runner.run("columnar.totalQuantityToRefill", catalog, i -> table.totalQuantityToRefill());
+        runner.run("columnar.displayExpiredProducts", catalog, i -> {
+            service.displayExpiredProducts();
+            return 0;
+        });
+        runner.run("columnar.displayProductsInMarkDown", catalog, i -> {
+            service.displayProductsInMarkDown();
+            return 0;
+        });
+        // Name searches by the start of a word and by a misspelt name
+        service.useNameIndex(new ProductNameIndex());
+        runner.run("findProductsByName.prefix", catalog, i -> service.findProductsByName("Product " + spread(i, catalog), 10).size());
+        runner.run("findProductsByName.fuzzy", catalog, i -> service.findProductsByName("Prodcut " + spread(i, catalog), 10).size());
+        PricingEngine pricing = new PricingEngine(database, MarkdownPolicy.parse("6:20,3:40,1:60"), service.getClock());
+        runner.run("repriceAll", catalog, i -> pricing.repriceAll(today.plusDays(i % 7)));
+        // Runs last, as it grows the catalog the other benchmarks read.
+        LocalDate expiry = today.plusMonths(3);
+        LocalDate markdown = expiry.minusDays(6);
+        runner.run("createProduct", catalog, i -> service.createProduct(catalog + (int) i, "Benchmark product", expiry, markdown) ? 1 : 0);
+    }
+
+    /**
+     * Fills a service with products whose expiry dates are spread over EXPIRY_DAYS days around today
+     * and whose shelves hold varying quantities, so every report has matches.
+     *
+     * @param service The service to fill.
+     * @param catalog The number of products to create.
+     * @return The shelves of the products, indexed by product ID.
+     */
+    private static ProductShelf[] load(ProductService service, int catalog) {
+        ProductShelf[] shelves = new ProductShelf[catalog];
+        LocalDate first = LocalDate.now().minusDays(30);
+        List<Product> batch = new ArrayList<>(LOAD_BATCH);
+        for (int id = 0; id < catalog; id++) {
+            LocalDate expiry = first.plusDays(id % EXPIRY_DAYS);
+            shelves[id] = new ProductShelf(5, 10, id % 11, ProductShelf.DEFAULT_SCALE);
+            batch.add(new Product(id, "Product " + id, expiry, expiry.minusDays(6), shelves[id], 100 + id % 1000));
+            if (batch.size() == LOAD_BATCH || id == catalog - 1) {
+                service.createProducts(batch);
+                batch.clear();
+            }
+        }
+        return shelves;
+    }
+
+    /**
+     * Maps an invocation number to a product ID that jumps around the catalog,
+     * so lookups are not served by a few hot cache lines.
+     *
+     * @param invocation The invocation number.
+     * @param catalog    The number of products in the catalog.
+     * @return A product ID from 0 to catalog - 1.
+     */
+    private static int spread(long invocation, int catalog) {
+        return (int) Math.floorMod(invocation * 0x9E3779B97F4A7C15L, (long) catalog);
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how lookup throughput of a shared ProductService scales with the number of reader threads
+ * while one writer keeps creating products and moving stock, and checks that no reader ever sees
+ * a product that was created before it started as missing.
+ *
+ * Usage: java ReadScalingStress [products] [maxThreads] [secondsPerStep]
+ */
+class ReadScalingStress {
+
+    /**
+     * Runs the stress test with 1, 2, 4, ... up to maxThreads readers and prints the throughput of each step.
+     *
+     * @param args Optional catalog size, maximum number of reader threads and seconds per step.
+     * @throws InterruptedException if the main thread is interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int products = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        Database database = new Database();
+        ProductService service = new ProductService(database, new ReportWriter(new StringWriter()));
+        LocalDate expiry = LocalDate.now().plusMonths(3);
+        for (int id = 0; id < products; id++) {
+            service.createProduct(id, "Product " + id, expiry, expiry.minusDays(6));
+        }
+        System.out.println("Catalog of " + products + " products, " + Runtime.getRuntime().availableProcessors() + " CPUs");
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long[] result = runStep(service, products, threads, seconds);
+            System.out.printf("%3d readers: %,14d lookups/s, %,10d writes/s, %d missing%n",
+                    threads, result[0] / seconds, result[1] / seconds, result[2]);
+        }
+    }
+
+    /**
+     * Runs readers and one writer against the service for a fixed time.
+     *
+     * @param service  The shared service.
+     * @param products The number of products created before the step, all of which must stay visible.
+     * @param threads  The number of reader threads.
+     * @param seconds  The duration of the step.
+     * @return The number of lookups, the number of writes and the number of lookups that found nothing.
+     * @throws InterruptedException if the main thread is interrupted.
+     */
+    private static long[] runStep(ProductService service, int products, int threads, int seconds)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder lookups = new LongAdder();
+        LongAdder missing = new LongAdder();
+        long[] writes = new long[1];
+
+        Thread writer = new Thread(() -> {
+            LocalDate expiry = LocalDate.now().plusMonths(3);
+            int nextId = products + ThreadLocalRandom.current().nextInt(1 << 20) * 1024;
+            while (running.get()) {
+                service.createProduct(nextId++, "Extra", expiry, expiry.minusDays(6));
+                service.recordStockMovement(ThreadLocalRandom.current().nextInt(products), 1);
+                writes[0] += 2;
+            }
+        });
+        Thread[] readers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            readers[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                long notFound = 0;
+                while (running.get()) {
+                    for (int j = 0; j < 1024; j++) {
+                        if (service.findProductById(random.nextInt(products)) == null) {
+                            notFound++;
+                        }
+                    }
+                    count += 1024;
+                }
+                lookups.add(count);
+                missing.add(notFound);
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        return new long[] {lookups.sum(), writes[0], missing.sum()};
+    }
+}
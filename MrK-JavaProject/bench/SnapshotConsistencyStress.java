@@ -0,0 +1,124 @@
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks that catalog snapshots stay consistent while tills keep moving stock and new products keep
+ * arriving, and measures what snapshots cost: the time to open one, the time to scan one, and the
+ * throughput of the tills while snapshots are open.
+ *
+ * Each reader opens a snapshot, reads the product count and total stock, waits while the tills move on,
+ * and reads them again; any difference is an inconsistency. After the run, every snapshot is closed and
+ * the shelves must have dropped the older versions they kept.
+ *
+ * Usage: java SnapshotConsistencyStress [products] [tills] [readers] [seconds]
+ */
+class SnapshotConsistencyStress {
+
+    /**
+     * Runs the tills and readers and prints the results.
+     *
+     * @param args Optional catalog size, numbers of till and reader threads, and duration in seconds.
+     * @throws InterruptedException if the main thread is interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int products = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int tills = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int readers = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        Database database = new Database();
+        ProductService service = new ProductService(database, new ReportWriter(new StringWriter()));
+        LocalDate expiry = LocalDate.now().plusMonths(3);
+        for (int id = 0; id < products; id++) {
+            service.createProduct(id, "Product " + id, expiry, expiry.minusDays(6));
+        }
+        System.out.println("Catalog of " + products + " products, " + tills + " tills, " + readers + " readers, "
+                + Runtime.getRuntime().availableProcessors() + " CPUs");
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder movements = new LongAdder();
+        LongAdder snapshots = new LongAdder();
+        LongAdder openNanos = new LongAdder();
+        LongAdder scanNanos = new LongAdder();
+        LongAdder inconsistent = new LongAdder();
+        Thread[] threads = new Thread[tills + readers];
+        for (int i = 0; i < tills; i++) {
+            int till = i;
+            threads[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int nextId = products + till * (1 << 24);
+                long count = 0;
+                while (running.get()) {
+                    int id = random.nextInt(products);
+                    // A sale followed by a delivery, so the shelves never run out.
+                    service.recordStockMovement(id, -1);
+                    service.recordStockMovement(id, 1);
+                    count += 2;
+                    if ((count & 1023) == 0) {
+                        service.createProduct(nextId++, "Extra", expiry, expiry.minusDays(6));
+                    }
+                }
+                movements.add(count);
+            });
+        }
+        for (int i = tills; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                while (running.get()) {
+                    long start = System.nanoTime();
+                    try (ProductSnapshot snapshot = service.openSnapshot()) {
+                        long opened = System.nanoTime();
+                        long[] first = totals(snapshot);
+                        long scanned = System.nanoTime();
+                        Thread.yield();
+                        long[] second = totals(snapshot);
+                        if (first[0] != second[0] || first[1] != second[1]) {
+                            inconsistent.increment();
+                        }
+                        openNanos.add(opened - start);
+                        scanNanos.add(scanned - opened);
+                        snapshots.increment();
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long count = Math.max(snapshots.sum(), 1);
+        CatalogVersions versions = service.getCatalogVersions();
+        System.out.printf("Tills: %,d movements/s while snapshots were open%n", movements.sum() / seconds);
+        System.out.printf("Snapshots: %,d read, open %.1f us, scan %.2f ms, %d inconsistent%n",
+                snapshots.sum(), openNanos.sum() / 1e3 / count, scanNanos.sum() / 1e6 / count, inconsistent.sum());
+        System.out.println("After closing: " + versions);
+        if (inconsistent.sum() != 0 || versions.getPinnedCount() != 0 || versions.getShelvesWithHistory() != 0) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the product count and the total stock of a snapshot.
+     *
+     * @param snapshot The snapshot.
+     * @return The number of products and the sum of their quantities.
+     */
+    private static long[] totals(ProductSnapshot snapshot) {
+        List<Product> products = snapshot.getProducts();
+        long total = 0;
+        for (Product product : products) {
+            total += snapshot.getQuantity(product);
+        }
+        return new long[] {products.size(), total};
+    }
+}
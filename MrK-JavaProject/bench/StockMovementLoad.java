@@ -0,0 +1,88 @@
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drives a StockMovementPipeline with producer threads that offer till scans and restocks as fast as
+ * they can, and reports the sustained event rate, how much coalescing saved and how many events were
+ * dropped or late. Afterwards the shelf quantities are checked against the applied deltas.
+ *
+ * Usage: java StockMovementLoad [products] [producers] [shards] [ring capacity] [seconds]
+ * <pre>
+ *   java -cp out/bench StockMovementLoad 100000 4 2 65536 5
+ * </pre>
+ * Scans pick products with a skew towards a hot set, as real sales do, which is where coalescing helps.
+ */
+class StockMovementLoad {
+    // Quantity every shelf starts with, large enough that sales never run a shelf empty.
+    private static final long START_QUANTITY = 1_000_000_000L;
+
+    /**
+     * Runs the load and prints the results.
+     *
+     * @param args Optional catalog size, producer threads, shards, ring capacity and duration.
+     * @throws InterruptedException if the main thread is interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int products = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int shards = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int capacity = args.length > 3 ? Integer.parseInt(args[3]) : 64 * 1024;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        ProductService service = new ProductService(new Database(), new ReportWriter(Writer.nullWriter()));
+        LocalDate expiry = LocalDate.now().plusMonths(3);
+        List<Product> batch = new ArrayList<>(products);
+        for (int id = 0; id < products; id++) {
+            batch.add(new Product(id, "Product " + id, expiry, expiry.minusDays(6),
+                    new ProductShelf(0, 2 * START_QUANTITY, START_QUANTITY, ProductShelf.DEFAULT_SCALE)));
+        }
+        service.createProducts(batch);
+
+        StockMovementPipeline pipeline = new StockMovementPipeline(service, shards, capacity, 100);
+        AtomicBoolean running = new AtomicBoolean(true);
+        long[][] sums = new long[producers][];
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            long[] sum = sums[p] = new long[products];
+            threads[p] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    // Half of the scans hit the hottest 1% of products.
+                    int id = random.nextBoolean() ? random.nextInt(Math.max(1, products / 100)) : random.nextInt(products);
+                    long delta = random.nextInt(10) == 0 ? 12 : -1; // Mostly sales, some restocks.
+                    if (pipeline.offer(id, delta)) {
+                        sum[id] += delta;
+                    }
+                }
+            }, "producer-" + p);
+            threads[p].start();
+        }
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pipeline.close();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long mismatches = 0;
+        for (int id = 0; id < products; id++) {
+            long expected = START_QUANTITY;
+            for (long[] sum : sums) {
+                expected += sum[id];
+            }
+            mismatches += service.findProductById(id).getProductShelf().getCurrent() == expected ? 0 : 1;
+        }
+        System.out.printf("%d producers, %d shards, ring %d: %,.0f events/s accepted, %,d shelf updates (%.1f events each),"
+                        + " %,d dropped, %,d late, %,d rejected, %,d failed, %d mismatched shelves%n",
+                producers, shards, capacity, pipeline.getAcceptedCount() / elapsed, pipeline.getAppliedCount(),
+                (double) pipeline.getAcceptedCount() / Math.max(1, pipeline.getAppliedCount()),
+                pipeline.getDroppedCount(), pipeline.getLateCount(), pipeline.getRejectedCount(),
+                pipeline.getFailedCount(), mismatches);
+    }
+}
@@ -0,0 +1,157 @@
+import java.io.StringWriter;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how the chain-wide reports of a StoreCatalog scale with the number of stores: the expired
+ * products report, which every store answers from its expiry index, and the refill totals, which are
+ * merged pairwise across the stores. Every store has the same catalog size, so the work grows with the
+ * number of stores. Two catalogs with the same stores are built, one running its reports on a
+ * single-thread pool and one on a pool with a thread per CPU, so the speedup of the fan-out can be read
+ * off each step. The report caches are cleared before every call, so each call does the full work.
+ *
+ * Usage: java StoreCatalogScaling [products per store] [max stores] [calls per step]
+ * <pre>
+ *   java -Xmx4g -cp out/bench StoreCatalogScaling 20000 32 20
+ * </pre>
+ */
+class StoreCatalogScaling {
+    // Share of the products that have expired, in percent.
+    private static final int EXPIRED_PERCENT = 10;
+    // Share of the products whose shelves need a refill, in percent.
+    private static final int REFILL_PERCENT = 30;
+
+    /**
+     * Runs the reports with 1, 2, 4, ... up to max stores and prints the time per call of each step.
+     *
+     * @param args Optional number of products per store, maximum number of stores and calls per step.
+     */
+    public static void main(String[] args) {
+        int products = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int maxStores = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int calls = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int cpus = Runtime.getRuntime().availableProcessors();
+
+        ForkJoinPool serial = new ForkJoinPool(1);
+        ForkJoinPool parallel = new ForkJoinPool(cpus);
+        Clock clock = Clock.systemDefaultZone();
+        StoreCatalog serialCatalog = new StoreCatalog(new ReportWriter(new StringWriter()), clock, serial);
+        StoreCatalog parallelCatalog = new StoreCatalog(new ReportWriter(new StringWriter()), clock, parallel);
+        System.out.println(products + " products per store, " + cpus + " CPUs");
+        System.out.println("stores   expired 1 thread   expired " + cpus + " threads   refill 1 thread   refill " + cpus + " threads");
+
+        int stores = 0;
+        for (int step = 1; step <= maxStores; step *= 2) {
+            while (stores < step) {
+                fill(serialCatalog.openStore(stores), products, stores, LocalDate.now(clock));
+                fill(parallelCatalog.openStore(stores), products, stores, LocalDate.now(clock));
+                stores++;
+            }
+            LocalDate today = LocalDate.now(clock);
+            double[] expired = {
+                    timeExpired(serialCatalog, today, calls),
+                    timeExpired(parallelCatalog, today, calls)
+            };
+            double[] refill = {
+                    timeRefill(serialCatalog, calls),
+                    timeRefill(parallelCatalog, calls)
+            };
+            System.out.printf("%6d   %13.2f ms   %13.2f ms   %12.2f ms   %12.2f ms%n",
+                    stores, expired[0], expired[1], refill[0], refill[1]);
+        }
+        serial.shutdown();
+        parallel.shutdown();
+    }
+
+    /**
+     * Creates the products of one store: IDs shared by all stores, a tenth of them expired and some
+     * shelves below their maximum. The same store ID always gets the same products.
+     *
+     * @param service  The store's service.
+     * @param products The number of products.
+     * @param storeId  The store ID, which seeds the random dates and quantities.
+     * @param today    The current date.
+     */
+    private static void fill(ProductService service, int products, int storeId, LocalDate today) {
+        SplittableRandom random = new SplittableRandom(storeId);
+        for (int id = 0; id < products; id++) {
+            LocalDate expiry = random.nextInt(100) < EXPIRED_PERCENT
+                    ? today.minusDays(1 + random.nextInt(30))
+                    : today.plusDays(1 + random.nextInt(90));
+            service.addProduct(id, "Product " + id, expiry, expiry.minusDays(6), 0);
+            if (random.nextInt(100) < REFILL_PERCENT) {
+                service.applyStockMovement(id, -1 - random.nextInt((int) ProductShelf.DEFAULT_CURRENT));
+            }
+        }
+    }
+
+    /**
+     * Times the expired products report, after a warmup call.
+     *
+     * @param catalog The catalog.
+     * @param today   The current date.
+     * @param calls   The number of timed calls.
+     * @return The average time per call in milliseconds.
+     */
+    private static double timeExpired(StoreCatalog catalog, LocalDate today, int calls) {
+        long found = 0;
+        long nanos = 0;
+        for (int i = 0; i <= calls; i++) {
+            clearCaches(catalog);
+            long start = System.nanoTime();
+            SortedMap<Integer, List<Product>> expired = catalog.findExpiredProducts(today);
+            long elapsed = System.nanoTime() - start;
+            if (i > 0) {
+                nanos += elapsed;
+            }
+            for (List<Product> products : expired.values()) {
+                found += products.size();
+            }
+        }
+        if (found == 0) {
+            throw new IllegalStateException("No expired products were found.");
+        }
+        return nanos / 1e6 / calls;
+    }
+
+    /**
+     * Times the chain-wide refill totals, after a warmup call.
+     *
+     * @param catalog The catalog.
+     * @param calls   The number of timed calls.
+     * @return The average time per call in milliseconds.
+     */
+    private static double timeRefill(StoreCatalog catalog, int calls) {
+        long rows = 0;
+        long nanos = 0;
+        for (int i = 0; i <= calls; i++) {
+            clearCaches(catalog);
+            long start = System.nanoTime();
+            StoreCatalog.RefillTotals totals = catalog.totalRefillQuantities();
+            long elapsed = System.nanoTime() - start;
+            if (i > 0) {
+                nanos += elapsed;
+            }
+            rows += totals.size();
+        }
+        if (rows == 0) {
+            throw new IllegalStateException("No products to refill were found.");
+        }
+        return nanos / 1e6 / calls;
+    }
+
+    /**
+     * Clears the report cache of every store, so the next report does the full work.
+     *
+     * @param catalog The catalog.
+     */
+    private static void clearCaches(StoreCatalog catalog) {
+        for (int storeId : catalog.getStoreIds()) {
+            catalog.getStore(storeId).getReportCache().clear();
+        }
+    }
+}
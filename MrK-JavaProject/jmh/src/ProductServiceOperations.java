@@ -0,0 +1,108 @@
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Builds a synthetic catalog and the ProductService operations that the JMH benchmarks in mrk.jmh measure,
+ * the same ones ProductServiceBench runs on the hand-rolled harness.
+ *
+ * JMH does not accept benchmarks in the unnamed package, and a class in a named package cannot refer to the
+ * classes of this project, so the benchmarks load this class by name and call the operations through the
+ * java.util.function types it returns. Each operation takes an invocation number and returns a value derived
+ * from its result, for the benchmark to return to JMH.
+ */
+public class ProductServiceOperations implements IntFunction<Map<String, LongUnaryOperator>> {
+    // Number of products per batch when a catalog is generated.
+    private static final int LOAD_BATCH = 10_000;
+    // Number of distinct expiry days in a generated catalog, starting a month before today.
+    private static final int EXPIRY_DAYS = 120;
+
+    /**
+     * Generates a catalog and builds the operations over it.
+     *
+     * @param catalog The number of products in the catalog.
+     * @return The operations by name.
+     */
+    @Override
+    public Map<String, LongUnaryOperator> apply(int catalog) {
+        Database database = new Database();
+        ProductService service = new ProductService(database, new ReportWriter(Writer.nullWriter()));
+        ProductShelf[] shelves = load(service, catalog);
+        LocalDate today = LocalDate.now(service.getClock());
+        ReportCache cache = service.getReportCache();
+        // The columnar copy is not handed to the service, so the display reports keep reading the indexes.
+        ColumnarProductTable table = new ColumnarProductTable();
+        table.addAll(database.getProducts());
+        service.useNameIndex(new ProductNameIndex());
+        PricingEngine pricing = new PricingEngine(database, MarkdownPolicy.parse("6:20,3:40,1:60"), service.getClock());
+        LocalDate expiry = today.plusMonths(3);
+        LocalDate markdown = expiry.minusDays(6);
+
+        Map<String, LongUnaryOperator> operations = new HashMap<>();
+        operations.put("findProductById", i -> service.findProductById(spread(i, catalog)).getId());
+        operations.put("quantityToRefill", i -> ProductShelfService.quantityToRefill(shelves[spread(i, catalog)]));
+        operations.put("findExpiredProducts", i -> service.findExpiredProducts(today).size());
+        operations.put("findExpiredProducts.uncached", i -> {
+            cache.clear();
+            return service.findExpiredProducts(today).size();
+        });
+        operations.put("findProductsInMarkDown", i -> service.findProductsInMarkDown(today).size());
+        operations.put("findProductsInMarkDown.uncached", i -> {
+            cache.clear();
+            return service.findProductsInMarkDown(today).size();
+        });
+        operations.put("findPage.expired", i -> service.findPage(ProductQuery.expired(today), null, 50).getProducts().size());
+        operations.put("displayExpiredProducts", i -> {
+            service.displayExpiredProducts();
+            return 0;
+        });
+        operations.put("columnar.selectExpired", i -> table.selectExpired(today).length);
+        operations.put("columnar.totalQuantityToRefill", i -> table.totalQuantityToRefill());
+        operations.put("findProductsByName.prefix", i -> service.findProductsByName("Product " + spread(i, catalog), 10).size());
+        operations.put("findProductsByName.fuzzy", i -> service.findProductsByName("Prodcut " + spread(i, catalog), 10).size());
+        operations.put("repriceAll", i -> pricing.repriceAll(today.plusDays(i % 7)));
+        operations.put("createProduct", i -> service.createProduct(catalog + (int) i, "Benchmark product", expiry, markdown) ? 1 : 0);
+        return operations;
+    }
+
+    /**
+     * Fills a service with products whose expiry dates are spread over EXPIRY_DAYS days around today
+     * and whose shelves hold varying quantities, so every report has matches.
+     *
+     * @param service The service to fill.
+     * @param catalog The number of products to create.
+     * @return The shelves of the products, indexed by product ID.
+     */
+    private static ProductShelf[] load(ProductService service, int catalog) {
+        ProductShelf[] shelves = new ProductShelf[catalog];
+        LocalDate first = LocalDate.now(service.getClock()).minusDays(30);
+        List<Product> batch = new ArrayList<>(LOAD_BATCH);
+        for (int id = 0; id < catalog; id++) {
+            LocalDate expiry = first.plusDays(id % EXPIRY_DAYS);
+            shelves[id] = new ProductShelf(5, 10, id % 11, ProductShelf.DEFAULT_SCALE);
+            batch.add(new Product(id, "Product " + id, expiry, expiry.minusDays(6), shelves[id], 100 + id % 1000));
+            if (batch.size() == LOAD_BATCH || id == catalog - 1) {
+                service.createProducts(batch);
+                batch.clear();
+            }
+        }
+        return shelves;
+    }
+
+    /**
+     * Maps an invocation number to a product ID that jumps around the catalog,
+     * so lookups are not served by a few hot cache lines.
+     *
+     * @param invocation The invocation number.
+     * @param catalog    The number of products in the catalog.
+     * @return A product ID from 0 to catalog - 1.
+     */
+    private static int spread(long invocation, int catalog) {
+        return (int) Math.floorMod(invocation * 0x9E3779B97F4A7C15L, (long) catalog);
+    }
+}
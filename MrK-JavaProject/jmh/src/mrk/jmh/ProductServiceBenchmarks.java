@@ -0,0 +1,232 @@
+package mrk.jmh;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.LongUnaryOperator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the ProductService hot paths over generated catalogs: lookup by ID, the refill
+ * calculation, the expiry and markdown reports with and without the report cache, the first page of a
+ * paged query, the columnar scans, name searches, the markdown repricing and product creation.
+ *
+ * Run with the GC profiler, which adds the bytes allocated per operation:
+ * <pre>
+ *   gradle :jmh:jmh -PjmhArgs='-p catalog=10000,1000000'
+ * </pre>
+ * Every benchmark runs in its own JVM fork, so the catalog is generated again for each, and createProduct
+ * grows only the catalog of its own fork.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ProductServiceBenchmarks {
+    // Name of the class in the unnamed package that builds the catalog and its operations.
+    private static final String OPERATIONS_CLASS = "ProductServiceOperations";
+
+    // Number of products in the generated catalog.
+    @Param({"10000", "1000000"})
+    public int catalog;
+
+    // Number of the next invocation, which picks the product an operation reads.
+    private long invocation;
+
+    // Operations built by ProductServiceOperations, one per benchmark.
+    private LongUnaryOperator findProductById;
+    private LongUnaryOperator quantityToRefill;
+    private LongUnaryOperator findExpiredProducts;
+    private LongUnaryOperator findExpiredProductsUncached;
+    private LongUnaryOperator findProductsInMarkDown;
+    private LongUnaryOperator findProductsInMarkDownUncached;
+    private LongUnaryOperator findPageExpired;
+    private LongUnaryOperator displayExpiredProducts;
+    private LongUnaryOperator columnarSelectExpired;
+    private LongUnaryOperator columnarTotalQuantityToRefill;
+    private LongUnaryOperator findProductsByNamePrefix;
+    private LongUnaryOperator findProductsByNameFuzzy;
+    private LongUnaryOperator repriceAll;
+    private LongUnaryOperator createProduct;
+
+    /**
+     * Generates the catalog and looks up the operations.
+     *
+     * @throws ReflectiveOperationException if the operations class cannot be loaded.
+     */
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void load() throws ReflectiveOperationException {
+        IntFunction<Map<String, LongUnaryOperator>> factory = (IntFunction<Map<String, LongUnaryOperator>>)
+                Class.forName(OPERATIONS_CLASS).getConstructor().newInstance();
+        Map<String, LongUnaryOperator> operations = factory.apply(this.catalog);
+        this.findProductById = operations.get("findProductById");
+        this.quantityToRefill = operations.get("quantityToRefill");
+        this.findExpiredProducts = operations.get("findExpiredProducts");
+        this.findExpiredProductsUncached = operations.get("findExpiredProducts.uncached");
+        this.findProductsInMarkDown = operations.get("findProductsInMarkDown");
+        this.findProductsInMarkDownUncached = operations.get("findProductsInMarkDown.uncached");
+        this.findPageExpired = operations.get("findPage.expired");
+        this.displayExpiredProducts = operations.get("displayExpiredProducts");
+        this.columnarSelectExpired = operations.get("columnar.selectExpired");
+        this.columnarTotalQuantityToRefill = operations.get("columnar.totalQuantityToRefill");
+        this.findProductsByNamePrefix = operations.get("findProductsByName.prefix");
+        this.findProductsByNameFuzzy = operations.get("findProductsByName.fuzzy");
+        this.repriceAll = operations.get("repriceAll");
+        this.createProduct = operations.get("createProduct");
+    }
+
+    /**
+     * Looks up a product by ID.
+     *
+     * @return The product ID.
+     */
+    @Benchmark
+    public long findProductById() {
+        return this.findProductById.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Calculates the refill quantity of a shelf.
+     *
+     * @return The quantity to refill.
+     */
+    @Benchmark
+    public long quantityToRefill() {
+        return this.quantityToRefill.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Finds the expired products, served by the report cache after the first call.
+     *
+     * @return The number of products found.
+     */
+    @Benchmark
+    public long findExpiredProducts() {
+        return this.findExpiredProducts.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Finds the expired products after clearing the report cache.
+     *
+     * @return The number of products found.
+     */
+    @Benchmark
+    public long findExpiredProductsUncached() {
+        return this.findExpiredProductsUncached.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Finds the products in their markdown period, served by the report cache after the first call.
+     *
+     * @return The number of products found.
+     */
+    @Benchmark
+    public long findProductsInMarkDown() {
+        return this.findProductsInMarkDown.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Finds the products in their markdown period after clearing the report cache.
+     *
+     * @return The number of products found.
+     */
+    @Benchmark
+    public long findProductsInMarkDownUncached() {
+        return this.findProductsInMarkDownUncached.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Reads the first page of the expired products through a query.
+     *
+     * @return The number of products on the page.
+     */
+    @Benchmark
+    public long findPageExpired() {
+        return this.findPageExpired.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Formats the expired products report to a discarding writer.
+     *
+     * @return Zero.
+     */
+    @Benchmark
+    public long displayExpiredProducts() {
+        return this.displayExpiredProducts.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Selects the expired rows of the columnar table.
+     *
+     * @return The number of rows selected.
+     */
+    @Benchmark
+    public long columnarSelectExpired() {
+        return this.columnarSelectExpired.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Adds up the refill quantities in the columnar table.
+     *
+     * @return The total quantity to refill.
+     */
+    @Benchmark
+    public long columnarTotalQuantityToRefill() {
+        return this.columnarTotalQuantityToRefill.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Searches products by the start of a name.
+     *
+     * @return The number of products found.
+     */
+    @Benchmark
+    public long findProductsByNamePrefix() {
+        return this.findProductsByNamePrefix.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Searches products by a misspelt name.
+     *
+     * @return The number of products found.
+     */
+    @Benchmark
+    public long findProductsByNameFuzzy() {
+        return this.findProductsByNameFuzzy.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Reprices the markdown products for one of the next seven days.
+     *
+     * @return The number of products repriced.
+     */
+    @Benchmark
+    public long repriceAll() {
+        return this.repriceAll.applyAsLong(this.invocation++);
+    }
+
+    /**
+     * Creates a product with a new ID.
+     *
+     * @return 1 if the product was created.
+     */
+    @Benchmark
+    public long createProduct() {
+        return this.createProduct.applyAsLong(this.invocation++);
+    }
+}
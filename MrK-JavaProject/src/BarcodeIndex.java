@@ -0,0 +1,189 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A hash map from GTIN barcodes to products, for the scan-to-product lookup at the till.
+ *
+ * Barcodes are primitive long keys in an open-addressing table with linear probing. The keys are kept
+ * in their own long array, so a probe reads consecutive keys from one or two cache lines and only loads
+ * the product of the slot that matches; a lookup allocates nothing. The table is kept at most half full,
+ * which keeps probe runs short at millions of codes.
+ *
+ * Like IntProductMap, the map supports one writer at a time and any number of concurrent readers without
+ * locks. Callers must serialize put and remove themselves; get may run in parallel with them. A slot is
+ * filled by writing its product before its key, so a reader that finds the key also finds the product. A
+ * removed barcode keeps its key as a tombstone with no product, and the writer builds and publishes a new
+ * table without tombstones when the table fills up.
+ */
+class BarcodeIndex {
+    // Initial number of slots. Must be a power of two.
+    private static final int INITIAL_CAPACITY = 64;
+    // Key of an empty slot. Zero is not a valid GTIN.
+    private static final long EMPTY = 0;
+    // Gives release/acquire access to the keys.
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    // Gives release/acquire access to the products.
+    private static final VarHandle PRODUCTS = MethodHandles.arrayElementVarHandle(Product[].class);
+
+    /**
+     * One generation of the table. Replaced as a whole when it fills up.
+     */
+    private static final class Table {
+        // Barcode of each slot, or EMPTY.
+        final long[] keys;
+        // Product of each slot, or null for an empty slot or a tombstone.
+        final Product[] products;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.products = new Product[capacity];
+        }
+    }
+
+    // Current table.
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    // Number of barcodes stored.
+    private volatile int size;
+    // Number of slots holding a key, including tombstones. Only used by the writer.
+    private int filled;
+
+    /**
+     * Returns the product a barcode belongs to. May be called concurrently with a writer, and allocates nothing.
+     *
+     * @param gtin The barcode.
+     * @return The product, or null if the barcode is not stored.
+     */
+    public Product get(long gtin) {
+        Table t = this.table;
+        long[] keys = t.keys;
+        int mask = keys.length - 1;
+        int slot = hash(gtin) & mask;
+        long key;
+        while ((key = (long) KEYS.getAcquire(keys, slot)) != EMPTY) {
+            if (key == gtin) {
+                return (Product) PRODUCTS.getAcquire(t.products, slot);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Stores the product a barcode belongs to, replacing any product it belonged to before.
+     * Must not run concurrently with other writes.
+     *
+     * @param gtin    The barcode, which must not be zero.
+     * @param product The product.
+     * @return The product the barcode belonged to before, or null if it was not stored.
+     */
+    public Product put(long gtin, Product product) {
+        Table t = this.table;
+        int slot = findSlot(t, gtin);
+        if (t.keys[slot] == gtin) {
+            Product previous = t.products[slot];
+            PRODUCTS.setRelease(t.products, slot, product);
+            if (previous == null) {
+                this.size++;
+            }
+            return previous;
+        }
+        if (this.filled + 1 > t.keys.length / 2) {
+            t = rebuild(t);
+            slot = findSlot(t, gtin);
+        }
+        PRODUCTS.setRelease(t.products, slot, product);
+        KEYS.setRelease(t.keys, slot, gtin); // Published last, so a reader that finds it sees the product.
+        this.filled++;
+        this.size++;
+        return null;
+    }
+
+    /**
+     * Removes a barcode, leaving a tombstone that is cleaned up when the table is rebuilt.
+     * Must not run concurrently with other writes.
+     *
+     * @param gtin The barcode.
+     * @return The product the barcode belonged to, or null if it was not stored.
+     */
+    public Product remove(long gtin) {
+        Table t = this.table;
+        int slot = findSlot(t, gtin);
+        Product removed = t.keys[slot] == gtin ? t.products[slot] : null;
+        if (removed != null) {
+            PRODUCTS.setRelease(t.products, slot, null);
+            this.size--;
+        }
+        return removed;
+    }
+
+    /**
+     * Gets the number of barcodes stored.
+     *
+     * @return The number of barcodes.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the number of slots of the current table, for estimating its footprint.
+     *
+     * @return The capacity.
+     */
+    public int capacity() {
+        return this.table.keys.length;
+    }
+
+    /**
+     * Finds the slot of a barcode: the slot holding it, or the empty slot where it would be inserted.
+     *
+     * @param t    The table to search.
+     * @param gtin The barcode.
+     * @return The slot index.
+     */
+    private static int findSlot(Table t, long gtin) {
+        int mask = t.keys.length - 1;
+        int slot = hash(gtin) & mask;
+        while (t.keys[slot] != EMPTY && t.keys[slot] != gtin) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Builds a new table without tombstones, doubling its capacity when more than a quarter of the
+     * slots hold live barcodes, and publishes it to readers.
+     *
+     * @param old The full table.
+     * @return The new table.
+     */
+    private Table rebuild(Table old) {
+        int capacity = this.size + 1 > old.keys.length / 4 ? old.keys.length * 2 : old.keys.length;
+        Table t = new Table(capacity);
+        int count = 0;
+        for (int i = 0; i < old.keys.length; i++) {
+            Product product = old.products[i];
+            if (product != null) {
+                int slot = findSlot(t, old.keys[i]);
+                t.keys[slot] = old.keys[i];
+                t.products[slot] = product;
+                count++;
+            }
+        }
+        this.filled = count;
+        this.table = t;
+        return t;
+    }
+
+    /**
+     * Spreads the bits of a barcode over the slot index. Barcodes of one manufacturer share their leading
+     * digits and differ in the last few, so the low bits alone would cluster.
+     *
+     * @param gtin The barcode.
+     * @return The mixed hash code.
+     */
+    private static int hash(long gtin) {
+        long h = gtin * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,641 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a script of commands against a ProductService without the interactive menu, for scripted jobs
+ * and for replaying a day of store activity. Each line holds one command and its arguments, separated by
+ * spaces or tabs; an argument containing spaces is enclosed in double quotes, and a doubled quote stands
+ * for one quote character. Blank lines and lines starting with '#' are skipped.
+ * <pre>
+ *   create id name [expiry date] [markdown days] [base price]   e.g. create 7 "Whole Milk" 05/31/2026 3 1.99
+ *   move id quantity                                            e.g. move 7 -2, move 7 +24
+ *   scan barcode [quantity]    a sale at a till, by default of 1   e.g. scan 4006381333931
+ *   barcode id barcode...      assigns 8 to 14 digit GTINs         e.g. barcode 7 4006381333931
+ *   show [id]        count [id]        refill [id]        expiry
+ *   expired          markdown          upcoming           search text
+ *   report           (end-of-day report: expired, markdown and refill from one snapshot)
+ * </pre>
+ * Optional create arguments can be given as "-" to keep their defaults, which are the same as in the menu.
+ *
+ * Lines are split by a tokenizer that reads the input in large blocks and scans each line once, without
+ * regular expressions or a String per token; IDs are parsed straight from the characters. Mutations are
+ * batched: a run of consecutive creates is added through ProductService.createProducts and a run of
+ * consecutive moves and scans through ProductService.applyStockMovements, so listeners and the write-ahead
+ * log see one batch instead of one change at a time. The moves of a batch are applied one by one in line
+ * order, exactly as if each line were run on its own, so a script means the same wherever its other
+ * commands fall. A pending batch is applied before the next command of another kind, so every report sees
+ * the changes of the lines before it. Reports go to the service's ReportWriter, which should be one that
+ * holds flushes back until the end of the run.
+ */
+class BatchCommandRunner {
+    // Largest number of creates or moves applied together.
+    private static final int BATCH_SIZE = 10_000;
+    // Number of products listed by a search.
+    private static final int SEARCH_RESULTS = 20;
+
+    // Service the commands are run against.
+    private final ProductService service;
+    // Writer the service writes its reports to, also used for the runner's own messages.
+    private final ReportWriter report;
+
+    // Products of the run of creates not applied yet.
+    private final List<Product> pendingCreates = new ArrayList<>();
+    // Line numbers of the pending creates, for reporting duplicates.
+    private final List<Integer> pendingCreateLines = new ArrayList<>();
+    // Product IDs, deltas and line numbers of the run of moves not applied yet, in line order.
+    private final int[] moveIds = new int[BATCH_SIZE];
+    private final long[] moveDeltas = new long[BATCH_SIZE];
+    private final int[] moveLines = new int[BATCH_SIZE];
+    // Why each move of the last applied batch was rejected, or null where it was applied.
+    private final String[] moveRejections = new String[BATCH_SIZE];
+    // Number of pending moves.
+    private int moveCount;
+
+    // Number of commands run.
+    private long commands;
+    // Number of products created.
+    private long created;
+    // Number of stock movements applied.
+    private long moved;
+    // Number of commands or movements rejected.
+    private long errors;
+
+    /**
+     * Constructs a BatchCommandRunner.
+     *
+     * @param service The service to run the commands against.
+     * @param report  The writer the service writes its reports to.
+     */
+    public BatchCommandRunner(ProductService service, ReportWriter report) {
+        this.service = service;
+        this.report = report;
+    }
+
+    /**
+     * Runs every command of a script, then applies the last pending batch, writes a summary and flushes
+     * the report. A malformed or rejected command is reported with its line number and does not stop the run.
+     *
+     * @param in The script.
+     * @return The number of commands and movements that were rejected.
+     * @throws IOException if the script cannot be read.
+     */
+    public long run(Reader in) throws IOException {
+        long start = System.nanoTime();
+        Tokenizer tokens = new Tokenizer(in);
+        while (tokens.nextLine()) {
+            this.commands++;
+            try {
+                runCommand(tokens);
+            } catch (IllegalArgumentException | ArithmeticException | DateTimeException | IllegalStateException e) {
+                error(tokens.getLineNumber(), e.getMessage());
+            }
+        }
+        try {
+            applyCreates();
+            applyMoves();
+        } catch (IllegalStateException e) {
+            error(tokens.getLineNumber(), e.getMessage());
+        }
+        synchronized (this.report) {
+            this.report.append("Ran ").append(this.commands).append(" commands in ")
+                    .append((System.nanoTime() - start) / 1_000_000).append(" ms: ")
+                    .append(this.created).append(" products created, ")
+                    .append(this.moved).append(" stock movements applied, ")
+                    .append(this.errors).append(" errors.").endLine();
+            this.report.flushBatch();
+        }
+        return this.errors;
+    }
+
+    /**
+     * Runs the command on the tokenizer's current line, first applying the pending batch of the other kind.
+     *
+     * @param tokens The tokenizer positioned on the command.
+     * @throws IllegalArgumentException if the command or its arguments are invalid.
+     */
+    private void runCommand(Tokenizer tokens) {
+        tokens.checkQuotes();
+        boolean create = tokens.is(0, "create");
+        boolean move = tokens.is(0, "move") || tokens.is(0, "scan");
+        if (!create) {
+            applyCreates();
+        }
+        if (!move) {
+            applyMoves();
+        }
+        if (create) {
+            addCreate(tokens);
+        } else if (tokens.is(0, "move")) {
+            addMove(tokens);
+        } else if (move) {
+            addScan(tokens);
+        } else if (tokens.is(0, "barcode")) {
+            expectArguments(tokens, 3, Integer.MAX_VALUE);
+            int id = tokens.intAt(1);
+            for (int i = 2; i < tokens.count(); i++) {
+                if (!this.service.addBarcode(id, tokens.gtinAt(i))) {
+                    this.errors++;
+                }
+            }
+        } else if (tokens.is(0, "show")) {
+            if (tokens.count() > 1) {
+                this.service.displayProduct(tokens.intAt(1));
+            } else {
+                this.service.displayAllProducts();
+            }
+        } else if (tokens.is(0, "count")) {
+            this.service.displayProductCount(tokens.count() > 1 ? tokens.intAt(1) : null);
+        } else if (tokens.is(0, "refill")) {
+            this.service.displayProductToRefill(tokens.count() > 1 ? tokens.intAt(1) : null);
+        } else if (tokens.is(0, "expiry")) {
+            this.service.displayProductsExpiryDate();
+        } else if (tokens.is(0, "expired")) {
+            this.service.displayExpiredProducts();
+        } else if (tokens.is(0, "markdown")) {
+            this.service.displayProductsInMarkDown();
+        } else if (tokens.is(0, "upcoming")) {
+            this.service.displayProductsForMarkDown();
+        } else if (tokens.is(0, "report")) {
+            this.service.displayEndOfDayReport();
+        } else if (tokens.is(0, "search")) {
+            expectArguments(tokens, 2, 2);
+            this.service.displayProductsByName(tokens.text(1), SEARCH_RESULTS);
+        } else {
+            throw new IllegalArgumentException("Unknown command \"" + tokens.text(0) + "\".");
+        }
+    }
+
+    /**
+     * Parses a create command and adds the product to the pending batch.
+     *
+     * @param tokens The tokenizer positioned on the command.
+     * @throws IllegalArgumentException if an argument is missing or invalid.
+     */
+    private void addCreate(Tokenizer tokens) {
+        expectArguments(tokens, 3, 6);
+        int id = tokens.intAt(1);
+        String name = tokens.text(2);
+        if (!Product.isValidName(name)) {
+            throw new IllegalArgumentException("Product Name must be between 1 and " + Product.MAX_NAME_BYTES + " bytes long.");
+        }
+        LocalDate expiryDate = tokens.isDefault(3) ? this.service.today().plusMonths(3) : tokens.dateAt(3);
+        LocalDate markdownDate = expiryDate.minusDays(tokens.isDefault(4) ? 6 : tokens.intAt(4));
+        long basePrice = tokens.isDefault(5) ? 0 : Quantities.parse(tokens.text(5), Product.PRICE_SCALE);
+        this.pendingCreates.add(new Product(id, name, expiryDate, markdownDate, new ProductShelf(), basePrice));
+        this.pendingCreateLines.add(tokens.getLineNumber());
+        if (this.pendingCreates.size() >= BATCH_SIZE) {
+            applyCreates();
+        }
+    }
+
+    /**
+     * Parses a move command and adds it to the pending batch. The quantity is signed, and read at the scale
+     * of the product's shelf.
+     *
+     * @param tokens The tokenizer positioned on the command.
+     * @throws IllegalArgumentException if an argument is missing or invalid, or the product does not exist.
+     */
+    private void addMove(Tokenizer tokens) {
+        expectArguments(tokens, 3, 3);
+        int id = tokens.intAt(1);
+        Product product = this.service.findProductById(id);
+        if (product == null) {
+            throw new IllegalArgumentException("Product with ID " + id + " not found.");
+        }
+        addMovement(tokens.getLineNumber(), id, tokens.quantityAt(2, product.getProductShelf().getScale()));
+    }
+
+    /**
+     * Parses a scan command, looks up the product by its barcode and adds the sale to the pending batch.
+     *
+     * @param tokens The tokenizer positioned on the command.
+     * @throws IllegalArgumentException if the barcode is invalid or unknown, or the quantity is invalid.
+     */
+    private void addScan(Tokenizer tokens) {
+        expectArguments(tokens, 2, 3);
+        long gtin = tokens.gtinAt(1);
+        Product product = this.service.findProductByBarcode(gtin);
+        if (product == null) {
+            throw new IllegalArgumentException("No product has barcode " + Gtin.format(gtin) + ".");
+        }
+        int scale = product.getProductShelf().getScale();
+        long quantity = tokens.count() > 2 ? tokens.quantityAt(2, scale) : Quantities.fromWhole(1, scale);
+        addMovement(tokens.getLineNumber(), product.getId(), -quantity);
+    }
+
+    /**
+     * Adds a stock movement to the pending batch, applying the batch first if it is full.
+     *
+     * @param lineNumber The line of the command.
+     * @param id         The product ID.
+     * @param delta      The change in quantity, in the shelf's 10^-scale units.
+     */
+    private void addMovement(int lineNumber, int id, long delta) {
+        if (this.moveCount == BATCH_SIZE) {
+            applyMoves();
+        }
+        this.moveIds[this.moveCount] = id;
+        this.moveDeltas[this.moveCount] = delta;
+        this.moveLines[this.moveCount] = lineNumber;
+        this.moveCount++;
+    }
+
+    /**
+     * Adds the pending products through the service and reports those whose ID was already in use.
+     * The batch is dropped even if the service refuses it, so a read-only service fails it only once.
+     *
+     * @throws IllegalStateException if the service is read-only.
+     */
+    private void applyCreates() {
+        if (this.pendingCreates.isEmpty()) {
+            return;
+        }
+        try {
+            List<Product> duplicates = this.service.createProducts(this.pendingCreates);
+            this.created += this.pendingCreates.size() - duplicates.size();
+            // Duplicates keep their order, so their line numbers can be found with a single forward pass.
+            int next = 0;
+            for (int i = 0; i < this.pendingCreates.size() && next < duplicates.size(); i++) {
+                if (this.pendingCreates.get(i) == duplicates.get(next)) {
+                    error(this.pendingCreateLines.get(i), "Product ID " + duplicates.get(next).getId() + " already exists.");
+                    next++;
+                }
+            }
+        } finally {
+            this.pendingCreates.clear();
+            this.pendingCreateLines.clear();
+        }
+    }
+
+    /**
+     * Applies the pending moves through the service as one batch, in line order, and reports each move a
+     * shelf cannot take with its line number. The batch is dropped even if the service refuses it, so a
+     * read-only service fails it only once.
+     *
+     * @throws IllegalStateException if the service is read-only.
+     */
+    private void applyMoves() {
+        if (this.moveCount == 0) {
+            return;
+        }
+        int count = this.moveCount;
+        this.moveCount = 0;
+        this.moved += this.service.applyStockMovements(this.moveIds, this.moveDeltas, count, this.moveRejections);
+        for (int i = 0; i < count; i++) {
+            if (this.moveRejections[i] != null) {
+                error(this.moveLines[i], this.moveRejections[i]);
+            }
+        }
+    }
+
+    /**
+     * Checks the number of tokens of a command, including the command itself.
+     *
+     * @param tokens The tokenizer positioned on the command.
+     * @param min    The least number of tokens.
+     * @param max    The largest number of tokens.
+     * @throws IllegalArgumentException if the command has too few or too many.
+     */
+    private static void expectArguments(Tokenizer tokens, int min, int max) {
+        if (tokens.count() < min || tokens.count() > max) {
+            throw new IllegalArgumentException("\"" + tokens.text(0) + "\" takes " + (min == max ? "" : "from " + (min - 1) + " to ")
+                    + (max - 1) + " arguments but was given " + (tokens.count() - 1) + ".");
+        }
+    }
+
+    /**
+     * Reports a rejected command.
+     *
+     * @param lineNumber The line of the command.
+     * @param message    What went wrong.
+     */
+    private void error(int lineNumber, String message) {
+        this.errors++;
+        synchronized (this.report) {
+            this.report.append("Line ").append(lineNumber).append(": ").append(message).endLine();
+            this.report.flush();
+        }
+    }
+
+    /**
+     * Splits a script into lines and the lines into tokens. The input is read in blocks into one buffer
+     * and each line is copied into a reused line buffer, where the tokens are recorded as ranges and
+     * unquoted in place, so only the tokens asked for as text become Strings.
+     */
+    static final class Tokenizer {
+        // Number of characters read from the input at a time.
+        private static final int BLOCK_SIZE = 64 * 1024;
+
+        // Script being read.
+        private final Reader in;
+        // Characters read from the input but not scanned yet.
+        private final char[] block = new char[BLOCK_SIZE];
+        private int blockPosition;
+        private int blockLimit;
+        // Characters of the current line, unquoted in place. Grown as needed.
+        private char[] line = new char[256];
+        // Start and end offsets in the line of each token.
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        // Number of tokens on the current line.
+        private int count;
+        // Whether the last token of the current line opened a quote that the line does not close.
+        private boolean quoteOpen;
+        // Number of the current line, starting at 1.
+        private int lineNumber;
+
+        /**
+         * Constructs a Tokenizer.
+         *
+         * @param in The script to read.
+         */
+        Tokenizer(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Moves to the next line that holds a command, skipping blank lines and comments.
+         *
+         * @return true if there is one; false at the end of the input.
+         * @throws IOException if the input cannot be read.
+         */
+        boolean nextLine() throws IOException {
+            int length;
+            do {
+                length = readLine();
+                if (length < 0) {
+                    return false;
+                }
+                split(length);
+            } while (this.count == 0 || (this.line[this.starts[0]] == '#' && this.ends[0] > this.starts[0]));
+            return true;
+        }
+
+        /**
+         * Gets the number of the current line.
+         *
+         * @return The line number, starting at 1.
+         */
+        int getLineNumber() {
+            return this.lineNumber;
+        }
+
+        /**
+         * Checks that every quote on the current line is closed.
+         *
+         * @throws IllegalArgumentException if the last quoted argument is not closed.
+         */
+        void checkQuotes() {
+            if (this.quoteOpen) {
+                throw new IllegalArgumentException("Quoted argument is not closed.");
+            }
+        }
+
+        /**
+         * Gets the number of tokens on the current line.
+         *
+         * @return The token count, including the command.
+         */
+        int count() {
+            return this.count;
+        }
+
+        /**
+         * Checks whether a token equals a word, without creating a String.
+         *
+         * @param index The index of the token.
+         * @param word  The word.
+         * @return true if the token exists and equals the word.
+         */
+        boolean is(int index, String word) {
+            if (index >= this.count || this.ends[index] - this.starts[index] != word.length()) {
+                return false;
+            }
+            for (int i = 0, j = this.starts[index]; i < word.length(); i++, j++) {
+                if (this.line[j] != word.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether an optional argument was left out or given as "-".
+         *
+         * @param index The index of the token.
+         * @return true if the default should be used.
+         */
+        boolean isDefault(int index) {
+            return index >= this.count || is(index, "-");
+        }
+
+        /**
+         * Gets a token as text.
+         *
+         * @param index The index of the token.
+         * @return The token.
+         */
+        String text(int index) {
+            return new String(this.line, this.starts[index], this.ends[index] - this.starts[index]);
+        }
+
+        /**
+         * Parses a token as an int, straight from the line.
+         *
+         * @param index The index of the token.
+         * @return The number.
+         * @throws NumberFormatException if the token is not an int.
+         */
+        int intAt(int index) {
+            int start = this.starts[index];
+            int end = this.ends[index];
+            boolean negative = start < end && this.line[start] == '-';
+            int i = negative || (start < end && this.line[start] == '+') ? start + 1 : start;
+            if (i == end || end - i > 10) {
+                throw new NumberFormatException("Expected a whole number but found \"" + text(index) + "\".");
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                char c = this.line[i];
+                if (c < '0' || c > '9') {
+                    throw new NumberFormatException("Expected a whole number but found \"" + text(index) + "\".");
+                }
+                value = value * 10 + (c - '0');
+            }
+            value = negative ? -value : value;
+            if (value != (int) value) {
+                throw new NumberFormatException("Number out of range: " + text(index));
+            }
+            return (int) value;
+        }
+
+        /**
+         * Parses a token as a GTIN barcode and checks its check digit.
+         *
+         * @param index The index of the token.
+         * @return The GTIN.
+         * @throws IllegalArgumentException if the token is not a valid barcode.
+         */
+        long gtinAt(int index) {
+            long gtin = Gtin.parse(CharBuffer.wrap(this.line), this.starts[index], this.ends[index]);
+            if (gtin == Gtin.INVALID) {
+                throw new IllegalArgumentException("\"" + text(index) + "\" is not a valid 8, 12, 13 or 14 digit barcode.");
+            }
+            return gtin;
+        }
+
+        /**
+         * Parses a token as a signed decimal quantity, such as "-2" or "+1.5".
+         *
+         * @param index The index of the token.
+         * @param scale The number of decimal places of the units.
+         * @return The quantity in 10^-scale units.
+         * @throws NumberFormatException if the token is not a valid quantity for the scale.
+         * @throws ArithmeticException if the quantity does not fit in a long.
+         */
+        long quantityAt(int index, int scale) {
+            int start = this.starts[index];
+            int end = this.ends[index];
+            boolean negative = start < end && this.line[start] == '-';
+            int from = negative || (start < end && this.line[start] == '+') ? start + 1 : start;
+            long units = Quantities.parse(CharBuffer.wrap(this.line, from, end - from), scale);
+            return negative ? -units : units;
+        }
+
+        /**
+         * Parses a token as a date in the MM/dd/yyyy format, straight from the line.
+         *
+         * @param index The index of the token.
+         * @return The date.
+         * @throws IllegalArgumentException if the token is not in the format.
+         * @throws DateTimeException if the token names a day that does not exist.
+         */
+        LocalDate dateAt(int index) {
+            int start = this.starts[index];
+            if (this.ends[index] - start != 10 || this.line[start + 2] != '/' || this.line[start + 5] != '/') {
+                throw new IllegalArgumentException("Invalid date \"" + text(index) + "\". Dates use the MM/dd/yyyy format.");
+            }
+            int month = digits(index, start, 2);
+            int day = digits(index, start + 3, 2);
+            int year = digits(index, start + 6, 4);
+            return LocalDate.of(year, month, day);
+        }
+
+        /**
+         * Parses a fixed number of digits of a date token.
+         *
+         * @param index The index of the token.
+         * @param from  The offset of the first digit in the line.
+         * @param length The number of digits.
+         * @return The number.
+         * @throws IllegalArgumentException if a character is not a digit.
+         */
+        private int digits(int index, int from, int length) {
+            int value = 0;
+            for (int i = from; i < from + length; i++) {
+                char c = this.line[i];
+                if (c < '0' || c > '9') {
+                    throw new IllegalArgumentException("Invalid date \"" + text(index) + "\". Dates use the MM/dd/yyyy format.");
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+
+        /**
+         * Copies the next line of the input into the line buffer, without its line terminator.
+         *
+         * @return The length of the line, or -1 at the end of the input.
+         * @throws IOException if the input cannot be read.
+         */
+        private int readLine() throws IOException {
+            int length = 0;
+            while (true) {
+                if (this.blockPosition == this.blockLimit) {
+                    this.blockLimit = this.in.read(this.block);
+                    this.blockPosition = 0;
+                    if (this.blockLimit <= 0) {
+                        this.blockLimit = 0;
+                        if (length == 0) {
+                            return -1;
+                        }
+                        break;
+                    }
+                }
+                int end = this.blockPosition;
+                while (end < this.blockLimit && this.block[end] != '\n') {
+                    end++;
+                }
+                int chunk = end - this.blockPosition;
+                if (length + chunk > this.line.length) {
+                    this.line = Arrays.copyOf(this.line, Math.max(length + chunk, this.line.length * 2));
+                }
+                System.arraycopy(this.block, this.blockPosition, this.line, length, chunk);
+                length += chunk;
+                if (end < this.blockLimit) {
+                    this.blockPosition = end + 1;
+                    break;
+                }
+                this.blockPosition = end;
+            }
+            this.lineNumber++;
+            return length > 0 && this.line[length - 1] == '\r' ? length - 1 : length;
+        }
+
+        /**
+         * Splits the line buffer into tokens, unquoting quoted ones in place.
+         *
+         * @param length The length of the line.
+         */
+        private void split(int length) {
+            this.count = 0;
+            this.quoteOpen = false;
+            int i = 0;
+            while (true) {
+                while (i < length && (this.line[i] == ' ' || this.line[i] == '\t')) {
+                    i++;
+                }
+                if (i == length) {
+                    return;
+                }
+                if (this.count == this.starts.length) {
+                    this.starts = Arrays.copyOf(this.starts, this.count * 2);
+                    this.ends = Arrays.copyOf(this.ends, this.count * 2);
+                }
+                int start = i;
+                int end = i;
+                if (this.line[i] == '"') {
+                    // Unquoted characters are written back over the token, which never runs ahead of reading.
+                    i++;
+                    this.quoteOpen = true;
+                    while (i < length) {
+                        char c = this.line[i++];
+                        if (c == '"') {
+                            if (i < length && this.line[i] == '"') {
+                                i++;
+                            } else {
+                                this.quoteOpen = false;
+                                break;
+                            }
+                        }
+                        this.line[end++] = c;
+                    }
+                } else {
+                    while (i < length && this.line[i] != ' ' && this.line[i] != '\t') {
+                        i++;
+                    }
+                    end = i;
+                }
+                this.starts[this.count] = start;
+                this.ends[this.count] = end;
+                this.count++;
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+
+/**
+ * Numbers the changes made to a Database and keeps track of the snapshots that read it at a version,
+ * so that old versions are kept exactly as long as a snapshot can still read them.
+ *
+ * Every change is a commit that takes the next version number. Commits hold a shared stamp of a
+ * StampedLock while they take their number and publish the change, and opening a snapshot takes the
+ * lock exclusively for a moment, so a snapshot at version v sees every change numbered up to v and none
+ * after it, even though commits on different shelves run in parallel and never wait for each other.
+ *
+ * Open snapshots pin their version. Shelves that keep older quantities for a pinned version register
+ * here, and when a snapshot closes their histories are cut down to what the oldest remaining snapshot
+ * can read, so the old versions become garbage once no reader holds them.
+ */
+class CatalogVersions {
+    // Version of the last commit, 0 before the first.
+    private final AtomicLong lastVersion = new AtomicLong();
+    // Shared by commits, exclusive while a snapshot takes its version.
+    private final StampedLock commits = new StampedLock();
+    // Number of open snapshots per pinned version. Guarded by itself.
+    private final TreeMap<Long, Integer> pinned = new TreeMap<>();
+    // Oldest pinned version, or Long.MAX_VALUE if no snapshot is open.
+    private volatile long oldestPinned = Long.MAX_VALUE;
+    // Shelves that keep older quantities, to be pruned when snapshots close.
+    private final ConcurrentLinkedQueue<ProductShelf> shelvesWithHistory = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Starts a commit. The caller takes its version with nextVersion, publishes the change and ends the
+     * commit with endCommit, in a finally block.
+     *
+     * @return The stamp to pass to endCommit.
+     */
+    public long beginCommit() {
+        return this.commits.readLock();
+    }
+
+    /**
+     * Takes the version number of a change. Must be called between beginCommit and endCommit.
+     *
+     * @return The version of the change.
+     */
+    public long nextVersion() {
+        return this.lastVersion.incrementAndGet();
+    }
+
+    /**
+     * Ends a commit.
+     *
+     * @param stamp The stamp returned by beginCommit.
+     */
+    public void endCommit(long stamp) {
+        this.commits.unlockRead(stamp);
+    }
+
+    /**
+     * Gets the version of the last commit.
+     *
+     * @return The version, 0 if nothing has been committed.
+     */
+    public long getLastVersion() {
+        return this.lastVersion.get();
+    }
+
+    /**
+     * Gets the oldest version an open snapshot reads.
+     *
+     * @return The version, or Long.MAX_VALUE if no snapshot is open.
+     */
+    public long getOldestPinned() {
+        return this.oldestPinned;
+    }
+
+    /**
+     * Gets the number of open snapshots.
+     *
+     * @return The snapshot count.
+     */
+    public int getPinnedCount() {
+        synchronized (this.pinned) {
+            int count = 0;
+            for (int snapshots : this.pinned.values()) {
+                count += snapshots;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Pins the current version while no commit is in progress and opens a snapshot at it.
+     *
+     * @param opener Builds the snapshot from the pinned version. Runs while commits wait, so it must be short.
+     * @param <T>    The type of the snapshot.
+     * @return The snapshot.
+     */
+    public <T> T pin(LongFunction<T> opener) {
+        long stamp = this.commits.writeLock();
+        try {
+            long version = this.lastVersion.get();
+            synchronized (this.pinned) {
+                this.pinned.merge(version, 1, Integer::sum);
+                this.oldestPinned = this.pinned.firstKey();
+            }
+            return opener.apply(version);
+        } finally {
+            this.commits.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Releases the version of a closed snapshot and prunes the histories that no open snapshot needs any more.
+     *
+     * @param version The version the snapshot read.
+     * @return true if no snapshot is open any more.
+     * @throws IllegalStateException if the version is not pinned.
+     */
+    public boolean release(long version) {
+        long oldest;
+        synchronized (this.pinned) {
+            Integer count = this.pinned.get(version);
+            if (count == null) {
+                throw new IllegalStateException("Version " + version + " is not pinned.");
+            }
+            if (count == 1) {
+                this.pinned.remove(version);
+            } else {
+                this.pinned.put(version, count - 1);
+            }
+            Map.Entry<Long, Integer> first = this.pinned.firstEntry();
+            oldest = first != null ? first.getKey() : Long.MAX_VALUE;
+            this.oldestPinned = oldest;
+        }
+        Iterator<ProductShelf> shelves = this.shelvesWithHistory.iterator();
+        while (shelves.hasNext()) {
+            if (!shelves.next().pruneHistory(this)) {
+                shelves.remove();
+            }
+        }
+        return oldest == Long.MAX_VALUE;
+    }
+
+    /**
+     * Registers a shelf that started keeping older quantities.
+     *
+     * @param shelf The shelf.
+     */
+    void trackHistory(ProductShelf shelf) {
+        this.shelvesWithHistory.add(shelf);
+    }
+
+    /**
+     * Gets the number of shelves that keep older quantities for open snapshots.
+     *
+     * @return The shelf count.
+     */
+    public int getShelvesWithHistory() {
+        return this.shelvesWithHistory.size();
+    }
+
+    /**
+     * Describes the version clock and the open snapshots.
+     *
+     * @return A one-line summary.
+     */
+    @Override
+    public String toString() {
+        return "Catalog versions: version " + getLastVersion() + ", " + getPinnedCount() + " open snapshots, "
+                + getShelvesWithHistory() + " shelves keeping history";
+    }
+}
@@ -0,0 +1,541 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A column-oriented copy of the catalog for reports that scan every product.
+ *
+ * A Product is a graph of objects: the product, its name, two LocalDates and its shelf. A scan that
+ * reads the expiry date of every product follows several pointers per row to objects spread over the heap.
+ * This table instead keeps one primitive array per field, one row per product in the order the table was
+ * notified of them: product IDs, expiry and markdown dates as epoch days, and shelf quantities. That is the
+ * database order unless products are created by several threads at once, whose notifications can arrive in
+ * a different order than the inserts. Names are dictionary-encoded,
+ * so each distinct name is stored once and a row holds only its int code. A date report then reads a
+ * single int[] from start to end, a loop the JIT compiles to straight-line code over contiguous memory,
+ * and each row takes a few dozen bytes instead of several hundred.
+ *
+ * The table is filled through the ProductChangeListener interface, so it follows every product creation
+ * and stock movement of a ProductService. Like IntProductMap, it takes one writer at a time (the listener
+ * methods serialize themselves) and any number of concurrent readers without locks: columns only grow,
+ * and the number of rows is published after a row is written, so a reader that reads it first sees
+ * complete rows.
+ */
+class ColumnarProductTable implements ProductChangeListener {
+    // Epoch day stored for a product without an expiry or markdown date. Later than any real date,
+    // so such products never match a date report.
+    public static final int NO_DATE = Integer.MAX_VALUE;
+    // Initial number of rows. Must be a power of two.
+    private static final int INITIAL_CAPACITY = 1024;
+    // Largest range of days, beyond the number of matches, that selections order with a counting sort.
+    private static final int MAX_COUNTING_DAYS = 64 * 1024;
+    // Gives opaque access to the quantity column, which is updated in place.
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /**
+     * One generation of the columns. Replaced as a whole when the table grows.
+     */
+    private static final class Columns {
+        // Hash table slots mapping product IDs to rows. Each slot holds (row + 1), or 0 if the slot is empty.
+        final int[] slots;
+        // Product ID of each row.
+        final int[] ids;
+        // Code of each row's name in the name dictionary.
+        final int[] nameCodes;
+        // Expiry date of each row as an epoch day, or NO_DATE.
+        final int[] expiryDays;
+        // Markdown date of each row as an epoch day, or NO_DATE.
+        final int[] markdownDays;
+        // Current shelf quantity of each row, in 10^-scale units. Updated in place on every stock movement.
+        final long[] currents;
+        // Maximum shelf quantity of each row, in 10^-scale units.
+        final long[] maxes;
+        // Scale of each row's quantities.
+        final byte[] scales;
+        // Distinct names, indexed by code.
+        final String[] names;
+        // Number of rows written. Written last, so reading it first makes every completed row visible.
+        volatile int used;
+
+        Columns(int capacity, int nameCapacity) {
+            this.slots = new int[capacity * 2];
+            this.ids = new int[capacity];
+            this.nameCodes = new int[capacity];
+            this.expiryDays = new int[capacity];
+            this.markdownDays = new int[capacity];
+            this.currents = new long[capacity];
+            this.maxes = new long[capacity];
+            this.scales = new byte[capacity];
+            this.names = new String[nameCapacity];
+        }
+    }
+
+    // Current columns, replaced when the rows or the name dictionary fill up.
+    private volatile Columns columns = new Columns(INITIAL_CAPACITY, INITIAL_CAPACITY);
+    // Code of each distinct name. Only used by the writer.
+    private final Map<String, Integer> nameCodes = new HashMap<>();
+    // Serializes writers. Readers never take it.
+    private final Object writeLock = new Object();
+
+    /**
+     * Adds products that are not in the table yet, such as the products already in a database when
+     * the table is attached to a service. Products whose IDs are already in the table are skipped.
+     *
+     * @param products The products to add.
+     */
+    public void addAll(Iterable<Product> products) {
+        synchronized (this.writeLock) {
+            for (Product product : products) {
+                add(product);
+            }
+        }
+    }
+
+    /**
+     * Adds a new product to the table.
+     *
+     * @param product The product that was created.
+     */
+    @Override
+    public void productCreated(Product product) {
+        synchronized (this.writeLock) {
+            add(product);
+        }
+    }
+
+    /**
+     * Adds a batch of new products to the table under a single lock.
+     *
+     * @param products The products that were created.
+     */
+    @Override
+    public void productsCreated(List<Product> products) {
+        addAll(products);
+    }
+
+    /**
+     * Copies the current shelf quantity of a product into its row.
+     * The quantity is read from the shelf under the write lock rather than taken from the movement,
+     * so movements reported out of order still leave the latest quantity in the table.
+     *
+     * @param product  The product whose shelf quantity changed.
+     * @param movement The applied movement.
+     */
+    @Override
+    public void stockMoved(Product product, StockMovement movement) {
+        synchronized (this.writeLock) {
+            Columns c = this.columns;
+            int row = findRow(c, product.getId());
+            if (row >= 0) {
+                LONGS.setOpaque(c.currents, row, product.getProductShelf().getCurrent());
+            }
+        }
+    }
+
+    /**
+     * Gets the number of rows in the table.
+     *
+     * @return The number of products.
+     */
+    public int size() {
+        return this.columns.used;
+    }
+
+    /**
+     * Gets the number of distinct product names.
+     *
+     * @return The size of the name dictionary.
+     */
+    public int getNameCount() {
+        synchronized (this.writeLock) {
+            return this.nameCodes.size();
+        }
+    }
+
+    /**
+     * Finds the row of a product.
+     *
+     * @param productId The product ID.
+     * @return The row, or -1 if the product is not in the table.
+     */
+    public int rowOf(int productId) {
+        Columns c = this.columns;
+        int used = c.used; // Read first, so the rows below it are complete.
+        int row = findRow(c, productId);
+        return row < used ? row : -1;
+    }
+
+    /**
+     * Gets the product ID of a row.
+     *
+     * @param row The row, from 0 to size() - 1.
+     * @return The product ID.
+     */
+    public int getId(int row) {
+        return this.columns.ids[row];
+    }
+
+    /**
+     * Gets the product name of a row.
+     *
+     * @param row The row, from 0 to size() - 1.
+     * @return The product name.
+     */
+    public String getProductName(int row) {
+        Columns c = this.columns;
+        return c.names[c.nameCodes[row]];
+    }
+
+    /**
+     * Gets the expiry date of a row.
+     *
+     * @param row The row, from 0 to size() - 1.
+     * @return The expiry date, or null if the product has none.
+     */
+    public LocalDate getExpiryDate(int row) {
+        return toDate(this.columns.expiryDays[row]);
+    }
+
+    /**
+     * Gets the markdown date of a row.
+     *
+     * @param row The row, from 0 to size() - 1.
+     * @return The markdown date, or null if the product has none.
+     */
+    public LocalDate getMarkDownDate(int row) {
+        return toDate(this.columns.markdownDays[row]);
+    }
+
+    /**
+     * Gets the current shelf quantity of a row.
+     *
+     * @param row The row, from 0 to size() - 1.
+     * @return The quantity in 10^-scale units.
+     */
+    public long getCurrent(int row) {
+        return (long) LONGS.getOpaque(this.columns.currents, row);
+    }
+
+    /**
+     * Gets the scale of a row's shelf quantities.
+     *
+     * @param row The row, from 0 to size() - 1.
+     * @return The number of decimal places.
+     */
+    public int getScale(int row) {
+        return this.columns.scales[row];
+    }
+
+    /**
+     * Counts the products that expired before the given day with a single pass over the expiry column.
+     *
+     * @param today The current date.
+     * @return The number of expired products.
+     */
+    public int countExpired(LocalDate today) {
+        return count(this.columns, true, Integer.MIN_VALUE, toDay(today));
+    }
+
+    /**
+     * Counts the products whose markdown period has started on or before the given day.
+     *
+     * @param today The current date.
+     * @return The number of products in markdown.
+     */
+    public int countInMarkDown(LocalDate today) {
+        return count(this.columns, false, Integer.MIN_VALUE, toDay(today) + 1);
+    }
+
+    /**
+     * Adds up the quantity needed to refill every shelf, in a single pass over the quantity columns.
+     * Quantities of different scales are added in their own units, so the sum is meaningful when all
+     * shelves share one scale, as they do for a catalog of whole items.
+     *
+     * @return The total quantity to refill.
+     */
+    public long totalQuantityToRefill() {
+        Columns c = this.columns;
+        int used = c.used;
+        long total = 0;
+        for (int row = 0; row < used; row++) {
+            total += Math.max(c.maxes[row] - c.currents[row], 0);
+        }
+        return total;
+    }
+
+    /**
+     * Selects the products that expired before the given day.
+     *
+     * @param today The current date.
+     * @return The matching rows, ordered by expiry date and then by row.
+     */
+    public int[] selectExpired(LocalDate today) {
+        return select(this.columns, true, Integer.MIN_VALUE, toDay(today));
+    }
+
+    /**
+     * Selects the products whose markdown period has started on or before the given day.
+     *
+     * @param today The current date.
+     * @return The matching rows, ordered by markdown date and then by row.
+     */
+    public int[] selectInMarkDown(LocalDate today) {
+        return select(this.columns, false, Integer.MIN_VALUE, toDay(today) + 1);
+    }
+
+    /**
+     * Selects the products whose markdown period starts after the given day but within the next week.
+     *
+     * @param today The current date.
+     * @return The matching rows, ordered by markdown date and then by row.
+     */
+    public int[] selectForMarkDown(LocalDate today) {
+        int day = toDay(today);
+        return select(this.columns, false, day + 1, day + 7);
+    }
+
+    /**
+     * Counts the rows whose date lies in a range.
+     *
+     * @param c             The columns to scan.
+     * @param expiry        Whether to scan the expiry column rather than the markdown column.
+     * @param fromInclusive The first epoch day of the range.
+     * @param toExclusive   The epoch day just after the range.
+     * @return The number of matching rows.
+     */
+    private static int count(Columns c, boolean expiry, int fromInclusive, int toExclusive) {
+        int used = c.used;
+        int[] days = expiry ? c.expiryDays : c.markdownDays;
+        int count = 0;
+        for (int row = 0; row < used; row++) {
+            int day = days[row];
+            // Branch-free, so the loop runs at the same speed whatever share of rows matches.
+            count += (day >= fromInclusive ? 1 : 0) & (day < toExclusive ? 1 : 0);
+        }
+        return count;
+    }
+
+    /**
+     * Selects the rows whose date lies in a range, ordered by date. The matches are ordered with a
+     * counting sort over the days of the range, which takes two more passes over the matches instead of
+     * a comparison sort, as a catalog has far fewer distinct dates than products. Matches spread over
+     * too many days fall back to sorting them packed with their date into longs.
+     *
+     * @param c             The columns to scan.
+     * @param expiry        Whether to scan the expiry column rather than the markdown column.
+     * @param fromInclusive The first epoch day of the range.
+     * @param toExclusive   The epoch day just after the range.
+     * @return The matching rows, ordered by date and then by row.
+     */
+    private static int[] select(Columns c, boolean expiry, int fromInclusive, int toExclusive) {
+        int used = c.used;
+        int[] days = expiry ? c.expiryDays : c.markdownDays;
+        // First pass: the matching rows in row order, and the earliest and latest matching days.
+        int[] matches = new int[count(c, expiry, fromInclusive, toExclusive)];
+        int count = 0;
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        for (int row = 0; row < used && count < matches.length; row++) {
+            int day = days[row];
+            if (day >= fromInclusive && day < toExclusive) {
+                matches[count++] = row;
+                firstDay = Math.min(firstDay, day);
+                lastDay = Math.max(lastDay, day);
+            }
+        }
+        if (count == 0) {
+            return new int[0];
+        }
+        long span = (long) lastDay - firstDay + 1;
+        if (span > count + MAX_COUNTING_DAYS) {
+            return sortByDay(days, matches, count);
+        }
+        // Counting sort: the number of matches per day gives the position of each day's first row,
+        // and the rows are placed in row order, so rows of the same day keep their database order.
+        int[] starts = new int[(int) span + 1];
+        for (int i = 0; i < count; i++) {
+            starts[days[matches[i]] - firstDay + 1]++;
+        }
+        for (int d = 1; d < starts.length; d++) {
+            starts[d] += starts[d - 1];
+        }
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            int row = matches[i];
+            rows[starts[days[row] - firstDay]++] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * Orders matching rows by date by packing each with its date into a long and sorting those.
+     *
+     * @param days    The date column the rows matched on.
+     * @param matches The matching rows in row order.
+     * @param count   The number of matching rows.
+     * @return The rows ordered by date and then by row.
+     */
+    private static int[] sortByDay(int[] days, int[] matches, int count) {
+        long[] packed = new long[count];
+        for (int i = 0; i < count; i++) {
+            packed[i] = (long) days[matches[i]] << 32 | matches[i];
+        }
+        Arrays.sort(packed);
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = (int) packed[i];
+        }
+        return rows;
+    }
+
+    /**
+     * Appends a product as a new row, unless its ID is already in the table. Must hold the write lock.
+     *
+     * @param product The product to add.
+     */
+    private void add(Product product) {
+        Columns c = this.columns;
+        if (findRow(c, product.getId()) >= 0) {
+            return;
+        }
+        int nameCode = encodeName(product.getProductName());
+        c = this.columns; // Encoding the name may have grown the dictionary.
+        int row = c.used;
+        if (row == c.ids.length) {
+            c = grow(c, c.ids.length * 2, c.names.length);
+        }
+        ProductShelf shelf = product.getProductShelf();
+        c.ids[row] = product.getId();
+        c.nameCodes[row] = nameCode;
+        c.expiryDays[row] = toDay(product.getExpiryDate());
+        c.markdownDays[row] = toDay(product.getTimeDurationForMarkDown());
+        c.currents[row] = shelf.getCurrent();
+        c.maxes[row] = shelf.getMax();
+        c.scales[row] = (byte) shelf.getScale();
+        insertSlot(c, product.getId(), row);
+        c.used = row + 1;
+    }
+
+    /**
+     * Gets the code of a name, adding it to the dictionary if it is new. Must hold the write lock.
+     *
+     * @param name The product name.
+     * @return The name's code.
+     */
+    private int encodeName(String name) {
+        Integer code = this.nameCodes.get(name);
+        if (code != null) {
+            return code;
+        }
+        Columns c = this.columns;
+        int next = this.nameCodes.size();
+        if (next == c.names.length) {
+            c = grow(c, c.ids.length, c.names.length * 2);
+        }
+        c.names[next] = name;
+        this.nameCodes.put(name, next);
+        return next;
+    }
+
+    /**
+     * Copies the columns into larger ones and publishes them. Must hold the write lock.
+     *
+     * @param c            The current columns.
+     * @param capacity     The number of rows of the new columns.
+     * @param nameCapacity The number of names of the new dictionary.
+     * @return The new columns.
+     */
+    private Columns grow(Columns c, int capacity, int nameCapacity) {
+        int used = c.used;
+        Columns bigger = new Columns(capacity, nameCapacity);
+        System.arraycopy(c.ids, 0, bigger.ids, 0, used);
+        System.arraycopy(c.nameCodes, 0, bigger.nameCodes, 0, used);
+        System.arraycopy(c.expiryDays, 0, bigger.expiryDays, 0, used);
+        System.arraycopy(c.markdownDays, 0, bigger.markdownDays, 0, used);
+        System.arraycopy(c.currents, 0, bigger.currents, 0, used);
+        System.arraycopy(c.maxes, 0, bigger.maxes, 0, used);
+        System.arraycopy(c.scales, 0, bigger.scales, 0, used);
+        System.arraycopy(c.names, 0, bigger.names, 0, c.names.length);
+        if (capacity == c.ids.length) {
+            System.arraycopy(c.slots, 0, bigger.slots, 0, c.slots.length);
+        } else {
+            for (int row = 0; row < used; row++) {
+                insertSlot(bigger, bigger.ids[row], row);
+            }
+        }
+        bigger.used = used;
+        this.columns = bigger;
+        return bigger;
+    }
+
+    /**
+     * Finds the row of a product ID by probing the hash slots.
+     *
+     * @param c  The columns to search.
+     * @param id The product ID.
+     * @return The row, or -1 if the ID is not in the table.
+     */
+    private static int findRow(Columns c, int id) {
+        int mask = c.slots.length - 1;
+        int slot = hash(id) & mask;
+        int entry;
+        while ((entry = c.slots[slot]) != 0) {
+            if (c.ids[entry - 1] == id) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Records the row of a product ID in the hash slots.
+     *
+     * @param c   The columns to update.
+     * @param id  The product ID.
+     * @param row The row holding the product.
+     */
+    private static void insertSlot(Columns c, int id, int row) {
+        int mask = c.slots.length - 1;
+        int slot = hash(id) & mask;
+        while (c.slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        c.slots[slot] = row + 1;
+    }
+
+    /**
+     * Converts a date to the epoch day stored in a date column.
+     *
+     * @param date The date, may be null.
+     * @return The epoch day, or NO_DATE if the date is null.
+     */
+    private static int toDay(LocalDate date) {
+        return date == null ? NO_DATE : Math.toIntExact(date.toEpochDay());
+    }
+
+    /**
+     * Converts an epoch day of a date column back to a date.
+     *
+     * @param day The epoch day.
+     * @return The date, or null if the day is NO_DATE.
+     */
+    private static LocalDate toDate(int day) {
+        return day == NO_DATE ? null : LocalDate.ofEpochDay(day);
+    }
+
+    /**
+     * Spreads the bits of a product ID so that consecutive IDs do not cluster in the table.
+     *
+     * @param id The product ID.
+     * @return The hash code.
+     */
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
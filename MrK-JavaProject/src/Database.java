@@ -1,17 +1,38 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The Database class represents a simple in-memory database to store products.
- * It encapsulates a list of Product objects and provides access to this list.
+ * Products are indexed by their ID, so lookups, inserts and removals take constant time
+ * instead of scanning every stored product. Sorted secondary indexes on the expiry date and the
+ * markdown date answer date range queries without scanning the catalog either, and a BarcodeIndex
+ * finds the product of a scanned GTIN barcode.
+ *
+ * The database is safe for concurrent use. Writes are serialized by a lock that readers never take:
+ * lookups, iteration and range queries run without locking, alongside any writer.
+ *
+ * Every change is numbered by CatalogVersions, and openSnapshot gives a reader the catalog as of one
+ * version: products and quantities stay as they were when it was opened while writers carry on.
  */
 class Database {
-    // List to hold Product objects. It's initialized to an empty ArrayList.
-    private final List<Product> productList = new ArrayList<>();
+    // Primary index from product ID to Product. It's initialized to an empty map.
+    private final IntProductMap products = new IntProductMap();
+    // Secondary index ordering products by their expiry date.
+    private final DateIndex expiryIndex = new DateIndex();
+    // Secondary index ordering products by the start date of their markdown period.
+    private final DateIndex markdownIndex = new DateIndex();
+    // Index from GTIN barcode to the product it belongs to.
+    private final BarcodeIndex barcodeIndex = new BarcodeIndex();
+    // Serializes writers. Readers never take it.
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Numbers the changes and tracks the versions open snapshots read.
+    private final CatalogVersions versions = new CatalogVersions();
 
     /**
      * Constructor for the Database.
-     * This constructor currently does not perform any specific operation as the productList is
+     * This constructor currently does not perform any specific operation as the product index is
      * initialized at the point of declaration. However, the constructor is provided to allow
      * for future extensions, such as connecting to an actual database if needed.
      */
@@ -21,16 +42,356 @@ class Database {
     }
 
     /**
-     * Retrieves the list of products.
+     * Retrieves a product by its ID.
      *
-     * @return A List containing the Product objects stored in the database.
-     *         This method returns a direct reference to the productList, which
-     *         means that callers can modify the list. In a real-world scenario, it
-     *         might be safer to return a read-only view or a deep copy of the list
-     *         to prevent external modifications.
+     * @param productId The ID of the product to find.
+     * @return The Product with the given ID, or null if no such product is stored.
      */
-    public List<Product> getProductList() {
-        return this.productList;
+    public Product getProduct(int productId) {
+        return this.products.get(productId);
+    }
+
+    /**
+     * Checks whether a product with the given ID is stored.
+     *
+     * @param productId The ID to check.
+     * @return true if a product with that ID exists; false otherwise.
+     */
+    public boolean containsProduct(int productId) {
+        return this.products.containsKey(productId);
+    }
+
+    /**
+     * Stores a product, replacing any stored product with the same ID.
+     *
+     * @param product The product to store.
+     * @return The product that was replaced, or null if the ID was not in use.
+     */
+    public Product putProduct(Product product) {
+        this.writeLock.lock();
+        long stamp = this.versions.beginCommit();
+        try {
+            long version = this.versions.nextVersion();
+            product.setAddedVersion(version);
+            Product previous = this.products.put(product, this.versions.getOldestPinned() < version);
+            if (previous != null) {
+                previous.setRemovedVersion(version);
+                unindex(previous);
+                // The replacement is the same item, so the barcodes scanned for it stay with it.
+                long[] barcodes = previous.getBarcodes();
+                product.setBarcodes(barcodes);
+                for (long gtin : barcodes) {
+                    this.barcodeIndex.put(gtin, product);
+                }
+            }
+            index(product);
+            return previous;
+        } finally {
+            this.versions.endCommit(stamp);
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Stores a product only if no product with the same ID is stored yet.
+     *
+     * @param product The product to store.
+     * @return The product already stored under the ID, or null if the new product was added.
+     */
+    public Product putProductIfAbsent(Product product) {
+        this.writeLock.lock();
+        long stamp = this.versions.beginCommit();
+        try {
+            Product existing = this.products.get(product.getId());
+            if (existing == null) {
+                product.setAddedVersion(this.versions.nextVersion());
+                this.products.putIfAbsent(product);
+                index(product);
+            }
+            return existing;
+        } finally {
+            this.versions.endCommit(stamp);
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the product with the given ID.
+     *
+     * @param productId The ID of the product to remove.
+     * @return The removed product, or null if no product had that ID.
+     */
+    public Product removeProduct(int productId) {
+        this.writeLock.lock();
+        long stamp = this.versions.beginCommit();
+        try {
+            Product removed = this.products.get(productId);
+            if (removed != null) {
+                long version = this.versions.nextVersion();
+                removed.setRemovedVersion(version);
+                this.products.remove(productId, this.versions.getOldestPinned() < version);
+                unindex(removed);
+                for (long gtin : removed.getBarcodes()) {
+                    this.barcodeIndex.remove(gtin);
+                }
+            }
+            return removed;
+        } finally {
+            this.versions.endCommit(stamp);
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the product a GTIN barcode belongs to. Takes no lock and allocates nothing, as it runs
+     * for every item scanned at a till.
+     *
+     * @param gtin The barcode, as returned by Gtin.parse.
+     * @return The product, or null if no stored product has the barcode.
+     */
+    public Product getProductByBarcode(long gtin) {
+        return this.barcodeIndex.get(gtin);
+    }
+
+    /**
+     * Gets the number of barcodes assigned to stored products.
+     *
+     * @return The barcode count.
+     */
+    public int getBarcodeCount() {
+        return this.barcodeIndex.size();
+    }
+
+    /**
+     * Assigns a GTIN barcode to a stored product, which may have several. A barcode belongs to one
+     * product only, so a barcode that is already assigned is left as it is.
+     *
+     * @param product The product, which must be stored in the database.
+     * @param gtin    The barcode.
+     * @return The product the barcode already belonged to (possibly the same product), or null if it was assigned.
+     * @throws IllegalArgumentException if the barcode is not a valid GTIN.
+     */
+    public Product addBarcode(Product product, long gtin) {
+        if (!Gtin.isValid(gtin)) {
+            throw new IllegalArgumentException(gtin + " is not a valid barcode.");
+        }
+        this.writeLock.lock();
+        try {
+            Product owner = this.barcodeIndex.get(gtin);
+            if (owner != null) {
+                return owner;
+            }
+            long[] barcodes = product.getBarcodes();
+            long[] added = Arrays.copyOf(barcodes, barcodes.length + 1);
+            added[barcodes.length] = gtin;
+            // The product learns the barcode first, so whoever finds it through the index sees it listed.
+            product.setBarcodes(added);
+            this.barcodeIndex.put(gtin, product);
+            return null;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Applies a stock movement to a stored product's shelf as a change of the catalog, so that open
+     * snapshots keep seeing the quantity they were opened with. Movements of different shelves run in
+     * parallel; they do not take the write lock.
+     *
+     * @param product The product whose shelf moves.
+     * @param delta   The change in quantity, in 10^-scale units.
+     * @return The resulting quantity and shelf version.
+     * @throws IllegalArgumentException if the movement would take the quantity below zero.
+     */
+    public StockMovement applyMovement(Product product, long delta) {
+        long stamp = this.versions.beginCommit();
+        try {
+            return product.getProductShelf().applyMovement(delta, this.versions);
+        } finally {
+            this.versions.endCommit(stamp);
+        }
+    }
+
+    /**
+     * Opens a snapshot of the catalog as of the last completed change. Opening briefly waits for the
+     * changes in progress; reading the snapshot takes no lock. The snapshot must be closed, after which
+     * the older versions it kept are dropped.
+     *
+     * @return The snapshot.
+     */
+    public ProductSnapshot openSnapshot() {
+        return this.versions.pin(version -> new ProductSnapshot(this, this.products.view(), version));
+    }
+
+    /**
+     * Gets the version clock of the database, for monitoring.
+     *
+     * @return The catalog versions.
+     */
+    public CatalogVersions getVersions() {
+        return this.versions;
+    }
+
+    /**
+     * Releases the version of a closed snapshot. Called by ProductSnapshot.close.
+     *
+     * @param version The version the snapshot read.
+     */
+    void closeSnapshot(long version) {
+        if (this.versions.release(version)) {
+            this.writeLock.lock();
+            try {
+                // Checked again under the lock, as removals that retain products hold it too.
+                if (this.versions.getOldestPinned() == Long.MAX_VALUE) {
+                    this.products.releaseRetained();
+                }
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of stored products.
+     *
+     * @return The number of products in the database.
+     */
+    public int getProductCount() {
+        return this.products.size();
     }
-}
 
+    /**
+     * Checks whether the database holds no products.
+     *
+     * @return true if there are no products; false otherwise.
+     */
+    public boolean isEmpty() {
+        return this.products.isEmpty();
+    }
+
+    /**
+     * Retrieves all stored products for iteration, in the order they were added.
+     * The returned view is read-only and weakly consistent; products must be added and removed through the database.
+     *
+     * @return An Iterable over the stored products.
+     */
+    public Iterable<Product> getProducts() {
+        return this.products;
+    }
+
+    /**
+     * Retrieves the products whose expiry date lies in the given range, ordered by expiry date.
+     *
+     * @param fromInclusive The first expiry date to include, or null for no lower bound.
+     * @param toExclusive   The first expiry date to exclude, or null for no upper bound.
+     * @return A read-only view of the matching products.
+     */
+    public Iterable<Product> getProductsByExpiryDate(LocalDate fromInclusive, LocalDate toExclusive) {
+        return this.expiryIndex.between(fromInclusive, toExclusive);
+    }
+
+    /**
+     * Retrieves the products whose markdown period starts in the given range, ordered by markdown date.
+     * Products without a markdown date are never returned.
+     *
+     * @param fromInclusive The first markdown date to include, or null for no lower bound.
+     * @param toExclusive   The first markdown date to exclude, or null for no upper bound.
+     * @return A read-only view of the matching products.
+     */
+    public Iterable<Product> getProductsByMarkDownDate(LocalDate fromInclusive, LocalDate toExclusive) {
+        return this.markdownIndex.between(fromInclusive, toExclusive);
+    }
+
+    /**
+     * Retrieves the products added after a given product, for resuming an iteration of getProducts.
+     *
+     * @param productId    The ID of the last product of the earlier iteration.
+     * @param positionHint The position of that product, as returned by getPositionOf.
+     * @return A weakly consistent iterator over the later products.
+     */
+    public Iterator<Product> getProductsAfter(int productId, int positionHint) {
+        return this.products.iteratorAfter(productId, positionHint);
+    }
+
+    /**
+     * Gets the position of a product in the order of getProducts.
+     *
+     * @param productId The product ID.
+     * @return The position, or -1 if the product is not stored.
+     */
+    public int getPositionOf(int productId) {
+        return this.products.positionOf(productId);
+    }
+
+    /**
+     * Retrieves the products of an expiry date range that come after a given product, for resuming an
+     * iteration of getProductsByExpiryDate.
+     *
+     * @param fromInclusive The first expiry date to include, or null for no lower bound.
+     * @param toExclusive   The first expiry date to exclude, or null for no upper bound.
+     * @param expiryDate    The expiry date of the last product of the earlier iteration.
+     * @param productId     The ID of that product.
+     * @param positionHint  The position of that product within its expiry date, as returned by getExpiryPositionOf.
+     * @return A weakly consistent iterator over the remaining products of the range.
+     */
+    public Iterator<Product> getProductsByExpiryDateAfter(LocalDate fromInclusive, LocalDate toExclusive,
+                                                          LocalDate expiryDate, int productId, int positionHint) {
+        return this.expiryIndex.iteratorAfter(fromInclusive, toExclusive, expiryDate, productId, positionHint);
+    }
+
+    /**
+     * Gets the position of a product among the products with the same expiry date.
+     *
+     * @param product The product.
+     * @return The position, or -1 if the product is not indexed.
+     */
+    public int getExpiryPositionOf(Product product) {
+        return this.expiryIndex.positionOf(product.getExpiryDate(), product.getId());
+    }
+
+    /**
+     * Retrieves the products of a markdown date range that come after a given product, for resuming an
+     * iteration of getProductsByMarkDownDate.
+     *
+     * @param fromInclusive The first markdown date to include, or null for no lower bound.
+     * @param toExclusive   The first markdown date to exclude, or null for no upper bound.
+     * @param markDownDate  The markdown date of the last product of the earlier iteration.
+     * @param productId     The ID of that product.
+     * @param positionHint  The position of that product within its markdown date, as returned by getMarkDownPositionOf.
+     * @return A weakly consistent iterator over the remaining products of the range.
+     */
+    public Iterator<Product> getProductsByMarkDownDateAfter(LocalDate fromInclusive, LocalDate toExclusive,
+                                                            LocalDate markDownDate, int productId, int positionHint) {
+        return this.markdownIndex.iteratorAfter(fromInclusive, toExclusive, markDownDate, productId, positionHint);
+    }
+
+    /**
+     * Gets the position of a product among the products with the same markdown date.
+     *
+     * @param product The product.
+     * @return The position, or -1 if the product is not indexed.
+     */
+    public int getMarkDownPositionOf(Product product) {
+        return this.markdownIndex.positionOf(product.getTimeDurationForMarkDown(), product.getId());
+    }
+
+    /**
+     * Adds a product to the secondary indexes.
+     *
+     * @param product The product to index.
+     */
+    private void index(Product product) {
+        this.expiryIndex.add(product.getExpiryDate(), product);
+        this.markdownIndex.add(product.getTimeDurationForMarkDown(), product);
+    }
+
+    /**
+     * Removes a product from the secondary indexes.
+     *
+     * @param product The product to remove.
+     */
+    private void unindex(Product product) {
+        this.expiryIndex.remove(product.getExpiryDate(), product);
+        this.markdownIndex.remove(product.getTimeDurationForMarkDown(), product);
+    }
+}
@@ -0,0 +1,143 @@
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A sorted secondary index that orders products by a date, such as the expiry date or the markdown date.
+ * Products are grouped into one bucket per epoch day, and the buckets are kept in a sorted map.
+ * Dates have far fewer distinct values than there are products, so the sorted map stays small,
+ * and a range query costs O(log d + k) for d distinct days and k matching products.
+ *
+ * Like IntProductMap, the index takes one writer at a time and any number of concurrent readers:
+ * add and remove must be serialized by the caller, while range queries need no locking and
+ * return weakly consistent views.
+ */
+class DateIndex {
+    // Products grouped by epoch day, each bucket in insertion order.
+    private final NavigableMap<Long, IntProductMap> days = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds a product to the index under the given date. Products without a date are not indexed.
+     *
+     * @param date    The date to index the product under, may be null.
+     * @param product The product to index.
+     */
+    public void add(LocalDate date, Product product) {
+        if (date != null) {
+            this.days.computeIfAbsent(date.toEpochDay(), day -> new IntProductMap()).put(product);
+        }
+    }
+
+    /**
+     * Removes a product that was indexed under the given date.
+     *
+     * @param date    The date the product was indexed under, may be null.
+     * @param product The product to remove.
+     */
+    public void remove(LocalDate date, Product product) {
+        if (date == null) {
+            return;
+        }
+        IntProductMap bucket = this.days.get(date.toEpochDay());
+        if (bucket != null && bucket.get(product.getId()) == product) {
+            bucket.remove(product.getId());
+            if (bucket.isEmpty()) {
+                this.days.remove(date.toEpochDay());
+            }
+        }
+    }
+
+    /**
+     * Retrieves the products whose date lies in the given range, ordered by date.
+     *
+     * @param fromInclusive The first date of the range, or null for no lower bound.
+     * @param toExclusive   The date just after the range, or null for no upper bound.
+     * @return A read-only view of the matching products.
+     */
+    public Iterable<Product> between(LocalDate fromInclusive, LocalDate toExclusive) {
+        NavigableMap<Long, IntProductMap> range = this.days;
+        if (fromInclusive != null) {
+            range = range.tailMap(fromInclusive.toEpochDay(), true);
+        }
+        if (toExclusive != null) {
+            if (fromInclusive != null && !fromInclusive.isBefore(toExclusive)) {
+                return Collections.emptyList();
+            }
+            range = range.headMap(toExclusive.toEpochDay(), false);
+        }
+        Iterable<IntProductMap> buckets = range.values();
+        return () -> concat(Collections.emptyIterator(), buckets.iterator());
+    }
+
+    /**
+     * Retrieves the products whose date lies in the given range and that come after a given product in
+     * the order of between, for resuming an iteration where an earlier one stopped.
+     *
+     * @param fromInclusive The first date of the range, or null for no lower bound.
+     * @param toExclusive   The date just after the range, or null for no upper bound.
+     * @param date          The date the last product of the earlier iteration is indexed under.
+     * @param id            The ID of that product.
+     * @param positionHint  The position of that product within its date, as returned by positionOf.
+     * @return A weakly consistent iterator over the remaining products of the range.
+     */
+    public Iterator<Product> iteratorAfter(LocalDate fromInclusive, LocalDate toExclusive, LocalDate date, int id, int positionHint) {
+        if (fromInclusive != null && date.isBefore(fromInclusive)) {
+            return between(fromInclusive, toExclusive).iterator();
+        }
+        if (toExclusive != null && !date.isBefore(toExclusive)) {
+            return Collections.emptyIterator();
+        }
+        long day = date.toEpochDay();
+        NavigableMap<Long, IntProductMap> rest = this.days.tailMap(day, false);
+        if (toExclusive != null) {
+            rest = rest.headMap(toExclusive.toEpochDay(), false);
+        }
+        IntProductMap bucket = this.days.get(day);
+        return concat(bucket != null ? bucket.iteratorAfter(id, positionHint) : Collections.emptyIterator(),
+                rest.values().iterator());
+    }
+
+    /**
+     * Gets the position of a product among the products indexed under the same date, for resuming an iteration after it.
+     *
+     * @param date The date the product is indexed under.
+     * @param id   The product ID.
+     * @return The position, or -1 if the product is not indexed under the date.
+     */
+    public int positionOf(LocalDate date, int id) {
+        IntProductMap bucket = date != null ? this.days.get(date.toEpochDay()) : null;
+        return bucket != null ? bucket.positionOf(id) : -1;
+    }
+
+    /**
+     * Chains the rest of one bucket and the products of the following buckets into one iterator.
+     *
+     * @param first   The remaining products of the first bucket.
+     * @param buckets The following buckets, in date order.
+     * @return An iterator over all of their products.
+     */
+    private static Iterator<Product> concat(Iterator<Product> first, Iterator<IntProductMap> buckets) {
+        return new Iterator<>() {
+            private Iterator<Product> current = first;
+
+            @Override
+            public boolean hasNext() {
+                while (!this.current.hasNext() && buckets.hasNext()) {
+                    this.current = buckets.next().iterator();
+                }
+                return this.current.hasNext();
+            }
+
+            @Override
+            public Product next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return this.current.next();
+            }
+        };
+    }
+}
@@ -0,0 +1,423 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes product creations, stock movements and barcode assignments crash-safe by combining a WriteAheadLog with
+ * periodic compacted snapshots written as a ProductFile.
+ *
+ * Every change is appended to the log and acknowledged once its group commit has been forced to disk.
+ * After snapshotInterval logged changes, or as many changes as there are products if that is more,
+ * the store rotates the log, writes a snapshot of the whole
+ * database and deletes the log segments the snapshot covers, so recovery only loads the latest
+ * snapshot and replays the short log tail written after it.
+ *
+ * Snapshots are written by a background thread, so the thread whose change made one due does not wait
+ * for the whole catalog to be written, and other threads keep logging changes meanwhile. At most one
+ * snapshot is queued or running at a time.
+ */
+class DurableStore implements ProductChangeListener, Closeable {
+    // Name of the snapshot file within the data directory.
+    private static final String SNAPSHOT_FILE = "products.snapshot";
+    // Name of the log directory within the data directory.
+    private static final String LOG_DIRECTORY = "wal";
+    // Size of a STOCK log entry payload: product ID, delta, resulting quantity and shelf version.
+    private static final int STOCK_PAYLOAD = 4 + 8 + 8 + 8;
+    // Size of a BARCODE log entry payload: product ID and GTIN.
+    private static final int BARCODE_PAYLOAD = 4 + 8;
+
+    // Database that is recovered into and snapshotted.
+    private final Database database;
+    // Path of the snapshot file.
+    private final Path snapshotPath;
+    // Log of the changes made since the last snapshot.
+    private final WriteAheadLog log;
+    // Number of logged changes after which a snapshot is written.
+    private final int snapshotInterval;
+    // Number of changes logged since the last snapshot.
+    private int changesSinceSnapshot;
+    // Number of snapshots written since the store was opened.
+    private int snapshotCount;
+    // Whether a snapshot has been handed to the snapshot writer and has not finished yet.
+    private boolean snapshotScheduled;
+    // Failure of the last snapshot the snapshot writer attempted, or null if it succeeded.
+    private IOException snapshotFailure;
+    // Held while a snapshot is written, so that snapshots do not overlap.
+    private final Object snapshotLock = new Object();
+    // Thread that writes the snapshots that become due.
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "mrk-snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Opens the store in a data directory and recovers its contents into a database: the latest
+     * snapshot is loaded, then every logged change made after it is replayed.
+     *
+     * @param directory         The data directory.
+     * @param database          The database to recover into. It should be empty.
+     * @param commitDelayMillis The maximum time a change waits for its group commit.
+     * @param commitBatchBytes  The batch size in bytes that triggers a group commit without waiting.
+     * @param snapshotInterval  The number of logged changes after which a snapshot is written.
+     * @throws IOException if the snapshot or the log cannot be read, or the log cannot be opened.
+     */
+    public DurableStore(Path directory, Database database, long commitDelayMillis, int commitBatchBytes,
+                        int snapshotInterval) throws IOException {
+        if (snapshotInterval <= 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive.");
+        }
+        Files.createDirectories(directory);
+        this.database = database;
+        this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        this.snapshotInterval = snapshotInterval;
+
+        long snapshotLsn = 0;
+        if (Files.exists(this.snapshotPath)) {
+            try (ProductFile snapshot = new ProductFile(this.snapshotPath)) {
+                snapshot.loadInto(database);
+                snapshotLsn = snapshot.getSnapshotLsn();
+            }
+        }
+        Path logDirectory = directory.resolve(LOG_DIRECTORY);
+        long lastLsn = WriteAheadLog.replay(logDirectory, snapshotLsn, new Redo(database));
+        this.log = new WriteAheadLog(logDirectory, lastLsn, commitDelayMillis, commitBatchBytes);
+    }
+
+    /**
+     * Gets the write-ahead log, for example to read its group commit metrics.
+     *
+     * @return The log.
+     */
+    public WriteAheadLog getLog() {
+        return this.log;
+    }
+
+    /**
+     * Gets the number of snapshots written since the store was opened.
+     *
+     * @return The number of snapshots.
+     */
+    public synchronized int getSnapshotCount() {
+        return this.snapshotCount;
+    }
+
+    /**
+     * Gets the failure of the last snapshot written in the background. A failed snapshot is tried again
+     * when the next change is logged; the changes stay in the log until then.
+     *
+     * @return The failure, or null if the last background snapshot succeeded.
+     */
+    public synchronized IOException getSnapshotFailure() {
+        return this.snapshotFailure;
+    }
+
+    /**
+     * Logs a newly created product and waits until the entry is durable.
+     *
+     * @param product The product that was created.
+     * @throws UncheckedIOException if the change cannot be logged.
+     */
+    @Override
+    public void productCreated(Product product) {
+        ByteBuffer payload = ByteBuffer.allocate(ProductRecord.SIZE);
+        ProductRecord.write(payload, 0, product);
+        logChange(WriteAheadLog.CREATE, payload);
+    }
+
+    /**
+     * Logs a batch of newly created products and waits once, until the last entry is durable,
+     * so the whole batch shares its group commits.
+     *
+     * @param products The products that were created.
+     * @throws UncheckedIOException if the changes cannot be logged.
+     */
+    @Override
+    public void productsCreated(List<Product> products) {
+        ByteBuffer payload = ByteBuffer.allocate(ProductRecord.SIZE);
+        try {
+            long lsn = 0;
+            for (Product product : products) {
+                ProductRecord.write(payload, 0, product);
+                payload.clear();
+                lsn = this.log.append(WriteAheadLog.CREATE, payload);
+            }
+            this.log.awaitDurable(lsn);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        changesLogged(products.size());
+    }
+
+    /**
+     * Logs a stock movement and waits until the entry is durable. The entry also holds the resulting
+     * quantity and shelf version, so replaying it is idempotent even over a snapshot that already
+     * includes it, and concurrent movements logged out of order are replayed to the latest quantity.
+     *
+     * @param product  The product whose shelf quantity changed.
+     * @param movement The applied movement.
+     * @throws UncheckedIOException if the change cannot be logged.
+     */
+    @Override
+    public void stockMoved(Product product, StockMovement movement) {
+        ByteBuffer payload = ByteBuffer.allocate(STOCK_PAYLOAD);
+        payload.putInt(product.getId())
+                .putLong(movement.getDelta())
+                .putLong(movement.getQuantity())
+                .putLong(movement.getVersion())
+                .flip();
+        logChange(WriteAheadLog.STOCK, payload);
+    }
+
+    /**
+     * Logs a batch of stock movements and waits once, until the last entry is durable.
+     *
+     * @param products  The products whose shelf quantities changed.
+     * @param movements The applied movements.
+     * @throws UncheckedIOException if the changes cannot be logged.
+     */
+    @Override
+    public void stocksMoved(List<Product> products, List<StockMovement> movements) {
+        ByteBuffer payload = ByteBuffer.allocate(STOCK_PAYLOAD);
+        try {
+            long lsn = 0;
+            for (int i = 0; i < products.size(); i++) {
+                StockMovement movement = movements.get(i);
+                payload.clear();
+                payload.putInt(products.get(i).getId())
+                        .putLong(movement.getDelta())
+                        .putLong(movement.getQuantity())
+                        .putLong(movement.getVersion())
+                        .flip();
+                lsn = this.log.append(WriteAheadLog.STOCK, payload);
+            }
+            this.log.awaitDurable(lsn);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        changesLogged(products.size());
+    }
+
+    /**
+     * Logs a barcode assigned to a product and waits until the entry is durable. Replaying it is
+     * idempotent, as assigning a barcode to the product it already belongs to changes nothing.
+     *
+     * @param product The product the barcode was assigned to.
+     * @param gtin    The barcode.
+     * @throws UncheckedIOException if the change cannot be logged.
+     */
+    @Override
+    public void barcodeAdded(Product product, long gtin) {
+        ByteBuffer payload = ByteBuffer.allocate(BARCODE_PAYLOAD);
+        payload.putInt(product.getId()).putLong(gtin).flip();
+        logChange(WriteAheadLog.BARCODE, payload);
+    }
+
+    /**
+     * Rotates the log, writes a snapshot of the whole database and deletes the log segments it covers.
+     * Changes keep being logged while the snapshot is written.
+     *
+     * @throws IOException if the log cannot be rotated or the snapshot cannot be written.
+     */
+    public void snapshot() throws IOException {
+        synchronized (this.snapshotLock) {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Waits for a background snapshot that is being written, then commits all pending log entries and
+     * closes the log.
+     *
+     * @throws IOException if the final commit fails.
+     */
+    @Override
+    public void close() throws IOException {
+        this.snapshotWriter.shutdown();
+        try {
+            this.snapshotWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.log.close();
+    }
+
+    /**
+     * Writes a snapshot. The changes counted before the log is rotated are covered by the snapshot;
+     * those counted later are kept for the next one. Must be called while holding the snapshot lock.
+     *
+     * @throws IOException if the log cannot be rotated or the snapshot cannot be written.
+     */
+    private void writeSnapshot() throws IOException {
+        int covered;
+        synchronized (this) {
+            covered = this.changesSinceSnapshot;
+        }
+        long lsn = this.log.rotate();
+        ProductFile.writeSnapshot(this.snapshotPath, this.database.getProducts(), lsn);
+        this.log.deleteSegmentsUpTo(lsn);
+        synchronized (this) {
+            this.changesSinceSnapshot -= covered;
+            this.snapshotCount++;
+        }
+    }
+
+    /**
+     * Body of the snapshot writer: writes a snapshot if one is still due when it gets to run, as a
+     * snapshot written meanwhile may already cover the changes that made it due.
+     */
+    private void writeDueSnapshot() {
+        IOException failure = null;
+        try {
+            synchronized (this.snapshotLock) {
+                if (isSnapshotDue()) {
+                    writeSnapshot();
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            synchronized (this) {
+                this.snapshotFailure = failure;
+                this.snapshotScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Checks whether enough changes have been logged since the last snapshot to write a new one.
+     *
+     * @return true if a snapshot is due; false otherwise.
+     */
+    private synchronized boolean isSnapshotDue() {
+        // Waiting for at least as many changes as there are products keeps the cost of writing
+        // snapshots proportional to the number of changes, even while a large catalog is loaded.
+        return this.changesSinceSnapshot >= Math.max(this.snapshotInterval, this.database.getProductCount());
+    }
+
+    /**
+     * Appends a change to the log, waits for its group commit, and schedules a snapshot when one is due.
+     *
+     * @param type    The log entry type.
+     * @param payload The entry payload.
+     */
+    private void logChange(byte type, ByteBuffer payload) {
+        try {
+            this.log.awaitDurable(this.log.append(type, payload));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        changesLogged(1);
+    }
+
+    /**
+     * Counts logged changes and hands a snapshot to the snapshot writer when one is due and none is
+     * scheduled yet.
+     *
+     * @param changes The number of changes just logged.
+     */
+    private void changesLogged(int changes) {
+        synchronized (this) {
+            this.changesSinceSnapshot += changes;
+            if (this.snapshotScheduled || !isSnapshotDue()) {
+                return;
+            }
+            this.snapshotScheduled = true;
+        }
+        try {
+            this.snapshotWriter.execute(this::writeDueSnapshot);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                this.snapshotScheduled = false; // The store is being closed.
+            }
+        }
+    }
+
+    /**
+     * Applies logged changes to the database during recovery.
+     *
+     * A product is visible to other threads as soon as it is added to the database, before its CREATE
+     * entry is logged, so a stock movement or barcode of a new product can be logged ahead of the
+     * product itself. Such entries are held back until the CREATE entry of their product is replayed;
+     * those of a product that was never logged are dropped with the unfinished tail of the log.
+     */
+    private static final class Redo implements WriteAheadLog.EntryHandler {
+        // Database that is recovered into.
+        private final Database database;
+        // Latest quantity and shelf version logged for each product whose CREATE entry has not been replayed yet.
+        private final Map<Integer, long[]> pendingStock = new HashMap<>();
+        // Barcodes logged for each product whose CREATE entry has not been replayed yet, in log order.
+        private final Map<Integer, List<Long>> pendingBarcodes = new HashMap<>();
+        // Reused buffer for product names.
+        private final byte[] name = new byte[Product.MAX_NAME_BYTES];
+
+        Redo(Database database) {
+            this.database = database;
+        }
+
+        /**
+         * Applies a logged change to the database.
+         *
+         * @param lsn     The LSN of the entry.
+         * @param type    The entry type.
+         * @param payload The entry payload.
+         */
+        @Override
+        public void entry(long lsn, byte type, ByteBuffer payload) {
+            if (type == WriteAheadLog.CREATE) {
+                Product product = ProductRecord.read(payload, 0, this.name);
+                // A snapshot written between the product's creation and its CREATE entry already holds it,
+                // possibly with later stock movements, so it is kept.
+                Product existing = this.database.putProductIfAbsent(product);
+                if (existing != null) {
+                    product = existing;
+                }
+                long[] stock = this.pendingStock.remove(product.getId());
+                if (stock != null) {
+                    product.getProductShelf().restore(stock[0], stock[1]);
+                }
+                List<Long> barcodes = this.pendingBarcodes.remove(product.getId());
+                if (barcodes != null) {
+                    for (long gtin : barcodes) {
+                        this.database.addBarcode(product, gtin);
+                    }
+                }
+            } else if (type == WriteAheadLog.STOCK) {
+                int id = payload.getInt(0);
+                long quantity = payload.getLong(12);
+                long version = payload.getLong(20);
+                Product product = this.database.getProduct(id);
+                if (product != null) {
+                    product.getProductShelf().restore(quantity, version);
+                } else {
+                    long[] stock = this.pendingStock.get(id);
+                    if (stock == null) {
+                        this.pendingStock.put(id, new long[] {quantity, version});
+                    } else if (version > stock[1]) {
+                        stock[0] = quantity;
+                        stock[1] = version;
+                    }
+                }
+            } else if (type == WriteAheadLog.BARCODE) {
+                int id = payload.getInt(0);
+                Product product = this.database.getProduct(id);
+                if (product != null) {
+                    this.database.addBarcode(product, payload.getLong(4));
+                } else {
+                    this.pendingBarcodes.computeIfAbsent(id, key -> new ArrayList<>()).add(payload.getLong(4));
+                }
+            }
+        }
+    }
+}
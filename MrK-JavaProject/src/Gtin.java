@@ -0,0 +1,101 @@
+/**
+ * Helper methods for GTIN barcodes: the EAN-13 codes the scanners send, and the EAN-8, UPC-A and
+ * GTIN-14 codes found on some packaging.
+ *
+ * A GTIN is held as the numeric value of its digits. Leading zeros do not change the value or the check
+ * digit, so the UPC-A code 036000291452, the EAN-13 code 0036000291452 and the GTIN-14 code
+ * 00036000291452 all become the same long, and a product is found by whichever form is scanned.
+ */
+final class Gtin {
+    // Largest number of digits of a GTIN.
+    public static final int MAX_DIGITS = 14;
+    // Value returned by parse for text that is not a valid GTIN.
+    public static final long INVALID = -1;
+
+    // Largest value a GTIN can have, fourteen nines.
+    private static final long MAX_VALUE = 99_999_999_999_999L;
+
+    /**
+     * Private constructor, as this class only holds static helper methods.
+     */
+    private Gtin() {
+    }
+
+    /**
+     * Parses a GTIN of 8, 12, 13 or 14 digits and checks its check digit, without allocating.
+     *
+     * @param text  The text holding the code.
+     * @param start The index of the first digit.
+     * @param end   The index after the last digit.
+     * @return The GTIN, or INVALID if the text is not a GTIN with a correct check digit.
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        int digits = end - start;
+        if (digits != 8 && digits != 12 && digits != 13 && digits != 14) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return isValid(value) ? value : INVALID;
+    }
+
+    /**
+     * Parses a GTIN of 8, 12, 13 or 14 digits and checks its check digit.
+     *
+     * @param text The code.
+     * @return The GTIN.
+     * @throws IllegalArgumentException if the text is not a GTIN with a correct check digit.
+     */
+    public static long parse(String text) {
+        long gtin = parse(text, 0, text.length());
+        if (gtin == INVALID) {
+            throw new IllegalArgumentException("\"" + text + "\" is not a valid 8, 12, 13 or 14 digit barcode.");
+        }
+        return gtin;
+    }
+
+    /**
+     * Checks that a number is a GTIN with a correct check digit. Zero is not a GTIN.
+     *
+     * @param gtin The number.
+     * @return true if the last digit is the check digit of the others; false otherwise.
+     */
+    public static boolean isValid(long gtin) {
+        return gtin > 0 && gtin <= MAX_VALUE && gtin % 10 == checkDigit(gtin / 10);
+    }
+
+    /**
+     * Calculates the GS1 check digit of the digits before it: from the right, the digits are weighted
+     * 3, 1, 3, 1 and so on, and the check digit brings the sum up to a multiple of ten.
+     *
+     * @param payload The digits without the check digit.
+     * @return The check digit.
+     */
+    public static int checkDigit(long payload) {
+        int sum = 0;
+        int weight = 3;
+        for (long rest = payload; rest > 0; rest /= 10) {
+            sum += (int) (rest % 10) * weight;
+            weight = 4 - weight;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Formats a GTIN as the 13 digits of an EAN-13 code, or as 14 digits if it needs them.
+     *
+     * @param gtin The GTIN.
+     * @return The digits, zero padded.
+     */
+    public static String format(long gtin) {
+        String digits = Long.toString(gtin);
+        int width = gtin > 9_999_999_999_999L ? MAX_DIGITS : 13;
+        return "0".repeat(Math.max(width - digits.length(), 0)) + digits;
+    }
+}
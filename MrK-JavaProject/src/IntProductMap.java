@@ -0,0 +1,435 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A hash map from primitive int product IDs to Product objects.
+ * The hash table uses open addressing with linear probing, so IDs are never boxed into Integer objects.
+ * The products themselves are kept in a dense array in insertion order, which keeps iteration
+ * a tight loop and keeps the display order the same as the order in which products were added.
+ *
+ * The map supports one writer at a time and any number of concurrent readers without locks.
+ * Callers must serialize put, putIfAbsent and remove themselves; get, size and iteration may run
+ * in parallel with them. To make that safe, entries never move while a table is in use: a removed
+ * product leaves a hole in the dense array and a tombstone in the hash table, both of which are
+ * cleaned up when the writer builds a new table and publishes it. Iterators are weakly consistent,
+ * like those of the java.util.concurrent collections.
+ *
+ * For point-in-time reads, view captures the current table and its used count. A product removed or
+ * replaced with retention is kept at its position in the table's retained array, so a view can still
+ * yield it; the view decides which of the two products at a position to show. A rebuild leaves the old
+ * table untouched for the views that still hold it.
+ */
+class IntProductMap implements Iterable<Product> {
+    // Initial number of slots in the hash table. Must be a power of two.
+    private static final int INITIAL_CAPACITY = 16;
+    // Gives release/acquire access to elements of the dense product arrays.
+    private static final VarHandle PRODUCTS = MethodHandles.arrayElementVarHandle(Product[].class);
+
+    /**
+     * One generation of the hash table and the dense arrays. Replaced as a whole when the map grows.
+     */
+    private static final class Table {
+        // Hash table slots. Each slot holds (dense index + 1) of an entry, or 0 if the slot is empty.
+        final int[] slots;
+        // Product ID of each slot, so probing does not need to dereference products.
+        final int[] keys;
+        // Products in insertion order. Removed products leave null holes.
+        final Product[] products;
+        // Number of dense positions used, including holes. Written last, so reading it first makes
+        // every completed write visible.
+        volatile int used;
+        // Products removed or replaced while a view may still need them, at the position they had;
+        // allocated by the writer on the first retention and dropped by releaseRetained.
+        volatile Product[] retained;
+
+        Table(int capacity) {
+            this.slots = new int[capacity];
+            this.keys = new int[capacity];
+            this.products = new Product[capacity / 2];
+        }
+    }
+
+    // Current table, replaced when the dense array fills up.
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    // Number of products currently stored.
+    private volatile int size;
+
+    /**
+     * Returns the product stored under the given ID. May be called concurrently with a writer.
+     *
+     * @param id The product ID to look up.
+     * @return The product with that ID, or null if there is none.
+     */
+    public Product get(int id) {
+        Table t = this.table;
+        int used = t.used; // Volatile read that makes all completed writes to this table visible.
+        int mask = t.slots.length - 1;
+        int slot = hash(id) & mask;
+        int entry;
+        while ((entry = t.slots[slot]) != 0) {
+            if (t.keys[slot] == id) {
+                if (entry > used) {
+                    return null;
+                }
+                Product product = (Product) PRODUCTS.getAcquire(t.products, entry - 1);
+                return product != null && product.getId() == id ? product : null;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the position of an ID in insertion order, for resuming an iteration after it. A removed product
+     * keeps its position until the writer builds a new table, which closes the holes and so moves later
+     * products to lower positions. May be called concurrently with a writer.
+     *
+     * @param id The product ID to look up.
+     * @return The position of the ID in the current table, or -1 if the ID is not in it.
+     */
+    public int positionOf(int id) {
+        Table t = this.table;
+        int used = t.used;
+        int entry = t.slots[findSlot(t, id)];
+        return entry != 0 && entry <= used ? entry - 1 : -1;
+    }
+
+    /**
+     * Checks whether a product is stored under the given ID.
+     *
+     * @param id The product ID to look up.
+     * @return true if a product with that ID exists; false otherwise.
+     */
+    public boolean containsKey(int id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Stores a product under its ID, replacing any product that already has the same ID.
+     * The replacement keeps the position of the product it replaces. Must not run concurrently with other writes.
+     *
+     * @param product The product to store.
+     * @return The product that was replaced, or null if the ID was not in use.
+     */
+    public Product put(Product product) {
+        return put(product, false);
+    }
+
+    /**
+     * Stores a product under its ID, replacing any product that already has the same ID, and optionally
+     * keeps the replaced product for the views that are open. Must not run concurrently with other writes.
+     *
+     * @param product The product to store.
+     * @param retain  Whether to keep the replaced product for open views.
+     * @return The product that was replaced, or null if the ID was not in use.
+     */
+    public Product put(Product product, boolean retain) {
+        Table t = this.table;
+        int slot = findSlot(t, product.getId());
+        int entry = t.slots[slot];
+        Product previous = entry != 0 ? t.products[entry - 1] : null;
+        if (previous != null) {
+            if (retain) {
+                retain(t, entry - 1, previous);
+            }
+            PRODUCTS.setRelease(t.products, entry - 1, product);
+            return previous;
+        }
+        append(t, slot, product);
+        return null;
+    }
+
+    /**
+     * Stores a product under its ID only if no product with the same ID exists yet.
+     * Must not run concurrently with other writes.
+     *
+     * @param product The product to store.
+     * @return The product that already has the ID (in which case nothing is stored), or null if the product was added.
+     */
+    public Product putIfAbsent(Product product) {
+        Table t = this.table;
+        int slot = findSlot(t, product.getId());
+        int entry = t.slots[slot];
+        Product existing = entry != 0 ? t.products[entry - 1] : null;
+        if (existing != null) {
+            return existing;
+        }
+        append(t, slot, product);
+        return null;
+    }
+
+    /**
+     * Removes the product stored under the given ID, leaving a hole that is cleaned up when the table is rebuilt.
+     * Must not run concurrently with other writes.
+     *
+     * @param id The ID of the product to remove.
+     * @return The removed product, or null if there was no product with that ID.
+     */
+    public Product remove(int id) {
+        return remove(id, false);
+    }
+
+    /**
+     * Removes the product stored under the given ID, and optionally keeps it for the views that are open.
+     * Must not run concurrently with other writes.
+     *
+     * @param id     The ID of the product to remove.
+     * @param retain Whether to keep the removed product for open views.
+     * @return The removed product, or null if there was no product with that ID.
+     */
+    public Product remove(int id, boolean retain) {
+        Table t = this.table;
+        int entry = t.slots[findSlot(t, id)];
+        Product removed = entry != 0 ? t.products[entry - 1] : null;
+        if (removed != null) {
+            if (retain) {
+                retain(t, entry - 1, removed);
+            }
+            PRODUCTS.setRelease(t.products, entry - 1, null);
+            this.size--;
+        }
+        return removed;
+    }
+
+    /**
+     * Drops the products retained for views, once no view needs them any more. Only the current table
+     * is cleared; older tables are dropped with the last view that holds them.
+     * Must not run concurrently with other writes.
+     */
+    public void releaseRetained() {
+        this.table.retained = null;
+    }
+
+    /**
+     * Captures the products stored now, for a reader that needs the map as of one moment.
+     * Must be taken while no write is in progress.
+     *
+     * @return The view.
+     */
+    public View view() {
+        Table t = this.table;
+        return new View(t, t.used);
+    }
+
+    /**
+     * Gets the number of products stored.
+     *
+     * @return The number of products.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks whether the map is empty.
+     *
+     * @return true if no products are stored; false otherwise.
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the stored products in insertion order.
+     * It never throws ConcurrentModificationException, and it reflects the products present when it
+     * was created, possibly including some changes made afterwards. The iterator does not support removal.
+     *
+     * @return An iterator over the products.
+     */
+    @Override
+    public Iterator<Product> iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the products that were added after a given product, for
+     * resuming an iteration where an earlier one stopped. The product is found by its ID. If it has been
+     * removed and its position is no longer known, the iteration resumes after the position it had, which
+     * may skip as many products as were removed before it.
+     *
+     * @param id           The ID of the last product of the earlier iteration.
+     * @param positionHint The position that product had, as returned by positionOf.
+     * @return An iterator over the later products.
+     */
+    public Iterator<Product> iteratorAfter(int id, int positionHint) {
+        int position = positionOf(id);
+        return iterator((position >= 0 ? position : positionHint) + 1);
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the products from a position in insertion order on.
+     *
+     * @param from The first position to visit.
+     * @return An iterator over the products.
+     */
+    private Iterator<Product> iterator(int from) {
+        Table t = this.table;
+        int used = t.used;
+        return new Iterator<>() {
+            private int position = Math.max(from, 0);
+            private Product next = advance();
+
+            private Product advance() {
+                while (this.position < used) {
+                    Product product = (Product) PRODUCTS.getAcquire(t.products, this.position++);
+                    if (product != null) {
+                        return product;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public Product next() {
+                if (this.next == null) {
+                    throw new NoSuchElementException();
+                }
+                Product product = this.next;
+                this.next = advance();
+                return product;
+            }
+        };
+    }
+
+    /**
+     * Keeps a removed or replaced product at its position, before the position is overwritten.
+     * A position keeps only the last product retained there.
+     *
+     * @param t        The current table.
+     * @param position The dense position of the product.
+     * @param product  The product to keep.
+     */
+    private static void retain(Table t, int position, Product product) {
+        Product[] retained = t.retained;
+        if (retained == null) {
+            retained = new Product[t.products.length];
+            t.retained = retained;
+        }
+        PRODUCTS.setRelease(retained, position, product);
+    }
+
+    /**
+     * Finds the slot of an ID in a table: the slot holding it, or the empty slot where it would be inserted.
+     *
+     * @param t  The table to search.
+     * @param id The product ID.
+     * @return The slot index.
+     */
+    private static int findSlot(Table t, int id) {
+        int mask = t.slots.length - 1;
+        int slot = hash(id) & mask;
+        while (t.slots[slot] != 0 && t.keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Appends a product at the next dense position, reusing the slot of a removed product with the same ID.
+     *
+     * @param t       The current table.
+     * @param slot    The slot found for the product's ID.
+     * @param product The product to append.
+     */
+    private void append(Table t, int slot, Product product) {
+        if (t.used == t.products.length) {
+            t = rebuild(t);
+            slot = findSlot(t, product.getId());
+        }
+        int position = t.used;
+        PRODUCTS.setRelease(t.products, position, product);
+        t.keys[slot] = product.getId();
+        t.slots[slot] = position + 1;
+        t.used = position + 1; // Publishes the writes above to readers that read used first.
+        this.size++;
+    }
+
+    /**
+     * Builds a new table without holes and tombstones, doubling its capacity when more than
+     * half of the positions are still in use, and publishes it to readers.
+     *
+     * @param old The full table.
+     * @return The new table.
+     */
+    private Table rebuild(Table old) {
+        int capacity = this.size >= old.products.length / 2 ? old.slots.length * 2 : old.slots.length;
+        Table t = new Table(capacity);
+        int position = 0;
+        for (int i = 0; i < old.used; i++) {
+            Product product = old.products[i];
+            if (product != null) {
+                int slot = findSlot(t, product.getId());
+                t.products[position] = product;
+                t.keys[slot] = product.getId();
+                t.slots[slot] = ++position;
+            }
+        }
+        t.used = position;
+        this.table = t;
+        return t;
+    }
+
+    /**
+     * The positions of one table that were in use when the view was taken. For each position a view
+     * offers the stored product and the product retained there, and the reader picks the one it may see.
+     */
+    static final class View {
+        // Table the view reads.
+        private final Table table;
+        // Number of positions in use when the view was taken; later products are not part of the view.
+        private final int used;
+
+        View(Table table, int used) {
+            this.table = table;
+            this.used = used;
+        }
+
+        /**
+         * Gets the number of positions in the view, including holes.
+         *
+         * @return The position count.
+         */
+        int positions() {
+            return this.used;
+        }
+
+        /**
+         * Gets the product stored at a position now.
+         *
+         * @param position The position.
+         * @return The product, or null if the position is a hole.
+         */
+        Product stored(int position) {
+            return (Product) PRODUCTS.getAcquire(this.table.products, position);
+        }
+
+        /**
+         * Gets the product that was removed or replaced at a position while views were open.
+         *
+         * @param position The position.
+         * @return The product, or null if none was retained there.
+         */
+        Product retained(int position) {
+            Product[] retained = this.table.retained;
+            return retained != null ? (Product) PRODUCTS.getAcquire(retained, position) : null;
+        }
+    }
+
+    /**
+     * Spreads the bits of an ID so that sequential IDs do not form long probe runs.
+     *
+     * @param id The product ID.
+     * @return The mixed hash code.
+     */
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
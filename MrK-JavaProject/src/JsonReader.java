@@ -0,0 +1,210 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the small, flat JSON objects that clients send in request bodies, such as
+ * <pre>
+ *   {"id": 42, "name": "Milk 1L", "expiryDate": "2024-06-30", "markdownDays": 6}
+ * </pre>
+ * Member values may be strings, numbers, booleans or null; nested objects and arrays are rejected.
+ * Every value is returned as its text, so callers parse numbers and dates with the rules they need.
+ */
+final class JsonReader {
+    // Text being read.
+    private final CharSequence text;
+    // Position of the next character to read.
+    private int position;
+
+    /**
+     * Constructs a JsonReader.
+     *
+     * @param text The JSON text.
+     */
+    private JsonReader(CharSequence text) {
+        this.text = text;
+    }
+
+    /**
+     * Reads a flat JSON object.
+     *
+     * @param text The JSON text of the object.
+     * @return The members of the object in order, with strings unescaped and null values as null.
+     * @throws IllegalArgumentException if the text is not a flat JSON object.
+     */
+    public static Map<String, String> readObject(CharSequence text) {
+        JsonReader reader = new JsonReader(text);
+        Map<String, String> members = new LinkedHashMap<>();
+        reader.expect('{');
+        if (reader.peek() == '}') {
+            reader.position++;
+        } else {
+            do {
+                reader.skipWhitespace();
+                String name = reader.readString();
+                reader.expect(':');
+                members.put(name, reader.readValue());
+            } while (reader.nextSeparator());
+        }
+        reader.skipWhitespace();
+        if (reader.position != text.length()) {
+            throw reader.error("Unexpected text after the object");
+        }
+        return members;
+    }
+
+    /**
+     * Reads the separator after a member value.
+     *
+     * @return true if a comma follows and another member comes; false if the object ends.
+     */
+    private boolean nextSeparator() {
+        char c = peek();
+        this.position++;
+        if (c == ',') {
+            return true;
+        }
+        if (c == '}') {
+            return false;
+        }
+        this.position--;
+        throw error("Expected ',' or '}'");
+    }
+
+    /**
+     * Reads a member value.
+     *
+     * @return The text of the value, or null for a JSON null.
+     */
+    private String readValue() {
+        char c = peek();
+        if (c == '"') {
+            return readString();
+        }
+        if (c == '{' || c == '[') {
+            throw error("Nested values are not supported");
+        }
+        int start = this.position;
+        while (this.position < this.text.length() && isLiteralChar(this.text.charAt(this.position))) {
+            this.position++;
+        }
+        if (start == this.position) {
+            throw error("Expected a value");
+        }
+        String literal = this.text.subSequence(start, this.position).toString();
+        return literal.equals("null") ? null : literal;
+    }
+
+    /**
+     * Reads a quoted string, resolving escape sequences.
+     *
+     * @return The unescaped string.
+     */
+    private String readString() {
+        if (peek() != '"') {
+            throw error("Expected a string");
+        }
+        this.position++;
+        StringBuilder value = new StringBuilder();
+        while (this.position < this.text.length()) {
+            char c = this.text.charAt(this.position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (this.position >= this.text.length()) {
+                break;
+            }
+            char escaped = this.text.charAt(this.position++);
+            switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    if (this.position + 4 > this.text.length()) {
+                        throw error("Incomplete \\u escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(this.text.subSequence(this.position, this.position + 4).toString(), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid \\u escape");
+                    }
+                    this.position += 4;
+                    break;
+                default:
+                    value.append(escaped); // \" \\ and \/ stand for the character itself.
+                    break;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Skips whitespace and checks that the next character is the expected one.
+     *
+     * @param expected The expected character.
+     */
+    private void expect(char expected) {
+        if (peek() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        this.position++;
+    }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it.
+     *
+     * @return The next character, or 0 at the end of the text.
+     */
+    private char peek() {
+        skipWhitespace();
+        return this.position < this.text.length() ? this.text.charAt(this.position) : 0;
+    }
+
+    /**
+     * Skips JSON whitespace.
+     */
+    private void skipWhitespace() {
+        while (this.position < this.text.length()) {
+            char c = this.text.charAt(this.position);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            this.position++;
+        }
+    }
+
+    /**
+     * Checks whether a character can be part of a number, boolean or null literal.
+     *
+     * @param c The character.
+     * @return true if the character belongs to a literal.
+     */
+    private static boolean isLiteralChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-' || c == '+' || c == '.' || c == 'E';
+    }
+
+    /**
+     * Creates an exception describing a syntax error at the current position.
+     *
+     * @param message The description of the error.
+     * @return The exception to throw.
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + this.position + ".");
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Writes JSON text straight to a character stream, one token at a time, so that a large response is
+ * never assembled in memory. The writer inserts the commas and colons between tokens itself; callers
+ * only open and close objects and arrays and write names and values in order.
+ *
+ * Dates are written as ISO-8601 strings (yyyy-MM-dd) and fixed-point quantities as JSON numbers
+ * with their decimal places, both without creating intermediate strings.
+ */
+class JsonWriter implements Flushable, Closeable {
+    // Hexadecimal digits for \\u escapes.
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Destination of the JSON text. Should be buffered, as tokens are written one by one.
+    private final Writer out;
+    // Builder reused for formatting numbers and dates.
+    private final StringBuilder scratch = new StringBuilder(32);
+    // Characters copied out of the scratch builder, as Writer.append would convert it to a new String.
+    private final char[] chars = new char[32];
+    // Whether the open object or array at each depth still has no elements.
+    private boolean[] empty = new boolean[16];
+    // Number of open objects and arrays.
+    private int depth;
+    // Whether a name was just written, so the next value follows a colon instead of a comma.
+    private boolean afterName;
+
+    /**
+     * Constructs a JsonWriter.
+     *
+     * @param out The buffered writer to write JSON text to.
+     */
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Opens an object.
+     *
+     * @return This writer, for chaining.
+     * @throws IOException if writing fails.
+     */
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        this.out.write('{');
+        push();
+        return this;
+    }
+
+    /**
+     * Closes the innermost object.
+     *
+     * @return This writer, for chaining.
+     * @throws IOException if writing fails.
+     */
+    public JsonWriter endObject() throws IOException {
+        this.depth--;
+        this.out.write('}');
+        return this;
+    }
+
+    /**
+     * Opens an array.
+     *
+     * @return This writer, for chaining.
+     * @throws IOException if writing fails.
+     */
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        this.out.write('[');
+        push();
+        return this;
+    }
+
+    /**
+     * Closes the innermost array.
+     *
+     * @return This writer, for chaining.
+     * @throws IOException if writing fails.
+     */
+    public JsonWriter endArray() throws IOException {
+        this.depth--;
+        this.out.write(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of the innermost object.
+     *
+     * @param name The member name.
+     * @return This writer, for chaining.
+     * @throws IOException if writing fails.
+     */
+    public JsonWriter name(String name) throws IOException {
+        beforeValue();
+        writeString(name);
+        this.out.write(':');
+        this.afterName = true;
+        return this;
+    }
+
+    /**
+     * Writes a string value, or null.
+     *
+     * @param value The string to write.
+     * @return This writer, for chaining.
+     * @throws IOException if writing fails.
+     */
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            this.out.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a whole number value.
+     *
+     * @param value The number to write.
+     * @return This writer, for chaining.
+     * @throws IOException if writing fails.
+     */
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        this.scratch.setLength(0);
+        this.scratch.append(value);
+        writeScratch();
+        return this;
+    }
+
+    /**
+     * Writes a boolean value.
+     *
+     * @param value The boolean to write.
+     * @return This writer, for chaining.
+     * @throws IOException if writing fails.
+     */
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        this.out.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a date as an ISO-8601 string, or null if the date is null.
+     *
+     * @param date The date to write.
+     * @return This writer, for chaining.
+     * @throws IOException if writing fails.
+     */
+    public JsonWriter value(LocalDate date) throws IOException {
+        beforeValue();
+        if (date == null) {
+            this.out.write("null");
+            return this;
+        }
+        this.scratch.setLength(0);
+        this.scratch.append('"');
+        int year = date.getYear();
+        if (year >= 0 && year < 1000) {
+            this.scratch.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+        }
+        this.scratch.append(year).append('-');
+        appendTwoDigits(date.getMonthValue()).append('-');
+        appendTwoDigits(date.getDayOfMonth()).append('"');
+        writeScratch();
+        return this;
+    }
+
+    /**
+     * Writes a fixed-point quantity as a JSON number with its decimal places.
+     *
+     * @param units The quantity in 10^-scale units.
+     * @param scale The number of decimal places of the units.
+     * @return This writer, for chaining.
+     * @throws IOException if writing fails.
+     */
+    public JsonWriter quantity(long units, int scale) throws IOException {
+        beforeValue();
+        this.scratch.setLength(0);
+        Quantities.appendTo(this.scratch, units, scale);
+        writeScratch();
+        return this;
+    }
+
+    /**
+     * Flushes the destination.
+     *
+     * @throws IOException if flushing fails.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    /**
+     * Flushes and closes the destination.
+     *
+     * @throws IOException if closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    /**
+     * Writes the comma that separates a value from the previous element of the innermost container,
+     * unless the value follows a member name or is the first element.
+     *
+     * @throws IOException if writing fails.
+     */
+    private void beforeValue() throws IOException {
+        if (this.afterName) {
+            this.afterName = false;
+        } else if (this.depth > 0) {
+            if (this.empty[this.depth - 1]) {
+                this.empty[this.depth - 1] = false;
+            } else {
+                this.out.write(',');
+            }
+        }
+    }
+
+    /**
+     * Records a newly opened object or array.
+     */
+    private void push() {
+        if (this.depth == this.empty.length) {
+            this.empty = Arrays.copyOf(this.empty, this.depth * 2);
+        }
+        this.empty[this.depth++] = true;
+    }
+
+    /**
+     * Writes a quoted string, escaping the characters JSON requires.
+     *
+     * @param value The string to write.
+     * @throws IOException if writing fails.
+     */
+    private void writeString(String value) throws IOException {
+        this.out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            this.out.write(value, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    this.out.write("\\\"");
+                    break;
+                case '\\':
+                    this.out.write("\\\\");
+                    break;
+                case '\n':
+                    this.out.write("\\n");
+                    break;
+                case '\r':
+                    this.out.write("\\r");
+                    break;
+                case '\t':
+                    this.out.write("\\t");
+                    break;
+                default:
+                    this.out.write("\\u00");
+                    this.out.write(HEX[c >> 4]);
+                    this.out.write(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        this.out.write(value, start, value.length() - start);
+        this.out.write('"');
+    }
+
+    /**
+     * Appends a number from 0 to 99 as exactly two digits to the scratch builder.
+     *
+     * @param value The number to append.
+     * @return The scratch builder, for chaining.
+     */
+    private StringBuilder appendTwoDigits(int value) {
+        return this.scratch.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Writes the contents of the scratch builder.
+     *
+     * @throws IOException if writing fails.
+     */
+    private void writeScratch() throws IOException {
+        int length = this.scratch.length();
+        this.scratch.getChars(0, length, this.chars, 0);
+        this.out.write(this.chars, 0, length);
+    }
+}
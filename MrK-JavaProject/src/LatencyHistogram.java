@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds with log-linear buckets, in the style of HdrHistogram.
+ *
+ * Each power of two is split into SUB_BUCKETS equal buckets, so every recorded value is kept to within
+ * 1/SUB_BUCKETS (about 6%) of its true value from one nanosecond up to the largest long, in a fixed array
+ * of BUCKET_COUNT counters. Recording finds the bucket with a few bit operations and increments one counter,
+ * so it allocates nothing, takes no lock and is cheap enough to leave on in production.
+ * Percentiles are computed when read, by walking the counters.
+ *
+ * Threads that record at once would all increment the same few hot buckets, so the counters are striped
+ * like a LongAdder: there is one array of counters at first, and whenever an increment loses a race with
+ * another thread, the number of arrays is doubled, up to the number of CPUs. Each thread increments the
+ * array its thread ID hashes to, and reads add up all arrays. The largest value is kept in a
+ * LongAccumulator, which only writes when a new maximum is recorded.
+ */
+final class LatencyHistogram {
+    // Bits of precision below the leading bit of a value.
+    private static final int SUB_BUCKET_BITS = 4;
+    // Buckets per power of two.
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Number of buckets, enough for any non-negative long.
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // Largest number of counter arrays: the number of CPUs, rounded up to a power of two.
+    private static final int MAX_STRIPES = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors() * 2 - 1, 1));
+
+    // Number of values recorded in each bucket, split over one array per stripe. The length is a power of two.
+    private volatile AtomicLongArray[] stripes = {new AtomicLongArray(BUCKET_COUNT)};
+    // Number of values recorded.
+    private final LongAdder count = new LongAdder();
+    // Sum of the values recorded, for the mean.
+    private final LongAdder total = new LongAdder();
+    // Largest value recorded.
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one value. Negative values are recorded as 0.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        int bucket = bucketOf(value);
+        AtomicLongArray[] stripes = this.stripes;
+        AtomicLongArray counts = stripes[stripeOf(Thread.currentThread()) & (stripes.length - 1)];
+        long current = counts.get(bucket);
+        if (!counts.compareAndSet(bucket, current, current + 1)) {
+            counts.getAndIncrement(bucket);
+            addStripes(stripes); // Another thread increments the same counters.
+        }
+        this.count.increment();
+        this.total.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Gets the mean of the values recorded.
+     *
+     * @return The mean latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getMean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : this.total.sum() / count;
+    }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @return The maximum latency in nanoseconds, exact rather than bucketed.
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Gets the value below which a given percentage of the recorded values fall.
+     *
+     * @param percentile The percentage, from 0 to 100.
+     * @return The highest value of the bucket holding that percentile, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for (AtomicLongArray counts : this.stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long bucketCount = counts.get(i);
+                snapshot[i] += bucketCount;
+                count += bucketCount;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Clears the histogram. Values recorded while it is being cleared may or may not be kept.
+     */
+    public void reset() {
+        for (AtomicLongArray counts : this.stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts.set(i, 0);
+            }
+        }
+        this.count.reset();
+        this.total.reset();
+        this.max.reset();
+    }
+
+    /**
+     * Gets the number of counter arrays, which grows with the number of threads that record at once.
+     *
+     * @return The number of stripes.
+     */
+    public int getStripeCount() {
+        return this.stripes.length;
+    }
+
+    /**
+     * Doubles the number of counter arrays after threads raced on one, unless another thread already did
+     * or the number of CPUs is reached. Counts already recorded stay in their arrays.
+     *
+     * @param seen The arrays the racing thread used.
+     */
+    private synchronized void addStripes(AtomicLongArray[] seen) {
+        if (this.stripes != seen || seen.length >= MAX_STRIPES) {
+            return;
+        }
+        AtomicLongArray[] grown = Arrays.copyOf(seen, seen.length * 2);
+        for (int i = seen.length; i < grown.length; i++) {
+            grown[i] = new AtomicLongArray(BUCKET_COUNT);
+        }
+        this.stripes = grown;
+    }
+
+    /**
+     * Spreads the ID of a thread over the stripes, so consecutive thread IDs use different arrays.
+     *
+     * @param thread The recording thread.
+     * @return The hash of the thread, to be masked by the number of stripes.
+     */
+    private static int stripeOf(Thread thread) {
+        int h = (int) thread.getId() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Finds the bucket of a value: values below SUB_BUCKETS have a bucket each, and larger values are
+     * bucketed by the position of their leading bit and the SUB_BUCKET_BITS bits below it.
+     *
+     * @param value The non-negative value.
+     * @return The bucket index.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the highest value that falls in a bucket.
+     *
+     * @param bucket The bucket index.
+     * @return The highest value of the bucket.
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowest = (SUB_BUCKETS + bucket % SUB_BUCKETS) * width;
+        return lowest + width - 1;
+    }
+}
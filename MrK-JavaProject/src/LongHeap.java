@@ -0,0 +1,141 @@
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of primitive long values. Values are never boxed, so a heap of millions of
+ * entries is a single array and pushing or popping one allocates nothing unless the array grows.
+ */
+class LongHeap {
+    // Initial capacity of the heap array.
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Heap-ordered values: every value is less than or equal to its two children.
+    private long[] values = new long[INITIAL_CAPACITY];
+    // Number of values stored.
+    private int size;
+
+    /**
+     * Adds a value.
+     *
+     * @param value The value to add.
+     */
+    public void push(long value) {
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+        }
+        siftUp(this.size++, value);
+    }
+
+    /**
+     * Adds many values at once. A batch that is large compared to the heap is appended and the whole heap
+     * is rebuilt in linear time; a small batch is sifted up value by value, in O(count log size), so that
+     * adding batches to a large heap again and again does not rebuild it every time.
+     *
+     * @param added  The values to add.
+     * @param count  The number of values to take from the start of the array.
+     */
+    public void pushAll(long[] added, int count) {
+        int total = this.size + count;
+        if (total > this.values.length) {
+            this.values = Arrays.copyOf(this.values, Math.max(total, this.values.length * 2));
+        }
+        // A rebuild costs about 2 * total steps and sifting up at most log2(total) steps per value.
+        int log = 32 - Integer.numberOfLeadingZeros(total);
+        if ((long) count * log < 2L * total) {
+            for (int i = 0; i < count; i++) {
+                siftUp(this.size++, added[i]);
+            }
+            return;
+        }
+        System.arraycopy(added, 0, this.values, this.size, count);
+        this.size = total;
+        for (int index = (this.size >>> 1) - 1; index >= 0; index--) {
+            siftDown(index, this.values[index]);
+        }
+    }
+
+    /**
+     * Returns the smallest value without removing it.
+     *
+     * @return The smallest value.
+     * @throws IllegalStateException if the heap is empty.
+     */
+    public long peek() {
+        if (this.size == 0) {
+            throw new IllegalStateException("Heap is empty.");
+        }
+        return this.values[0];
+    }
+
+    /**
+     * Removes and returns the smallest value.
+     *
+     * @return The smallest value.
+     * @throws IllegalStateException if the heap is empty.
+     */
+    public long pop() {
+        long smallest = peek();
+        long last = this.values[--this.size];
+        if (this.size > 0) {
+            siftDown(0, last);
+        }
+        return smallest;
+    }
+
+    /**
+     * Gets the number of values stored.
+     *
+     * @return The number of values.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks whether the heap is empty.
+     *
+     * @return true if no values are stored; false otherwise.
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Places a value at a position and moves it up until its parent is smaller or equal.
+     *
+     * @param index The position to start at, which must be free.
+     * @param value The value to place.
+     */
+    private void siftUp(int index, long value) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (this.values[parent] <= value) {
+                break;
+            }
+            this.values[index] = this.values[parent];
+            index = parent;
+        }
+        this.values[index] = value;
+    }
+
+    /**
+     * Places a value at a position and moves it down until both of its children are larger.
+     *
+     * @param index The position to start at.
+     * @param value The value to place.
+     */
+    private void siftDown(int index, long value) {
+        int half = this.size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < this.size && this.values[child + 1] < this.values[child]) {
+                child++;
+            }
+            if (value <= this.values[child]) {
+                break;
+            }
+            this.values[index] = this.values[child];
+            index = child;
+        }
+        this.values[index] = value;
+    }
+}
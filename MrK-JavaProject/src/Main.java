@@ -1,8 +1,21 @@
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.format.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 
 /**
@@ -12,44 +25,260 @@ import java.util.Scanner;
 public class Main {
     // List to hold the valid options for the user to select
     public static List<Integer> validOptions = new ArrayList<>();
+    // Menu entries by option number. processOption has a case for each of them, and only these are valid.
+    private static final Map<Integer, String> MENU = new LinkedHashMap<>();
+
+    static {
+        MENU.put(1, "Products");
+        MENU.put(2, "Create Product.");
+        MENU.put(3, "Products To Refill.");
+        MENU.put(4, "Product Count.");
+        MENU.put(5, "Product's Expiry Date.");
+        MENU.put(6, "Display Expired Products.");
+        MENU.put(7, "Products In Mark Down.");
+        MENU.put(9, "Products For Mark Down.");
+        MENU.put(10, "Import Products From File.");
+        MENU.put(11, "Metrics.");
+        MENU.put(12, "Search Products By Name.");
+        MENU.put(13, "End Of Day Report.");
+        MENU.put(14, "Find Product By Barcode.");
+    }
+    // Directory the catalog is persisted to. Can be changed with the mrk.dataDir system property.
+    private static final String DATA_DIRECTORY = System.getProperty("mrk.dataDir", "data");
+    // Longest time a change waits for its group commit. Can be changed with the mrk.commitDelayMillis property.
+    private static final long COMMIT_DELAY_MILLIS = Long.getLong("mrk.commitDelayMillis", 2);
+    // Batch size that triggers a group commit at once. Can be changed with the mrk.commitBatchBytes property.
+    private static final int COMMIT_BATCH_BYTES = Integer.getInteger("mrk.commitBatchBytes", 64 * 1024);
+    // Number of logged changes between snapshots. Can be changed with the mrk.snapshotInterval property.
+    private static final int SNAPSHOT_INTERVAL = Integer.getInteger("mrk.snapshotInterval", 100_000);
+    // Number of HTTP connections waiting to be accepted. Can be changed with the mrk.httpBacklog property.
+    private static final int HTTP_BACKLOG = Integer.getInteger("mrk.httpBacklog", 4096);
+    // Markdown steps as "days before expiry:percent off". Can be changed with the mrk.markdownSteps property.
+    private static final String MARKDOWN_STEPS = System.getProperty("mrk.markdownSteps", "6:20,3:40,1:60");
+    // Whether the date reports scan a columnar copy of the catalog. Can be turned on with the mrk.columnarReports property.
+    private static final boolean COLUMNAR_REPORTS = Boolean.getBoolean("mrk.columnarReports");
+    // Whether operation metrics include allocated bytes. Can be turned on with the mrk.metricsAllocations property.
+    private static final boolean METRICS_ALLOCATIONS = Boolean.getBoolean("mrk.metricsAllocations");
+    // Largest number of products a name search displays.
+    private static final int NAME_SEARCH_RESULTS = 20;
 
     /**
      * main method and entry point of the application.
+     * With the arguments "--http port", the JSON API is also served on that port while the menu runs.
+     * With the arguments "--batch file", the commands in the file are run instead of the menu, and with
+     * "--batch -" the commands piped to standard input; see BatchCommandRunner for the commands.
      *
      * @param args Command-line arguments.
+     * @throws IOException if the stored products cannot be recovered, the log cannot be written,
+     *                     the HTTP port cannot be bound or the batch script cannot be read.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         // Initialization of core components and create new objects
         Database database = new Database();
-        ProductService service = new ProductService(database); //creates service object
-        // Prepare the list of valid options
-        initializeOptions();
-        // Display a welcome message to the user
-        displayWelcomeMessage();
-        // Create a scanner object to read user input
-        Scanner scanner = new Scanner(System.in);
-
-        // Main loop to process user selections and keeps program running
-        int option;
-        do {
-            displaySelectionMessage();
-            option = readOption(scanner);
-            if (option != 0) {
-                processOption(option, service, scanner);
+        // Recover the products saved by earlier runs, then log every change made in this run
+        DurableStore store = new DurableStore(Paths.get(DATA_DIRECTORY), database,
+                COMMIT_DELAY_MILLIS, COMMIT_BATCH_BYTES, SNAPSHOT_INTERVAL);
+        // A batch run holds its reports back and writes them out in large blocks
+        String batchScript = argument(args, "--batch");
+        ReportWriter report = new ReportWriter(System.out, batchScript == null);
+        ProductService service = new ProductService(database, report); //creates service object
+        service.addChangeListener(store);
+        // Publish the operation and commit metrics over JMX, e.g. for JConsole
+        service.getMetrics().setTrackAllocations(METRICS_ALLOCATIONS);
+        registerMBeans(service, store);
+        // Announce markdowns and expiries as the days roll over, without rescanning the catalog
+        ProductEventScheduler scheduler = new ProductEventScheduler(database, service.getClock());
+        service.addChangeListener(scheduler);
+        // Price new products at once and reprice the products in markdown every day. Registered with the
+        // scheduler before the change feed, so markdown events are published with the markdown price
+        PricingEngine pricing = new PricingEngine(database, MarkdownPolicy.parse(MARKDOWN_STEPS), service.getClock());
+        service.addChangeListener(pricing);
+        scheduler.addEventListener(pricing);
+        // Scan-heavy reports over large catalogs run faster over primitive columns than over Product objects
+        if (COLUMNAR_REPORTS) {
+            service.useColumnarTable(new ColumnarProductTable());
+        }
+        // Staff look products up by name rather than by ID
+        service.useNameIndex(new ProductNameIndex());
+        // Repeated reports are answered from the cache, which drops the reports of past days at midnight
+        scheduler.addEventListener(service.getReportCache());
+        // Downstream systems follow creations, stock movements, markdowns and expiries through the change feed
+        scheduler.addEventListener(service.getChangeFeed());
+        scheduler.addEventListener(new ProductEventListener() {
+            @Override
+            public void markdownStarted(Product product, LocalDate date) {
+                System.out.println("Product ID " + product.getId() + " (" + product.getProductName()
+                        + ") enters markdown on " + date.format(ProductService.DATE_FORMATTER) + ".");
             }
-        } while (option != 0);
 
-        scanner.close();
+            @Override
+            public void productExpired(Product product, LocalDate date) {
+                System.out.println("Product ID " + product.getId() + " (" + product.getProductName()
+                        + ") has expired and should be pulled.");
+            }
+        });
+        scheduler.start();
+        // Serve the same service to store devices over HTTP if a port was given
+        ProductApiServer apiServer = startApiServer(args, service);
+        if (batchScript != null) {
+            runBatch(batchScript, service, report);
+        } else {
+            // Prepare the list of valid options
+            initializeOptions();
+            // Display a welcome message to the user
+            displayWelcomeMessage();
+            // Create a scanner object to read user input
+            Scanner scanner = new Scanner(System.in);
+
+            // Main loop to process user selections and keeps program running
+            int option;
+            do {
+                displaySelectionMessage();
+                option = readOption(scanner);
+                if (option != 0) {
+                    processOption(option, service, store, scanner);
+                }
+            } while (option != 0);
+
+            scanner.close();
+        }
+        scheduler.stop();
+        if (apiServer != null) {
+            apiServer.close();
+        }
+        service.getChangeFeed().close();
+        store.close();
         System.out.println("Program terminated.");
     }
 
     /**
-     * method initializes the list of valid options.
+     * Registers the operation metrics of the service and the commit metrics of the write-ahead log
+     * on the platform MBean server. A failure only costs the JMX view, so it is reported and ignored.
+     *
+     * @param service The ProductService instance.
+     * @param store   The durable store.
+     */
+    private static void registerMBeans(ProductService service, DurableStore store) {
+        try {
+            service.getMetrics().registerMBeans("main");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(store.getLog(), new ObjectName("mrk:type=WriteAheadLog"));
+        } catch (JMException e) {
+            System.out.println("Metrics are not available over JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the operation metrics, the write-ahead log statistics, the report cache statistics and the
+     * position of the change feed and the catalog versions as plain text or JSON.
+     *
+     * @param service The ProductService instance.
+     * @param store   The durable store.
+     * @param scanner The Scanner object for user input.
      */
-    private static void initializeOptions() {
-        for (int i = 0; i <= 9; i++) {
-            validOptions.add(i);
+    private static void displayMetrics(ProductService service, DurableStore store, Scanner scanner) {
+        System.out.println("Type 'json' for JSON, or press Enter for plain text:");
+        String format = scanner.nextLine().trim();
+        WriteAheadLog log = store.getLog();
+        ReportCache cache = service.getReportCache();
+        ProductChangeFeed feed = service.getChangeFeed();
+        CatalogVersions versions = service.getCatalogVersions();
+        if (format.equalsIgnoreCase("json")) {
+            try {
+                JsonWriter json = new JsonWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                json.beginObject().name("operations").beginObject();
+                service.getMetrics().writeJson(json);
+                json.endObject().name("wal").beginObject()
+                        .name("commits").value(log.getCommitCount())
+                        .name("entries").value(log.getCommittedEntries())
+                        .name("averageCommitNanos").value(Math.round(log.getAverageCommitMicros() * 1000))
+                        .name("maxCommitNanos").value(Math.round(log.getMaxCommitMicros() * 1000))
+                        .endObject().name("reportCache").beginObject()
+                        .name("entries").value(cache.size())
+                        .name("hits").value(cache.getHitCount())
+                        .name("misses").value(cache.getMissCount())
+                        .name("evictions").value(cache.getEvictionCount())
+                        .name("invalidations").value(cache.getInvalidationCount())
+                        .endObject().name("changeFeed").beginObject()
+                        .name("lastSequence").value(feed.getLastSequence())
+                        .name("subscribers").value(feed.getSubscriberCount())
+                        .endObject().name("catalogVersions").beginObject()
+                        .name("lastVersion").value(versions.getLastVersion())
+                        .name("openSnapshots").value(versions.getPinnedCount())
+                        .name("shelvesWithHistory").value(versions.getShelvesWithHistory())
+                        .endObject().endObject();
+                json.flush();
+                System.out.println();
+            } catch (IOException e) {
+                System.out.println("Metrics could not be written: " + e.getMessage());
+            }
+            return;
+        }
+        ReportWriter report = new ReportWriter(System.out);
+        service.getMetrics().writeText(report);
+        report.println(log.toString());
+        report.println(cache.toString());
+        report.println(feed.toString());
+        report.println(versions.toString());
+        report.flush();
+    }
+
+    /**
+     * Starts the HTTP JSON API if the arguments ask for it.
+     *
+     * @param args    Command-line arguments, which may contain "--http port".
+     * @param service The ProductService instance.
+     * @return The running server, or null if no port was given.
+     * @throws IOException if the port cannot be bound.
+     */
+    private static ProductApiServer startApiServer(String[] args, ProductService service) throws IOException {
+        String port = argument(args, "--http");
+        if (port == null) {
+            return null;
+        }
+        ProductApiServer server = new ProductApiServer(service, new InetSocketAddress(Integer.parseInt(port)), HTTP_BACKLOG);
+        server.start();
+        System.out.println("Serving the product API on port " + server.getAddress().getPort());
+        return server;
+    }
+
+    /**
+     * Runs the commands of a batch script.
+     *
+     * @param script  The path of the script, or "-" for standard input.
+     * @param service The ProductService instance.
+     * @param report  The writer the service writes its reports to.
+     * @throws IOException if the script cannot be read.
+     */
+    private static void runBatch(String script, ProductService service, ReportWriter report) throws IOException {
+        try (Reader in = script.equals("-")
+                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : Files.newBufferedReader(Paths.get(script))) {
+            new BatchCommandRunner(service, report).run(in);
+        }
+    }
+
+    /**
+     * Finds the value of a command-line option, such as the port in "--http port".
+     *
+     * @param args Command-line arguments.
+     * @param name The name of the option.
+     * @return The value following the option, or null if the option is not given.
+     */
+    private static String argument(String[] args, String name) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
         }
+        return null;
+    }
+
+    /**
+     * method initializes the list of valid options: 0 to exit, and the options of the menu.
+     */
+    private static void initializeOptions() {
+        validOptions.add(0);
+        validOptions.addAll(MENU.keySet());
     }
 
     /**
@@ -66,14 +295,9 @@ public class Main {
     private static void displaySelectionMessage() {
         // Display the menu options
         System.out.println("Which display would you like to go to:");
-        System.out.println("1: Products");
-        System.out.println("2: Create Product.");
-        System.out.println("3: Products To Refill.");
-        System.out.println("4: Product Count.");
-        System.out.println("5: Product's Expiry Date.");
-        System.out.println("6: Display Expired Products.");
-        System.out.println("7: Products In Mark Down.");
-        System.out.println("8: Products For Mark Down.");
+        for (Map.Entry<Integer, String> entry : MENU.entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue());
+        }
         System.out.println("To close the program at any time, press: 0.");
         System.out.println();
     }
@@ -122,9 +346,10 @@ public class Main {
      *
      * @param option   The user's selected option.
      * @param service  The ProductService instance.
+     * @param store    The durable store whose log statistics are part of the metrics.
      * @param scanner  The Scanner object for user input.
      */
-    private static void processOption(int option, ProductService service, Scanner scanner) {
+    private static void processOption(int option, ProductService service, DurableStore store, Scanner scanner) {
         String input;
         Integer productId;
         switch (option) {
@@ -194,6 +419,32 @@ public class Main {
                 displayForMarkDownMessage();
                 service.displayProductsForMarkDown();
                 break;
+            case 10: // Import products in bulk from a file
+                importProducts(service, scanner);
+                break;
+            case 11: // Dump the operation metrics
+                displayMetrics(service, store, scanner);
+                break;
+            case 12: // Search products by the start of a word of the name, or a similar name
+                System.out.println("Enter a product name or the start of one:");
+                input = scanner.nextLine().trim();
+                if (!input.isEmpty()) {
+                    service.displayProductsByName(input, NAME_SEARCH_RESULTS);
+                }
+                break;
+            case 13: // Expired, markdown and refill sections from one snapshot of the catalog
+                displayMessage("End Of Day Report:");
+                service.displayEndOfDayReport();
+                break;
+            case 14: // Look up the product of a scanned or typed barcode
+                System.out.println("Scan or enter a barcode:");
+                input = scanner.nextLine().trim();
+                try {
+                    service.displayProductByBarcode(Gtin.parse(input));
+                } catch (IllegalArgumentException e) {
+                    displayMessage(e.getMessage());
+                }
+                break;
             default:
                 displayMessage("Invalid Input. Select a valid option.");
                 break;
@@ -286,10 +537,10 @@ public class Main {
         String expiryDateStr = scanner.nextLine();
         LocalDate expiryDate;
         if (expiryDateStr.isEmpty()) {
-            expiryDate = LocalDate.now().plusMonths(3);
+            expiryDate = service.today().plusMonths(3);
         } else {
             try {
-                expiryDate = LocalDate.parse(expiryDateStr, DateTimeFormatter.ofPattern("MM/dd/yyyy"));
+                expiryDate = LocalDate.parse(expiryDateStr, ProductService.DATE_FORMATTER);
             } catch (DateTimeParseException e) {
                 System.out.println("Invalid date format. Please enter the date in MM/dd/yyyy format.");
                 return;
@@ -309,8 +560,20 @@ public class Main {
             return;
         }
 
+        System.out.println("Enter Base Price (for example 3.49) or press Enter if the product is not priced:");
+        String priceStr = scanner.nextLine().trim();
+        long basePrice = 0;
+        if (!priceStr.isEmpty()) {
+            try {
+                basePrice = Quantities.parse(priceStr, Product.PRICE_SCALE);
+            } catch (NumberFormatException | ArithmeticException e) {
+                System.out.println("Invalid price. Enter a non-negative amount with at most two decimal places.");
+                return;
+            }
+        }
+
         //boolean that tells you that product was successfully created or not
-        boolean isCreated = service.createProduct(productId, productName, expiryDate, markdownDate);
+        boolean isCreated = service.createProduct(productId, productName, expiryDate, markdownDate, basePrice);
         if (isCreated) {
             System.out.println(productName + " with Product ID " + productId + " created successfully.");
         } else {
@@ -318,6 +581,30 @@ public class Main {
         }
     }
 
-
+    /**
+     * Imports products in bulk from a comma-separated file named by the user.
+     *
+     * @param service The ProductService instance.
+     * @param scanner The Scanner object for user input.
+     */
+    private static void importProducts(ProductService service, Scanner scanner) {
+        System.out.println("Enter the path of the file to import (id,name,expiry date,markdown days,shelf min,shelf max,shelf current,base price):");
+        String path = scanner.nextLine().trim();
+        if (path.isEmpty()) {
+            System.out.println("No file given.");
+            return;
+        }
+        try {
+            ProductImporter.ImportResult result = new ProductImporter(service).importFile(Paths.get(path));
+            for (String error : result.getErrors()) {
+                System.out.println(error);
+            }
+            if (result.getErrorCount() > result.getErrors().size()) {
+                System.out.println("... and " + (result.getErrorCount() - result.getErrors().size()) + " more errors.");
+            }
+            System.out.println("Imported " + result.getImported() + " of " + result.getRowsRead() + " products.");
+        } catch (IOException | IllegalStateException e) {
+            System.out.println("Failed to import products: " + e.getMessage());
+        }
+    }
 }
-
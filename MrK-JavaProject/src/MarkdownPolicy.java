@@ -0,0 +1,97 @@
+/**
+ * Decides how much a product in markdown is discounted, in percentage steps that deepen as its
+ * expiry date approaches. A policy of "6:20,3:40,1:60" takes 20% off from six days before expiry,
+ * 40% from three days before and 60% from the day before expiry onwards.
+ *
+ * Discounts are held in basis points (hundredths of a percent) and prices in cents, so computing a
+ * price is integer arithmetic only. The policy is immutable and precomputes the discount for every
+ * number of days up to its first step, so looking up a discount is a single array read.
+ */
+final class MarkdownPolicy {
+    // Basis points in 100%.
+    public static final int FULL_BASIS_POINTS = 10_000;
+
+    // Discount in basis points indexed by the number of days left until expiry, up to the first step.
+    private final int[] discountByDaysLeft;
+    // Discount of the first step, which applies to any product in markdown further from expiry.
+    private final int firstStepDiscount;
+    // Discount of the last step, which also applies once the product has expired.
+    private final int lastStepDiscount;
+
+    /**
+     * Constructs a MarkdownPolicy from its steps.
+     *
+     * @param daysBeforeExpiry The number of days before expiry at which each step starts.
+     * @param discounts        The discount of each step in basis points.
+     * @throws IllegalArgumentException if the arrays differ in length or are empty, or a value is out of range.
+     */
+    public MarkdownPolicy(int[] daysBeforeExpiry, int[] discounts) {
+        if (daysBeforeExpiry.length == 0 || daysBeforeExpiry.length != discounts.length) {
+            throw new IllegalArgumentException("A markdown policy needs at least one step with a day count and a discount.");
+        }
+        int maxDays = 0;
+        for (int i = 0; i < daysBeforeExpiry.length; i++) {
+            if (daysBeforeExpiry[i] < 0 || discounts[i] < 0 || discounts[i] > FULL_BASIS_POINTS) {
+                throw new IllegalArgumentException("Markdown steps need a non-negative day count and a discount of at most 100%.");
+            }
+            maxDays = Math.max(maxDays, daysBeforeExpiry[i]);
+        }
+        // Each day gets the deepest discount of the steps that have started by then,
+        // so a price never goes back up as the expiry date approaches.
+        this.discountByDaysLeft = new int[maxDays + 1];
+        for (int i = 0; i < daysBeforeExpiry.length; i++) {
+            for (int days = 0; days <= daysBeforeExpiry[i]; days++) {
+                this.discountByDaysLeft[days] = Math.max(this.discountByDaysLeft[days], discounts[i]);
+            }
+        }
+        this.firstStepDiscount = this.discountByDaysLeft[maxDays];
+        this.lastStepDiscount = this.discountByDaysLeft[0];
+    }
+
+    /**
+     * Parses a policy written as comma-separated steps of "days before expiry:percent off",
+     * such as "6:20,3:40,1:60". Percentages may have up to two decimal places.
+     *
+     * @param text The policy text.
+     * @return The parsed policy.
+     * @throws IllegalArgumentException if the text is malformed.
+     */
+    public static MarkdownPolicy parse(String text) {
+        String[] steps = text.split(",");
+        int[] days = new int[steps.length];
+        int[] discounts = new int[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            String[] parts = steps[i].split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Markdown step '" + steps[i].trim() + "' must be days:percent.");
+            }
+            days[i] = Integer.parseInt(parts[0].trim());
+            discounts[i] = Math.toIntExact(Quantities.parse(parts[1].trim(), 2));
+        }
+        return new MarkdownPolicy(days, discounts);
+    }
+
+    /**
+     * Gets the discount for a product in markdown.
+     *
+     * @param daysLeft The number of days until the expiry date, negative once the product has expired.
+     * @return The discount in basis points.
+     */
+    public int discount(long daysLeft) {
+        if (daysLeft < 0) {
+            return this.lastStepDiscount;
+        }
+        return daysLeft < this.discountByDaysLeft.length ? this.discountByDaysLeft[(int) daysLeft] : this.firstStepDiscount;
+    }
+
+    /**
+     * Computes a discounted price, rounding half a cent up.
+     *
+     * @param basePrice The regular price in cents.
+     * @param discount  The discount in basis points.
+     * @return The discounted price in cents.
+     */
+    public static long applyDiscount(long basePrice, int discount) {
+        return (basePrice * (FULL_BASIS_POINTS - discount) + FULL_BASIS_POINTS / 2) / FULL_BASIS_POINTS;
+    }
+}
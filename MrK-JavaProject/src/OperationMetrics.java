@@ -0,0 +1,220 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of one operation: its calls, a latency histogram, the rows it scanned and matched, and
+ * optionally the heap it allocated. Every field is a LongAdder or a LatencyHistogram, both of which spread
+ * their counters over more cells as threads collide, so recording is lock-free and threads recording the
+ * same operation at once do not keep contending on a shared counter.
+ *
+ * A call is measured by taking a start time and an allocation mark before it and passing both to record
+ * after it:
+ * <pre>
+ *   long start = System.nanoTime();
+ *   long mark = metrics.allocationMark();
+ *   ...
+ *   metrics.record(start, mark, scanned, matched);
+ * </pre>
+ */
+class OperationMetrics implements OperationMetricsMXBean {
+    // Per-thread allocation counter of HotSpot, or null if the JVM does not offer one.
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    // Name of the operation.
+    private final String name;
+    // Latency of every call.
+    private final LatencyHistogram latency = new LatencyHistogram();
+    // Rows read by the calls.
+    private final LongAdder rowsScanned = new LongAdder();
+    // Rows returned or displayed by the calls.
+    private final LongAdder rowsMatched = new LongAdder();
+    // Bytes allocated by the calling threads during the calls.
+    private final LongAdder allocatedBytes = new LongAdder();
+    // Whether allocations are measured. Reading the allocation counter costs a few dozen nanoseconds per call.
+    private volatile boolean trackAllocations;
+
+    /**
+     * Constructs OperationMetrics.
+     *
+     * @param name             The name of the operation.
+     * @param trackAllocations Whether to measure the bytes each call allocates, if the JVM supports it.
+     */
+    public OperationMetrics(String name, boolean trackAllocations) {
+        this.name = name;
+        this.trackAllocations = trackAllocations && THREADS != null;
+    }
+
+    /**
+     * Gets the name of the operation.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Turns measuring the bytes each call allocates on or off. Has no effect if the JVM cannot count allocations.
+     *
+     * @param trackAllocations Whether to measure allocations.
+     */
+    public void setTrackAllocations(boolean trackAllocations) {
+        this.trackAllocations = trackAllocations && THREADS != null;
+    }
+
+    /**
+     * Reads the allocation counter of the current thread, to be passed to record after the call.
+     *
+     * @return The bytes the thread has allocated so far, or -1 if allocations are not tracked.
+     */
+    public long allocationMark() {
+        return this.trackAllocations ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    /**
+     * Records a call that has just finished.
+     *
+     * @param startNanos     The System.nanoTime() taken before the call.
+     * @param allocationMark The allocationMark() taken before the call.
+     * @param scanned        The number of rows the call read.
+     * @param matched        The number of rows the call returned or displayed.
+     */
+    public void record(long startNanos, long allocationMark, long scanned, long matched) {
+        this.latency.record(System.nanoTime() - startNanos);
+        if (allocationMark >= 0) {
+            this.allocatedBytes.add(THREADS.getCurrentThreadAllocatedBytes() - allocationMark);
+        }
+        if (scanned != 0) {
+            this.rowsScanned.add(scanned);
+        }
+        if (matched != 0) {
+            this.rowsMatched.add(matched);
+        }
+    }
+
+    /**
+     * Gets the latency histogram of the calls.
+     *
+     * @return The histogram.
+     */
+    public LatencyHistogram getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * Gets the number of calls.
+     *
+     * @return The call count.
+     */
+    @Override
+    public long getCount() {
+        return this.latency.getCount();
+    }
+
+    /**
+     * Gets the mean latency of the calls.
+     *
+     * @return The mean latency in nanoseconds.
+     */
+    @Override
+    public long getMeanNanos() {
+        return this.latency.getMean();
+    }
+
+    /**
+     * Gets the median latency of the calls.
+     *
+     * @return The 50th percentile in nanoseconds.
+     */
+    @Override
+    public long getP50Nanos() {
+        return this.latency.getPercentile(50);
+    }
+
+    /**
+     * Gets the 99th percentile latency of the calls.
+     *
+     * @return The 99th percentile in nanoseconds.
+     */
+    @Override
+    public long getP99Nanos() {
+        return this.latency.getPercentile(99);
+    }
+
+    /**
+     * Gets the 99.9th percentile latency of the calls.
+     *
+     * @return The 99.9th percentile in nanoseconds.
+     */
+    @Override
+    public long getP999Nanos() {
+        return this.latency.getPercentile(99.9);
+    }
+
+    /**
+     * Gets the longest latency of the calls.
+     *
+     * @return The maximum latency in nanoseconds.
+     */
+    @Override
+    public long getMaxNanos() {
+        return this.latency.getMax();
+    }
+
+    /**
+     * Gets the number of rows the calls read.
+     *
+     * @return The rows scanned.
+     */
+    @Override
+    public long getRowsScanned() {
+        return this.rowsScanned.sum();
+    }
+
+    /**
+     * Gets the number of rows the calls returned or displayed.
+     *
+     * @return The rows matched.
+     */
+    @Override
+    public long getRowsMatched() {
+        return this.rowsMatched.sum();
+    }
+
+    /**
+     * Gets the number of heap bytes the calling threads allocated during the calls.
+     *
+     * @return The allocated bytes, or -1 if allocations are not tracked.
+     */
+    @Override
+    public long getAllocatedBytes() {
+        return this.trackAllocations ? this.allocatedBytes.sum() : -1;
+    }
+
+    /**
+     * Clears the metrics. Calls recorded while they are being cleared may or may not be kept.
+     */
+    @Override
+    public void reset() {
+        this.latency.reset();
+        this.rowsScanned.reset();
+        this.rowsMatched.reset();
+        this.allocatedBytes.reset();
+    }
+
+    /**
+     * Looks up the HotSpot thread bean that counts allocated bytes per thread, and turns the counting on.
+     *
+     * @return The bean, or null if the JVM does not support allocation counting.
+     */
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * The JMX view of the metrics of one ProductService operation, registered by ProductMetrics under
+ * "mrk:type=ProductService,operation=name". Latencies are in nanoseconds.
+ * The interface is public because JMX only accepts public MXBean interfaces.
+ */
+public interface OperationMetricsMXBean {
+
+    /**
+     * Gets the number of calls.
+     *
+     * @return The call count.
+     */
+    long getCount();
+
+    /**
+     * Gets the mean latency of the calls.
+     *
+     * @return The mean latency in nanoseconds.
+     */
+    long getMeanNanos();
+
+    /**
+     * Gets the median latency of the calls.
+     *
+     * @return The 50th percentile in nanoseconds.
+     */
+    long getP50Nanos();
+
+    /**
+     * Gets the 99th percentile latency of the calls.
+     *
+     * @return The 99th percentile in nanoseconds.
+     */
+    long getP99Nanos();
+
+    /**
+     * Gets the 99.9th percentile latency of the calls.
+     *
+     * @return The 99.9th percentile in nanoseconds.
+     */
+    long getP999Nanos();
+
+    /**
+     * Gets the longest latency of the calls.
+     *
+     * @return The maximum latency in nanoseconds.
+     */
+    long getMaxNanos();
+
+    /**
+     * Gets the number of rows the calls read, from an index or a full scan.
+     *
+     * @return The rows scanned.
+     */
+    long getRowsScanned();
+
+    /**
+     * Gets the number of rows the calls returned or displayed.
+     *
+     * @return The rows matched.
+     */
+    long getRowsMatched();
+
+    /**
+     * Gets the number of heap bytes the calling threads allocated during the calls, if allocation tracking is on.
+     *
+     * @return The allocated bytes, or -1 if allocations are not tracked.
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Clears the metrics.
+     */
+    void reset();
+}
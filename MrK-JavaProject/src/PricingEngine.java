@@ -0,0 +1,227 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Keeps the current prices of products in markdown in line with a MarkdownPolicy.
+ *
+ * Repricing reads the products whose markdown period has started from the markdown index, so products
+ * that are not in markdown cost nothing and keep their base price. The products are then split into
+ * slices that are repriced in parallel on a fork/join pool. Every price is computed in integer cents
+ * and basis points and only written when it changes, so a run allocates nothing per product and
+ * leaves the cache lines of unchanged products clean.
+ *
+ * As a ProductEventListener, the engine reprices the catalog once per day when the ProductEventScheduler
+ * runs after midnight. As a ProductChangeListener, it prices new products as soon as they are created,
+ * in case their markdown period has already started.
+ */
+class PricingEngine implements ProductEventListener, ProductChangeListener {
+    // Number of products below which a slice is repriced on the current thread instead of being split.
+    private static final int SLICE_SIZE = 16 * 1024;
+
+    // Database whose products are repriced.
+    private final Database database;
+    // Policy that gives the discount of each product.
+    private final MarkdownPolicy policy;
+    // Clock that tells the date new products are priced for.
+    private final Clock clock;
+    // Pool the slices run on.
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs a PricingEngine that runs on the common fork/join pool.
+     *
+     * @param database The database whose products are repriced.
+     * @param policy   The markdown policy.
+     * @param clock    The clock that tells the date new products are priced for.
+     */
+    public PricingEngine(Database database, MarkdownPolicy policy, Clock clock) {
+        this(database, policy, clock, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a PricingEngine that runs on a given fork/join pool.
+     *
+     * @param database The database whose products are repriced.
+     * @param policy   The markdown policy.
+     * @param clock    The clock that tells the date new products are priced for.
+     * @param pool     The pool to run on.
+     */
+    public PricingEngine(Database database, MarkdownPolicy policy, Clock clock, ForkJoinPool pool) {
+        this.database = database;
+        this.policy = policy;
+        this.clock = clock;
+        this.pool = pool;
+    }
+
+    /**
+     * Computes the price of a product on a given day: the base price before its markdown period,
+     * and the base price less the policy's discount from then on.
+     *
+     * @param product The product to price.
+     * @param today   The day to price for.
+     * @return The price in cents.
+     */
+    public long priceOf(Product product, LocalDate today) {
+        return priceOf(product, today.toEpochDay());
+    }
+
+    /**
+     * Reprices every product whose markdown period has started by the given day.
+     *
+     * @param today The day to price for.
+     * @return The number of products whose price changed.
+     */
+    public long repriceAll(LocalDate today) {
+        List<Product> inMarkdown = new ArrayList<>();
+        for (Product product : this.database.getProductsByMarkDownDate(null, today.plusDays(1))) {
+            inMarkdown.add(product);
+        }
+        Product[] products = inMarkdown.toArray(new Product[0]);
+        return this.pool.invoke(new Slice(products, 0, products.length, today.toEpochDay()));
+    }
+
+    /**
+     * Prices a new product for today.
+     *
+     * @param product The product that was created.
+     */
+    @Override
+    public void productCreated(Product product) {
+        product.setPrice(priceOf(product, LocalDate.now(this.clock).toEpochDay()));
+    }
+
+    /**
+     * Prices a batch of new products for today.
+     *
+     * @param products The products that were created.
+     */
+    @Override
+    public void productsCreated(List<Product> products) {
+        long today = LocalDate.now(this.clock).toEpochDay();
+        for (Product product : products) {
+            product.setPrice(priceOf(product, today));
+        }
+    }
+
+    /**
+     * Ignores stock movements, which do not affect prices.
+     *
+     * @param product  The product whose shelf quantity changed.
+     * @param movement The applied movement.
+     */
+    @Override
+    public void stockMoved(Product product, StockMovement movement) {
+    }
+
+    /**
+     * Reprices a product whose markdown period started, so that listeners notified after the engine, such
+     * as the change feed, see the markdown price. The daily repricing that follows covers the other products.
+     *
+     * @param product The product now in markdown.
+     * @param date    The date its markdown period started.
+     */
+    @Override
+    public void markdownStarted(Product product, LocalDate date) {
+        product.setPrice(priceOf(product, LocalDate.now(this.clock).toEpochDay()));
+    }
+
+    /**
+     * Ignores expiries; expired products keep the deepest markdown price until they are pulled.
+     *
+     * @param product The expired product.
+     * @param date    The first day after its expiry date.
+     */
+    @Override
+    public void productExpired(Product product, LocalDate date) {
+    }
+
+    /**
+     * Reprices the catalog for the new day.
+     *
+     * @param date The current date.
+     */
+    @Override
+    public void dayStarted(LocalDate date) {
+        repriceAll(date);
+    }
+
+    /**
+     * Computes the price of a product on a given epoch day.
+     *
+     * @param product The product to price.
+     * @param today   The epoch day to price for.
+     * @return The price in cents.
+     */
+    private long priceOf(Product product, long today) {
+        LocalDate markdown = product.getTimeDurationForMarkDown();
+        if (markdown == null || markdown.toEpochDay() > today) {
+            return product.getBasePrice();
+        }
+        LocalDate expiry = product.getExpiryDate();
+        int discount = expiry == null
+                ? this.policy.discount(Long.MAX_VALUE)
+                : this.policy.discount(expiry.toEpochDay() - today);
+        return MarkdownPolicy.applyDiscount(product.getBasePrice(), discount);
+    }
+
+    /**
+     * Reprices a slice of products, splitting it in half while it is larger than SLICE_SIZE.
+     */
+    private class Slice extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        // Products being repriced.
+        private final Product[] products;
+        // Index of the first product of the slice.
+        private final int from;
+        // Index after the last product of the slice.
+        private final int to;
+        // Epoch day to price for.
+        private final long today;
+
+        /**
+         * Constructs a Slice.
+         *
+         * @param products The products being repriced.
+         * @param from     The index of the first product of the slice.
+         * @param to       The index after the last product of the slice.
+         * @param today    The epoch day to price for.
+         */
+        Slice(Product[] products, int from, int to, long today) {
+            this.products = products;
+            this.from = from;
+            this.to = to;
+            this.today = today;
+        }
+
+        /**
+         * Reprices the slice.
+         *
+         * @return The number of products whose price changed.
+         */
+        @Override
+        protected Long compute() {
+            if (this.to - this.from > SLICE_SIZE) {
+                int middle = (this.from + this.to) >>> 1;
+                Slice left = new Slice(this.products, this.from, middle, this.today);
+                left.fork();
+                long right = new Slice(this.products, middle, this.to, this.today).compute();
+                return right + left.join();
+            }
+            long changed = 0;
+            for (int i = this.from; i < this.to; i++) {
+                Product product = this.products[i];
+                long price = priceOf(product, this.today);
+                if (price != product.getPrice()) {
+                    product.setPrice(price);
+                    changed++;
+                }
+            }
+            return changed;
+        }
+    }
+}
@@ -1,10 +1,20 @@
-import java.math.BigDecimal;
 import java.time.LocalDate;
 
 /**
  * Represents a product with a unique ID, name, shelf details, expiry date, and markdown period.
+ *
+ * Prices are fixed-point longs in cents (PRICE_SCALE decimal places). The base price is fixed when the
+ * product is created; the current price starts at the base price and is lowered by the PricingEngine
+ * while the product is in markdown.
  */
 class Product {
+    // Maximum length of a product name in UTF-8 bytes, so that every product fits a fixed-width storage record.
+    public static final int MAX_NAME_BYTES = 64;
+    // Number of decimal places of prices, which are stored in cents.
+    public static final int PRICE_SCALE = 2;
+    // Barcodes of a product that has none.
+    private static final long[] NO_BARCODES = new long[0];
+
     // Unique identifier for the product
     private final int id;
     // Name of the product
@@ -15,6 +25,16 @@ class Product {
     private final LocalDate expiryDate;
     // The date indicating when the markdown period starts for the product
     private final LocalDate timeDurationForMarkDown;
+    // Regular selling price in cents, or 0 if the product is not priced
+    private final long basePrice;
+    // Current selling price in cents, after any markdown. Written by the pricing engine, read by anyone.
+    private volatile long price;
+    // GTIN barcodes of the product, in the order they were added. Replaced as a whole by the Database.
+    private volatile long[] barcodes = NO_BARCODES;
+    // Catalog version at which the product was stored in the Database, 0 if stored before any change.
+    private volatile long addedVersion;
+    // Catalog version at which the product was removed or replaced, Long.MAX_VALUE while it is stored.
+    private volatile long removedVersion = Long.MAX_VALUE;
 
     /**
      * Constructs a Product with the specified ID, name, expiry date, and markdown date.
@@ -25,12 +45,47 @@ class Product {
      * @param markDownDate The date indicating when the markdown period starts.
      */
     public Product(int productId, String productName, LocalDate expiryDate, LocalDate markDownDate) {
+        // Initialize the product shelf with the default thresholds and quantity.
+        this(productId, productName, expiryDate, markDownDate, new ProductShelf());
+    }
+
+    /**
+     * Constructs a Product with the specified ID, name, expiry date, markdown date and shelf.
+     *
+     * @param productId    The unique identifier for the product.
+     * @param productName  The name of the product.
+     * @param expiryDate   The date when the product will expire.
+     * @param markDownDate The date indicating when the markdown period starts.
+     * @param productShelf The shelf holding the product.
+     */
+    public Product(int productId, String productName, LocalDate expiryDate, LocalDate markDownDate,
+                   ProductShelf productShelf) {
+        this(productId, productName, expiryDate, markDownDate, productShelf, 0);
+    }
+
+    /**
+     * Constructs a Product with the specified ID, name, expiry date, markdown date, shelf and base price.
+     *
+     * @param productId    The unique identifier for the product.
+     * @param productName  The name of the product.
+     * @param expiryDate   The date when the product will expire.
+     * @param markDownDate The date indicating when the markdown period starts.
+     * @param productShelf The shelf holding the product.
+     * @param basePrice    The regular price in cents.
+     * @throws IllegalArgumentException if the base price is negative.
+     */
+    public Product(int productId, String productName, LocalDate expiryDate, LocalDate markDownDate,
+                   ProductShelf productShelf, long basePrice) {
+        if (basePrice < 0) {
+            throw new IllegalArgumentException("Price cannot be negative.");
+        }
+        this.basePrice = basePrice;
+        this.price = basePrice;
         this.id = productId;
         this.productName = productName;
         this.expiryDate = expiryDate;
         this.timeDurationForMarkDown = markDownDate;
-        // Initialize the product shelf with some default values for price and quantity.
-        this.productShelf = new ProductShelf(new BigDecimal(5), new BigDecimal(5));
+        this.productShelf = productShelf;
     }
 
     /**
@@ -79,6 +134,114 @@ class Product {
         return this.timeDurationForMarkDown;
     }
 
-}
+    /**
+     * Gets the regular price of the product, before any markdown.
+     *
+     * @return The base price in cents.
+     */
+    public long getBasePrice() {
+        return this.basePrice;
+    }
+
+    /**
+     * Gets the GTIN barcodes of the product.
+     *
+     * @return A copy of the barcodes, in the order they were added; empty if the product has none.
+     */
+    public long[] getBarcodes() {
+        return this.barcodes.clone();
+    }
+
+    /**
+     * Gets the number of GTIN barcodes of the product.
+     *
+     * @return The barcode count.
+     */
+    public int getBarcodeCount() {
+        return this.barcodes.length;
+    }
 
-  
\ No newline at end of file
+    /**
+     * Replaces the barcodes of the product. Called by the Database, which keeps its barcode index in step.
+     *
+     * @param barcodes The new barcodes; the array is kept and must not be changed afterwards.
+     */
+    void setBarcodes(long[] barcodes) {
+        this.barcodes = barcodes;
+    }
+
+    /**
+     * Checks whether the product was stored in the Database at a catalog version, as a snapshot at that
+     * version sees it.
+     *
+     * @param version The catalog version.
+     * @return true if the product was added at or before the version and not removed by then.
+     */
+    public boolean isStoredAt(long version) {
+        return this.addedVersion <= version && version < this.removedVersion;
+    }
+
+    /**
+     * Records the catalog version at which the product was stored. Called by the Database before publishing it.
+     *
+     * @param version The version of the commit that stores the product.
+     */
+    void setAddedVersion(long version) {
+        this.addedVersion = version;
+    }
+
+    /**
+     * Records the catalog version at which the product was removed or replaced. Called by the Database.
+     *
+     * @param version The version of the commit that removes the product.
+     */
+    void setRemovedVersion(long version) {
+        this.removedVersion = version;
+    }
+
+    /**
+     * Gets the current selling price of the product, after any markdown.
+     *
+     * @return The current price in cents.
+     */
+    public long getPrice() {
+        return this.price;
+    }
+
+    /**
+     * Sets the current selling price of the product. Called by the pricing engine.
+     *
+     * @param price The new price in cents.
+     */
+    void setPrice(long price) {
+        this.price = price;
+    }
+
+    /**
+     * Checks whether a product name is non-empty and fits in MAX_NAME_BYTES bytes of UTF-8.
+     * The length is counted without encoding the name.
+     *
+     * @param productName The name to check.
+     * @return true if the name is valid; false otherwise.
+     */
+    public static boolean isValidName(String productName) {
+        if (productName == null || productName.isEmpty()) {
+            return false;
+        }
+        int bytes = 0;
+        for (int i = 0; i < productName.length() && bytes <= MAX_NAME_BYTES; i++) {
+            char c = productName.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes <= MAX_NAME_BYTES;
+    }
+}
@@ -0,0 +1,708 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Serves the ProductService operations as a JSON API over HTTP, for handhelds and point-of-sale devices.
+ * <pre>
+ *   GET  /products                  all products
+ *   GET  /products/{id}             one product
+ *   POST /products                  create a product: {"id", "name", "expiryDate", "markdownDays", "price"}
+ *   GET  /barcodes/{gtin}           the product a scanned 8 to 14 digit barcode belongs to
+ *   POST /barcodes                  assign a barcode to a product: {"barcode", "id"}
+ *   GET  /refill                    products to refill, with the quantity each one needs
+ *   GET  /counts                    shelf count of every product
+ *   GET  /counts/{id}               shelf count of one product
+ *   GET  /expired                   expired products
+ *   GET  /markdown                  products in their markdown period
+ *   GET  /markdown/upcoming         products whose markdown starts within a week
+ *   GET  /changes?after={sequence}  changes after a sequence number of the change feed
+ * </pre>
+ * Dates are ISO-8601 (yyyy-MM-dd). The date-based lists take an optional date parameter, such as
+ * /expired?date=2024-06-30, and default to today. The lists of products, refills, expired products and
+ * markdowns can be read in pages with a limit parameter, such as /products?limit=50, which returns
+ * {"products": [...], "nextCursor": "..."}; the next page is read by repeating the request with a cursor
+ * parameter holding nextCursor. /changes returns {"changes": [...], "lastSequence": n} with up to limit
+ * changes (at most MAX_CHANGES) after the given sequence number, 0 for the oldest one kept; a client
+ * polls it again with after=lastSequence, and gets a 410 error once it has fallen so far behind that
+ * the changes it needs are no longer kept. Errors are returned as {"error": "..."}.
+ *
+ * Every request runs on its own virtual thread when the JDK provides them (JDK 21 and later), so tens
+ * of thousands of slow clients cost little more than their sockets; older JDKs fall back to a cached
+ * pool of platform threads. Responses are written token by token through a JsonWriter into the chunked
+ * response stream, so even a list of the whole catalog is never assembled in memory.
+ */
+class ProductApiServer implements Closeable {
+    // Maximum size of a request body in bytes. Product creation requests are far smaller.
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    // Size of the response buffer in characters.
+    private static final int RESPONSE_BUFFER = 8 * 1024;
+    // Number of days a product stays in markdown before it expires, when the request does not say.
+    private static final long DEFAULT_MARKDOWN_DAYS = 6;
+    // Largest number of changes returned by one request to /changes, and the number returned without a limit.
+    private static final int MAX_CHANGES = 1000;
+    // Where unexpected failures of requests are logged.
+    private static final System.Logger LOG = System.getLogger(ProductApiServer.class.getName());
+
+    static {
+        // A streamed response leaves in several small writes. Without TCP_NODELAY, Nagle's algorithm holds
+        // the last one back until the client's delayed acknowledgement, adding about 40 ms to every request.
+        // The JDK server reads the property once, when the first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    // Service the requests are served from.
+    private final ProductService service;
+    // JDK HTTP server that accepts the connections.
+    private final HttpServer server;
+    // Executor that runs one task per request.
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a ProductApiServer bound to an address. The server does not accept requests until started.
+     *
+     * @param service The service to serve.
+     * @param address The address to listen on. Port 0 picks a free port.
+     * @param backlog The maximum number of connections waiting to be accepted, or 0 for the system default.
+     * @throws IOException if the address cannot be bound.
+     */
+    public ProductApiServer(ProductService service, InetSocketAddress address, int backlog) throws IOException {
+        this.service = service;
+        this.server = HttpServer.create(address, backlog);
+        this.executor = newRequestExecutor();
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", this::dispatch);
+    }
+
+    /**
+     * Starts accepting requests in the background.
+     */
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Gets the address the server listens on, including the port chosen when it was bound to port 0.
+     *
+     * @return The bound address.
+     */
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests, gives running requests up to a second to finish, and releases the threads.
+     */
+    @Override
+    public void close() {
+        this.server.stop(1);
+        this.executor.shutdown();
+    }
+
+    /**
+     * Routes a request to its handler and turns failures into JSON error responses.
+     *
+     * @param exchange The request and its response.
+     */
+    private void dispatch(HttpExchange exchange) {
+        try {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            String resource = path.length > 1 ? path[1] : "";
+            String argument = path.length > 2 ? path[2] : null;
+            if (path.length > 3) {
+                sendError(exchange, 404, "Not found.");
+                return;
+            }
+            switch (resource) {
+                case "products":
+                    if (exchange.getRequestMethod().equals("POST") && argument == null) {
+                        createProduct(exchange);
+                    } else if (requireGet(exchange)) {
+                        if (argument == null) {
+                            sendProducts(exchange, ProductQuery.all(), this.service::getAllProducts);
+                        } else {
+                            sendProduct(exchange, parseId(argument));
+                        }
+                    }
+                    break;
+                case "barcodes":
+                    if (exchange.getRequestMethod().equals("POST") && argument == null) {
+                        addBarcode(exchange);
+                    } else if (argument == null) {
+                        sendError(exchange, 404, "Not found.");
+                    } else if (requireGet(exchange)) {
+                        sendProductByBarcode(exchange, Gtin.parse(argument));
+                    }
+                    break;
+                case "refill":
+                    if (argument == null && requireGet(exchange)) {
+                        sendRefills(exchange);
+                    } else if (argument != null) {
+                        sendError(exchange, 404, "Not found.");
+                    }
+                    break;
+                case "counts":
+                    if (requireGet(exchange)) {
+                        sendCounts(exchange, argument);
+                    }
+                    break;
+                case "expired":
+                    if (argument == null && requireGet(exchange)) {
+                        LocalDate date = date(exchange);
+                        sendProducts(exchange, ProductQuery.expired(date), () -> this.service.findExpiredProducts(date));
+                    } else if (argument != null) {
+                        sendError(exchange, 404, "Not found.");
+                    }
+                    break;
+                case "markdown":
+                    if (argument != null && !argument.equals("upcoming")) {
+                        sendError(exchange, 404, "Not found.");
+                    } else if (requireGet(exchange)) {
+                        LocalDate date = date(exchange);
+                        if (argument == null) {
+                            sendProducts(exchange, ProductQuery.inMarkDown(date), () -> this.service.findProductsInMarkDown(date));
+                        } else {
+                            sendProducts(exchange, ProductQuery.forMarkDown(date), () -> this.service.findProductsForMarkDown(date));
+                        }
+                    }
+                    break;
+                case "changes":
+                    if (argument == null && requireGet(exchange)) {
+                        sendChanges(exchange);
+                    } else if (argument != null) {
+                        sendError(exchange, 404, "Not found.");
+                    }
+                    break;
+                default:
+                    sendError(exchange, 404, "Not found.");
+                    break;
+            }
+        } catch (ProductChangeFeed.FeedGapException e) {
+            sendError(exchange, 410, e.getMessage());
+        } catch (IllegalArgumentException | ArithmeticException | DateTimeParseException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (IOException e) {
+            // The client went away; there is nobody left to tell.
+        } catch (IllegalStateException e) {
+            if (this.service.isReadOnly()) {
+                sendError(exchange, 503, e.getMessage());
+            } else {
+                sendInternalError(exchange, e);
+            }
+        } catch (RuntimeException e) {
+            sendInternalError(exchange, e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Logs an unexpected failure of a request on the server and sends a generic 500 error. The exception
+     * stays out of the response, as its message can name files and classes that are none of the client's business.
+     *
+     * @param exchange The request and its response.
+     * @param e        The failure.
+     */
+    private static void sendInternalError(HttpExchange exchange, RuntimeException e) {
+        LOG.log(System.Logger.Level.ERROR, "Request " + exchange.getRequestMethod() + " " + exchange.getRequestURI() + " failed.", e);
+        sendError(exchange, 500, "Internal error.");
+    }
+
+    /**
+     * Creates a product from the JSON object in the request body.
+     *
+     * @param exchange The request and its response.
+     * @throws IOException if the request cannot be read or the response cannot be written.
+     */
+    private void createProduct(HttpExchange exchange) throws IOException {
+        Map<String, String> body = JsonReader.readObject(readBody(exchange));
+        String idText = body.get("id");
+        if (idText == null) {
+            throw new IllegalArgumentException("Product ID is required.");
+        }
+        int id = parseId(idText);
+        String name = body.get("name");
+        if (name == null || !Product.isValidName(name)) {
+            throw new IllegalArgumentException("Product Name must be between 1 and " + Product.MAX_NAME_BYTES + " bytes long.");
+        }
+        String expiryText = body.get("expiryDate");
+        LocalDate expiryDate = expiryText == null ? this.service.today().plusMonths(3) : LocalDate.parse(expiryText);
+        String markdownText = body.get("markdownDays");
+        long markdownDays = markdownText == null ? DEFAULT_MARKDOWN_DAYS : Long.parseLong(markdownText);
+        String priceText = body.get("price");
+        long basePrice = priceText == null ? 0 : Quantities.parse(priceText, Product.PRICE_SCALE);
+
+        Product product = this.service.addProduct(id, name, expiryDate, expiryDate.minusDays(markdownDays), basePrice);
+        if (product == null) {
+            sendError(exchange, 409, "Product ID " + id + " already exists.");
+            return;
+        }
+        try (JsonWriter json = startResponse(exchange, 201)) {
+            writeProduct(json, product);
+        }
+    }
+
+    /**
+     * Assigns the barcode in the request body to a product, and sends the product.
+     *
+     * @param exchange The request and its response.
+     * @throws IOException if the request cannot be read or the response cannot be written.
+     */
+    private void addBarcode(HttpExchange exchange) throws IOException {
+        Map<String, String> body = JsonReader.readObject(readBody(exchange));
+        String idText = body.get("id");
+        String barcodeText = body.get("barcode");
+        if (idText == null || barcodeText == null) {
+            throw new IllegalArgumentException("Product ID and barcode are required.");
+        }
+        int id = parseId(idText);
+        long gtin = Gtin.parse(barcodeText);
+        Product product = this.service.findProductById(id);
+        if (product == null) {
+            sendError(exchange, 404, "Product with ID " + id + " not found.");
+            return;
+        }
+        Product owner = this.service.assignBarcode(product, gtin);
+        if (owner != null && owner != product) {
+            sendError(exchange, 409, "Barcode " + Gtin.format(gtin) + " belongs to Product ID " + owner.getId() + ".");
+            return;
+        }
+        try (JsonWriter json = startResponse(exchange, 201)) {
+            writeProduct(json, product);
+        }
+    }
+
+    /**
+     * Sends the product a barcode belongs to, or a 404 error if no product has it.
+     *
+     * @param exchange The request and its response.
+     * @param gtin     The barcode.
+     * @throws IOException if the response cannot be written.
+     */
+    private void sendProductByBarcode(HttpExchange exchange, long gtin) throws IOException {
+        Product product = this.service.findProductByBarcode(gtin);
+        if (product == null) {
+            sendError(exchange, 404, "No product has barcode " + Gtin.format(gtin) + ".");
+            return;
+        }
+        try (JsonWriter json = startResponse(exchange, 200)) {
+            writeProduct(json, product);
+        }
+    }
+
+    /**
+     * Sends one product, or a 404 error if it does not exist.
+     *
+     * @param exchange The request and its response.
+     * @param id       The product ID.
+     * @throws IOException if the response cannot be written.
+     */
+    private void sendProduct(HttpExchange exchange, int id) throws IOException {
+        Product product = this.service.findProductById(id);
+        if (product == null) {
+            sendError(exchange, 404, "Product with ID " + id + " not found.");
+            return;
+        }
+        try (JsonWriter json = startResponse(exchange, 200)) {
+            writeProduct(json, product);
+        }
+    }
+
+    /**
+     * Sends a list of products: all of them as a JSON array, or, if the request has a limit parameter,
+     * one page as {"products": [...], "nextCursor": "..."}. The next page is requested with the same
+     * parameters and cursor=nextCursor; the last page has a null nextCursor.
+     *
+     * @param exchange The request and its response.
+     * @param query    The query that reads the list page by page.
+     * @param all      Supplies the whole list when no limit is given.
+     * @throws IOException if the response cannot be written.
+     */
+    private void sendProducts(HttpExchange exchange, ProductQuery query, Supplier<Iterable<Product>> all) throws IOException {
+        String limit = parameter(exchange, "limit");
+        if (limit == null) {
+            sendProducts(exchange, all.get());
+            return;
+        }
+        ProductPage page = this.service.findPage(query, parameter(exchange, "cursor"), parseLimit(limit));
+        try (JsonWriter json = startResponse(exchange, 200)) {
+            json.beginObject().name("products").beginArray();
+            for (Product product : page.getProducts()) {
+                writeProduct(json, product);
+            }
+            json.endArray().name("nextCursor").value(page.getNextCursor()).endObject();
+        }
+    }
+
+    /**
+     * Sends a list of products as a JSON array.
+     *
+     * @param exchange The request and its response.
+     * @param products The products to send.
+     * @throws IOException if the response cannot be written.
+     */
+    private void sendProducts(HttpExchange exchange, Iterable<Product> products) throws IOException {
+        try (JsonWriter json = startResponse(exchange, 200)) {
+            json.beginArray();
+            for (Product product : products) {
+                writeProduct(json, product);
+            }
+            json.endArray();
+        }
+    }
+
+    /**
+     * Sends the products to refill with the quantity each one needs, all of them or, with a limit
+     * parameter, one page at a time as sendProducts does.
+     *
+     * @param exchange The request and its response.
+     * @throws IOException if the response cannot be written.
+     */
+    private void sendRefills(HttpExchange exchange) throws IOException {
+        String limit = parameter(exchange, "limit");
+        if (limit == null) {
+            List<Product> products = this.service.findProductsToRefill();
+            try (JsonWriter json = startResponse(exchange, 200)) {
+                json.beginArray();
+                for (Product product : products) {
+                    writeRefill(json, product);
+                }
+                json.endArray();
+            }
+            return;
+        }
+        ProductPage page = this.service.findPage(ProductQuery.toRefill(), parameter(exchange, "cursor"), parseLimit(limit));
+        try (JsonWriter json = startResponse(exchange, 200)) {
+            json.beginObject().name("products").beginArray();
+            for (Product product : page.getProducts()) {
+                writeRefill(json, product);
+            }
+            json.endArray().name("nextCursor").value(page.getNextCursor()).endObject();
+        }
+    }
+
+    /**
+     * Writes the refill quantity of a product as a JSON object, if the product still needs a refill.
+     *
+     * @param json    The writer to write to.
+     * @param product The product to write.
+     * @throws IOException if writing fails.
+     */
+    private static void writeRefill(JsonWriter json, Product product) throws IOException {
+        ProductShelf shelf = product.getProductShelf();
+        long quantity = ProductShelfService.quantityToRefill(shelf);
+        if (quantity > 0) {
+            json.beginObject()
+                    .name("id").value(product.getId())
+                    .name("refillQuantity").quantity(quantity, shelf.getScale())
+                    .endObject();
+        }
+    }
+
+    /**
+     * Sends the shelf count of one product, or of every product if no ID is given.
+     *
+     * @param exchange The request and its response.
+     * @param idText   The product ID from the path, or null for all products.
+     * @throws IOException if the response cannot be written.
+     */
+    private void sendCounts(HttpExchange exchange, String idText) throws IOException {
+        if (idText != null) {
+            Product product = this.service.findProductById(parseId(idText));
+            if (product == null) {
+                sendError(exchange, 404, "Product with ID " + idText + " not found.");
+                return;
+            }
+            try (JsonWriter json = startResponse(exchange, 200)) {
+                writeCount(json, product);
+            }
+            return;
+        }
+        try (JsonWriter json = startResponse(exchange, 200)) {
+            json.beginArray();
+            for (Product product : this.service.getAllProducts()) {
+                writeCount(json, product);
+            }
+            json.endArray();
+        }
+    }
+
+    /**
+     * Sends the changes after the sequence number in the after parameter, with the last one's sequence
+     * number for the next poll.
+     *
+     * @param exchange The request and its response.
+     * @throws IOException if the response cannot be written.
+     */
+    private void sendChanges(HttpExchange exchange) throws IOException {
+        String after = parameter(exchange, "after");
+        String limit = parameter(exchange, "limit");
+        long afterSequence;
+        try {
+            afterSequence = after == null ? 0 : Long.parseLong(after);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("After must be a sequence number.");
+        }
+        ProductChangeFeed feed = this.service.getChangeFeed();
+        if (afterSequence == 0) {
+            afterSequence = feed.getFirstSequence() - 1;
+        }
+        ProductChangeEvent[] changes = new ProductChangeEvent[limit == null ? MAX_CHANGES : Math.min(parseLimit(limit), MAX_CHANGES)];
+        int count = feed.read(afterSequence, changes, changes.length);
+        try (JsonWriter json = startResponse(exchange, 200)) {
+            json.beginObject().name("changes").beginArray();
+            for (int i = 0; i < count; i++) {
+                writeChange(json, changes[i]);
+            }
+            json.endArray().name("lastSequence").value(count > 0 ? changes[count - 1].getSequence() : afterSequence).endObject();
+        }
+    }
+
+    /**
+     * Writes a change of the change feed as a JSON object: its sequence number and type, the movement or
+     * date of the change, and the product as it is now.
+     *
+     * @param json   The writer to write to.
+     * @param change The change to write.
+     * @throws IOException if writing fails.
+     */
+    private static void writeChange(JsonWriter json, ProductChangeEvent change) throws IOException {
+        json.beginObject()
+                .name("sequence").value(change.getSequence())
+                .name("type").value(change.getType().name());
+        StockMovement movement = change.getMovement();
+        if (movement != null) {
+            int scale = change.getProduct().getProductShelf().getScale();
+            json.name("delta").quantity(movement.getDelta(), scale)
+                    .name("quantity").quantity(movement.getQuantity(), scale);
+        }
+        if (change.getDate() != null) {
+            json.name("date").value(change.getDate());
+        }
+        json.name("product");
+        writeProduct(json, change.getProduct());
+        json.endObject();
+    }
+
+    /**
+     * Writes a product with its shelf and barcodes as a JSON object.
+     *
+     * @param json    The writer to write to.
+     * @param product The product to write.
+     * @throws IOException if writing fails.
+     */
+    private static void writeProduct(JsonWriter json, Product product) throws IOException {
+        ProductShelf shelf = product.getProductShelf();
+        int scale = shelf.getScale();
+        json.beginObject()
+                .name("id").value(product.getId())
+                .name("name").value(product.getProductName())
+                .name("expiryDate").value(product.getExpiryDate())
+                .name("markdownDate").value(product.getTimeDurationForMarkDown())
+                .name("basePrice").quantity(product.getBasePrice(), Product.PRICE_SCALE)
+                .name("price").quantity(product.getPrice(), Product.PRICE_SCALE)
+                .name("shelf").beginObject()
+                .name("min").quantity(shelf.getMin(), scale)
+                .name("max").quantity(shelf.getMax(), scale)
+                .name("current").quantity(shelf.getCurrent(), scale)
+                .endObject()
+                .name("barcodes").beginArray();
+        for (long gtin : product.getBarcodes()) {
+            json.value(Gtin.format(gtin));
+        }
+        json.endArray().endObject();
+    }
+
+    /**
+     * Writes the shelf count of a product as a JSON object.
+     *
+     * @param json    The writer to write to.
+     * @param product The product to write.
+     * @throws IOException if writing fails.
+     */
+    private static void writeCount(JsonWriter json, Product product) throws IOException {
+        ProductShelf shelf = product.getProductShelf();
+        json.beginObject()
+                .name("id").value(product.getId())
+                .name("count").quantity(shelf.getCurrent(), shelf.getScale())
+                .endObject();
+    }
+
+    /**
+     * Sends the response headers with a chunked body and returns a writer for the JSON body.
+     *
+     * @param exchange The request and its response.
+     * @param status   The HTTP status code.
+     * @return A writer for the response body. Closing it completes the response.
+     * @throws IOException if the headers cannot be sent.
+     */
+    private static JsonWriter startResponse(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+        return new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), RESPONSE_BUFFER));
+    }
+
+    /**
+     * Sends an error response, unless a response has already been started.
+     *
+     * @param exchange The request and its response.
+     * @param status   The HTTP status code.
+     * @param message  The error message.
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() != -1) {
+            return; // The headers are out; the client sees a truncated body instead.
+        }
+        try (JsonWriter json = startResponse(exchange, status)) {
+            json.beginObject().name("error").value(message).endObject();
+        } catch (IOException e) {
+            // The client went away.
+        }
+    }
+
+    /**
+     * Checks that a request uses GET and sends a 405 error if it does not.
+     *
+     * @param exchange The request and its response.
+     * @return true if the request uses GET.
+     */
+    private static boolean requireGet(HttpExchange exchange) {
+        if (exchange.getRequestMethod().equals("GET")) {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Allow", "GET");
+        sendError(exchange, 405, "Method " + exchange.getRequestMethod() + " is not allowed.");
+        return false;
+    }
+
+    /**
+     * Parses a product ID.
+     *
+     * @param text The ID as text.
+     * @return The product ID.
+     * @throws IllegalArgumentException if the text is not an integer.
+     */
+    private static int parseId(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Product ID must be an integer.");
+        }
+    }
+
+    /**
+     * Gets the date a date-based list is computed for: the date query parameter, or the service's today.
+     *
+     * @param exchange The request.
+     * @return The requested date.
+     * @throws DateTimeParseException if the parameter is not an ISO-8601 date.
+     */
+    private LocalDate date(HttpExchange exchange) {
+        String date = parameter(exchange, "date");
+        return date != null ? LocalDate.parse(date) : this.service.today();
+    }
+
+    /**
+     * Gets a query parameter of a request.
+     *
+     * @param exchange The request.
+     * @param name     The name of the parameter.
+     * @return The decoded value of the first parameter with that name, or null if there is none.
+     */
+    private static String parameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            String prefix = name + "=";
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith(prefix)) {
+                    return URLDecoder.decode(parameter.substring(prefix.length()), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the limit parameter of a paged list.
+     *
+     * @param text The limit as text.
+     * @return The largest number of products on a page.
+     * @throws IllegalArgumentException if the text is not a positive integer.
+     */
+    private static int parseLimit(String text) {
+        try {
+            int limit = Integer.parseInt(text);
+            if (limit > 0) {
+                return limit;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Limit must be a positive integer.");
+    }
+
+    /**
+     * Reads the request body as UTF-8 text.
+     *
+     * @param exchange The request.
+     * @return The body text.
+     * @throws IOException if the body cannot be read.
+     * @throws IllegalArgumentException if the body is larger than MAX_BODY_BYTES.
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body is larger than " + MAX_BODY_BYTES + " bytes.");
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Creates the executor that runs requests: one virtual thread per request when the JDK supports it,
+     * otherwise a cached pool of daemon platform threads. The virtual thread factory is looked up at
+     * run time, so the server still compiles and runs on JDKs without virtual threads.
+     *
+     * @return The request executor.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            MethodHandle factory = MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invoke();
+        } catch (NoSuchMethodException | IllegalAccessException | UnsupportedOperationException e) {
+            // Before JDK 21, or a preview JDK without --enable-preview.
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot create virtual thread executor.", e);
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "mrk-http-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
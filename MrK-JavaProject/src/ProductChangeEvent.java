@@ -0,0 +1,114 @@
+import java.time.LocalDate;
+
+/**
+ * One change published on a ProductChangeFeed: a product created, a stock movement, the start of a
+ * markdown or an expiry, numbered by its position in the feed.
+ *
+ * Events refer to the product itself, so its name, dates and current price can be read from it.
+ * What changed is kept in the event: the movement with the quantity it left on the shelf, or the
+ * day of the markdown or expiry.
+ */
+final class ProductChangeEvent {
+    /**
+     * The kinds of change.
+     */
+    enum Type {
+        // A product was added to the database.
+        CREATED,
+        // A stock movement was applied to the product's shelf.
+        STOCK_MOVED,
+        // The product entered its markdown period. A PricingEngine registered with the scheduler before the
+        // feed, as Main registers it, has already repriced it.
+        MARKDOWN_STARTED,
+        // The product passed its expiry date.
+        EXPIRED
+    }
+
+    // Position of the event in the feed, starting at 1.
+    private final long sequence;
+    // Kind of change.
+    private final Type type;
+    // Product that changed.
+    private final Product product;
+    // Applied movement, for STOCK_MOVED events; null otherwise.
+    private final StockMovement movement;
+    // Day of the markdown or expiry, for MARKDOWN_STARTED and EXPIRED events; null otherwise.
+    private final LocalDate date;
+
+    /**
+     * Constructs a ProductChangeEvent.
+     *
+     * @param sequence The position of the event in the feed.
+     * @param type     The kind of change.
+     * @param product  The product that changed.
+     * @param movement The applied movement, or null.
+     * @param date     The day of the markdown or expiry, or null.
+     */
+    ProductChangeEvent(long sequence, Type type, Product product, StockMovement movement, LocalDate date) {
+        this.sequence = sequence;
+        this.type = type;
+        this.product = product;
+        this.movement = movement;
+        this.date = date;
+    }
+
+    /**
+     * Gets the position of the event in the feed. A subscriber that remembers the sequence of the last
+     * event it handled can resume after it.
+     *
+     * @return The sequence number, starting at 1.
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Gets the kind of change.
+     *
+     * @return The type.
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets the product that changed.
+     *
+     * @return The product.
+     */
+    public Product getProduct() {
+        return this.product;
+    }
+
+    /**
+     * Gets the applied movement of a STOCK_MOVED event.
+     *
+     * @return The movement, or null for other events.
+     */
+    public StockMovement getMovement() {
+        return this.movement;
+    }
+
+    /**
+     * Gets the day of a MARKDOWN_STARTED or EXPIRED event: the first day of the markdown, or the day
+     * after the expiry date.
+     *
+     * @return The date, or null for other events.
+     */
+    public LocalDate getDate() {
+        return this.date;
+    }
+
+    /**
+     * Describes the event.
+     *
+     * @return A one-line description.
+     */
+    @Override
+    public String toString() {
+        String change = this.movement != null
+                ? " by " + Quantities.format(this.movement.getDelta(), this.product.getProductShelf().getScale())
+                : this.date != null ? " on " + this.date.format(ProductService.DATE_FORMATTER) : "";
+        return "#" + this.sequence + " " + this.type + " Product ID " + this.product.getId() + change;
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.Closeable;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes every change to the products, so that downstream systems such as shelf price labels and the
+ * online stock view can follow the catalog incrementally instead of re-reading all of it.
+ *
+ * As a ProductChangeListener and ProductEventListener the feed turns each creation, stock movement,
+ * markdown start and expiry into a ProductChangeEvent and appends it to an in-memory log, numbering
+ * events from 1 in the order they are appended. The log keeps the most recent events in a ring of fixed
+ * capacity, so appending never blocks the service and the memory used does not grow with the day.
+ *
+ * Subscribers read the log through Flow.Publisher, from the next event on or resuming after the sequence
+ * number of the last event they handled. Each subscription reads at its own pace on an executor and is
+ * only sent as many events as it requested; events wait in the log, not in a queue per subscriber. A
+ * subscriber that falls so far behind that the events it still needs have been overwritten receives
+ * onError with a FeedGapException and has to read the catalog again before resubscribing.
+ * Sequence numbers start again at 1 when the application restarts.
+ */
+class ProductChangeFeed implements ProductChangeListener, ProductEventListener, Flow.Publisher<ProductChangeEvent>, Closeable {
+    // Number of events kept when no capacity is given.
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+    // Largest number of events a subscription copies out of the log at a time.
+    private static final int READ_BATCH = 256;
+
+    // Retained events, each at the index of its sequence number modulo the capacity. Guarded by this.
+    private final ProductChangeEvent[] events;
+    // Capacity minus one, the capacity being a power of two.
+    private final int mask;
+    // Sequence number of the last event appended, or 0 before the first. Guarded by this.
+    private long lastSequence;
+    // Whether the feed has been closed. Guarded by this.
+    private boolean closed;
+    // Active subscriptions, signalled after every append.
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // Executor the subscriptions deliver their events on.
+    private final Executor executor;
+
+    /**
+     * Constructs a ProductChangeFeed that keeps DEFAULT_CAPACITY events and delivers them on the common
+     * fork/join pool.
+     */
+    public ProductChangeFeed() {
+        this(DEFAULT_CAPACITY, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a ProductChangeFeed.
+     *
+     * @param capacity The number of recent events kept, rounded up to a power of two.
+     * @param executor The executor events are delivered to subscribers on.
+     * @throws IllegalArgumentException if the capacity is not positive or too large.
+     */
+    public ProductChangeFeed(int capacity, Executor executor) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Change feed capacity must be between 1 and 2^30 events.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        size = size < capacity ? size << 1 : size;
+        this.events = new ProductChangeEvent[size];
+        this.mask = size - 1;
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribes to the events appended from now on.
+     *
+     * @param subscriber The subscriber.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super ProductChangeEvent> subscriber) {
+        subscribe(subscriber, getLastSequence());
+    }
+
+    /**
+     * Subscribes to the events after a given sequence number, for a subscriber resuming where it stopped.
+     * If those events are no longer kept, or the sequence number has not been reached yet, the subscriber
+     * receives onError right after onSubscribe.
+     *
+     * @param subscriber    The subscriber.
+     * @param afterSequence The sequence number of the last event the subscriber handled, or 0 for the
+     *                      oldest event kept.
+     */
+    public void subscribe(Flow.Subscriber<? super ProductChangeEvent> subscriber, long afterSequence) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber must not be null.");
+        }
+        Subscription subscription = new Subscription(subscriber, afterSequence == 0 ? getFirstSequence() - 1 : afterSequence);
+        this.subscriptions.add(subscription);
+        subscription.signal();
+    }
+
+    /**
+     * Gets the sequence number of the last event appended.
+     *
+     * @return The sequence number, or 0 if no event has been appended.
+     */
+    public synchronized long getLastSequence() {
+        return this.lastSequence;
+    }
+
+    /**
+     * Gets the sequence number of the oldest event still kept.
+     *
+     * @return The sequence number; greater than getLastSequence if no event is kept.
+     */
+    public synchronized long getFirstSequence() {
+        return Math.max(1, this.lastSequence - this.events.length + 1);
+    }
+
+    /**
+     * Gets the number of active subscriptions.
+     *
+     * @return The subscriber count.
+     */
+    public int getSubscriberCount() {
+        return this.subscriptions.size();
+    }
+
+    /**
+     * Copies the events after a sequence number out of the log, for readers that poll instead of subscribing.
+     *
+     * @param afterSequence The sequence number of the last event already read.
+     * @param into          The array to copy the events into, from index 0.
+     * @param limit         The largest number of events to copy.
+     * @return The number of events copied, 0 if there are no newer events yet.
+     * @throws FeedGapException if events after the sequence number are no longer kept.
+     * @throws IllegalArgumentException if the sequence number has not been reached yet.
+     */
+    public synchronized int read(long afterSequence, ProductChangeEvent[] into, int limit) {
+        if (afterSequence > this.lastSequence || afterSequence < 0) {
+            throw new IllegalArgumentException("Sequence number " + afterSequence + " is not in the change feed.");
+        }
+        long first = Math.max(1, this.lastSequence - this.events.length + 1);
+        if (afterSequence + 1 < first) {
+            throw new FeedGapException(afterSequence, first);
+        }
+        int count = (int) Math.min(Math.min(limit, into.length), this.lastSequence - afterSequence);
+        for (int i = 0; i < count; i++) {
+            into[i] = this.events[(int) (afterSequence + 1 + i) & this.mask];
+        }
+        return count;
+    }
+
+    /**
+     * Stops appending events. Subscribers receive onComplete once they have read every event appended before.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.closed = true;
+        }
+        for (Subscription subscription : this.subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    /**
+     * Publishes the creation of a product.
+     *
+     * @param product The product that was created.
+     */
+    @Override
+    public void productCreated(Product product) {
+        synchronized (this) {
+            append(ProductChangeEvent.Type.CREATED, product, null, null);
+        }
+        signalAll();
+    }
+
+    /**
+     * Publishes the creation of a batch of products, appending their events together.
+     *
+     * @param products The products that were created.
+     */
+    @Override
+    public void productsCreated(List<Product> products) {
+        synchronized (this) {
+            for (Product product : products) {
+                append(ProductChangeEvent.Type.CREATED, product, null, null);
+            }
+        }
+        signalAll();
+    }
+
+    /**
+     * Publishes a stock movement.
+     *
+     * @param product  The product whose shelf moved.
+     * @param movement The applied movement.
+     */
+    @Override
+    public void stockMoved(Product product, StockMovement movement) {
+        synchronized (this) {
+            append(ProductChangeEvent.Type.STOCK_MOVED, product, movement, null);
+        }
+        signalAll();
+    }
+
+    /**
+     * Publishes a batch of stock movements, appending their events together.
+     *
+     * @param products  The products whose shelves moved.
+     * @param movements The applied movements.
+     */
+    @Override
+    public void stocksMoved(List<Product> products, List<StockMovement> movements) {
+        synchronized (this) {
+            for (int i = 0; i < products.size(); i++) {
+                append(ProductChangeEvent.Type.STOCK_MOVED, products.get(i), movements.get(i), null);
+            }
+        }
+        signalAll();
+    }
+
+    /**
+     * Publishes the start of a product's markdown.
+     *
+     * @param product The product entering markdown.
+     * @param date    The first day of its markdown.
+     */
+    @Override
+    public void markdownStarted(Product product, LocalDate date) {
+        synchronized (this) {
+            append(ProductChangeEvent.Type.MARKDOWN_STARTED, product, null, date);
+        }
+        signalAll();
+    }
+
+    /**
+     * Publishes the expiry of a product.
+     *
+     * @param product The expired product.
+     * @param date    The day after its expiry date.
+     */
+    @Override
+    public void productExpired(Product product, LocalDate date) {
+        synchronized (this) {
+            append(ProductChangeEvent.Type.EXPIRED, product, null, date);
+        }
+        signalAll();
+    }
+
+    /**
+     * Describes the position and subscribers of the feed.
+     *
+     * @return A one-line summary.
+     */
+    @Override
+    public String toString() {
+        return "Change feed: " + getLastSequence() + " events, " + getSubscriberCount() + " subscribers";
+    }
+
+    /**
+     * Appends an event to the log, overwriting the oldest one if the log is full. Must hold the lock.
+     * Changes made after the feed was closed are not published.
+     *
+     * @param type     The kind of change.
+     * @param product  The product that changed.
+     * @param movement The applied movement, or null.
+     * @param date     The day of the markdown or expiry, or null.
+     */
+    private void append(ProductChangeEvent.Type type, Product product, StockMovement movement, LocalDate date) {
+        if (!this.closed) {
+            long sequence = ++this.lastSequence;
+            this.events[(int) sequence & this.mask] = new ProductChangeEvent(sequence, type, product, movement, date);
+        }
+    }
+
+    /**
+     * Tells every subscription that is waiting for events that new ones are available. Subscriptions
+     * without demand are skipped; their next request starts a delivery anyway.
+     */
+    private void signalAll() {
+        for (Subscription subscription : this.subscriptions) {
+            if (subscription.demand.get() > 0) {
+                subscription.signal();
+            }
+        }
+    }
+
+    /**
+     * Thrown when a reader asks for events that the log no longer keeps.
+     */
+    static class FeedGapException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructs a FeedGapException.
+         *
+         * @param afterSequence The sequence number the reader asked to read after.
+         * @param firstSequence The oldest sequence number still kept.
+         */
+        FeedGapException(long afterSequence, long firstSequence) {
+            super("Events after " + afterSequence + " are no longer kept; the change feed starts at " + firstSequence + ".");
+        }
+    }
+
+    /**
+     * A subscriber's position in the log and the number of events it has requested.
+     *
+     * Deliveries run as tasks on the executor. A task is only started by the signal that raises the work
+     * counter from zero, and it keeps draining until it has handled every signal that arrived meanwhile,
+     * so the subscriber is never called from two threads at once and no signal is lost.
+     */
+    private final class Subscription implements Flow.Subscription {
+        // Subscriber the events are delivered to.
+        private final Flow.Subscriber<? super ProductChangeEvent> subscriber;
+        // Events requested but not delivered yet, up to Long.MAX_VALUE for unbounded demand.
+        private final AtomicLong demand = new AtomicLong();
+        // Signals not handled yet by a delivery task.
+        private final AtomicInteger work = new AtomicInteger();
+        // Events copied out of the log, reused by every delivery.
+        private final ProductChangeEvent[] batch = new ProductChangeEvent[READ_BATCH];
+        // Sequence number of the last event delivered. Only used by delivery tasks.
+        private long position;
+        // Whether onSubscribe has been called. Only used by delivery tasks.
+        private boolean started;
+        // Whether the subscription was cancelled or has ended.
+        private volatile boolean cancelled;
+        // Error to deliver, such as an invalid request; null if none.
+        private volatile Throwable pendingError;
+
+        /**
+         * Constructs a Subscription.
+         *
+         * @param subscriber    The subscriber.
+         * @param afterSequence The sequence number to deliver events after.
+         */
+        Subscription(Flow.Subscriber<? super ProductChangeEvent> subscriber, long afterSequence) {
+            this.subscriber = subscriber;
+            this.position = afterSequence;
+        }
+
+        /**
+         * Adds to the number of events the subscriber is ready for.
+         *
+         * @param n The number of events, which must be positive.
+         */
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                this.pendingError = new IllegalArgumentException("A subscriber must request a positive number of events.");
+            } else {
+                this.demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            signal();
+        }
+
+        /**
+         * Stops delivering events to the subscriber.
+         */
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+            ProductChangeFeed.this.subscriptions.remove(this);
+        }
+
+        /**
+         * Starts a delivery task unless one is already running, in which case the running task goes on.
+         */
+        void signal() {
+            if (!this.cancelled && this.work.getAndIncrement() == 0) {
+                try {
+                    ProductChangeFeed.this.executor.execute(this::drain);
+                } catch (RuntimeException e) {
+                    cancel(); // The executor has shut down, so nothing can be delivered any more.
+                }
+            }
+        }
+
+        /**
+         * Delivers events until the demand or the log runs out and no signal is left. A subscriber that
+         * throws is cancelled.
+         */
+        private void drain() {
+            int missed = 1;
+            try {
+                do {
+                    if (!this.started) {
+                        this.started = true;
+                        this.subscriber.onSubscribe(this);
+                    }
+                    deliver();
+                    missed = this.work.addAndGet(-missed);
+                } while (missed != 0);
+            } catch (RuntimeException e) {
+                cancel();
+            }
+        }
+
+        /**
+         * Delivers as many events as are available and requested, and then the end of the feed if it is
+         * closed and the subscriber has read everything.
+         */
+        private void deliver() {
+            while (!this.cancelled) {
+                Throwable error = this.pendingError;
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                long requested = this.demand.get();
+                boolean closed;
+                int count;
+                try {
+                    synchronized (ProductChangeFeed.this) {
+                        closed = ProductChangeFeed.this.closed && this.position == ProductChangeFeed.this.lastSequence;
+                        count = requested == 0 ? 0 : read(this.position, this.batch, (int) Math.min(requested, READ_BATCH));
+                    }
+                } catch (IllegalStateException | IllegalArgumentException e) {
+                    fail(e);
+                    return;
+                }
+                if (closed) {
+                    cancel();
+                    this.subscriber.onComplete();
+                    return;
+                }
+                if (count == 0) {
+                    return;
+                }
+                for (int i = 0; i < count && !this.cancelled; i++) {
+                    ProductChangeEvent event = this.batch[i];
+                    this.batch[i] = null;
+                    this.position = event.getSequence();
+                    this.subscriber.onNext(event);
+                }
+                if (requested != Long.MAX_VALUE) {
+                    this.demand.addAndGet(-count);
+                }
+            }
+        }
+
+        /**
+         * Ends the subscription with an error.
+         *
+         * @param error The error to deliver.
+         */
+        private void fail(Throwable error) {
+            cancel();
+            this.subscriber.onError(error);
+        }
+    }
+}
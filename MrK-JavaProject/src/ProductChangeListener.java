@@ -0,0 +1,66 @@
+import java.util.List;
+
+/**
+ * Receives notifications about changes that ProductService makes to products,
+ * so that other components, such as persistent storage, can follow along.
+ *
+ * Notifications may arrive from several threads at once, and stock movements of one product may
+ * be reported in a different order than they were applied; StockMovement versions give their true order.
+ * A listener that throws does not keep the change from the other listeners, but it makes the service
+ * read-only, as ProductService takes the failure to mean the change could not be saved.
+ */
+interface ProductChangeListener {
+
+    /**
+     * Called after a new product has been added to the database.
+     *
+     * @param product The product that was created.
+     */
+    void productCreated(Product product);
+
+    /**
+     * Called after a batch of new products has been added to the database.
+     * By default each product is passed to productCreated; listeners can override this to handle
+     * the whole batch at once.
+     *
+     * @param products The products that were created, in creation order.
+     */
+    default void productsCreated(List<Product> products) {
+        for (Product product : products) {
+            productCreated(product);
+        }
+    }
+
+    /**
+     * Called after a stock movement has been applied to the shelf of a product.
+     *
+     * @param product  The product whose shelf quantity changed.
+     * @param movement The applied movement, with the resulting quantity and shelf version.
+     */
+    void stockMoved(Product product, StockMovement movement);
+
+    /**
+     * Called after a batch of stock movements has been applied. A product may move more than once
+     * in a batch, and its movements are listed in the order they were applied.
+     * By default each movement is passed to stockMoved; listeners can override this to handle
+     * the whole batch at once.
+     *
+     * @param products  The products whose shelf quantities changed.
+     * @param movements The applied movements, in the same order as the products.
+     */
+    default void stocksMoved(List<Product> products, List<StockMovement> movements) {
+        for (int i = 0; i < products.size(); i++) {
+            stockMoved(products.get(i), movements.get(i));
+        }
+    }
+
+    /**
+     * Called after a GTIN barcode has been assigned to a product. Ignored by default, as most listeners
+     * only follow the product data and the shelves.
+     *
+     * @param product The product the barcode was assigned to.
+     * @param gtin    The barcode.
+     */
+    default void barcodeAdded(Product product, long gtin) {
+    }
+}
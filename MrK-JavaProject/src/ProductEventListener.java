@@ -0,0 +1,34 @@
+import java.time.LocalDate;
+
+/**
+ * Receives the date-driven events of a ProductEventScheduler: a product entering its markdown period,
+ * a product expiring, and the end of each run for work done once per day.
+ * Events are delivered on the thread that runs the scheduler, in date order.
+ */
+interface ProductEventListener {
+
+    /**
+     * Called once the markdown period of a product has started, for example to flag a price change.
+     *
+     * @param product The product now in markdown.
+     * @param date    The date its markdown period started.
+     */
+    void markdownStarted(Product product, LocalDate date);
+
+    /**
+     * Called once a product has expired, for example to put it on a pull list.
+     *
+     * @param product The expired product.
+     * @param date    The first day after its expiry date.
+     */
+    void productExpired(Product product, LocalDate date);
+
+    /**
+     * Called after the due events of a run have been delivered, for work that is done once per day
+     * rather than per product. May be called more than once for the same day.
+     *
+     * @param date The current date.
+     */
+    default void dayStarted(LocalDate date) {
+    }
+}
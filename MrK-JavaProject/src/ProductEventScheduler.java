@@ -0,0 +1,327 @@
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules an event for the start of each product's markdown period and for its expiry, and fires
+ * the events that have come due whenever the day rolls over, instead of rescanning the catalog.
+ *
+ * Pending events live in a min-heap of primitive longs keyed by epoch day. Each event packs its day,
+ * its kind and the product ID into one long, so a catalog of millions of products costs two longs per
+ * product and a day rollover costs O(k log n) for the k events due. Products are looked up again when
+ * their event fires, and events of products that have since been removed or replaced with other
+ * dates are dropped then, so changes never have to search the heap.
+ *
+ * Today's date comes from an injectable Clock, so a simulated clock can drive the scheduler through
+ * any number of days in a test. Events that were already due when the scheduler was created are
+ * treated as fired; products created later are scheduled even if their dates have passed, and fire
+ * on the next run.
+ */
+class ProductEventScheduler implements ProductChangeListener {
+    // Event kind of a markdown start. Sorts before expiry on the same day.
+    private static final int MARKDOWN = 0;
+    // Event kind of an expiry.
+    private static final int EXPIRY = 1;
+    // Offset added to epoch days so that every schedulable day packs as a non-negative 30-bit number.
+    private static final long DAY_BIAS = 1L << 29;
+    // Largest biased day that fits the packed form.
+    private static final long MAX_BIASED_DAY = (1L << 30) - 1;
+
+    // Database the products of fired events are looked up in.
+    private final Database database;
+    // Source of the current date.
+    private final Clock clock;
+    // Pending events in packed form, smallest day first. Guarded by this.
+    private final LongHeap events = new LongHeap();
+    // Components that receive the fired events.
+    private final List<ProductEventListener> listeners = new CopyOnWriteArrayList<>();
+    // Number of events fired since the scheduler was created. Guarded by this.
+    private long firedCount;
+    // Thread that runs the scheduler at each day rollover, or null if it runs only when asked.
+    private ScheduledExecutorService timer;
+
+    /**
+     * Constructs a ProductEventScheduler and schedules the future events of every product in the database.
+     *
+     * @param database The database whose products are scheduled.
+     * @param clock    The clock that tells the current date.
+     */
+    public ProductEventScheduler(Database database, Clock clock) {
+        this.database = database;
+        this.clock = clock;
+        long today = LocalDate.now(clock).toEpochDay();
+        long[] packed = new long[Math.max(16, 2 * database.getProductCount())];
+        int count = 0;
+        for (Product product : database.getProducts()) {
+            if (count + 2 > packed.length) {
+                packed = Arrays.copyOf(packed, packed.length * 2);
+            }
+            count = pack(product, packed, count, today);
+        }
+        this.events.pushAll(packed, count);
+    }
+
+    /**
+     * Registers a listener to receive fired events.
+     *
+     * @param listener The listener to add.
+     */
+    public void addEventListener(ProductEventListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Schedules the events of a newly created product.
+     *
+     * @param product The product that was created.
+     */
+    @Override
+    public void productCreated(Product product) {
+        long[] packed = new long[2];
+        int count = pack(product, packed, 0, Long.MIN_VALUE);
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                this.events.push(packed[i]);
+            }
+        }
+    }
+
+    /**
+     * Schedules the events of a batch of new products with a single heap rebuild.
+     *
+     * @param products The products that were created.
+     */
+    @Override
+    public void productsCreated(List<Product> products) {
+        long[] packed = new long[2 * products.size()];
+        int count = 0;
+        for (Product product : products) {
+            count = pack(product, packed, count, Long.MIN_VALUE);
+        }
+        synchronized (this) {
+            this.events.pushAll(packed, count);
+        }
+    }
+
+    /**
+     * Ignores stock movements, which do not change any dates.
+     *
+     * @param product  The product whose shelf quantity changed.
+     * @param movement The applied movement.
+     */
+    @Override
+    public void stockMoved(Product product, StockMovement movement) {
+    }
+
+    /**
+     * Fires every pending event that is due by the clock's current date,
+     * then tells the listeners that the day has started.
+     *
+     * @return The number of events fired.
+     */
+    public int runDueEvents() {
+        LocalDate date = LocalDate.now(this.clock);
+        long today = date.toEpochDay();
+        int fired = 0;
+        while (true) {
+            long event;
+            synchronized (this) {
+                if (this.events.isEmpty() || dayOf(this.events.peek()) > today) {
+                    break;
+                }
+                event = this.events.pop();
+            }
+            if (fire(event)) {
+                fired++;
+                synchronized (this) {
+                    this.firedCount++;
+                }
+            }
+        }
+        for (ProductEventListener listener : this.listeners) {
+            listener.dayStarted(date);
+        }
+        return fired;
+    }
+
+    /**
+     * Starts a background thread that runs the due events now and then shortly after every midnight
+     * in the clock's time zone.
+     */
+    public synchronized void start() {
+        if (this.timer != null) {
+            return;
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "mrk-event-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.execute(this::runAndReschedule);
+    }
+
+    /**
+     * Stops the background thread, if one was started.
+     */
+    public synchronized void stop() {
+        if (this.timer != null) {
+            this.timer.shutdownNow();
+            this.timer = null;
+        }
+    }
+
+    /**
+     * Gets the number of events waiting to fire, including events of products removed since they were scheduled.
+     *
+     * @return The number of pending events.
+     */
+    public synchronized int getPendingCount() {
+        return this.events.size();
+    }
+
+    /**
+     * Gets the number of events fired since the scheduler was created.
+     *
+     * @return The number of fired events.
+     */
+    public synchronized long getFiredCount() {
+        return this.firedCount;
+    }
+
+    /**
+     * Runs the due events and schedules the next run just after the next midnight.
+     */
+    private void runAndReschedule() {
+        try {
+            runDueEvents();
+        } finally {
+            ZonedDateTime now = ZonedDateTime.now(this.clock);
+            ZonedDateTime nextDay = now.toLocalDate().plusDays(1).atStartOfDay(now.getZone());
+            // A second of slack keeps a slightly early wake-up from still seeing yesterday.
+            long delay = Duration.between(now, nextDay).toMillis() + 1000;
+            synchronized (this) {
+                if (this.timer != null) {
+                    this.timer.schedule(this::runAndReschedule, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers one event to the listeners if its product still exists with the same date.
+     *
+     * @param event The packed event.
+     * @return true if the event was delivered; false if it was stale.
+     */
+    private boolean fire(long event) {
+        Product product = this.database.getProduct(idOf(event));
+        if (product == null) {
+            return false;
+        }
+        boolean markdown = kindOf(event) == MARKDOWN;
+        long day = dayOf(event);
+        LocalDate scheduled = markdown ? product.getTimeDurationForMarkDown() : product.getExpiryDate();
+        if (scheduled == null || eventDay(scheduled, markdown) != day) {
+            return false; // The product was replaced with different dates after the event was scheduled.
+        }
+        LocalDate date = LocalDate.ofEpochDay(day);
+        for (ProductEventListener listener : this.listeners) {
+            if (markdown) {
+                listener.markdownStarted(product, date);
+            } else {
+                listener.productExpired(product, date);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packs the events of a product that fall after a given day into an array.
+     *
+     * @param product The product to schedule.
+     * @param packed  The array to add the packed events to.
+     * @param count   The number of events already in the array.
+     * @param after   Only events on later days are added.
+     * @return The new number of events in the array.
+     */
+    private static int pack(Product product, long[] packed, int count, long after) {
+        LocalDate markdown = product.getTimeDurationForMarkDown();
+        if (markdown != null && eventDay(markdown, true) > after) {
+            count = add(packed, count, eventDay(markdown, true), MARKDOWN, product.getId());
+        }
+        LocalDate expiry = product.getExpiryDate();
+        if (expiry != null && eventDay(expiry, false) > after) {
+            count = add(packed, count, eventDay(expiry, false), EXPIRY, product.getId());
+        }
+        return count;
+    }
+
+    /**
+     * Packs one event into an array, unless its day is thousands of years away from today
+     * and so cannot be represented.
+     *
+     * @param packed The array to add to.
+     * @param count  The number of events already in the array.
+     * @param day    The epoch day of the event.
+     * @param kind   MARKDOWN or EXPIRY.
+     * @param id     The product ID.
+     * @return The new number of events in the array.
+     */
+    private static int add(long[] packed, int count, long day, int kind, int id) {
+        long biased = day + DAY_BIAS;
+        if (biased < 0 || biased > MAX_BIASED_DAY) {
+            return count;
+        }
+        packed[count] = biased << 33 | (long) kind << 32 | (id & 0xFFFFFFFFL);
+        return count + 1;
+    }
+
+    /**
+     * Gets the epoch day on which a product date triggers its event: the markdown date itself,
+     * or the day after the expiry date, matching ProductService.findExpiredProducts.
+     *
+     * @param date     The product date.
+     * @param markdown Whether the date is a markdown date rather than an expiry date.
+     * @return The epoch day of the event.
+     */
+    private static long eventDay(LocalDate date, boolean markdown) {
+        return markdown ? date.toEpochDay() : date.toEpochDay() + 1;
+    }
+
+    /**
+     * Unpacks the epoch day of an event.
+     *
+     * @param event The packed event.
+     * @return The epoch day.
+     */
+    private static long dayOf(long event) {
+        return (event >>> 33) - DAY_BIAS;
+    }
+
+    /**
+     * Unpacks the kind of an event.
+     *
+     * @param event The packed event.
+     * @return MARKDOWN or EXPIRY.
+     */
+    private static int kindOf(long event) {
+        return (int) (event >>> 32) & 1;
+    }
+
+    /**
+     * Unpacks the product ID of an event.
+     *
+     * @param event The packed event.
+     * @return The product ID.
+     */
+    private static int idOf(long event) {
+        return (int) event;
+    }
+}
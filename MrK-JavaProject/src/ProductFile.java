@@ -0,0 +1,247 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The snapshot format of DurableStore: a file of fixed-width ProductRecord entries, one per product,
+ * followed by the products' barcodes. The file is accessed through a memory-mapped buffer, so loading it
+ * is a single sequential pass over mapped memory with no read calls or text parsing, and writing a record
+ * is a plain memory copy.
+ *
+ * A snapshot is written once, by writeSnapshot, and only read after that. Files written by earlier
+ * versions, which appended a new record on every change, still load: the last record of each product ID wins.
+ *
+ * Layout of the file header (all numbers big-endian):
+ * <pre>
+ *   offset  size  field
+ *        0     4  MAGIC
+ *        4     4  format VERSION
+ *        8     4  record size
+ *       12     4  reserved
+ *       16     8  number of records written
+ *       24     8  LSN of the write-ahead log covered by the file when it is a snapshot, otherwise 0
+ *       32     8  number of barcode entries after the records, only written to snapshots
+ *       40    24  reserved
+ * </pre>
+ * A snapshot lists the GTIN barcodes of its products after the last record, as entries of a product ID
+ * (4 bytes) and a GTIN (8 bytes). Files written before barcodes existed have 0 there.
+ */
+class ProductFile implements Closeable {
+    // Identifies a product file: the ASCII characters "MRKP".
+    private static final int MAGIC = 0x4D524B50;
+    // Version of the file format.
+    private static final int VERSION = 1;
+    // Size of the file header in bytes.
+    private static final int HEADER_SIZE = 64;
+    // Offset of the record count in the header.
+    private static final int RECORD_COUNT = 16;
+    // Offset of the snapshot LSN in the header.
+    private static final int SNAPSHOT_LSN = 24;
+    // Offset of the barcode entry count in the header.
+    private static final int BARCODE_COUNT = 32;
+    // Size of a barcode entry: product ID and GTIN.
+    private static final int BARCODE_SIZE = 4 + 8;
+    // The mapped region grows by at least this many bytes at a time.
+    private static final long GROWTH = 64L * 1024 * 1024;
+
+    // Channel of the open file.
+    private final FileChannel channel;
+    // Mapping of the header and all records, including room for records not yet written.
+    private MappedByteBuffer buffer;
+    // Number of records written to the file.
+    private long recordCount;
+
+    /**
+     * Opens a product file, creating an empty one if it does not exist yet, for writeSnapshot to fill.
+     *
+     * @param path The path of the file.
+     * @throws IOException if the file cannot be opened or is not a valid product file.
+     */
+    public ProductFile(Path path) throws IOException {
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (this.channel.size() == 0) {
+                map(HEADER_SIZE);
+                this.buffer.putInt(0, MAGIC);
+                this.buffer.putInt(4, VERSION);
+                this.buffer.putInt(8, ProductRecord.SIZE);
+                this.buffer.putLong(RECORD_COUNT, 0);
+            } else {
+                map(this.channel.size());
+                checkHeader(path);
+                this.recordCount = this.buffer.getLong(RECORD_COUNT);
+            }
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the LSN of the write-ahead log covered by this file when it was written as a snapshot.
+     *
+     * @return The snapshot LSN, or 0 if the file is not a snapshot.
+     */
+    public synchronized long getSnapshotLsn() {
+        return this.buffer.getLong(SNAPSHOT_LSN);
+    }
+
+    /**
+     * Writes a compacted snapshot holding exactly one record per product. The snapshot is written to a
+     * temporary file first and then moved over the target, so a crash never leaves a partial snapshot behind.
+     *
+     * @param path     The path of the snapshot file.
+     * @param products The products to write.
+     * @param lsn      The LSN of the write-ahead log covered by the snapshot.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public static void writeSnapshot(Path path, Iterable<Product> products, long lsn) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        try (ProductFile file = new ProductFile(temporary)) {
+            long barcodes = 0;
+            for (Product product : products) {
+                file.append(product);
+                barcodes += product.getBarcodeCount();
+            }
+            file.appendBarcodes(products, barcodes);
+            file.buffer.putLong(SNAPSHOT_LSN, lsn);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads every product in the file into a database, followed by their barcodes. Where a product ID
+     * has several records, the last one is loaded.
+     *
+     * @param database The database to load the products into.
+     * @return The number of distinct products loaded.
+     */
+    public synchronized int loadInto(Database database) {
+        byte[] scratch = new byte[Product.MAX_NAME_BYTES];
+        int loaded = 0;
+        for (long i = 0; i < this.recordCount; i++) {
+            Product product = ProductRecord.read(this.buffer, (int) offsetOf(i), scratch);
+            if (database.putProduct(product) == null) {
+                loaded++;
+            }
+        }
+        long barcodes = this.buffer.getLong(BARCODE_COUNT);
+        for (long i = 0; i < barcodes; i++) {
+            int offset = (int) (offsetOf(this.recordCount) + i * BARCODE_SIZE);
+            Product product = database.getProduct(this.buffer.getInt(offset));
+            if (product != null) {
+                database.addBarcode(product, this.buffer.getLong(offset + 4));
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Appends a record holding the current state of a product to a snapshot being written.
+     *
+     * @param product The product to write.
+     * @throws IOException if the file cannot be extended.
+     */
+    private void append(Product product) throws IOException {
+        long end = offsetOf(this.recordCount + 1);
+        if (end > this.buffer.capacity()) {
+            map(Math.max(end, this.buffer.capacity() + GROWTH));
+        }
+        ProductRecord.write(this.buffer, (int) offsetOf(this.recordCount), product);
+        // The count is updated after the record, so a torn append is never counted.
+        this.recordCount++;
+        this.buffer.putLong(RECORD_COUNT, this.recordCount);
+    }
+
+    /**
+     * Writes the barcode entries of a snapshot after its records. Products whose barcodes changed since
+     * their records were written may add or miss some; the write-ahead log after the snapshot holds those.
+     *
+     * @param products The products whose records were written.
+     * @param expected The number of barcodes counted while the records were written, to size the mapping.
+     * @throws IOException if the file cannot be extended.
+     */
+    private void appendBarcodes(Iterable<Product> products, long expected) throws IOException {
+        long start = offsetOf(this.recordCount);
+        long count = 0;
+        for (Product product : products) {
+            for (long gtin : product.getBarcodes()) {
+                long end = start + (count + 1) * BARCODE_SIZE;
+                if (end > this.buffer.capacity()) {
+                    map(Math.max(end, start + expected * BARCODE_SIZE + GROWTH));
+                }
+                int offset = (int) (end - BARCODE_SIZE);
+                this.buffer.putInt(offset, product.getId());
+                this.buffer.putLong(offset + 4, gtin);
+                count++;
+            }
+        }
+        this.buffer.putLong(BARCODE_COUNT, count);
+    }
+
+    /**
+     * Writes all changes to the storage device and closes the file.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.buffer.force();
+        this.channel.close();
+    }
+
+    /**
+     * Maps the first bytes of the file, extending the file if it is shorter.
+     *
+     * @param size The number of bytes to map.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private void map(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Product file cannot grow beyond " + Integer.MAX_VALUE + " bytes.");
+        }
+        // Mapping a region beyond the end of the file extends the file.
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Checks that the mapped file starts with a valid header.
+     *
+     * @param path The path of the file, for error messages.
+     * @throws IOException if the header is missing or does not match this format.
+     */
+    private void checkHeader(Path path) throws IOException {
+        ByteBuffer header = this.buffer;
+        if (header.capacity() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a product file.");
+        }
+        if (header.getInt(4) != VERSION || header.getInt(8) != ProductRecord.SIZE) {
+            throw new IOException(path + " has unsupported format version " + header.getInt(4) + ".");
+        }
+        long count = header.getLong(RECORD_COUNT);
+        long barcodes = header.getLong(BARCODE_COUNT);
+        if (count < 0 || count > Integer.MAX_VALUE || offsetOf(count) > header.capacity()
+                || barcodes < 0 || barcodes > Integer.MAX_VALUE
+                || offsetOf(count) + barcodes * BARCODE_SIZE > header.capacity()) {
+            throw new IOException(path + " is truncated.");
+        }
+    }
+
+    /**
+     * Calculates the offset of a record in the file.
+     *
+     * @param index The index of the record.
+     * @return The byte offset of the record.
+     */
+    private static long offsetOf(long index) {
+        return HEADER_SIZE + index * ProductRecord.SIZE;
+    }
+}
@@ -0,0 +1,349 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Imports products in bulk from a comma-separated file with one product per line:
+ * <pre>
+ *   id,name,expiry date,markdown days,shelf min,shelf max,shelf current,base price
+ * </pre>
+ * The expiry date uses the MM/dd/yyyy format and the markdown days count back from the expiry date.
+ * Everything after the name is optional and falls back to the same defaults as interactive creation.
+ * Names containing commas can be quoted with double quotes. A first line starting with "id" is treated
+ * as a header and skipped.
+ *
+ * The file is streamed in chunks of lines. Chunks are parsed in parallel on the common fork/join pool,
+ * while the calling thread commits parsed chunks in file order through ProductService.createProducts,
+ * so when an ID appears twice the first occurrence wins. Rows that fail to parse or repeat an ID are
+ * reported in the ImportResult without stopping the import.
+ */
+class ProductImporter {
+    // Number of lines parsed and committed together.
+    private static final int CHUNK_LINES = 10_000;
+    // Maximum number of error messages kept in a result. Further errors are only counted.
+    private static final int MAX_REPORTED_ERRORS = 1_000;
+
+    // Service the imported products are created through.
+    private final ProductService service;
+    // Pool the chunks are parsed on.
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs a ProductImporter that creates products through the given service.
+     *
+     * @param service The service to create products with.
+     */
+    public ProductImporter(ProductService service) {
+        this.service = service;
+        this.pool = ForkJoinPool.commonPool();
+    }
+
+    /**
+     * The outcome of an import: how many rows were read and imported, and what went wrong with the rest.
+     */
+    static class ImportResult {
+        // Number of product rows read, excluding blank lines and the header.
+        private long rowsRead;
+        // Number of products created.
+        private long imported;
+        // Number of rows rejected.
+        private long errorCount;
+        // Messages describing the first rejected rows.
+        private final List<String> errors = new ArrayList<>();
+
+        /**
+         * Gets the number of product rows read, excluding blank lines and the header.
+         *
+         * @return The number of rows read.
+         */
+        public long getRowsRead() {
+            return this.rowsRead;
+        }
+
+        /**
+         * Gets the number of products created.
+         *
+         * @return The number of imported products.
+         */
+        public long getImported() {
+            return this.imported;
+        }
+
+        /**
+         * Gets the number of rows that were rejected.
+         *
+         * @return The number of rejected rows.
+         */
+        public long getErrorCount() {
+            return this.errorCount;
+        }
+
+        /**
+         * Gets messages describing the rejected rows. At most MAX_REPORTED_ERRORS messages are kept.
+         *
+         * @return The error messages, each starting with the line number.
+         */
+        public List<String> getErrors() {
+            return this.errors;
+        }
+
+        /**
+         * Records a rejected row.
+         *
+         * @param message The message describing the problem.
+         */
+        private void addError(String message) {
+            this.errorCount++;
+            if (this.errors.size() < MAX_REPORTED_ERRORS) {
+                this.errors.add(message);
+            }
+        }
+    }
+
+    /**
+     * The parsed form of one chunk of lines.
+     */
+    private static class Chunk {
+        // Products parsed successfully.
+        private final List<Product> products = new ArrayList<>();
+        // Line number of each parsed product, parallel to products.
+        private final List<Integer> lineNumbers = new ArrayList<>();
+        // Messages for lines that could not be parsed.
+        private final List<String> errors = new ArrayList<>();
+        // Number of product rows in the chunk.
+        private int rows;
+    }
+
+    /**
+     * Imports every product in a file.
+     *
+     * @param file The file to import.
+     * @return The outcome of the import.
+     * @throws IOException if the file cannot be read.
+     */
+    public ImportResult importFile(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(reader);
+        }
+    }
+
+    /**
+     * Imports every product read from a reader.
+     *
+     * @param reader The reader to read lines from.
+     * @return The outcome of the import.
+     * @throws IOException if reading fails.
+     */
+    public ImportResult importFrom(BufferedReader reader) throws IOException {
+        ImportResult result = new ImportResult();
+        // Parsed chunks waiting to be committed, oldest first. Bounded so memory use stays constant.
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        int maxInFlight = this.pool.getParallelism() * 2;
+        int lineNumber = 0;
+        boolean firstLine = true;
+        // Read once, so every product without an expiry date gets the same one, from the service's clock.
+        LocalDate defaultExpiry = this.service.today().plusMonths(3);
+
+        while (true) {
+            List<String> lines = new ArrayList<>(CHUNK_LINES);
+            int firstLineNumber = lineNumber + 1;
+            String line;
+            while (lines.size() < CHUNK_LINES && (line = reader.readLine()) != null) {
+                lineNumber++;
+                if (firstLine && line.regionMatches(true, 0, "id", 0, 2)) {
+                    line = ""; // Header line, keep it so line numbers stay aligned.
+                }
+                firstLine = false;
+                lines.add(line);
+            }
+            if (lines.isEmpty()) {
+                break;
+            }
+            int start = firstLineNumber;
+            inFlight.addLast(this.pool.submit(() -> parseChunk(lines, start, defaultExpiry)));
+            if (inFlight.size() >= maxInFlight) {
+                commit(await(inFlight.removeFirst()), result);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            commit(await(inFlight.removeFirst()), result);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the products of a parsed chunk to the database and records its errors.
+     *
+     * @param chunk  The parsed chunk.
+     * @param result The result to update.
+     */
+    private void commit(Chunk chunk, ImportResult result) {
+        result.rowsRead += chunk.rows;
+        for (String error : chunk.errors) {
+            result.addError(error);
+        }
+        List<Product> duplicates = this.service.createProducts(chunk.products);
+        result.imported += chunk.products.size() - duplicates.size();
+        if (!duplicates.isEmpty()) {
+            // Duplicates keep their order, so their line numbers can be found with a single forward pass.
+            int next = 0;
+            for (int i = 0; i < chunk.products.size() && next < duplicates.size(); i++) {
+                if (chunk.products.get(i) == duplicates.get(next)) {
+                    result.addError("Line " + chunk.lineNumbers.get(i) + ": Product ID "
+                            + duplicates.get(next).getId() + " already exists.");
+                    next++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a chunk to be parsed.
+     *
+     * @param future The pending chunk.
+     * @return The parsed chunk.
+     * @throws IOException if the thread is interrupted or parsing failed unexpectedly.
+     */
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Parses a chunk of lines. Runs on the fork/join pool and touches no shared state.
+     *
+     * @param lines           The lines of the chunk.
+     * @param firstLineNumber The line number of the first line in the file.
+     * @param defaultExpiry   The expiry date of products whose line has none.
+     * @return The parsed chunk.
+     */
+    private static Chunk parseChunk(List<String> lines, int firstLineNumber, LocalDate defaultExpiry) {
+        Chunk chunk = new Chunk();
+        List<String> fields = new ArrayList<>(7);
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isBlank()) {
+                continue;
+            }
+            chunk.rows++;
+            int lineNumber = firstLineNumber + i;
+            try {
+                split(line, fields, field);
+                chunk.products.add(parseProduct(fields, defaultExpiry));
+                chunk.lineNumbers.add(lineNumber);
+            } catch (IllegalArgumentException | ArithmeticException | DateTimeParseException e) {
+                chunk.errors.add("Line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Builds a product from the fields of one line.
+     *
+     * @param fields        The fields of the line.
+     * @param defaultExpiry The expiry date to use if the line has none.
+     * @return The product described by the fields.
+     * @throws IllegalArgumentException if a field is missing or invalid.
+     */
+    private static Product parseProduct(List<String> fields, LocalDate defaultExpiry) {
+        if (fields.size() < 2 || fields.size() > 8) {
+            throw new IllegalArgumentException("Expected 2 to 8 fields but found " + fields.size() + ".");
+        }
+        int id = Integer.parseInt(fields.get(0).trim());
+        String name = fields.get(1).trim();
+        if (!Product.isValidName(name)) {
+            throw new IllegalArgumentException("Product Name must be between 1 and " + Product.MAX_NAME_BYTES + " bytes long.");
+        }
+        String expiryText = field(fields, 2);
+        LocalDate expiryDate = expiryText.isEmpty()
+                ? defaultExpiry
+                : LocalDate.parse(expiryText, ProductService.DATE_FORMATTER);
+        String markdownText = field(fields, 3);
+        LocalDate markdownDate = expiryDate.minusDays(markdownText.isEmpty() ? 6 : Long.parseLong(markdownText));
+
+        String min = field(fields, 4);
+        String max = field(fields, 5);
+        String current = field(fields, 6);
+        String price = field(fields, 7);
+        long basePrice = price.isEmpty() ? 0 : Quantities.parse(price, Product.PRICE_SCALE);
+        if (min.isEmpty() && max.isEmpty() && current.isEmpty()) {
+            return new Product(id, name, expiryDate, markdownDate, new ProductShelf(), basePrice);
+        }
+        int scale = Math.max(Quantities.scaleOf(min), Math.max(Quantities.scaleOf(max), Quantities.scaleOf(current)));
+        ProductShelf shelf = new ProductShelf(
+                min.isEmpty() ? Quantities.fromWhole(ProductShelf.DEFAULT_MIN, scale) : Quantities.parse(min, scale),
+                max.isEmpty() ? Quantities.fromWhole(ProductShelf.DEFAULT_MAX, scale) : Quantities.parse(max, scale),
+                current.isEmpty() ? Quantities.fromWhole(ProductShelf.DEFAULT_CURRENT, scale) : Quantities.parse(current, scale),
+                scale);
+        return new Product(id, name, expiryDate, markdownDate, shelf, basePrice);
+    }
+
+    /**
+     * Gets a trimmed optional field.
+     *
+     * @param fields The fields of the line.
+     * @param index  The index of the field.
+     * @return The trimmed field, or an empty string if the line has fewer fields.
+     */
+    private static String field(List<String> fields, int index) {
+        return index < fields.size() ? fields.get(index).trim() : "";
+    }
+
+    /**
+     * Splits a line into comma-separated fields. A field may be enclosed in double quotes, in which case
+     * it can contain commas, and a doubled quote stands for one quote character.
+     *
+     * @param line   The line to split.
+     * @param fields The list to fill with the fields; cleared first.
+     * @param field  A builder reused for assembling each field.
+     * @throws IllegalArgumentException if a quoted field is not closed.
+     */
+    private static void split(String line, List<String> fields, StringBuilder field) {
+        fields.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field.");
+        }
+        fields.add(field.toString());
+    }
+}
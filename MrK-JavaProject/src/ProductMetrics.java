@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The operation metrics of a ProductService: one OperationMetrics per instrumented operation, kept in
+ * the order the operations were first used.
+ *
+ * The metrics can be published as JMX MXBeans, one per operation, and dumped as plain text or JSON.
+ * Allocation tracking is off by default, as reading the per-thread allocation counter roughly doubles
+ * the cost of recording a call; it can be turned on at any time.
+ */
+class ProductMetrics {
+    // Metrics of each operation by name.
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    // The same metrics in the order the operations were added.
+    private final List<OperationMetrics> ordered = new CopyOnWriteArrayList<>();
+    // Whether operations measure the bytes their calls allocate.
+    private volatile boolean trackAllocations;
+
+    /**
+     * Gets the metrics of an operation, creating them the first time the operation is named.
+     *
+     * @param name The name of the operation.
+     * @return The operation's metrics.
+     */
+    public OperationMetrics operation(String name) {
+        OperationMetrics metrics = this.operations.get(name);
+        if (metrics != null) {
+            return metrics;
+        }
+        synchronized (this.ordered) {
+            return this.operations.computeIfAbsent(name, key -> {
+                OperationMetrics created = new OperationMetrics(key, this.trackAllocations);
+                this.ordered.add(created);
+                return created;
+            });
+        }
+    }
+
+    /**
+     * Gets the metrics of every operation.
+     *
+     * @return The metrics in the order the operations were added.
+     */
+    public List<OperationMetrics> getOperations() {
+        return this.ordered;
+    }
+
+    /**
+     * Turns measuring the bytes allocated by each call on or off for every operation.
+     *
+     * @param trackAllocations Whether to measure allocations.
+     */
+    public void setTrackAllocations(boolean trackAllocations) {
+        synchronized (this.ordered) {
+            this.trackAllocations = trackAllocations;
+            for (OperationMetrics metrics : this.ordered) {
+                metrics.setTrackAllocations(trackAllocations);
+            }
+        }
+    }
+
+    /**
+     * Clears the metrics of every operation.
+     */
+    public void reset() {
+        for (OperationMetrics metrics : this.ordered) {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * Publishes the metrics of every operation added so far on the platform MBean server,
+     * under "mrk:type=ProductService,name=serviceName,operation=operationName".
+     *
+     * @param serviceName The name that tells this service's metrics apart from those of other services.
+     * @throws JMException if a bean cannot be registered, for example because the name is already taken.
+     */
+    public void registerMBeans(String serviceName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (OperationMetrics metrics : this.ordered) {
+            server.registerMBean(metrics, new ObjectName("mrk:type=ProductService,name=" + ObjectName.quote(serviceName)
+                    + ",operation=" + metrics.getName()));
+        }
+    }
+
+    /**
+     * Writes one line per operation that has been called, with its call count, latency percentiles in
+     * microseconds, rows scanned and matched, and allocated bytes when tracked.
+     *
+     * @param report The writer to write to. It is not flushed.
+     */
+    public void writeText(ReportWriter report) {
+        for (OperationMetrics metrics : this.ordered) {
+            long count = metrics.getCount();
+            if (count == 0) {
+                continue;
+            }
+            report.append(metrics.getName()).append(": ").append(count).append(" calls, mean ")
+                    .appendQuantity(metrics.getMeanNanos() / 10, 2).append(" us, p50 ")
+                    .appendQuantity(metrics.getP50Nanos() / 10, 2).append(" us, p99 ")
+                    .appendQuantity(metrics.getP99Nanos() / 10, 2).append(" us, p99.9 ")
+                    .appendQuantity(metrics.getP999Nanos() / 10, 2).append(" us, max ")
+                    .appendQuantity(metrics.getMaxNanos() / 10, 2).append(" us, rows scanned ")
+                    .append(metrics.getRowsScanned()).append(", rows matched ").append(metrics.getRowsMatched());
+            long allocated = metrics.getAllocatedBytes();
+            if (allocated >= 0) {
+                report.append(", allocated ").append(allocated / count).append(" B/call");
+            }
+            report.endLine();
+        }
+    }
+
+    /**
+     * Writes the metrics of every operation that has been called as the members of a JSON object,
+     * one object per operation, with latencies in nanoseconds.
+     *
+     * @param json The writer to write to, positioned inside an object.
+     * @throws IOException if the output cannot be written.
+     */
+    public void writeJson(JsonWriter json) throws IOException {
+        for (OperationMetrics metrics : this.ordered) {
+            if (metrics.getCount() == 0) {
+                continue;
+            }
+            json.name(metrics.getName()).beginObject()
+                    .name("count").value(metrics.getCount())
+                    .name("meanNanos").value(metrics.getMeanNanos())
+                    .name("p50Nanos").value(metrics.getP50Nanos())
+                    .name("p99Nanos").value(metrics.getP99Nanos())
+                    .name("p999Nanos").value(metrics.getP999Nanos())
+                    .name("maxNanos").value(metrics.getMaxNanos())
+                    .name("rowsScanned").value(metrics.getRowsScanned())
+                    .name("rowsMatched").value(metrics.getRowsMatched())
+                    .name("allocatedBytes").value(metrics.getAllocatedBytes())
+                    .endObject();
+        }
+    }
+}
@@ -0,0 +1,460 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Finds products by name, by the start of any word of the name or by similarity to a misspelt name.
+ *
+ * Names are normalized to lower-case words of letters and digits. The prefix index is a sorted map from
+ * the tails of a name that start at a word, cut after MAX_TAIL_WORDS words, to the IDs of the products
+ * whose names hold them, so "Whole Milk 1L" is found by "who", "milk" and "1l" alike. Cutting the tails
+ * keeps the index linear in the number of words: a name of w words adds w keys of at most MAX_TAIL_WORDS
+ * words each, where whole tails would add keys of w, w - 1, ... words. Keys of a few words are still
+ * mostly unique to one name, so the sorted map grows with the catalog rather than staying small.
+ * A prefix search is a range of the sorted map and costs O(log t + k) for t distinct tails and k results;
+ * a search of more than MAX_TAIL_WORDS words also checks each match against the whole name.
+ *
+ * The fuzzy index splits every word into trigrams, padded as in PostgreSQL's pg_trgm, and keeps a posting
+ * list of product IDs per trigram. A fuzzy search counts how many of its trigrams each product shares,
+ * reading the rarest posting lists first and at most MAX_POSTINGS_SCANNED postings in all, so trigrams that
+ * half the catalog shares cannot make a search scan the catalog. The best counted candidates are then
+ * ranked by their exact trigram similarity, the shared trigrams divided by the trigrams of either name.
+ *
+ * The index is filled through the ProductChangeListener interface. Like IntProductMap, it takes one writer
+ * at a time (the listener methods serialize themselves) and any number of concurrent readers without locks.
+ */
+class ProductNameIndex implements ProductChangeListener {
+    // Least trigram similarity, from 0 to 1, of a fuzzy match. The default of pg_trgm.
+    public static final double MIN_SIMILARITY = 0.3;
+    // Largest number of postings a fuzzy search reads.
+    private static final int MAX_POSTINGS_SCANNED = 16 * 1024;
+    // Number of candidates per requested result that are ranked by their exact similarity.
+    private static final int CANDIDATES_PER_RESULT = 8;
+    // Largest number of words of a key of the prefix index.
+    private static final int MAX_TAIL_WORDS = 3;
+
+    // Indexed products by ID.
+    private final IntProductMap products = new IntProductMap();
+    // IDs of the products by each tail of their normalized names that starts at a word, cut after MAX_TAIL_WORDS words.
+    private final NavigableMap<String, Postings> prefixes = new ConcurrentSkipListMap<>();
+    // The same postings by tail in a hash map, which only the writer reads. Finding the postings of a tail that
+    // is already indexed then takes one hash lookup instead of a walk down the sorted map.
+    private final Map<String, Postings> tails = new HashMap<>();
+    // IDs of the products whose names hold each trigram, keyed by the trigram's three characters.
+    private final Map<Long, Postings> trigrams = new ConcurrentHashMap<>();
+    // Serializes the writers.
+    private final Object writeLock = new Object();
+
+    /**
+     * Adds products that are not in the index yet, such as the products already in a database when
+     * the index is attached to a service. Products whose IDs are already indexed are skipped.
+     *
+     * @param products The products to add.
+     */
+    public void addAll(Iterable<Product> products) {
+        synchronized (this.writeLock) {
+            for (Product product : products) {
+                add(product);
+            }
+        }
+    }
+
+    /**
+     * Adds a new product to the index.
+     *
+     * @param product The product that was created.
+     */
+    @Override
+    public void productCreated(Product product) {
+        synchronized (this.writeLock) {
+            add(product);
+        }
+    }
+
+    /**
+     * Adds a batch of new products to the index under a single lock.
+     *
+     * @param products The products that were created.
+     */
+    @Override
+    public void productsCreated(List<Product> products) {
+        addAll(products);
+    }
+
+    /**
+     * Does nothing, as stock movements do not change names.
+     *
+     * @param product  The product whose shelf quantity changed.
+     * @param movement The applied movement.
+     */
+    @Override
+    public void stockMoved(Product product, StockMovement movement) {
+    }
+
+    /**
+     * Gets the number of indexed products.
+     *
+     * @return The number of products.
+     */
+    public int size() {
+        return this.products.size();
+    }
+
+    /**
+     * Finds the products with a word that starts with the given text, ordered by the first MAX_TAIL_WORDS
+     * words of the name from that word on. Text of several words matches names in which those words follow
+     * each other.
+     *
+     * @param prefix The start of a word of the name; case and punctuation are ignored.
+     * @param limit  The largest number of products to return.
+     * @return The matching products, at most limit of them.
+     */
+    public List<Product> findByPrefix(String prefix, int limit) {
+        String normalized = normalize(prefix);
+        List<Product> found = new ArrayList<>(Math.min(limit, 64));
+        if (normalized.isEmpty()) {
+            return found;
+        }
+        // A longer prefix is looked up by the words a key can hold, and the matches are checked against the whole name.
+        int keyEnd = endOfWords(normalized, 0, MAX_TAIL_WORDS);
+        String key = normalized.substring(0, keyEnd);
+        boolean check = keyEnd < normalized.length();
+        // Every tail that starts with the key, including the tails that are just the key
+        for (Postings postings : this.prefixes.subMap(key, true, key + Character.MAX_VALUE, false).values()) {
+            int size = postings.size;
+            int[] ids = postings.ids;
+            for (int i = 0; i < size; i++) {
+                if (found.size() == limit) {
+                    return found;
+                }
+                Product product = this.products.get(ids[i]);
+                if (check && !(" " + normalize(product.getProductName())).contains(" " + normalized)) {
+                    continue;
+                }
+                if (!found.contains(product)) { // A name can hold the prefix at more than one word.
+                    found.add(product);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the products whose names are most similar to the given text, for names that are misspelt or
+     * only partly remembered.
+     *
+     * @param text  The name to search for; case and punctuation are ignored.
+     * @param limit The largest number of products to return.
+     * @return The products with a similarity of at least MIN_SIMILARITY, most similar first.
+     */
+    public List<Product> findSimilar(String text, int limit) {
+        long[] queryTrigrams = trigramsOf(normalize(text));
+        if (queryTrigrams.length == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+        // Reads the rarest posting lists first, so that the budget goes to the most telling trigrams.
+        Postings[] lists = new Postings[queryTrigrams.length];
+        int[] sizes = new int[queryTrigrams.length];
+        int listCount = 0;
+        long total = 0;
+        for (long trigram : queryTrigrams) {
+            Postings postings = this.trigrams.get(trigram);
+            if (postings != null) {
+                sizes[listCount] = postings.size;
+                lists[listCount++] = postings;
+                total += postings.size;
+            }
+        }
+        Integer[] order = new Integer[listCount];
+        for (int i = 0; i < listCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(sizes[a], sizes[b]));
+
+        CandidateCounts counts = new CandidateCounts((int) Math.min(total, MAX_POSTINGS_SCANNED));
+        int budget = MAX_POSTINGS_SCANNED;
+        for (int i = 0; i < listCount && budget > 0; i++) {
+            Postings postings = lists[order[i]];
+            int size = Math.min(sizes[order[i]], budget);
+            int[] ids = postings.ids;
+            for (int j = 0; j < size; j++) {
+                counts.increment(ids[j]);
+            }
+            budget -= size;
+        }
+
+        // Keeps the candidates with the most shared trigrams. A count is at most the number of posting lists,
+        // so the least count that still fits is found from a histogram of the counts instead of by sorting.
+        int candidates = (int) Math.min((long) limit * CANDIDATES_PER_RESULT, Integer.MAX_VALUE);
+        int[] histogram = new int[listCount + 1];
+        for (int count : counts.counts) {
+            histogram[count]++;
+        }
+        int threshold = listCount;
+        int above = 0;
+        while (threshold > 1 && above + histogram[threshold] < candidates) {
+            above += histogram[threshold--];
+        }
+        int room = candidates - above;
+
+        // Ranks the candidates by their exact similarity.
+        List<Product> matches = new ArrayList<>();
+        List<Double> scores = new ArrayList<>();
+        for (int slot = 0; slot < counts.ids.length; slot++) {
+            int count = counts.counts[slot];
+            if (count > threshold || (count == threshold && count > 0 && room-- > 0)) {
+                Product product = this.products.get(counts.ids[slot]);
+                double similarity = similarity(queryTrigrams, trigramsOf(normalize(product.getProductName())));
+                if (similarity >= MIN_SIMILARITY) {
+                    matches.add(product);
+                    scores.add(similarity);
+                }
+            }
+        }
+        Integer[] ranked = new Integer[matches.size()];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = i;
+        }
+        Arrays.sort(ranked, (a, b) -> {
+            int bySimilarity = Double.compare(scores.get(b), scores.get(a));
+            return bySimilarity != 0 ? bySimilarity : Integer.compare(matches.get(a).getId(), matches.get(b).getId());
+        });
+        List<Product> found = new ArrayList<>(Math.min(limit, ranked.length));
+        for (int i = 0; i < ranked.length && i < limit; i++) {
+            found.add(matches.get(ranked[i]));
+        }
+        return found;
+    }
+
+    /**
+     * Finds products by name: first those with a word starting with the text, then, if fewer than the
+     * limit were found, those whose names are most similar to it.
+     *
+     * @param text  The name or start of a name to search for.
+     * @param limit The largest number of products to return.
+     * @return The matching products, at most limit of them, best matches first.
+     */
+    public List<Product> search(String text, int limit) {
+        List<Product> found = findByPrefix(text, limit);
+        if (found.size() < limit) {
+            for (Product product : findSimilar(text, limit)) {
+                if (found.size() == limit) {
+                    break;
+                }
+                if (!found.contains(product)) {
+                    found.add(product);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds a product under every tail of its name that starts at a word, cut after MAX_TAIL_WORDS words,
+     * and every trigram of its words.
+     * The caller holds the write lock.
+     *
+     * @param product The product to add.
+     */
+    private void add(Product product) {
+        if (this.products.putIfAbsent(product) != null) {
+            return;
+        }
+        String name = normalize(product.getProductName());
+        int id = product.getId();
+        for (int start = 0; start < name.length(); start = name.indexOf(' ', start) + 1) {
+            String tail = name.substring(start, endOfWords(name, start, MAX_TAIL_WORDS));
+            Postings postings = this.tails.computeIfAbsent(tail, this::newTail);
+            if (postings.size == 0 || postings.ids[postings.size - 1] != id) { // A cut tail can repeat in one name.
+                postings.add(id);
+            }
+            if (name.indexOf(' ', start) < 0) {
+                break;
+            }
+        }
+        for (long trigram : trigramsOf(name)) {
+            this.trigrams.computeIfAbsent(trigram, key -> new Postings()).add(id);
+        }
+    }
+
+    /**
+     * Creates the postings of a tail that is not indexed yet and adds them to the sorted map.
+     * The caller holds the write lock.
+     *
+     * @param tail The tail of a normalized name.
+     * @return The new, empty postings.
+     */
+    private Postings newTail(String tail) {
+        Postings postings = new Postings();
+        this.prefixes.put(tail, postings);
+        return postings;
+    }
+
+    /**
+     * Finds the end of a number of words of a normalized name.
+     *
+     * @param name  The normalized name.
+     * @param start The index of the first word.
+     * @param words The number of words.
+     * @return The index after the last of the words, or the length of the name if it has fewer words.
+     */
+    private static int endOfWords(String name, int start, int words) {
+        int end = start;
+        for (int i = 0; i < words; i++) {
+            end = name.indexOf(' ', end) + 1;
+            if (end == 0) {
+                return name.length();
+            }
+        }
+        return end - 1;
+    }
+
+    /**
+     * Reduces a name to lower-case words of letters and digits separated by single spaces.
+     *
+     * @param name The name.
+     * @return The normalized name, empty if the name has no letters or digits.
+     */
+    static String normalize(String name) {
+        StringBuilder normalized = new StringBuilder(name.length());
+        boolean space = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(Character.toLowerCase(c));
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Gets the distinct trigrams of a normalized name. Each word is padded with two spaces in front and
+     * one behind, so that the start of a word weighs more than its end and short words have trigrams too.
+     *
+     * @param name The normalized name.
+     * @return The trigrams in ascending order, each packed as three 16-bit characters.
+     */
+    private static long[] trigramsOf(String name) {
+        long[] trigrams = new long[name.length() * 2 + 2];
+        int count = 0;
+        for (int start = 0; start < name.length(); ) {
+            int end = name.indexOf(' ', start);
+            if (end < 0) {
+                end = name.length();
+            }
+            long a = ' ';
+            long b = ' ';
+            for (int i = start; i <= end; i++) {
+                long c = i < end ? name.charAt(i) : ' ';
+                trigrams[count++] = a << 32 | b << 16 | c;
+                a = b;
+                b = c;
+            }
+            start = end + 1;
+        }
+        Arrays.sort(trigrams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || trigrams[i] != trigrams[distinct - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * Computes the share of trigrams two names have in common.
+     *
+     * @param a The sorted distinct trigrams of one name.
+     * @param b The sorted distinct trigrams of the other name.
+     * @return The shared trigrams divided by the trigrams of either name, from 0 to 1.
+     */
+    private static double similarity(long[] a, long[] b) {
+        int shared = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] == b[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        int union = a.length + b.length - shared;
+        return union == 0 ? 0 : (double) shared / union;
+    }
+
+    /**
+     * The IDs of the products whose names hold one trigram or end with one tail. Appended to by the single writer; the size is
+     * written after the ID and the array is replaced before the size grows past it, so a reader that reads
+     * the size first sees that many IDs in the array.
+     */
+    private static final class Postings {
+        // Product IDs in the order they were added.
+        volatile int[] ids = new int[4];
+        // Number of IDs written.
+        volatile int size;
+
+        /**
+         * Appends a product ID. Only called by the writer.
+         *
+         * @param id The product ID.
+         */
+        void add(int id) {
+            int[] current = this.ids;
+            int n = this.size;
+            if (n == current.length) {
+                current = Arrays.copyOf(current, n * 2);
+                this.ids = current;
+            }
+            current[n] = id;
+            this.size = n + 1;
+        }
+    }
+
+    /**
+     * Counts how many posting lists each product ID appears in, in an open-addressing table sized
+     * for the number of postings a search reads.
+     */
+    private static final class CandidateCounts {
+        // Product ID of each slot.
+        final int[] ids;
+        // Count of each slot, or 0 if the slot is empty.
+        final int[] counts;
+
+        CandidateCounts(int postings) {
+            int capacity = Integer.highestOneBit(Math.max(16, postings) * 2 - 1) << 1;
+            this.ids = new int[capacity];
+            this.counts = new int[capacity];
+        }
+
+        /**
+         * Counts one more posting of a product.
+         *
+         * @param id The product ID.
+         */
+        void increment(int id) {
+            int mask = this.ids.length - 1;
+            int h = id * 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (this.counts[slot] != 0 && this.ids[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            this.ids[slot] = id;
+            this.counts[slot]++;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of the result of a ProductQuery, with the cursor that reads the next page.
+ */
+final class ProductPage {
+    // Products on the page, in the query's order.
+    private final List<Product> products;
+    // Cursor of the next page, or null if this is the last page.
+    private final String nextCursor;
+
+    /**
+     * Constructs a ProductPage.
+     *
+     * @param products   The products on the page.
+     * @param nextCursor The cursor of the next page, or null if this is the last page.
+     */
+    public ProductPage(List<Product> products, String nextCursor) {
+        this.products = Collections.unmodifiableList(products);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the products on the page.
+     *
+     * @return A read-only list of the products, in the query's order.
+     */
+    public List<Product> getProducts() {
+        return this.products;
+    }
+
+    /**
+     * Gets the cursor that reads the next page.
+     *
+     * @return The cursor, or null if this is the last page.
+     */
+    public String getNextCursor() {
+        return this.nextCursor;
+    }
+
+    /**
+     * Checks whether more pages follow.
+     *
+     * @return true if there is a next page.
+     */
+    public boolean hasNextPage() {
+        return this.nextCursor != null;
+    }
+}
@@ -0,0 +1,288 @@
+import java.time.LocalDate;
+import java.util.function.Predicate;
+
+/**
+ * Describes a list of products to read page by page through ProductService.query: which products to
+ * include and in which order.
+ *
+ * The date ranges and the refill condition are pushed down to the storage layer. The order decides which
+ * structure is read: the expiry or markdown index, limited to the query's range on that date, the refill set,
+ * or the database in insertion order. Every product read is then checked against the rest of the query,
+ * so a query is never sorted or collected in memory, and reading the first page costs no more than the
+ * products on it and the ones the other conditions skip. An order no structure provides, such as listing
+ * every product by ID, is rejected rather than sorted.
+ *
+ * Queries are immutable; each method that narrows a query returns a new one.
+ */
+final class ProductQuery {
+    /**
+     * The orders products can be listed in, each provided by a storage structure.
+     */
+    enum Order {
+        // The order the products were added to the database.
+        INSERTION,
+        // Ascending product ID. Only for products that need a refill.
+        ID,
+        // Ascending expiry date, then the order the products were added.
+        EXPIRY_DATE,
+        // Ascending markdown date, then the order the products were added.
+        MARKDOWN_DATE
+    }
+
+    // Expiry dates to include, each bound null if open.
+    private final LocalDate expiryFrom;
+    private final LocalDate expiryTo;
+    // Markdown dates to include, each bound null if open.
+    private final LocalDate markDownFrom;
+    private final LocalDate markDownTo;
+    // Whether only products whose shelves are below their maximum are included.
+    private final boolean refillOnly;
+    // Further condition on the products, or null.
+    private final Predicate<Product> filter;
+    // Order asked for, or null for the order of the most selective condition.
+    private final Order order;
+
+    /**
+     * Constructs a ProductQuery.
+     *
+     * @param expiryFrom   The first expiry date to include, or null.
+     * @param expiryTo     The first expiry date to exclude, or null.
+     * @param markDownFrom The first markdown date to include, or null.
+     * @param markDownTo   The first markdown date to exclude, or null.
+     * @param refillOnly   Whether only products that need a refill are included.
+     * @param filter       A further condition, or null.
+     * @param order        The order asked for, or null.
+     */
+    private ProductQuery(LocalDate expiryFrom, LocalDate expiryTo, LocalDate markDownFrom, LocalDate markDownTo,
+                         boolean refillOnly, Predicate<Product> filter, Order order) {
+        this.expiryFrom = expiryFrom;
+        this.expiryTo = expiryTo;
+        this.markDownFrom = markDownFrom;
+        this.markDownTo = markDownTo;
+        this.refillOnly = refillOnly;
+        this.filter = filter;
+        this.order = order;
+    }
+
+    /**
+     * Creates a query for every product, in the order they were added.
+     *
+     * @return The query.
+     */
+    public static ProductQuery all() {
+        return new ProductQuery(null, null, null, null, false, null, null);
+    }
+
+    /**
+     * Creates a query for the products that expired before the given day, as ProductService.findExpiredProducts.
+     *
+     * @param today The current date.
+     * @return The query, ordered by expiry date.
+     */
+    public static ProductQuery expired(LocalDate today) {
+        return all().expiringBetween(null, today);
+    }
+
+    /**
+     * Creates a query for the products whose markdown started on or before the given day,
+     * as ProductService.findProductsInMarkDown.
+     *
+     * @param today The current date.
+     * @return The query, ordered by markdown date.
+     */
+    public static ProductQuery inMarkDown(LocalDate today) {
+        return all().markedDownBetween(null, today.plusDays(1));
+    }
+
+    /**
+     * Creates a query for the products whose markdown starts after the given day but within the next week,
+     * as ProductService.findProductsForMarkDown.
+     *
+     * @param today The current date.
+     * @return The query, ordered by markdown date.
+     */
+    public static ProductQuery forMarkDown(LocalDate today) {
+        return all().markedDownBetween(today.plusDays(1), today.plusDays(7));
+    }
+
+    /**
+     * Creates a query for the products whose shelves are below their maximum, as ProductService.findProductsToRefill.
+     *
+     * @return The query, ordered by ID.
+     */
+    public static ProductQuery toRefill() {
+        return all().needingRefill();
+    }
+
+    /**
+     * Narrows the query to products that expire in a range.
+     *
+     * @param fromInclusive The first expiry date to include, or null for no lower bound.
+     * @param toExclusive   The first expiry date to exclude, or null for no upper bound.
+     * @return The narrowed query.
+     */
+    public ProductQuery expiringBetween(LocalDate fromInclusive, LocalDate toExclusive) {
+        return new ProductQuery(later(this.expiryFrom, fromInclusive), earlier(this.expiryTo, toExclusive),
+                this.markDownFrom, this.markDownTo, this.refillOnly, this.filter, this.order);
+    }
+
+    /**
+     * Narrows the query to products whose markdown starts in a range. Products without a markdown date are excluded.
+     *
+     * @param fromInclusive The first markdown date to include, or null for no lower bound.
+     * @param toExclusive   The first markdown date to exclude, or null for no upper bound.
+     * @return The narrowed query.
+     */
+    public ProductQuery markedDownBetween(LocalDate fromInclusive, LocalDate toExclusive) {
+        return new ProductQuery(this.expiryFrom, this.expiryTo, later(this.markDownFrom, fromInclusive),
+                earlier(this.markDownTo, toExclusive), this.refillOnly, this.filter, this.order);
+    }
+
+    /**
+     * Narrows the query to products whose shelves are below their maximum.
+     *
+     * @return The narrowed query.
+     */
+    public ProductQuery needingRefill() {
+        return new ProductQuery(this.expiryFrom, this.expiryTo, this.markDownFrom, this.markDownTo,
+                true, this.filter, this.order);
+    }
+
+    /**
+     * Narrows the query to products that meet a further condition, checked on each product read.
+     *
+     * @param condition The condition.
+     * @return The narrowed query.
+     */
+    public ProductQuery where(Predicate<Product> condition) {
+        return new ProductQuery(this.expiryFrom, this.expiryTo, this.markDownFrom, this.markDownTo,
+                this.refillOnly, this.filter == null ? condition : this.filter.and(condition), this.order);
+    }
+
+    /**
+     * Asks for the products in a given order.
+     *
+     * @param order The order.
+     * @return The reordered query.
+     */
+    public ProductQuery orderBy(Order order) {
+        return new ProductQuery(this.expiryFrom, this.expiryTo, this.markDownFrom, this.markDownTo,
+                this.refillOnly, this.filter, order);
+    }
+
+    /**
+     * Gets the order the products are listed in: the one asked for, or else the order of the index that
+     * narrows the query, checking an expiry range, a markdown range and the refill condition in turn.
+     *
+     * @return The order.
+     */
+    public Order getOrder() {
+        if (this.order != null) {
+            return this.order;
+        } else if (this.expiryFrom != null || this.expiryTo != null) {
+            return Order.EXPIRY_DATE;
+        } else if (this.markDownFrom != null || this.markDownTo != null) {
+            return Order.MARKDOWN_DATE;
+        } else if (this.refillOnly) {
+            return Order.ID;
+        }
+        return Order.INSERTION;
+    }
+
+    /**
+     * Gets the first expiry date to include.
+     *
+     * @return The date, or null for no lower bound.
+     */
+    public LocalDate getExpiryFrom() {
+        return this.expiryFrom;
+    }
+
+    /**
+     * Gets the first expiry date to exclude.
+     *
+     * @return The date, or null for no upper bound.
+     */
+    public LocalDate getExpiryTo() {
+        return this.expiryTo;
+    }
+
+    /**
+     * Gets the first markdown date to include.
+     *
+     * @return The date, or null for no lower bound.
+     */
+    public LocalDate getMarkDownFrom() {
+        return this.markDownFrom;
+    }
+
+    /**
+     * Gets the first markdown date to exclude.
+     *
+     * @return The date, or null for no upper bound.
+     */
+    public LocalDate getMarkDownTo() {
+        return this.markDownTo;
+    }
+
+    /**
+     * Checks whether only products that need a refill are included.
+     *
+     * @return true if the query is limited to products to refill.
+     */
+    public boolean isRefillOnly() {
+        return this.refillOnly;
+    }
+
+    /**
+     * Checks a product against every condition of the query. The structure read for the query's order
+     * already meets some of them; checking them again costs a few comparisons and keeps the scan simple.
+     *
+     * @param product The product to check.
+     * @return true if the product belongs in the result.
+     */
+    public boolean matches(Product product) {
+        return inRange(product.getExpiryDate(), this.expiryFrom, this.expiryTo)
+                && inRange(product.getTimeDurationForMarkDown(), this.markDownFrom, this.markDownTo)
+                && (!this.refillOnly || product.getProductShelf().needsRefill())
+                && (this.filter == null || this.filter.test(product));
+    }
+
+    /**
+     * Checks whether a date lies in a range. Without bounds every date matches, even a missing one.
+     *
+     * @param date          The date, may be null.
+     * @param fromInclusive The first date of the range, or null.
+     * @param toExclusive   The date just after the range, or null.
+     * @return true if the date lies in the range.
+     */
+    private static boolean inRange(LocalDate date, LocalDate fromInclusive, LocalDate toExclusive) {
+        if (fromInclusive == null && toExclusive == null) {
+            return true;
+        }
+        return date != null && (fromInclusive == null || !date.isBefore(fromInclusive))
+                && (toExclusive == null || date.isBefore(toExclusive));
+    }
+
+    /**
+     * Gets the later of two lower bounds.
+     *
+     * @param a One bound, or null.
+     * @param b The other bound, or null.
+     * @return The later bound, or null if both are open.
+     */
+    private static LocalDate later(LocalDate a, LocalDate b) {
+        return a == null ? b : b == null || a.isAfter(b) ? a : b;
+    }
+
+    /**
+     * Gets the earlier of two upper bounds.
+     *
+     * @param a One bound, or null.
+     * @param b The other bound, or null.
+     * @return The earlier bound, or null if both are open.
+     */
+    private static LocalDate earlier(LocalDate a, LocalDate b) {
+        return a == null ? b : b == null || a.isBefore(b) ? a : b;
+    }
+}
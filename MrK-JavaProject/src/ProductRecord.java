@@ -0,0 +1,237 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Describes the fixed-width binary record that stores one product and its shelf,
+ * and reads and writes such records at absolute offsets of a ByteBuffer.
+ *
+ * Layout of a record (all numbers big-endian):
+ * <pre>
+ *   offset  size  field
+ *        0     4  product ID
+ *        4     4  expiry date as epoch day, or NO_DATE
+ *        8     4  markdown date as epoch day, or NO_DATE
+ *       12     1  shelf quantity scale
+ *       13     1  length of the product name in UTF-8 bytes
+ *       14     2  reserved
+ *       16     8  shelf minimum
+ *       24     8  shelf maximum
+ *       32     8  shelf current quantity
+ *       40    64  product name in UTF-8, zero padded
+ *      104     8  shelf version, the number of stock movements applied
+ *      112     8  base price in cents
+ *      120     8  reserved for future fields
+ * </pre>
+ */
+final class ProductRecord {
+    // Size of one record in bytes.
+    public static final int SIZE = 128;
+    // Epoch day stored for a missing date.
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final int ID = 0;
+    private static final int EXPIRY = 4;
+    private static final int MARKDOWN = 8;
+    private static final int SCALE = 12;
+    private static final int NAME_LENGTH = 13;
+    private static final int MIN = 16;
+    private static final int MAX = 24;
+    private static final int CURRENT = 32;
+    private static final int NAME = 40;
+    private static final int VERSION = 104;
+    private static final int BASE_PRICE = 112;
+
+    /**
+     * Private constructor, as this class only holds static helper methods.
+     */
+    private ProductRecord() {
+    }
+
+    /**
+     * Writes a product and its shelf as a record.
+     *
+     * @param buffer  The buffer to write to.
+     * @param offset  The absolute offset of the record in the buffer.
+     * @param product The product to write.
+     */
+    public static void write(ByteBuffer buffer, int offset, Product product) {
+        ProductShelf shelf = product.getProductShelf();
+        byte[] name = product.getProductName().getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(offset + ID, product.getId());
+        buffer.putInt(offset + EXPIRY, toEpochDay(product.getExpiryDate()));
+        buffer.putInt(offset + MARKDOWN, toEpochDay(product.getTimeDurationForMarkDown()));
+        buffer.put(offset + SCALE, (byte) shelf.getScale());
+        buffer.put(offset + NAME_LENGTH, (byte) name.length);
+        buffer.putShort(offset + 14, (short) 0);
+        buffer.putLong(offset + MIN, shelf.getMin());
+        buffer.putLong(offset + MAX, shelf.getMax());
+        synchronized (shelf) { // The quantity and its version must come from the same movement.
+            buffer.putLong(offset + CURRENT, shelf.getCurrent());
+            buffer.putLong(offset + VERSION, shelf.getVersion());
+        }
+        buffer.putLong(offset + BASE_PRICE, product.getBasePrice());
+        for (int i = 0; i < Product.MAX_NAME_BYTES; i++) {
+            buffer.put(offset + NAME + i, i < name.length ? name[i] : 0);
+        }
+    }
+
+    /**
+     * Reads the product ID of a record without decoding the rest of it.
+     *
+     * @param buffer The buffer to read from.
+     * @param offset The absolute offset of the record in the buffer.
+     * @return The product ID.
+     */
+    public static int readId(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + ID);
+    }
+
+    /**
+     * Reads the expiry date of a record as an epoch day.
+     *
+     * @param buffer The buffer to read from.
+     * @param offset The absolute offset of the record in the buffer.
+     * @return The epoch day, or NO_DATE if the product has no expiry date.
+     */
+    public static int readExpiryDay(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + EXPIRY);
+    }
+
+    /**
+     * Reads the markdown date of a record as an epoch day.
+     *
+     * @param buffer The buffer to read from.
+     * @param offset The absolute offset of the record in the buffer.
+     * @return The epoch day, or NO_DATE if the product has no markdown date.
+     */
+    public static int readMarkDownDay(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + MARKDOWN);
+    }
+
+    /**
+     * Reads the shelf scale of a record.
+     *
+     * @param buffer The buffer to read from.
+     * @param offset The absolute offset of the record in the buffer.
+     * @return The number of decimal places of the shelf quantities.
+     */
+    public static int readScale(ByteBuffer buffer, int offset) {
+        return buffer.get(offset + SCALE);
+    }
+
+    /**
+     * Reads the shelf maximum of a record.
+     *
+     * @param buffer The buffer to read from.
+     * @param offset The absolute offset of the record in the buffer.
+     * @return The maximum in 10^-scale units.
+     */
+    public static long readMax(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + MAX);
+    }
+
+    /**
+     * Reads the current shelf quantity of a record.
+     *
+     * @param buffer The buffer to read from.
+     * @param offset The absolute offset of the record in the buffer.
+     * @return The current quantity in 10^-scale units.
+     */
+    public static long readCurrent(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + CURRENT);
+    }
+
+    /**
+     * Reads the shelf version of a record.
+     *
+     * @param buffer The buffer to read from.
+     * @param offset The absolute offset of the record in the buffer.
+     * @return The number of stock movements applied to the shelf.
+     */
+    public static long readVersion(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + VERSION);
+    }
+
+    /**
+     * Reads the base price of a record.
+     *
+     * @param buffer The buffer to read from.
+     * @param offset The absolute offset of the record in the buffer.
+     * @return The base price in cents.
+     */
+    public static long readBasePrice(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + BASE_PRICE);
+    }
+
+    /**
+     * Reads the product name of a record.
+     *
+     * @param buffer  The buffer to read from.
+     * @param offset  The absolute offset of the record in the buffer.
+     * @param scratch A buffer of at least Product.MAX_NAME_BYTES bytes, reused for decoding the name.
+     * @return The product name.
+     */
+    public static String readName(ByteBuffer buffer, int offset, byte[] scratch) {
+        int nameLength = buffer.get(offset + NAME_LENGTH) & 0xFF;
+        buffer.get(offset + NAME, scratch, 0, nameLength);
+        return new String(scratch, 0, nameLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Overwrites the shelf quantity and version of a record, for example after a stock movement.
+     *
+     * @param buffer   The buffer to write to.
+     * @param offset   The absolute offset of the record in the buffer.
+     * @param quantity The new current quantity in 10^-scale units.
+     * @param version  The shelf version the quantity belongs to.
+     */
+    public static void writeQuantity(ByteBuffer buffer, int offset, long quantity, long version) {
+        buffer.putLong(offset + CURRENT, quantity);
+        buffer.putLong(offset + VERSION, version);
+    }
+
+    /**
+     * Reads a record and builds the product and shelf it describes.
+     *
+     * @param buffer  The buffer to read from.
+     * @param offset  The absolute offset of the record in the buffer.
+     * @param scratch A buffer of at least Product.MAX_NAME_BYTES bytes, reused for decoding the name.
+     * @return The decoded product.
+     */
+    public static Product read(ByteBuffer buffer, int offset, byte[] scratch) {
+        ProductShelf shelf = new ProductShelf(
+                buffer.getLong(offset + MIN),
+                buffer.getLong(offset + MAX),
+                buffer.getLong(offset + CURRENT),
+                buffer.get(offset + SCALE));
+        shelf.restore(buffer.getLong(offset + CURRENT), buffer.getLong(offset + VERSION));
+        return new Product(
+                buffer.getInt(offset + ID),
+                readName(buffer, offset, scratch),
+                toDate(buffer.getInt(offset + EXPIRY)),
+                toDate(buffer.getInt(offset + MARKDOWN)),
+                shelf,
+                buffer.getLong(offset + BASE_PRICE));
+    }
+
+    /**
+     * Converts a date to the epoch day stored in a record.
+     *
+     * @param date The date, may be null.
+     * @return The epoch day, or NO_DATE if the date is null.
+     */
+    private static int toEpochDay(LocalDate date) {
+        return date != null ? Math.toIntExact(date.toEpochDay()) : NO_DATE;
+    }
+
+    /**
+     * Converts an epoch day stored in a record back to a date.
+     *
+     * @param epochDay The stored epoch day.
+     * @return The date, or null if the record holds NO_DATE.
+     */
+    private static LocalDate toDate(int epochDay) {
+        return epochDay != NO_DATE ? LocalDate.ofEpochDay(epochDay) : null;
+    }
+}
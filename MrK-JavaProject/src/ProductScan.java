@@ -0,0 +1,192 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A lazy result of a ProductQuery. Products are read from the storage structure one at a time as the
+ * scan is advanced, so the first product is available at once and a scan over millions of products holds
+ * only the current one. At any point, getCursor returns a token that resumes the query after the last
+ * product returned, in a later scan and even in another process, without reading the earlier products again.
+ *
+ * A cursor records the position of a product in the query's order, not an offset, so products added or
+ * removed before it do not shift the following page. Like the iterators it reads, a scan is weakly consistent:
+ * it never fails because of concurrent changes, and may or may not see products added while it runs.
+ */
+class ProductScan implements Iterator<Product> {
+    // Products read from the storage structure, in the query's order.
+    private final Iterator<Product> source;
+    // Condition a product must meet to be returned.
+    private final Predicate<Product> condition;
+    // Builds the cursor that resumes after a product.
+    private final Function<Product, Cursor> cursorOf;
+    // Cursor the scan started from, or null if it started at the beginning.
+    private final String startCursor;
+    // Next product to return, read ahead by hasNext, or null.
+    private Product next;
+    // Last product returned, or null.
+    private Product last;
+    // Number of products read from the source, including the ones the condition skipped.
+    private long scanned;
+
+    /**
+     * Constructs a ProductScan.
+     *
+     * @param source      The products in the query's order.
+     * @param condition   The condition a product must meet to be returned.
+     * @param cursorOf    Builds the cursor that resumes after a product.
+     * @param startCursor The cursor the scan starts from, or null.
+     */
+    ProductScan(Iterator<Product> source, Predicate<Product> condition, Function<Product, Cursor> cursorOf, String startCursor) {
+        this.source = source;
+        this.condition = condition;
+        this.cursorOf = cursorOf;
+        this.startCursor = startCursor;
+    }
+
+    /**
+     * Checks whether another product matches, reading ahead until one does or the source ends.
+     *
+     * @return true if next will return a product.
+     */
+    @Override
+    public boolean hasNext() {
+        while (this.next == null && this.source.hasNext()) {
+            Product product = this.source.next();
+            this.scanned++;
+            if (this.condition.test(product)) {
+                this.next = product;
+            }
+        }
+        return this.next != null;
+    }
+
+    /**
+     * Returns the next matching product.
+     *
+     * @return The product.
+     * @throws NoSuchElementException if there are no more products.
+     */
+    @Override
+    public Product next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        this.last = this.next;
+        this.next = null;
+        return this.last;
+    }
+
+    /**
+     * Gets the token that resumes the query after the last product returned.
+     *
+     * @return The cursor, or the cursor the scan started from (null for the beginning) if nothing was returned yet.
+     */
+    public String getCursor() {
+        return this.last != null ? this.cursorOf.apply(this.last).toString() : this.startCursor;
+    }
+
+    /**
+     * Gets the number of products read from the storage structure, including the ones that did not match.
+     *
+     * @return The number of products scanned.
+     */
+    public long getScannedCount() {
+        return this.scanned;
+    }
+
+    /**
+     * Returns the next products of the scan as a page.
+     *
+     * @param limit The largest number of products on the page.
+     * @return The page, with the cursor of the following page, or no cursor if the scan has ended.
+     * @throws IllegalArgumentException if the limit is not positive.
+     */
+    public ProductPage nextPage(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("A page must hold at least one product.");
+        }
+        List<Product> products = new ArrayList<>(Math.min(limit, 1024));
+        while (products.size() < limit && hasNext()) {
+            products.add(next());
+        }
+        return new ProductPage(products, hasNext() ? getCursor() : null);
+    }
+
+    /**
+     * Returns the rest of the scan as a sequential stream. The stream reads the products as it is consumed.
+     *
+     * @return A stream of the remaining products.
+     */
+    public Stream<Product> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+    }
+
+    /**
+     * The position of a product in the order of a query, written as a token of four fields separated by dots:
+     * the order, the epoch day of the product's date in a date order, the product ID and the product's
+     * position among the products with the same date, or in the database.
+     */
+    static final class Cursor {
+        // Order of the query the cursor belongs to.
+        final ProductQuery.Order order;
+        // Epoch day of the product's date in a date order, otherwise 0.
+        final long day;
+        // ID of the product.
+        final int productId;
+        // Position of the product within its day, or in the database, at the time; used if the product is gone.
+        final int positionHint;
+
+        /**
+         * Constructs a Cursor.
+         *
+         * @param order        The order of the query.
+         * @param day          The epoch day of the product's date in a date order, otherwise 0.
+         * @param productId    The ID of the product.
+         * @param positionHint The position of the product within its day or in the database.
+         */
+        Cursor(ProductQuery.Order order, long day, int productId, int positionHint) {
+            this.order = order;
+            this.day = day;
+            this.productId = productId;
+            this.positionHint = positionHint;
+        }
+
+        /**
+         * Reads a cursor token.
+         *
+         * @param token The token, as returned by getCursor.
+         * @param order The order of the query the token is used with.
+         * @return The cursor.
+         * @throws IllegalArgumentException if the token is malformed or belongs to a query with another order.
+         */
+        static Cursor parse(String token, ProductQuery.Order order) {
+            String[] fields = token.split("\\.", -1);
+            try {
+                if (fields.length == 4 && Integer.parseInt(fields[0]) == order.ordinal()) {
+                    return new Cursor(order, Long.parseLong(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+                }
+            } catch (NumberFormatException e) {
+                // Reported below.
+            }
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+
+        /**
+         * Writes the cursor as a token.
+         *
+         * @return The token.
+         */
+        @Override
+        public String toString() {
+            return this.order.ordinal() + "." + this.day + "." + this.productId + "." + this.positionHint;
+        }
+    }
+}
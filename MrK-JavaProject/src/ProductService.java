@@ -1,21 +1,151 @@
-import java.math.BigDecimal;
+import java.time.Clock;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
- * Provides services related to products, including creation and display functions.
+ * Provides services related to products, including creation, query and display functions.
+ * The find methods return the matching products as data; the display methods format the same
+ * results through a buffered ReportWriter, which is flushed once per call.
+ *
+ * A single service can be shared by several terminals. Lookups and reports read the database without
+ * locking, stock movements of different products proceed in parallel, and each message or report is
+ * written to the ReportWriter as a whole, so output from different threads is never interleaved.
+ *
+ * Every change is passed to all the listeners and the change feed, even when one of them fails, so the
+ * indexes and caches never fall out of step with the database. A failing listener, such as a DurableStore
+ * that cannot write its log, means the change is not durable: the service reports it and turns read-only,
+ * and every later change is refused with an IllegalStateException until the application is restarted.
  */
 class ProductService {
+    // Format used for reading and displaying dates. DateTimeFormatter is immutable, so one instance is shared.
+    public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
     private final Database database; // The database where products are stored.
+    private final ReportWriter report; // Where messages and reports are written.
+    private final Clock clock; // Tells the current date for the date-based reports.
+    // Products whose shelves are below their maximum, ordered by ID and kept up to date on every stock movement.
+    private final ConcurrentNavigableMap<Integer, Product> productsToRefill = new ConcurrentSkipListMap<>();
+    // Components that are notified of every product creation and stock movement.
+    private final List<ProductChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // Column-oriented copy of the catalog that the date reports scan instead of the date indexes, or null.
+    private volatile ColumnarProductTable columnarTable;
+    // Prefix and trigram index over the product names that name searches read, or null.
+    private volatile ProductNameIndex nameIndex;
+    // Results of the report queries, dropped when a change or a new day makes them stale.
+    private final ReportCache reportCache = new ReportCache();
+    // Sequence-numbered log of every change, which downstream systems subscribe to. Notified after the
+    // listeners, so a change is only published once the listeners, such as a DurableStore, have taken it.
+    private final ProductChangeFeed changeFeed = new ProductChangeFeed();
+    // Failure of a listener that made the service read-only, or null while changes are accepted.
+    private volatile RuntimeException writeFailure;
+    // Call counts, latencies and row counts of the instrumented operations.
+    private final ProductMetrics metrics = new ProductMetrics();
+    private final OperationMetrics createMetrics = metrics.operation("createProduct");
+    private final OperationMetrics createBatchMetrics = metrics.operation("createProducts");
+    private final OperationMetrics stockMovementMetrics = metrics.operation("stockMovement");
+    private final OperationMetrics stockMovementBatchMetrics = metrics.operation("stockMovements");
+    private final OperationMetrics findByIdMetrics = metrics.operation("findProductById");
+    private final OperationMetrics findByBarcodeMetrics = metrics.operation("findProductByBarcode");
+    private final OperationMetrics findByNameMetrics = metrics.operation("findProductsByName");
+    private final OperationMetrics findPageMetrics = metrics.operation("findPage");
+    private final OperationMetrics findToRefillMetrics = metrics.operation("findProductsToRefill");
+    private final OperationMetrics findExpiredMetrics = metrics.operation("findExpiredProducts");
+    private final OperationMetrics findInMarkDownMetrics = metrics.operation("findProductsInMarkDown");
+    private final OperationMetrics findForMarkDownMetrics = metrics.operation("findProductsForMarkDown");
+    private final OperationMetrics displayExpiryDateMetrics = metrics.operation("displayProductsExpiryDate");
+    private final OperationMetrics displayExpiredMetrics = metrics.operation("displayExpiredProducts");
+    private final OperationMetrics endOfDayReportMetrics = metrics.operation("displayEndOfDayReport");
+    private final OperationMetrics displayInMarkDownMetrics = metrics.operation("displayProductsInMarkDown");
+    private final OperationMetrics displayForMarkDownMetrics = metrics.operation("displayProductsForMarkDown");
+
+    /**
+     * The date written at the end of each line of a product report.
+     */
+    private enum ReportDate {
+        NONE, EXPIRY, MARKDOWN
+    }
 
     /**
-     * Constructs a ProductService with a reference to a database.
+     * Constructs a ProductService with a reference to a database that writes its reports to the console.
+     * Products already in the database, for example ones loaded from a file, are checked once for refills.
      *
      * @param database The database containing product data.
      */
     public ProductService(Database database) {
+        this(database, new ReportWriter(System.out));
+    }
+
+    /**
+     * Constructs a ProductService with a reference to a database and a destination for its reports.
+     * Products already in the database, for example ones loaded from a file, are checked once for refills.
+     *
+     * @param database The database containing product data.
+     * @param report   The writer messages and reports are written to.
+     */
+    public ProductService(Database database, ReportWriter report) {
+        this(database, report, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Constructs a ProductService with a reference to a database, a destination for its reports and
+     * the clock that tells today's date, which can be a fixed or simulated clock in tests.
+     *
+     * @param database The database containing product data.
+     * @param report   The writer messages and reports are written to.
+     * @param clock    The clock the date-based reports use.
+     */
+    public ProductService(Database database, ReportWriter report, Clock clock) {
         this.database = database;
+        this.report = report;
+        this.clock = clock;
+        for (Product product : database.getProducts()) {
+            updateRefillState(product);
+        }
+        listeners.add(reportCache);
+    }
+
+    /**
+     * Registers a listener to be notified of every product creation and stock movement, before the change feed
+     * publishes the change.
+     *
+     * @param listener The listener to add.
+     */
+    public void addChangeListener(ProductChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Makes the date reports scan a column-oriented copy of the catalog instead of reading the date indexes.
+     * The table is registered as a listener before the products already in the database are copied into it,
+     * so products created meanwhile are not missed.
+     *
+     * @param table The table to keep up to date and report from.
+     */
+    public void useColumnarTable(ColumnarProductTable table) {
+        addChangeListener(table);
+        table.addAll(database.getProducts());
+        columnarTable = table;
+    }
+
+    /**
+     * Enables searching products by name through the given index. Like the columnar table, the index is
+     * registered as a listener before the products already in the database are added to it.
+     *
+     * @param index The index to keep up to date and search.
+     */
+    public void useNameIndex(ProductNameIndex index) {
+        addChangeListener(index);
+        index.addAll(database.getProducts());
+        nameIndex = index;
     }
 
     /**
@@ -28,53 +158,684 @@ class ProductService {
      * @return true if the product is successfully created and added; false otherwise.
      */
     public boolean createProduct(int productId, String productName, LocalDate expiryDate, LocalDate markDownDate) {
-        // Check if the product ID is unique
-        if (!isUniqueId(productId)) {
-            System.out.println("Product ID must be unique. " + productName + " already exists with the same unique ID.");
+        return createProduct(productId, productName, expiryDate, markDownDate, 0);
+    }
+
+    /**
+     * Creates a new product with the specified details and base price and adds it to the database.
+     *
+     * @param productId    The unique ID for the new product.
+     * @param productName  The name of the new product.
+     * @param expiryDate   The expiry date of the new product.
+     * @param markDownDate The start date for the markdown period of the new product.
+     * @param basePrice    The regular price of the new product in cents.
+     * @return true if the product is successfully created and added; false otherwise.
+     */
+    public boolean createProduct(int productId, String productName, LocalDate expiryDate, LocalDate markDownDate,
+                                 long basePrice) {
+        Product product;
+        try {
+            product = addProduct(productId, productName, expiryDate, markDownDate, basePrice);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            synchronized (report) {
+                report.append(e.getMessage()).endLine();
+                report.flush();
+            }
             return false;
         }
+        synchronized (report) {
+            if (product == null) {
+                report.append("Product ID must be unique. ").append(productName).append(" already exists with the same unique ID.").endLine();
+            } else {
+                report.append(productName).append(" with Product ID ").append(productId).append(" created successfully.").endLine();
+            }
+            report.flush();
+        }
+        return product != null;
+    }
+
+    /**
+     * Creates a new product and notifies the listeners without writing any messages, for callers that
+     * report the outcome themselves, such as the REST API.
+     *
+     * @param productId    The unique ID for the new product.
+     * @param productName  The name of the new product.
+     * @param expiryDate   The expiry date of the new product.
+     * @param markDownDate The start date for the markdown period of the new product.
+     * @param basePrice    The regular price of the new product in cents.
+     * @return The new product, or null if the product ID is already in use.
+     * @throws IllegalArgumentException if the name is empty or too long.
+     * @throws IllegalStateException if the service is read-only, or the product was added but could not be saved.
+     */
+    Product addProduct(int productId, String productName, LocalDate expiryDate, LocalDate markDownDate,
+                       long basePrice) {
+        long start = System.nanoTime();
+        long mark = createMetrics.allocationMark();
+        Product created = null;
+        try {
+            checkWritable();
+            if (!Product.isValidName(productName)) {
+                throw new IllegalArgumentException("Product Name must be between 1 and " + Product.MAX_NAME_BYTES + " bytes long.");
+            }
+
+            // Create the product and add it to the database only if the product ID is unique
+            Product product = new Product(productId, productName, expiryDate, markDownDate, new ProductShelf(), basePrice);
+            if (database.putProductIfAbsent(product) != null) {
+                return null;
+            }
+            updateRefillState(product);
+            created = product;
+            notifyListeners(listener -> listener.productCreated(product));
+            return product;
+        } finally {
+            createMetrics.record(start, mark, 1, created != null ? 1 : 0);
+        }
+    }
+
+    /**
+     * Adds a batch of products to the database, skipping any whose ID is already in use.
+     * Listeners are notified once for the whole batch, and nothing is printed per product,
+     * which makes this the entry point for bulk loading.
+     *
+     * @param products The products to add.
+     * @return The products that were not added because their ID was already in use.
+     * @throws IllegalStateException if the service is read-only, or the products were added but could not be saved.
+     */
+    public List<Product> createProducts(List<Product> products) {
+        checkWritable();
+        long start = System.nanoTime();
+        long mark = createBatchMetrics.allocationMark();
+        List<Product> created = new ArrayList<>(products.size());
+        List<Product> duplicates = new ArrayList<>();
+        for (Product product : products) {
+            if (database.putProductIfAbsent(product) != null) {
+                duplicates.add(product);
+            } else {
+                updateRefillState(product);
+                created.add(product);
+            }
+        }
+        try {
+            if (!created.isEmpty()) {
+                notifyListeners(listener -> listener.productsCreated(created));
+            }
+        } finally {
+            createBatchMetrics.record(start, mark, products.size(), created.size());
+        }
+        return duplicates;
+    }
 
-        // Create and add the product to the database
-        Product product = new Product(productId, productName, expiryDate, markDownDate);
-        database.getProductList().add(product);
-        System.out.println(productName + " with Product ID " + productId + " created successfully.");
+    /**
+     * Records a stock movement for a product, such as a sale, a delivery or shrinkage.
+     *
+     * @param productId The ID of the product whose shelf quantity changes.
+     * @param delta     The change in quantity in the shelf's 10^-scale units: positive for deliveries,
+     *                  negative for sales and shrinkage.
+     * @return true if the movement was applied; false if the product does not exist or has too little stock.
+     */
+    public boolean recordStockMovement(int productId, long delta) {
+        StockMovement movement;
+        try {
+            movement = applyStockMovement(productId, delta);
+        } catch (IllegalArgumentException e) {
+            synchronized (report) {
+                report.append("Product ID: ").append(productId).append(". ").append(e.getMessage()).endLine();
+                report.flush();
+            }
+            return false;
+        } catch (IllegalStateException e) {
+            synchronized (report) {
+                report.append(e.getMessage()).endLine();
+                report.flush();
+            }
+            return false;
+        }
+        if (movement == null) {
+            synchronized (report) {
+                report.append("Product with ID ").append(productId).append(" not found.").endLine();
+                report.flush();
+            }
+            return false;
+        }
         return true;
     }
 
     /**
-     * Checks if the provided product ID is unique within the database.
+     * Records a batch of stock movements, such as the sales of a till session, and reports the ones that
+     * are rejected as recordStockMovement does. Listeners are notified once for the movements applied,
+     * so the write-ahead log commits the batch together instead of one movement at a time.
      *
-     * @param productId The product ID to check.
-     * @return true if no other product in the database has the same ID; false otherwise.
+     * @param productIds The IDs of the products whose shelf quantities change.
+     * @param deltas     The changes in quantity in each shelf's 10^-scale units.
+     * @param count      The number of movements, from the start of both arrays.
+     * @return The number of movements applied.
+     * @throws IllegalStateException if the service is read-only, or the movements were applied but could not be saved.
      */
-    private boolean isUniqueId(int productId) {
-        return database.getProductList().stream().noneMatch(p -> p.getId() == productId);
+    public int recordStockMovements(int[] productIds, long[] deltas, int count) {
+        return applyStockMovements(productIds, deltas, count, null, true);
     }
 
     /**
-     * Displays the details of a given product.
+     * Applies a batch of stock movements like recordStockMovements, but without writing any messages,
+     * for callers that report the rejected movements themselves, such as the BatchCommandRunner.
      *
-     * @param product The product to display.
+     * @param productIds The IDs of the products whose shelf quantities change.
+     * @param deltas     The changes in quantity in each shelf's 10^-scale units.
+     * @param count      The number of movements, from the start of both arrays.
+     * @param rejections Receives, for each movement, null if it was applied, or why it was rejected.
+     * @return The number of movements applied.
+     * @throws IllegalStateException if the service is read-only, or the movements were applied but could not be saved.
+     */
+    int applyStockMovements(int[] productIds, long[] deltas, int count, String[] rejections) {
+        return applyStockMovements(productIds, deltas, count, rejections, false);
+    }
+
+    /**
+     * Applies a batch of stock movements in order and notifies the listeners once for those applied.
+     * A product may move more than once in a batch.
+     *
+     * @param productIds The IDs of the products whose shelf quantities change.
+     * @param deltas     The changes in quantity in each shelf's 10^-scale units.
+     * @param count      The number of movements, from the start of both arrays.
+     * @param rejections Receives, for each movement, null if it was applied, or why it was rejected; or null.
+     * @param verbose    Whether to report the rejected movements.
+     * @return The number of movements applied.
+     */
+    private int applyStockMovements(int[] productIds, long[] deltas, int count, String[] rejections, boolean verbose) {
+        checkWritable();
+        long start = System.nanoTime();
+        long mark = stockMovementBatchMetrics.allocationMark();
+        List<Product> products = new ArrayList<>(count);
+        List<StockMovement> movements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String rejection = null;
+            Product product = database.getProduct(productIds[i]);
+            if (product == null) {
+                rejection = "Product with ID " + productIds[i] + " not found.";
+            } else {
+                try {
+                    movements.add(database.applyMovement(product, deltas[i]));
+                    updateRefillState(product);
+                    products.add(product);
+                } catch (IllegalArgumentException e) {
+                    rejection = "Product ID: " + productIds[i] + ". " + e.getMessage();
+                }
+            }
+            if (rejections != null) {
+                rejections[i] = rejection;
+            }
+            if (rejection != null && verbose) {
+                synchronized (report) {
+                    report.append(rejection).endLine();
+                    report.flush();
+                }
+            }
+        }
+        try {
+            if (!products.isEmpty()) {
+                notifyListeners(listener -> listener.stocksMoved(products, movements));
+            }
+        } finally {
+            stockMovementBatchMetrics.record(start, mark, count, products.size());
+        }
+        return products.size();
+    }
+
+    /**
+     * Applies a stock movement and notifies the listeners without writing any messages,
+     * for callers such as the StockMovementPipeline that count failures themselves.
+     *
+     * @param productId The ID of the product whose shelf quantity changes.
+     * @param delta     The change in quantity in the shelf's 10^-scale units.
+     * @return The applied movement, or null if the product does not exist.
+     * @throws IllegalArgumentException if the shelf has too little stock for the movement.
+     * @throws IllegalStateException if the service is read-only, or the movement was applied but could not be saved.
+     */
+    StockMovement applyStockMovement(int productId, long delta) {
+        checkWritable();
+        long start = System.nanoTime();
+        long mark = stockMovementMetrics.allocationMark();
+        Product product = database.getProduct(productId);
+        StockMovement movement = null;
+        try {
+            if (product == null) {
+                return null;
+            }
+            StockMovement applied = database.applyMovement(product, delta);
+            movement = applied;
+            updateRefillState(product);
+            notifyListeners(listener -> listener.stockMoved(product, applied));
+            return movement;
+        } finally {
+            stockMovementMetrics.record(start, mark, product != null ? 1 : 0, movement != null ? 1 : 0);
+        }
+    }
+
+    /**
+     * Adds a product to or removes it from the set of products to refill, based on its current shelf quantity.
+     * The shelf is checked again after the update, so that when two threads move the same shelf at once,
+     * the set still ends up matching the final quantity.
+     *
+     * @param product The product whose shelf quantity may have changed.
+     */
+    private void updateRefillState(Product product) {
+        ProductShelf shelf = product.getProductShelf();
+        boolean needsRefill;
+        do {
+            needsRefill = shelf.needsRefill();
+            if (needsRefill) {
+                productsToRefill.put(product.getId(), product);
+            } else {
+                productsToRefill.remove(product.getId());
+            }
+        } while (shelf.needsRefill() != needsRefill);
+    }
+
+    /**
+     * Gets the metrics of the service's operations, for dumping them or publishing them over JMX.
+     *
+     * @return The metrics.
+     */
+    public ProductMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the cache of report results, to register it for new days or to read its statistics.
+     *
+     * @return The report cache.
+     */
+    public ReportCache getReportCache() {
+        return reportCache;
+    }
+
+    /**
+     * Gets the feed of changes made through the service, to subscribe to it or to register it for
+     * markdowns and expiries.
+     *
+     * @return The change feed.
+     */
+    public ProductChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Gets the clock the date-based reports use.
+     *
+     * @return The clock.
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Gets today's date according to the service's clock.
+     *
+     * @return Today's date.
+     */
+    public LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    /**
+     * Finds and returns a product by its ID. If no product is found, returns null.
+     *
+     * @param productId The ID of the product to find.
+     * @return The Product object with the given ID, or null if not found.
+     */
+    public Product findProductById(int productId) {
+        long start = System.nanoTime();
+        long mark = findByIdMetrics.allocationMark();
+        Product product = database.getProduct(productId); // null if no product is found with the given ID
+        findByIdMetrics.record(start, mark, 1, product != null ? 1 : 0);
+        return product;
+    }
+
+    /**
+     * Finds the product a scanned GTIN barcode belongs to. This is the lookup of every item scanned at a
+     * till, and it allocates nothing.
+     *
+     * @param gtin The barcode, as returned by Gtin.parse.
+     * @return The product, or null if no product has the barcode.
+     */
+    public Product findProductByBarcode(long gtin) {
+        long start = System.nanoTime();
+        long mark = findByBarcodeMetrics.allocationMark();
+        Product product = database.getProductByBarcode(gtin);
+        findByBarcodeMetrics.record(start, mark, 1, product != null ? 1 : 0);
+        return product;
+    }
+
+    /**
+     * Assigns a GTIN barcode to a product. A product may have several barcodes, for example one per pack
+     * size or supplier, but a barcode belongs to one product only.
+     *
+     * @param productId The ID of the product.
+     * @param gtin      The barcode, as returned by Gtin.parse.
+     * @return true if the barcode now belongs to the product; false if the product does not exist or the
+     *         barcode belongs to another product.
+     * @throws IllegalArgumentException if the barcode is not a valid GTIN.
+     */
+    public boolean addBarcode(int productId, long gtin) {
+        Product product = database.getProduct(productId);
+        if (product == null) {
+            synchronized (report) {
+                report.append("Product with ID ").append(productId).append(" not found.").endLine();
+                report.flush();
+            }
+            return false;
+        }
+        Product owner;
+        try {
+            owner = assignBarcode(product, gtin);
+        } catch (IllegalStateException e) {
+            synchronized (report) {
+                report.append(e.getMessage()).endLine();
+                report.flush();
+            }
+            return false;
+        }
+        if (owner == product) {
+            return true;
+        }
+        synchronized (report) {
+            if (owner != null) {
+                report.append("Barcode ").append(Gtin.format(gtin)).append(" already belongs to Product ID ")
+                        .append(owner.getId()).append(".").endLine();
+            } else {
+                report.append("Barcode ").append(Gtin.format(gtin)).append(" added to Product ID ").append(productId)
+                        .append(".").endLine();
+            }
+            report.flush();
+        }
+        return owner == null;
+    }
+
+    /**
+     * Assigns a GTIN barcode to a product and notifies the listeners without writing any messages, for
+     * callers that report the outcome themselves, such as the REST API.
+     *
+     * @param product The product.
+     * @param gtin    The barcode, as returned by Gtin.parse.
+     * @return null if the barcode was assigned; otherwise the product it already belongs to, which may
+     *         be the given product itself.
+     * @throws IllegalArgumentException if the barcode is not a valid GTIN.
+     * @throws IllegalStateException if the service is read-only, or the barcode was assigned but could not be saved.
      */
-    public static void showProduct(Product product) {
-        System.out.printf("ProductId: %d. Product Name: %s. Expiry date: %s. Time Duration For Mark Down: %s%n",
-                product.getId(),
-                product.getProductName(),
-                formatDate(product.getExpiryDate()),
-                formatDate(product.getTimeDurationForMarkDown()));
+    Product assignBarcode(Product product, long gtin) {
+        checkWritable();
+        Product owner = database.addBarcode(product, gtin);
+        if (owner == null) {
+            notifyListeners(listener -> listener.barcodeAdded(product, gtin));
+        }
+        return owner;
+    }
+
+    /**
+     * Tells whether the service refuses changes because an earlier one could not be saved.
+     *
+     * @return true if the service is read-only; false if it accepts changes.
+     */
+    public boolean isReadOnly() {
+        return writeFailure != null;
+    }
+
+    /**
+     * Fails if the service is read-only, before a change touches the database.
+     *
+     * @throws IllegalStateException if the service is read-only.
+     */
+    private void checkWritable() {
+        if (writeFailure != null) {
+            throw readOnly();
+        }
+    }
+
+    /**
+     * Passes a change to every listener, then to the change feed. A listener that fails does not keep the
+     * change from the others, so they all stay in step with the database. The change is then not durable,
+     * so the service turns read-only and reports the failure once.
+     *
+     * @param change Passes the change to one listener.
+     * @throws IllegalStateException if a listener failed.
+     */
+    private void notifyListeners(Consumer<ProductChangeListener> change) {
+        RuntimeException failure = null;
+        for (ProductChangeListener listener : listeners) {
+            try {
+                change.accept(listener);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        change.accept(changeFeed);
+        if (failure == null) {
+            return;
+        }
+        boolean first;
+        synchronized (this) {
+            first = writeFailure == null;
+            if (first) {
+                writeFailure = failure;
+            }
+        }
+        if (first) {
+            synchronized (report) {
+                report.append("Changes can no longer be saved (").append(String.valueOf(failure.getMessage()))
+                        .append("). The store is read-only until it is restarted.").endLine();
+                report.flush();
+            }
+        }
+        throw readOnly();
+    }
+
+    /**
+     * Makes the exception that refuses a change while the service is read-only. Its message leaves out the
+     * cause, which may name files, so it can be shown to any client; the cause is attached.
+     *
+     * @return The exception.
+     */
+    private IllegalStateException readOnly() {
+        return new IllegalStateException("The store is read-only because a change could not be saved.", writeFailure);
+    }
+
+    /**
+     * Finds products by name: those with a word starting with the given text first, then those whose
+     * names are most similar to it.
+     *
+     * @param text  The name or start of a name to search for.
+     * @param limit The largest number of products to return.
+     * @return The matching products, best matches first.
+     * @throws IllegalStateException if no name index is in use.
+     */
+    public List<Product> findProductsByName(String text, int limit) {
+        ProductNameIndex index = nameIndex;
+        if (index == null) {
+            throw new IllegalStateException("Name search is not enabled.");
+        }
+        long start = System.nanoTime();
+        long mark = findByNameMetrics.allocationMark();
+        List<Product> products = index.search(text, limit);
+        findByNameMetrics.record(start, mark, 0, products.size());
+        return products;
+    }
+
+    /**
+     * Returns all products in the database, in the order they were added.
+     *
+     * @return A read-only view of all products.
+     */
+    public Iterable<Product> getAllProducts() {
+        return database.getProducts();
+    }
+
+    /**
+     * Finds the products whose shelves are below their maximum and need to be refilled.
+     *
+     * @return The products to refill, ordered by ID; a read-only list that may be shared with other callers.
+     */
+    public List<Product> findProductsToRefill() {
+        long start = System.nanoTime();
+        long mark = findToRefillMetrics.allocationMark();
+        List<Product> products = reportCache.get(ReportCache.Query.TO_REFILL, null);
+        int scanned = 0;
+        if (products == null) {
+            long generation = reportCache.generation(ReportCache.Query.TO_REFILL);
+            // Only shelves below their maximum are visited, instead of every product in the database
+            products = reportCache.put(ReportCache.Query.TO_REFILL, null, generation, new ArrayList<>(productsToRefill.values()));
+            scanned = products.size();
+        }
+        findToRefillMetrics.record(start, mark, scanned, products.size());
+        return products;
+    }
+
+    /**
+     * Finds the products that expired before the given day.
+     *
+     * @param today The current date.
+     * @return The expired products, ordered by expiry date; a read-only list that may be shared with other callers.
+     */
+    public List<Product> findExpiredProducts(LocalDate today) {
+        long start = System.nanoTime();
+        long mark = findExpiredMetrics.allocationMark();
+        List<Product> products = reportCache.get(ReportCache.Query.EXPIRED, today);
+        int scanned = 0;
+        if (products == null) {
+            long generation = reportCache.generation(ReportCache.Query.EXPIRED);
+            // Expiry dates before today, read from the expiry index
+            products = reportCache.put(ReportCache.Query.EXPIRED, today, generation, toList(database.getProductsByExpiryDate(null, today)));
+            scanned = products.size();
+        }
+        findExpiredMetrics.record(start, mark, scanned, products.size());
+        return products;
+    }
+
+    /**
+     * Finds the products whose markdown period has started on or before the given day.
+     *
+     * @param today The current date.
+     * @return The products in markdown, ordered by markdown date; a read-only list that may be shared with other callers.
+     */
+    public List<Product> findProductsInMarkDown(LocalDate today) {
+        long start = System.nanoTime();
+        long mark = findInMarkDownMetrics.allocationMark();
+        List<Product> products = reportCache.get(ReportCache.Query.IN_MARKDOWN, today);
+        int scanned = 0;
+        if (products == null) {
+            long generation = reportCache.generation(ReportCache.Query.IN_MARKDOWN);
+            // Markdown dates up to and including today, read from the markdown index
+            products = reportCache.put(ReportCache.Query.IN_MARKDOWN, today, generation, toList(database.getProductsByMarkDownDate(null, today.plusDays(1))));
+            scanned = products.size();
+        }
+        findInMarkDownMetrics.record(start, mark, scanned, products.size());
+        return products;
+    }
+
+    /**
+     * Finds the products whose markdown period starts after the given day but within the next week.
+     *
+     * @param today The current date.
+     * @return The products scheduled for markdown, ordered by markdown date; a read-only list that may be shared with other callers.
+     */
+    public List<Product> findProductsForMarkDown(LocalDate today) {
+        long start = System.nanoTime();
+        long mark = findForMarkDownMetrics.allocationMark();
+        List<Product> products = reportCache.get(ReportCache.Query.FOR_MARKDOWN, today);
+        int scanned = 0;
+        if (products == null) {
+            long generation = reportCache.generation(ReportCache.Query.FOR_MARKDOWN);
+            // Markdown dates after today and before next week, read from the markdown index
+            products = reportCache.put(ReportCache.Query.FOR_MARKDOWN, today, generation, toList(database.getProductsByMarkDownDate(today.plusDays(1), today.plusDays(7))));
+            scanned = products.size();
+        }
+        findForMarkDownMetrics.record(start, mark, scanned, products.size());
+        return products;
+    }
+
+    /**
+     * Starts a lazy scan of the products a query describes, from the beginning or from a cursor returned
+     * by an earlier scan of the same query. The query's date range on its order and its refill condition
+     * select the structure that is read, so only that part of the catalog is visited.
+     *
+     * @param query  The query.
+     * @param cursor The cursor to resume from, or null to start at the beginning.
+     * @return The scan, which reads the products as it is advanced.
+     * @throws IllegalArgumentException if the cursor is invalid, or the query asks for an order no index provides.
+     */
+    public ProductScan query(ProductQuery query, String cursor) {
+        ProductQuery.Order order = query.getOrder();
+        ProductScan.Cursor after = cursor != null ? ProductScan.Cursor.parse(cursor, order) : null;
+        Iterator<Product> source;
+        switch (order) {
+            case EXPIRY_DATE:
+                source = after == null
+                        ? database.getProductsByExpiryDate(query.getExpiryFrom(), query.getExpiryTo()).iterator()
+                        : database.getProductsByExpiryDateAfter(query.getExpiryFrom(), query.getExpiryTo(),
+                                LocalDate.ofEpochDay(after.day), after.productId, after.positionHint);
+                return new ProductScan(source, query::matches, product -> new ProductScan.Cursor(order,
+                        product.getExpiryDate().toEpochDay(), product.getId(), database.getExpiryPositionOf(product)), cursor);
+            case MARKDOWN_DATE:
+                source = after == null
+                        ? database.getProductsByMarkDownDate(query.getMarkDownFrom(), query.getMarkDownTo()).iterator()
+                        : database.getProductsByMarkDownDateAfter(query.getMarkDownFrom(), query.getMarkDownTo(),
+                                LocalDate.ofEpochDay(after.day), after.productId, after.positionHint);
+                return new ProductScan(source, query::matches, product -> new ProductScan.Cursor(order,
+                        product.getTimeDurationForMarkDown().toEpochDay(), product.getId(), database.getMarkDownPositionOf(product)), cursor);
+            case ID:
+                if (!query.isRefillOnly()) {
+                    throw new IllegalArgumentException("Only products to refill can be listed by ID.");
+                }
+                // Only shelves below their maximum are visited, from the ID after the cursor on
+                source = (after == null ? productsToRefill : productsToRefill.tailMap(after.productId, false)).values().iterator();
+                return new ProductScan(source, query::matches, product -> new ProductScan.Cursor(order, 0, product.getId(), 0), cursor);
+            default:
+                source = after == null
+                        ? database.getProducts().iterator()
+                        : database.getProductsAfter(after.productId, after.positionHint);
+                return new ProductScan(source, query::matches, product -> new ProductScan.Cursor(order,
+                        0, product.getId(), database.getPositionOf(product.getId())), cursor);
+        }
+    }
+
+    /**
+     * Reads one page of the products a query describes.
+     *
+     * @param query  The query.
+     * @param cursor The cursor returned with the previous page, or null for the first page.
+     * @param limit  The largest number of products on the page.
+     * @return The page, with the cursor of the next page.
+     * @throws IllegalArgumentException if the cursor or the limit is invalid, or the query asks for an order no index provides.
+     */
+    public ProductPage findPage(ProductQuery query, String cursor, int limit) {
+        long start = System.nanoTime();
+        long mark = findPageMetrics.allocationMark();
+        ProductScan scan = query(query, cursor);
+        ProductPage page = scan.nextPage(limit);
+        findPageMetrics.record(start, mark, scan.getScannedCount(), page.getProducts().size());
+        return page;
     }
 
     /**
-     * Formats a LocalDate to a string in the format MM/dd/yyyy.
+     * Displays the details of a given product.
      *
-     * @param date The date to format.
-     * @return A string representation of the date.
+     * @param product The product to display.
      */
-    private static String formatDate(LocalDate date) {
-        if (date != null) {
-            return date.format(DateTimeFormatter.ofPattern("MM/dd/yyyy"));
+    private void showProduct(Product product) {
+        report.append("ProductId: ").append(product.getId())
+                .append(". Product Name: ").append(product.getProductName())
+                .append(". Expiry date: ").appendDate(product.getExpiryDate())
+                .append(". Time Duration For Mark Down: ").appendDate(product.getTimeDurationForMarkDown());
+        if (product.getBarcodeCount() > 0) {
+            report.append(". Barcodes:");
+            for (long gtin : product.getBarcodes()) {
+                report.append(" ").append(Gtin.format(gtin));
+            }
         }
-        return "N/A";
+        report.endLine();
     }
 
     /**
@@ -85,23 +846,48 @@ class ProductService {
      */
 
     public void displayProductToRefill(Integer productId) {
-        boolean refillNeeded = false;
-        for (Product product : database.getProductList()) {
-            BigDecimal quantityToRefill = ProductShelfService.quantityToRefill(product.getProductShelf());
-
-            if (productId == null || product.getId() == productId) {
-                if (quantityToRefill.compareTo(BigDecimal.ZERO) > 0) {
-                    refillNeeded = true;
-                    System.out.println("Product ID: " + product.getId() + " needs to be refilled by " + quantityToRefill);
-                } else if (productId != null) {
-                    System.out.println("Product ID: " + productId + " does not need to be refilled.");
+        synchronized (report) {
+            if (productId != null) {
+                // A single product is looked up directly instead of scanning the whole database
+                Product product = findProductById(productId);
+                if (product != null) {
+                    displayRefill(product, true);
                 }
+                report.flush();
+                return;
             }
+
+            boolean refillNeeded = false;
+            for (Product product : findProductsToRefill()) {
+                refillNeeded |= displayRefill(product, false);
+            }
+
+            if (!refillNeeded) {
+                report.println("No products need to be replenished.");
+            }
+            report.flush();
         }
+    }
 
-        if (!refillNeeded && productId == null) {
-            System.out.println("No products need to be replenished.");
+    /**
+     * Displays the refill quantity for a product if it needs to be refilled.
+     *
+     * @param product     The product to check.
+     * @param reportFull  Whether to print a message when the product does not need a refill.
+     * @return true if the product needs to be refilled; false otherwise.
+     */
+    private boolean displayRefill(Product product, boolean reportFull) {
+        ProductShelf shelf = product.getProductShelf();
+        long quantityToRefill = ProductShelfService.quantityToRefill(shelf);
+        if (quantityToRefill > 0) {
+            report.append("Product ID: ").append(product.getId()).append(" needs to be refilled by ")
+                    .appendQuantity(quantityToRefill, shelf.getScale()).endLine();
+            return true;
         }
+        if (reportFull) {
+            report.append("Product ID: ").append(product.getId()).append(" does not need to be refilled.").endLine();
+        }
+        return false;
     }
 
     /**
@@ -111,36 +897,46 @@ class ProductService {
      * @param productId The ID of the product to display the count for, or null to display all counts.
      */
     public void displayProductCount(Integer productId) {
-        boolean productDisplayed = false;
-        for (Product product : database.getProductList()) {
-            if (productId == null || product.getId() == productId) {
+        synchronized (report) {
+            boolean productDisplayed = false;
+            Iterable<Product> products = getAllProducts();
+            if (productId != null) {
+                Product product = findProductById(productId);
+                products = product != null ? List.of(product) : List.of();
+            }
+            for (Product product : products) {
                 productDisplayed = true;
-                System.out.println("Product ID: " + product.getId() + ", Count on Shelf: " + product.getProductShelf().getCurrent());
+                ProductShelf shelf = product.getProductShelf();
+                report.append("Product ID: ").append(product.getId()).append(", Count on Shelf: ")
+                        .appendQuantity(shelf.getCurrent(), shelf.getScale()).endLine();
             }
-        }
 
-        if (!productDisplayed) {
-            System.out.println("No products on shelf or ProductID not found");
-        }
+            if (!productDisplayed) {
+                report.println("No products on shelf or ProductID not found");
+            }
 
 
-        boolean productsForMarkDownFound = false;
-        if (!productsForMarkDownFound) {
-                System.out.println("No products need to be marked down a week from now.");
-            }
+            boolean productsForMarkDownFound = false;
+            if (!productsForMarkDownFound) {
+                    report.println("No products need to be marked down a week from now.");
+                }
+            report.flush();
+        }
         }
 
     /**
      * Displays all products in the database.
      */
     public void displayAllProducts() {
-        List<Product> products = database.getProductList();
-        if (products.isEmpty()) {
-            System.out.println("No products available.");
-        } else {
-            for (Product product : products) {
-                showProduct(product);
+        synchronized (report) {
+            if (database.isEmpty()) {
+                report.println("No products available.");
+            } else {
+                for (Product product : getAllProducts()) {
+                    showProduct(product);
+                }
             }
+            report.flush();
         }
     }
 
@@ -151,60 +947,68 @@ class ProductService {
      * @param productId The ID of the product to be displayed.
      */
     public void displayProduct(Integer productId) {
-        Product product = findProductById(productId);
-        if (product != null) {
-            showProduct(product);
-        } else {
-            System.out.println("Product with ID " + productId + " not found.");
+        synchronized (report) {
+            Product product = findProductById(productId);
+            if (product != null) {
+                showProduct(product);
+            } else {
+                report.append("Product with ID ").append(productId).append(" not found.").endLine();
+            }
+            report.flush();
         }
     }
 
     /**
-     * Finds and returns a product by its ID. If no product is found, returns null.
+     * Displays the products found by a name search, best matches first.
      *
-     * @param productId The ID of the product to find.
-     * @return The Product object with the given ID, or null if not found.
+     * @param text  The name or start of a name to search for.
+     * @param limit The largest number of products to display.
      */
-    private Product findProductById(int productId) {
-        for (Product product : database.getProductList()) {
-            if (product.getId() == productId) {
-                return product;
+    public void displayProductsByName(String text, int limit) {
+        synchronized (report) {
+            List<Product> products = findProductsByName(text, limit);
+            for (Product product : products) {
+                showProduct(product);
+            }
+            if (products.isEmpty()) {
+                report.append("No products match \"").append(text).append("\".").endLine();
             }
+            report.flush();
         }
-        return null; // If no product is found with the given ID
     }
 
     /**
      * Displays products that are scheduled for a markdown in the upcoming week.
      */
-
     public void displayProductsForMarkDown() {
-        LocalDate today = LocalDate.now();
-        LocalDate nextWeek = today.plusDays(7);
-        boolean markdownScheduled = false;
-
-        for (Product product : database.getProductList()) {
-            if (product.getTimeDurationForMarkDown() != null &&
-                    product.getTimeDurationForMarkDown().isAfter(today) &&
-                    product.getTimeDurationForMarkDown().isBefore(nextWeek)) {
-                markdownScheduled = true;
-                System.out.println("Product ID: " + product.getId() + " (" + product.getProductName() + 
-                                   ") is scheduled for markdown on " + formatDate(product.getTimeDurationForMarkDown()));
-            }
-        }
-
-        if (!markdownScheduled) {
-            System.out.println("No products are scheduled for markdown in the upcoming week.");
-        }
+        LocalDate today = today();
+        displayProducts(displayForMarkDownMetrics, table -> table.selectForMarkDown(today), () -> findProductsForMarkDown(today),
+                " is scheduled for markdown on ", ReportDate.MARKDOWN, "No products are scheduled for markdown in the upcoming week.");
     }
 
     /**
-     * Displays the expiry dates for all products.
+     * Displays the expiry dates for all products. Without a columnar table, products are listed in the
+     * order they were added to the database. A columnar table lists its rows in the order it was notified
+     * of the products, which is the same unless products were created by several threads at once.
      */
     public void displayProductsExpiryDate() {
-        for (Product product : database.getProductList()) {
-            System.out.println("Product ID: " + product.getId() + " (" + product.getProductName() + 
-                               ") expires on " + formatDate(product.getExpiryDate()));
+        displayProducts(displayExpiryDateMetrics, null, this::getAllProducts, " expires on ", ReportDate.EXPIRY, null);
+    }
+
+    /**
+     * Displays the product a scanned barcode belongs to.
+     *
+     * @param gtin The barcode, as returned by Gtin.parse.
+     */
+    public void displayProductByBarcode(long gtin) {
+        synchronized (report) {
+            Product product = findProductByBarcode(gtin);
+            if (product != null) {
+                showProduct(product);
+            } else {
+                report.append("No product has barcode ").append(Gtin.format(gtin)).append(".").endLine();
+            }
+            report.flush();
         }
     }
 
@@ -212,41 +1016,161 @@ class ProductService {
      * Displays products that are currently in the markdown period.
      */
     public void displayProductsInMarkDown() {
-        LocalDate today = LocalDate.now();
-        boolean productInMarkdown = false;
+        LocalDate today = today();
+        displayProducts(displayInMarkDownMetrics, table -> table.selectInMarkDown(today), () -> findProductsInMarkDown(today),
+                " is currently in the markdown period.", ReportDate.NONE, "No products are currently in markdown.");
+    }
+
+    /**
+     * Displays products that have expired.
+     */
+    public void displayExpiredProducts() {
+        LocalDate today = today();
+        displayProducts(displayExpiredMetrics, table -> table.selectExpired(today), () -> findExpiredProducts(today),
+                " has expired on ", ReportDate.EXPIRY, "No expired products.");
+    }
 
-        for (Product product : database.getProductList()) {
-            if (product.getTimeDurationForMarkDown() != null &&
-                    product.getTimeDurationForMarkDown().isEqual(today) ||
-                    product.getTimeDurationForMarkDown().isBefore(today)) {
-                productInMarkdown = true;
-                System.out.println("Product ID: " + product.getId() + " (" + product.getProductName() + 
-                                   ") is currently in the markdown period.");
+    /**
+     * Writes a report of one line per product, holding its ID, its name, a message and optionally a date,
+     * and records the call in the report's metrics. The products are read from the rows of the columnar
+     * table when one is attached, and found through the database otherwise.
+     *
+     * @param metrics      The metrics of the report.
+     * @param selectRows   Selects the rows of the columnar table to write, or null to write every row in order.
+     * @param findProducts Finds the products to write when there is no columnar table.
+     * @param message      The text written after the ID and name.
+     * @param date         The date written after the message.
+     * @param none         The line written when there are no products, or null to write nothing.
+     */
+    private void displayProducts(OperationMetrics metrics, Function<ColumnarProductTable, int[]> selectRows,
+                                 Supplier<? extends Iterable<Product>> findProducts, String message, ReportDate date,
+                                 String none) {
+        long start = System.nanoTime();
+        long mark = metrics.allocationMark();
+        long scanned;
+        int matched = 0;
+        synchronized (report) {
+            ColumnarProductTable table = columnarTable;
+            if (table != null) {
+                scanned = table.size();
+                int[] rows = selectRows != null ? selectRows.apply(table) : null;
+                int count = rows != null ? rows.length : (int) scanned;
+                for (; matched < count; matched++) {
+                    int row = rows != null ? rows[matched] : matched;
+                    report.append("Product ID: ").append(table.getId(row)).append(" (").append(table.getProductName(row))
+                            .append(")").append(message);
+                    if (date == ReportDate.EXPIRY) {
+                        report.appendDate(table.getExpiryDate(row));
+                    } else if (date == ReportDate.MARKDOWN) {
+                        report.appendDate(table.getMarkDownDate(row));
+                    }
+                    report.endLine();
+                }
+            } else {
+                for (Product product : findProducts.get()) {
+                    report.append("Product ID: ").append(product.getId()).append(" (").append(product.getProductName())
+                            .append(")").append(message);
+                    if (date == ReportDate.EXPIRY) {
+                        report.appendDate(product.getExpiryDate());
+                    } else if (date == ReportDate.MARKDOWN) {
+                        report.appendDate(product.getTimeDurationForMarkDown());
+                    }
+                    report.endLine();
+                    matched++;
+                }
+                scanned = matched;
             }
-        }
 
-        if (!productInMarkdown) {
-            System.out.println("No products are currently in markdown.");
+            if (matched == 0 && none != null) {
+                report.println(none);
+            }
+            report.flush();
         }
+        metrics.record(start, mark, scanned, matched);
     }
 
     /**
-     * Displays products that have expired.
+     * Opens a snapshot of the catalog as it is now, for reports that must see one consistent state.
+     * The caller must close it.
+     *
+     * @return The snapshot.
      */
-    public void displayExpiredProducts() {
-        LocalDate today = LocalDate.now();
-        boolean expiredProductFound = false;
+    public ProductSnapshot openSnapshot() {
+        return database.openSnapshot();
+    }
 
-        for (Product product : database.getProductList()) {
-            if (product.getExpiryDate().isBefore(today)) {
-                expiredProductFound = true;
-                System.out.println("Product ID: " + product.getId() + " (" + product.getProductName() + 
-                                   ") has expired on " + formatDate(product.getExpiryDate()));
+    /**
+     * Gets the version clock of the database, for monitoring the open snapshots.
+     *
+     * @return The catalog versions.
+     */
+    public CatalogVersions getCatalogVersions() {
+        return database.getVersions();
+    }
+
+    /**
+     * Displays the end-of-day report: the expired products, the products in markdown and the shelves to
+     * refill, all read from one snapshot. Stock moved while the report is written does not change it, so
+     * the refill quantities agree with each other and with the catalog at the moment the report started.
+     */
+    public void displayEndOfDayReport() {
+        long start = System.nanoTime();
+        long mark = endOfDayReportMetrics.allocationMark();
+        LocalDate today = today();
+        long scanned;
+        int matched;
+        synchronized (report) {
+            try (ProductSnapshot snapshot = openSnapshot()) {
+                report.append("End of day report for ").appendDate(today).append(" (catalog version ")
+                        .append(snapshot.getVersion()).append(")").endLine();
+
+                List<Product> expired = snapshot.getProductsByExpiryDate(null, today);
+                for (Product product : expired) {
+                    report.append("Product ID: ").append(product.getId()).append(" (").append(product.getProductName())
+                            .append(") has expired on ").appendDate(product.getExpiryDate()).endLine();
+                }
+                if (expired.isEmpty()) {
+                    report.println("No expired products.");
+                }
+
+                List<Product> inMarkDown = snapshot.getProductsByMarkDownDate(null, today.plusDays(1));
+                for (Product product : inMarkDown) {
+                    report.append("Product ID: ").append(product.getId()).append(" (").append(product.getProductName())
+                            .append(") is currently in the markdown period.").endLine();
+                }
+                if (inMarkDown.isEmpty()) {
+                    report.println("No products are currently in markdown.");
+                }
+
+                List<Product> toRefill = snapshot.getProductsToRefill();
+                for (Product product : toRefill) {
+                    report.append("Product ID: ").append(product.getId()).append(" needs to be refilled by ")
+                            .appendQuantity(snapshot.getQuantityToRefill(product), product.getProductShelf().getScale())
+                            .endLine();
+                }
+                if (toRefill.isEmpty()) {
+                    report.println("No products need to be replenished.");
+                }
+                // Each section scans the products of the snapshot once.
+                scanned = 3L * database.getProductCount();
+                matched = expired.size() + inMarkDown.size() + toRefill.size();
             }
+            report.flush();
         }
+        endOfDayReportMetrics.record(start, mark, scanned, matched);
+    }
 
-        if (!expiredProductFound) {
-            System.out.println("No expired products.");
+    /**
+     * Copies the products of an index range into a list.
+     *
+     * @param products The products to copy.
+     * @return A new list holding the products.
+     */
+    private static List<Product> toList(Iterable<Product> products) {
+        List<Product> list = new ArrayList<>();
+        for (Product product : products) {
+            list.add(product);
         }
+        return list;
     }
-}
\ No newline at end of file
+}
@@ -1,56 +1,249 @@
-import java.math.BigDecimal;
-
 /**
  * This class represents a shelf where a product is stored in a market or store.
  * It holds information about the minimum and maximum quantity thresholds,
  * as well as the current quantity of the product on the shelf.
+ * The current quantity changes through stock movements such as sales and deliveries.
+ *
+ * Quantities are stored as primitive fixed-point longs: a value is a count of 10^-scale units.
+ * A scale of 0 counts whole items, while a scale of 3 stores weighed deli items to the gram when
+ * the unit is a kilogram. All quantities of a shelf share the same scale.
+ *
+ * Shelves are safe for concurrent use. Movements of one shelf are serialized on the shelf itself,
+ * so movements of different shelves never contend, and reading the current quantity takes no lock.
+ *
+ * The quantity is held in an immutable ShelfVersion stamped with the catalog version of the movement
+ * that produced it. While a ProductSnapshot is open, a movement keeps the versions the snapshot may
+ * still read linked behind the new one, so the snapshot reads the quantity as of its own version by
+ * walking back the chain, without a lock. The chain is cut as soon as no open snapshot needs it.
  */
 class ProductShelf {
-    // Minimum threshold for product quantity on the shelf.
-    private final BigDecimal min;
-    // Maximum threshold for product quantity on the shelf.
-    private final BigDecimal max;
-    // Current quantity of the product on the shelf.
-    private final BigDecimal current;
+    // Scale used for shelves of whole items.
+    public static final int DEFAULT_SCALE = 0;
+    // Default minimum threshold, in whole items.
+    public static final long DEFAULT_MIN = 5;
+    // Default maximum threshold, in whole items.
+    public static final long DEFAULT_MAX = 5;
+    // Default quantity a new shelf starts with, in whole items.
+    public static final long DEFAULT_CURRENT = 5;
+
+    // Minimum threshold for product quantity on the shelf, in 10^-scale units.
+    private final long min;
+    // Maximum threshold for product quantity on the shelf, in 10^-scale units.
+    private final long max;
+    // Current quantity of the product on the shelf and the catalog version that set it, followed by the
+    // older quantities open snapshots may read. Replaced with every stock movement.
+    private volatile ShelfVersion head;
+    // Number of movements applied to the shelf. Guarded by the shelf's own monitor.
+    private long version;
+    // Number of decimal places of the quantities on this shelf.
+    private final int scale;
+    // Whether the shelf is registered with CatalogVersions for pruning. Guarded by the shelf's own monitor.
+    private boolean historyTracked;
 
     /**
-     * Constructs a ProductShelf with specified minimum and maximum thresholds.
-     * The current quantity is set to a default value.
+     * Constructs a ProductShelf of whole items with the default thresholds and quantity.
+     */
+    public ProductShelf() {
+        this(DEFAULT_MIN, DEFAULT_MAX, DEFAULT_CURRENT, DEFAULT_SCALE);
+    }
+
+    /**
+     * Constructs a ProductShelf with specified thresholds, current quantity and scale.
      *
-     * @param min The minimum quantity threshold for the product on this shelf.
-     * @param max The maximum quantity threshold for the product on this shelf.
+     * @param min     The minimum quantity threshold for the product on this shelf, in 10^-scale units.
+     * @param max     The maximum quantity threshold for the product on this shelf, in 10^-scale units.
+     * @param current The quantity currently on the shelf, in 10^-scale units.
+     * @param scale   The number of decimal places of the quantities.
+     * @throws IllegalArgumentException if a quantity is negative or the scale is out of range.
      */
-    public ProductShelf(BigDecimal min, BigDecimal max) {
+    public ProductShelf(long min, long max, long current, int scale) {
+        if (min < 0 || max < 0 || current < 0) {
+            throw new IllegalArgumentException("Shelf quantities cannot be negative.");
+        }
+        Quantities.checkScale(scale);
         this.min = min;
         this.max = max;
-        // The default current quantity is set to 5. This can be adjusted as needed.
-        this.current = new BigDecimal(5);
+        this.head = new ShelfVersion(current, 0, null);
+        this.scale = scale;
     }
 
     /**
      * Retrieves the maximum quantity threshold of the product on the shelf.
      *
-     * @return The maximum threshold as a BigDecimal.
+     * @return The maximum threshold in 10^-scale units.
      */
-    public BigDecimal getMax() {
+    public long getMax() {
         return this.max;
     }
 
     /**
      * Retrieves the current quantity of the product on the shelf.
      *
-     * @return The current quantity as a BigDecimal.
+     * @return The current quantity in 10^-scale units.
+     */
+    public long getCurrent() {
+        return this.head.quantity;
+    }
+
+    /**
+     * Retrieves the quantity the shelf held at a catalog version, as a snapshot at that version sees it.
+     *
+     * @param version The catalog version. Must be pinned by an open snapshot, or be the latest version.
+     * @return The quantity in 10^-scale units.
      */
-    public BigDecimal getCurrent() {
-        return this.current;
+    public long getQuantityAt(long version) {
+        ShelfVersion quantity = this.head;
+        // A chain cut short by pruning ends at a version no open snapshot is older than.
+        while (quantity.version > version && quantity.older != null) {
+            quantity = quantity.older;
+        }
+        return quantity.quantity;
     }
 
     /**
      * Retrieves the minimum quantity threshold of the product on the shelf.
      *
-     * @return The minimum threshold as a BigDecimal.
+     * @return The minimum threshold in 10^-scale units.
      */
-    public BigDecimal getMin() {
+    public long getMin() {
         return min;
     }
+
+    /**
+     * Retrieves the scale of the quantities on the shelf.
+     *
+     * @return The number of decimal places of the quantities.
+     */
+    public int getScale() {
+        return this.scale;
+    }
+
+    /**
+     * Retrieves the number of movements applied to the shelf.
+     *
+     * @return The shelf version.
+     */
+    public synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Applies a stock movement to a shelf that is not part of a Database. Deliveries are positive,
+     * while sales and shrinkage are negative.
+     *
+     * @param delta The change in quantity, in 10^-scale units.
+     * @return The resulting quantity and shelf version.
+     * @throws IllegalArgumentException if the movement would take the quantity below zero.
+     */
+    public StockMovement applyMovement(long delta) {
+        return applyMovement(delta, null);
+    }
+
+    /**
+     * Applies a stock movement as part of a catalog commit, taking the commit's version for the new
+     * quantity and keeping the older quantities that open snapshots may still read.
+     * Database.applyMovement calls this within a commit.
+     *
+     * @param delta    The change in quantity, in 10^-scale units.
+     * @param versions The version clock of the catalog, or null for a shelf outside a Database.
+     * @return The resulting quantity and shelf version.
+     * @throws IllegalArgumentException if the movement would take the quantity below zero.
+     */
+    synchronized StockMovement applyMovement(long delta, CatalogVersions versions) {
+        ShelfVersion current = this.head;
+        long updated = current.quantity + delta;
+        if (updated < 0) {
+            throw new IllegalArgumentException("Stock movement of " + Quantities.format(delta, this.scale)
+                    + " exceeds the current quantity of " + Quantities.format(current.quantity, this.scale));
+        }
+        if (versions == null) {
+            this.head = new ShelfVersion(updated, current.version, null);
+        } else {
+            long version = versions.nextVersion();
+            long oldest = versions.getOldestPinned();
+            if (oldest >= version) {
+                // No open snapshot is older than this movement, so no one can read the old quantity.
+                this.head = new ShelfVersion(updated, version, null);
+            } else {
+                cutBelow(current, oldest);
+                this.head = new ShelfVersion(updated, version, current);
+                if (!this.historyTracked) {
+                    this.historyTracked = true;
+                    versions.trackHistory(this);
+                }
+            }
+        }
+        return new StockMovement(delta, updated, ++this.version);
+    }
+
+    /**
+     * Drops the older quantities that no open snapshot can read any more. Called when a snapshot closes.
+     * The oldest pinned version is read under the shelf's lock, so a snapshot opened meanwhile is never
+     * pruned away: it reads the current quantity or one linked after this point.
+     *
+     * @param versions The version clock of the catalog.
+     * @return true if the shelf still keeps older quantities; false if it no longer needs pruning.
+     */
+    synchronized boolean pruneHistory(CatalogVersions versions) {
+        cutBelow(this.head, versions.getOldestPinned());
+        this.historyTracked = this.head.older != null;
+        return this.historyTracked;
+    }
+
+    /**
+     * Restores the quantity recorded at a given shelf version, unless the shelf is already at that
+     * version or a later one. Used when loading and replaying logged movements, which may be out of order.
+     *
+     * @param quantity The quantity recorded at the version.
+     * @param version  The shelf version the quantity belongs to.
+     */
+    public synchronized void restore(long quantity, long version) {
+        if (version > this.version) {
+            this.head = new ShelfVersion(quantity, this.head.version, null);
+            this.version = version;
+        }
+    }
+
+    /**
+     * Checks whether the shelf holds less than its maximum quantity and so needs to be refilled.
+     *
+     * @return true if the current quantity is below the maximum threshold; false otherwise.
+     */
+    public boolean needsRefill() {
+        return this.head.quantity < this.max;
+    }
+
+    /**
+     * Cuts a chain of quantities after the newest one that a snapshot at the given version reads,
+     * as every open snapshot reads that one or a newer one.
+     *
+     * @param from         The newest quantity of the chain.
+     * @param oldestPinned The oldest version an open snapshot reads.
+     */
+    private static void cutBelow(ShelfVersion from, long oldestPinned) {
+        ShelfVersion quantity = from;
+        while (quantity.version > oldestPinned && quantity.older != null) {
+            quantity = quantity.older;
+        }
+        quantity.older = null;
+    }
+
+    /**
+     * A quantity of the shelf and the catalog version from which it holds, linked to the quantity before it.
+     */
+    private static final class ShelfVersion {
+        // Quantity on the shelf, in 10^-scale units.
+        final long quantity;
+        // Catalog version of the movement that set the quantity, 0 for the initial quantity.
+        final long version;
+        // The quantity before this one, kept while an open snapshot may read it, or null. Only ever set to
+        // null after construction; a reader that still follows the old link finds valid, older data.
+        ShelfVersion older;
+
+        ShelfVersion(long quantity, long version, ShelfVersion older) {
+            this.quantity = quantity;
+            this.version = version;
+            this.older = older;
+        }
+    }
 }
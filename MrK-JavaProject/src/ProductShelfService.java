@@ -1,5 +1,3 @@
-import java.math.BigDecimal;
-
 /**
  * The ProductShelfService class provides services related to managing the product shelf,
  * such as calculating the quantity needed to refill a product on the shelf.
@@ -8,13 +6,12 @@ class ProductShelfService {
     
     /**
      * Calculates the quantity to refill for a given product shelf.
+     * The calculation works on the primitive fixed-point quantities of the shelf and allocates nothing.
      *
      * @param shelf The product shelf to calculate refill quantity for.
-     * @return The quantity to refill as a BigDecimal.
+     * @return The quantity to refill, in the 10^-scale units of the shelf.
      */
-    public static BigDecimal quantityToRefill(ProductShelf shelf) {
-        BigDecimal difference = shelf.getMax().subtract(shelf.getCurrent());
-        return difference.max(BigDecimal.ZERO); // Ensure that we don't return a negative quantity.
+    public static long quantityToRefill(ProductShelf shelf) {
+        return Math.max(shelf.getMax() - shelf.getCurrent(), 0); // Ensure that we don't return a negative quantity.
     }
 }
-
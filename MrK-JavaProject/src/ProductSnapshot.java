@@ -0,0 +1,182 @@
+import java.io.Closeable;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * A read-only view of the catalog as of one version, for reports such as the nightly end-of-day report
+ * that must see one consistent state while tills keep selling and deliveries keep arriving.
+ *
+ * A snapshot shows the products stored at its version, with the shelf quantities they had then; products
+ * added or removed later and stock moved later do not show. Reading it takes no lock and never blocks a
+ * writer. Prices and the refill thresholds are not versioned and are read as they are now.
+ *
+ * The snapshot holds on to the older versions it reads, so it must be closed, preferably with
+ * try-with-resources; closing lets the database drop them.
+ */
+final class ProductSnapshot implements Closeable {
+    // Database the snapshot reads.
+    private final Database database;
+    // Positions of the product map as of the snapshot's version.
+    private final IntProductMap.View products;
+    // Catalog version the snapshot reads.
+    private final long version;
+    // Whether the snapshot has been closed.
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Constructs a ProductSnapshot. Called by Database.openSnapshot while the version is pinned.
+     *
+     * @param database The database the snapshot reads.
+     * @param products The positions of the product map, taken at the version.
+     * @param version  The catalog version the snapshot reads.
+     */
+    ProductSnapshot(Database database, IntProductMap.View products, long version) {
+        this.database = database;
+        this.products = products;
+        this.version = version;
+    }
+
+    /**
+     * Gets the catalog version the snapshot reads.
+     *
+     * @return The version.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Retrieves the products stored at the snapshot's version, in the order they were added.
+     *
+     * @return A new list of the products.
+     */
+    public List<Product> getProducts() {
+        List<Product> visible = new ArrayList<>();
+        for (int position = 0; position < this.products.positions(); position++) {
+            Product product = productAt(position);
+            if (product != null) {
+                visible.add(product);
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Retrieves the products whose expiry date lies in the given range, ordered by expiry date and then
+     * by the order they were added, as Database.getProductsByExpiryDate orders them.
+     *
+     * @param fromInclusive The first expiry date to include, or null for no lower bound.
+     * @param toExclusive   The first expiry date to exclude, or null for no upper bound.
+     * @return A new list of the matching products.
+     */
+    public List<Product> getProductsByExpiryDate(LocalDate fromInclusive, LocalDate toExclusive) {
+        return between(fromInclusive, toExclusive, Product::getExpiryDate);
+    }
+
+    /**
+     * Retrieves the products whose markdown period starts in the given range, ordered by markdown date and
+     * then by the order they were added. Products without a markdown date are never returned.
+     *
+     * @param fromInclusive The first markdown date to include, or null for no lower bound.
+     * @param toExclusive   The first markdown date to exclude, or null for no upper bound.
+     * @return A new list of the matching products.
+     */
+    public List<Product> getProductsByMarkDownDate(LocalDate fromInclusive, LocalDate toExclusive) {
+        return between(fromInclusive, toExclusive, Product::getTimeDurationForMarkDown);
+    }
+
+    /**
+     * Retrieves the products whose shelves were below their maximum at the snapshot's version.
+     *
+     * @return A new list of the products to refill, ordered by ID.
+     */
+    public List<Product> getProductsToRefill() {
+        List<Product> toRefill = new ArrayList<>();
+        for (int position = 0; position < this.products.positions(); position++) {
+            Product product = productAt(position);
+            if (product != null && getQuantityToRefill(product) > 0) {
+                toRefill.add(product);
+            }
+        }
+        toRefill.sort(Comparator.comparingInt(Product::getId));
+        return toRefill;
+    }
+
+    /**
+     * Gets the quantity a product had on its shelf at the snapshot's version.
+     *
+     * @param product A product of the snapshot.
+     * @return The quantity in the shelf's 10^-scale units.
+     */
+    public long getQuantity(Product product) {
+        return product.getProductShelf().getQuantityAt(this.version);
+    }
+
+    /**
+     * Gets the quantity that would have refilled a product's shelf to its maximum at the snapshot's version.
+     *
+     * @param product A product of the snapshot.
+     * @return The quantity to refill in the shelf's 10^-scale units, 0 if the shelf was full.
+     */
+    public long getQuantityToRefill(Product product) {
+        return Math.max(product.getProductShelf().getMax() - getQuantity(product), 0);
+    }
+
+    /**
+     * Closes the snapshot and lets the database drop the older versions no other snapshot reads.
+     * Closing a snapshot again has no effect.
+     */
+    @Override
+    public void close() {
+        if (this.closed.compareAndSet(false, true)) {
+            this.database.closeSnapshot(this.version);
+        }
+    }
+
+    /**
+     * Gets the product a position held at the snapshot's version: the product stored there now, or the
+     * one removed or replaced there after the version.
+     *
+     * @param position The position in the product map.
+     * @return The product, or null if the position held none at the version.
+     */
+    private Product productAt(int position) {
+        Product product = this.products.stored(position);
+        if (product != null && product.isStoredAt(this.version)) {
+            return product;
+        }
+        product = this.products.retained(position);
+        return product != null && product.isStoredAt(this.version) ? product : null;
+    }
+
+    /**
+     * Selects the products with a date in a range. The live date indexes are changed in place, so the
+     * snapshot scans its own products instead; a stable sort keeps products of the same date in the order
+     * they were added.
+     *
+     * @param fromInclusive The first date to include, or null for no lower bound.
+     * @param toExclusive   The first date to exclude, or null for no upper bound.
+     * @param date          Reads the date of a product, which may be null.
+     * @return A new list of the matching products, ordered by date.
+     */
+    private List<Product> between(LocalDate fromInclusive, LocalDate toExclusive,
+                                  Function<Product, LocalDate> date) {
+        List<Product> matching = new ArrayList<>();
+        for (int position = 0; position < this.products.positions(); position++) {
+            Product product = productAt(position);
+            if (product != null) {
+                LocalDate day = date.apply(product);
+                if (day != null && (fromInclusive == null || !day.isBefore(fromInclusive))
+                        && (toExclusive == null || day.isBefore(toExclusive))) {
+                    matching.add(product);
+                }
+            }
+        }
+        matching.sort(Comparator.comparing(date));
+        return matching;
+    }
+}
@@ -0,0 +1,171 @@
+import java.math.BigDecimal;
+
+/**
+ * Helper methods for fixed-point quantities stored as longs.
+ * A quantity with scale s is a count of 10^-s units, so 1.250 kg with scale 3 is stored as 1250.
+ */
+final class Quantities {
+    // Largest supported scale. Keeps 10^scale and typical shelf quantities well inside the long range.
+    public static final int MAX_SCALE = 9;
+
+    // Powers of ten indexed by scale.
+    private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Private constructor, as this class only holds static helper methods.
+     */
+    private Quantities() {
+    }
+
+    /**
+     * Checks that a scale is supported.
+     *
+     * @param scale The number of decimal places.
+     * @throws IllegalArgumentException if the scale is negative or larger than MAX_SCALE.
+     */
+    public static void checkScale(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Quantity scale must be between 0 and " + MAX_SCALE + ".");
+        }
+    }
+
+    /**
+     * Converts a decimal quantity, for example one typed in by a user, into fixed-point units.
+     *
+     * @param quantity The decimal quantity.
+     * @param scale    The number of decimal places of the units.
+     * @return The quantity in 10^-scale units.
+     * @throws ArithmeticException if the quantity has more decimal places than the scale or does not fit in a long.
+     */
+    public static long toUnits(BigDecimal quantity, int scale) {
+        checkScale(scale);
+        return quantity.setScale(scale).longValueExact();
+    }
+
+    /**
+     * Formats a fixed-point quantity as a decimal string, such as "5" or "1.250".
+     *
+     * @param units The quantity in 10^-scale units.
+     * @param scale The number of decimal places of the units.
+     * @return The decimal representation of the quantity.
+     */
+    public static String format(long units, int scale) {
+        if (scale == 0) {
+            return Long.toString(units);
+        }
+        StringBuilder builder = new StringBuilder(24);
+        appendTo(builder, units, scale);
+        return builder.toString();
+    }
+
+    /**
+     * Appends a fixed-point quantity as a decimal string to a builder, without any intermediate objects.
+     *
+     * @param builder The builder to append to.
+     * @param units   The quantity in 10^-scale units.
+     * @param scale   The number of decimal places of the units.
+     */
+    public static void appendTo(StringBuilder builder, long units, int scale) {
+        if (scale == 0) {
+            builder.append(units);
+            return;
+        }
+        long power = POWERS_OF_TEN[scale];
+        if (units < 0) {
+            builder.append('-');
+        }
+        // Work with the absolute parts separately so Long.MIN_VALUE does not overflow.
+        long whole = Math.abs(units / power);
+        long fraction = Math.abs(units % power);
+        builder.append(whole).append('.');
+        for (long digit = power / 10; digit > fraction && digit > 1; digit /= 10) {
+            builder.append('0');
+        }
+        builder.append(fraction);
+    }
+
+    /**
+     * Converts a whole number of items or units into fixed-point units.
+     *
+     * @param whole The whole quantity.
+     * @param scale The number of decimal places of the units.
+     * @return The quantity in 10^-scale units.
+     * @throws ArithmeticException if the result does not fit in a long.
+     */
+    public static long fromWhole(long whole, int scale) {
+        checkScale(scale);
+        return Math.multiplyExact(whole, POWERS_OF_TEN[scale]);
+    }
+
+    /**
+     * Converts a fixed-point quantity to a larger scale, for example to add it to a quantity with more decimal places.
+     *
+     * @param units     The quantity in 10^-fromScale units.
+     * @param fromScale The current scale of the quantity.
+     * @param toScale   The scale to convert to. Must not be smaller than fromScale.
+     * @return The quantity in 10^-toScale units.
+     * @throws ArithmeticException if the result does not fit in a long.
+     */
+    public static long rescale(long units, int fromScale, int toScale) {
+        checkScale(toScale);
+        if (toScale < fromScale) {
+            throw new IllegalArgumentException("Cannot rescale a quantity to fewer decimal places.");
+        }
+        return Math.multiplyExact(units, POWERS_OF_TEN[toScale - fromScale]);
+    }
+
+    /**
+     * Counts the decimal places of a quantity written as text, such as 2 for "1.25".
+     *
+     * @param text The quantity as text.
+     * @return The number of digits after the decimal point, or 0 if there is none.
+     */
+    public static int scaleOf(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '.') {
+                return text.length() - i - 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Parses a non-negative decimal quantity written as text, such as "12" or "1.250", into fixed-point
+     * units without creating intermediate objects.
+     *
+     * @param text  The quantity as text.
+     * @param scale The number of decimal places of the units. Must be at least the scale of the text.
+     * @return The quantity in 10^-scale units.
+     * @throws NumberFormatException if the text is not a valid quantity for the scale.
+     * @throws ArithmeticException if the quantity does not fit in a long.
+     */
+    public static long parse(CharSequence text, int scale) {
+        checkScale(scale);
+        int fractionDigits = -1;
+        long units = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (fractionDigits >= 0 && ++fractionDigits > scale) {
+                    throw new NumberFormatException("Too many decimal places in quantity: " + text);
+                }
+                units = Math.multiplyExact(units, 10) + (c - '0');
+            } else {
+                throw new NumberFormatException("Invalid quantity: " + text);
+            }
+        }
+        if (text.length() == 0 || fractionDigits == 0) {
+            throw new NumberFormatException("Invalid quantity: " + text);
+        }
+        return Math.multiplyExact(units, POWERS_OF_TEN[scale - Math.max(fractionDigits, 0)]);
+    }
+}
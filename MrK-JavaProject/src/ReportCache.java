@@ -0,0 +1,377 @@
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the results of the report queries of a ProductService, so that a store manager who asks for the
+ * same report again and again during the day gets it without another index scan.
+ *
+ * Results are keyed by query and date and kept in least-recently-used order, up to a fixed number of
+ * entries. As a ProductChangeListener the cache drops exactly the entries a change can affect: a new
+ * product drops the date reports whose date range holds its expiry or markdown date, and a stock movement
+ * drops the refill report only when the shelf moves in or out of needing a refill. Movements that leave
+ * the refill set as it was do not touch the cache, as the reports hold the products themselves and read
+ * their quantities when displayed. As a ProductEventListener it drops the entries of past days when a
+ * new day starts; those would never be asked for again, since every date report is keyed by its date.
+ *
+ * A result computed while a change of the same query is being applied could miss the change, so each
+ * query has a generation that every such change increments, and put only stores a result if the
+ * generation is still the one read before the result was computed.
+ */
+class ReportCache implements ProductChangeListener, ProductEventListener {
+    // Number of entries kept when no capacity is given.
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The cached report queries.
+     */
+    enum Query {
+        // Products whose shelves are below their maximum. Not keyed by date.
+        TO_REFILL,
+        // Products that expired before the date.
+        EXPIRED,
+        // Products whose markdown started on or before the date.
+        IN_MARKDOWN,
+        // Products whose markdown starts after the date but within the next week.
+        FOR_MARKDOWN
+    }
+
+    // Largest number of entries kept.
+    private final int capacity;
+    // Cached results in least-recently-used order. Guarded by itself.
+    private final LinkedHashMap<Key, List<Product>> entries;
+    // Generation of each query, incremented by every change that can affect it. Guarded by entries.
+    private final long[] generations = new long[Query.values().length];
+
+    // Lookups answered from the cache.
+    private final LongAdder hits = new LongAdder();
+    // Lookups that had to be computed.
+    private final LongAdder misses = new LongAdder();
+    // Entries dropped to make room for newer ones.
+    private final LongAdder evictions = new LongAdder();
+    // Entries dropped because a change or a new day made them stale.
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Constructs a ReportCache that holds up to DEFAULT_CAPACITY results.
+     */
+    public ReportCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a ReportCache.
+     *
+     * @param capacity The largest number of results to keep.
+     * @throws IllegalArgumentException if the capacity is not positive.
+     */
+    public ReportCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("A report cache needs room for at least one result.");
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<Product>> eldest) {
+                if (size() > ReportCache.this.capacity) {
+                    ReportCache.this.evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks up a cached result.
+     *
+     * @param query The query.
+     * @param date  The date of the query, or null for the refill report.
+     * @return The cached products, or null if the result has to be computed.
+     */
+    public List<Product> get(Query query, LocalDate date) {
+        List<Product> products;
+        synchronized (this.entries) {
+            products = this.entries.get(new Key(query, date));
+        }
+        (products != null ? this.hits : this.misses).increment();
+        return products;
+    }
+
+    /**
+     * Gets the generation of a query, to be read before computing a result and passed to put.
+     *
+     * @param query The query.
+     * @return The current generation.
+     */
+    public long generation(Query query) {
+        synchronized (this.entries) {
+            return this.generations[query.ordinal()];
+        }
+    }
+
+    /**
+     * Caches a computed result, unless a change of the same query happened since its generation was read.
+     *
+     * @param query      The query.
+     * @param date       The date of the query, or null for the refill report.
+     * @param generation The generation read before the result was computed.
+     * @param products   The computed result.
+     * @return A read-only view of the result, which is what the cache hands out from now on.
+     */
+    public List<Product> put(Query query, LocalDate date, long generation, List<Product> products) {
+        List<Product> result = Collections.unmodifiableList(products);
+        synchronized (this.entries) {
+            if (this.generations[query.ordinal()] == generation) {
+                this.entries.put(new Key(query, date), result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops every cached result.
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            for (int i = 0; i < this.generations.length; i++) {
+                this.generations[i]++;
+            }
+            this.invalidations.add(this.entries.size());
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * Gets the number of cached results.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that had to be computed.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Gets the number of results dropped to make room for newer ones.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * Gets the number of results dropped because they had become stale.
+     *
+     * @return The invalidation count.
+     */
+    public long getInvalidationCount() {
+        return this.invalidations.sum();
+    }
+
+    /**
+     * Drops the cached results a new product belongs to.
+     *
+     * @param product The product that was created.
+     */
+    @Override
+    public void productCreated(Product product) {
+        long expiryDay = product.getExpiryDate().toEpochDay();
+        long markDownDay = product.getTimeDurationForMarkDown().toEpochDay();
+        invalidateCreated(expiryDay, markDownDay, markDownDay, product.getProductShelf().needsRefill());
+    }
+
+    /**
+     * Drops the cached results that any product of a batch belongs to, in one pass over the cache.
+     * The markdown reports of the coming week are checked against the range of the batch's markdown dates,
+     * so they may be dropped for a batch whose dates fall around, but not within, their week.
+     *
+     * @param products The products that were created.
+     */
+    @Override
+    public void productsCreated(List<Product> products) {
+        long minExpiryDay = Long.MAX_VALUE;
+        long minMarkDownDay = Long.MAX_VALUE;
+        long maxMarkDownDay = Long.MIN_VALUE;
+        boolean needsRefill = false;
+        for (Product product : products) {
+            long markDownDay = product.getTimeDurationForMarkDown().toEpochDay();
+            minExpiryDay = Math.min(minExpiryDay, product.getExpiryDate().toEpochDay());
+            minMarkDownDay = Math.min(minMarkDownDay, markDownDay);
+            maxMarkDownDay = Math.max(maxMarkDownDay, markDownDay);
+            needsRefill |= product.getProductShelf().needsRefill();
+        }
+        invalidateCreated(minExpiryDay, minMarkDownDay, maxMarkDownDay, needsRefill);
+    }
+
+    /**
+     * Drops the cached refill report if the movement took the shelf in or out of needing a refill.
+     *
+     * @param product  The product whose shelf moved.
+     * @param movement The applied movement.
+     */
+    @Override
+    public void stockMoved(Product product, StockMovement movement) {
+        long max = product.getProductShelf().getMax();
+        boolean neededRefill = movement.getQuantity() - movement.getDelta() < max;
+        if (neededRefill != movement.getQuantity() < max) {
+            synchronized (this.entries) {
+                this.generations[Query.TO_REFILL.ordinal()]++;
+                if (this.entries.remove(new Key(Query.TO_REFILL, null)) != null) {
+                    this.invalidations.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Does nothing, as the date reports are keyed by their date and so never go stale on their own.
+     *
+     * @param product The product entering markdown.
+     * @param date    The first day of its markdown.
+     */
+    @Override
+    public void markdownStarted(Product product, LocalDate date) {
+    }
+
+    /**
+     * Does nothing, as the date reports are keyed by their date and so never go stale on their own.
+     *
+     * @param product The expired product.
+     * @param date    The day after its expiry date.
+     */
+    @Override
+    public void productExpired(Product product, LocalDate date) {
+    }
+
+    /**
+     * Drops the cached date reports of the days before the new one.
+     *
+     * @param date The day that started.
+     */
+    @Override
+    public void dayStarted(LocalDate date) {
+        synchronized (this.entries) {
+            Iterator<Key> keys = this.entries.keySet().iterator();
+            while (keys.hasNext()) {
+                Key key = keys.next();
+                if (key.date != null && key.date.isBefore(date)) {
+                    keys.remove();
+                    this.invalidations.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Describes the size and hit rate of the cache.
+     *
+     * @return A one-line summary.
+     */
+    @Override
+    public String toString() {
+        long hits = getHitCount();
+        long lookups = hits + getMissCount();
+        return String.format("Report cache: %d/%d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations",
+                size(), this.capacity, hits, lookups - hits, lookups == 0 ? 0.0 : 100.0 * hits / lookups,
+                getEvictionCount(), getInvalidationCount());
+    }
+
+    /**
+     * Drops the date reports that products with the given dates belong to, and the refill report if
+     * one of them needs a refill. The generations of all date queries are incremented, as a result that
+     * is being computed meanwhile could be for any date.
+     *
+     * @param minExpiryDay   The earliest expiry date of the products, as an epoch day.
+     * @param minMarkDownDay The earliest markdown date of the products, as an epoch day.
+     * @param maxMarkDownDay The latest markdown date of the products, as an epoch day.
+     * @param needsRefill    Whether any of the products needs a refill.
+     */
+    private void invalidateCreated(long minExpiryDay, long minMarkDownDay, long maxMarkDownDay, boolean needsRefill) {
+        synchronized (this.entries) {
+            for (Query query : Query.values()) {
+                if (query != Query.TO_REFILL || needsRefill) {
+                    this.generations[query.ordinal()]++;
+                }
+            }
+            Iterator<Key> keys = this.entries.keySet().iterator();
+            while (keys.hasNext()) {
+                Key key = keys.next();
+                boolean stale;
+                switch (key.query) {
+                    case TO_REFILL:
+                        stale = needsRefill;
+                        break;
+                    case EXPIRED: // Expiry dates before the day
+                        stale = minExpiryDay < key.date.toEpochDay();
+                        break;
+                    case IN_MARKDOWN: // Markdown dates up to and including the day
+                        stale = minMarkDownDay <= key.date.toEpochDay();
+                        break;
+                    default: // Markdown dates after the day and before next week
+                        long day = key.date.toEpochDay();
+                        stale = maxMarkDownDay > day && minMarkDownDay < day + 7;
+                        break;
+                }
+                if (stale) {
+                    keys.remove();
+                    this.invalidations.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * A query and its date.
+     */
+    private static final class Key {
+        final Query query;
+        final LocalDate date;
+
+        Key(Query query, LocalDate date) {
+            this.query = query;
+            this.date = date;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return this.query == key.query && Objects.equals(this.date, key.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.query.ordinal() + Objects.hashCode(this.date);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Writes report lines to a buffered destination, such as the console, a file or an in-memory buffer.
+ *
+ * A line is assembled in a reused StringBuilder with the append methods and written out by endLine.
+ * Dates and quantities are formatted straight into the builder, so writing a row creates no
+ * intermediate strings or formatters, and the destination is only flushed when flush is called,
+ * typically once per report instead of once per row. A writer for batch output can hold even those
+ * flushes back, so that a script of many small reports reaches the destination in large writes.
+ */
+class ReportWriter implements Flushable, Closeable {
+    // Size of the output buffer in characters.
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Buffered destination of the report.
+    private final Writer out;
+    // Whether flush reaches the destination, or leaves the text buffered until flushBatch.
+    private final boolean flushReports;
+    // Line currently being assembled. Reused for every line.
+    private final StringBuilder line = new StringBuilder(128);
+    // Characters of the line being written, copied out of the builder. Reused and grown as needed.
+    private char[] chars = new char[128];
+
+    /**
+     * Constructs a ReportWriter that writes UTF-8 text to an output stream, such as System.out.
+     *
+     * @param stream The stream to write to.
+     */
+    public ReportWriter(OutputStream stream) {
+        this(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Constructs a ReportWriter that writes to a character stream, such as a file writer or a StringWriter.
+     *
+     * @param writer The writer to write to.
+     */
+    public ReportWriter(Writer writer) {
+        this(writer, true);
+    }
+
+    /**
+     * Constructs a ReportWriter that writes UTF-8 text to an output stream and, unless flushReports is set,
+     * only flushes it when its buffer fills up or flushBatch is called, as for the output of a batch run.
+     *
+     * @param stream       The stream to write to.
+     * @param flushReports Whether every call to flush reaches the stream.
+     */
+    public ReportWriter(OutputStream stream, boolean flushReports) {
+        this(new OutputStreamWriter(stream, StandardCharsets.UTF_8), flushReports);
+    }
+
+    /**
+     * Constructs a ReportWriter.
+     *
+     * @param writer       The writer to write to.
+     * @param flushReports Whether every call to flush reaches the writer.
+     */
+    private ReportWriter(Writer writer, boolean flushReports) {
+        this.out = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, BUFFER_SIZE);
+        this.flushReports = flushReports;
+    }
+
+    /**
+     * Appends text to the current line.
+     *
+     * @param text The text to append.
+     * @return This writer, for chaining.
+     */
+    public ReportWriter append(String text) {
+        this.line.append(text);
+        return this;
+    }
+
+    /**
+     * Appends a whole number to the current line.
+     *
+     * @param number The number to append.
+     * @return This writer, for chaining.
+     */
+    public ReportWriter append(long number) {
+        this.line.append(number);
+        return this;
+    }
+
+    /**
+     * Appends a date in the MM/dd/yyyy format to the current line, or "N/A" if the date is null.
+     *
+     * @param date The date to append.
+     * @return This writer, for chaining.
+     */
+    public ReportWriter appendDate(LocalDate date) {
+        if (date == null) {
+            this.line.append("N/A");
+            return this;
+        }
+        appendTwoDigits(date.getMonthValue()).line.append('/');
+        appendTwoDigits(date.getDayOfMonth()).line.append('/');
+        int year = date.getYear();
+        if (year >= 0 && year < 1000) {
+            this.line.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+        }
+        this.line.append(year);
+        return this;
+    }
+
+    /**
+     * Appends a fixed-point quantity to the current line.
+     *
+     * @param units The quantity in 10^-scale units.
+     * @param scale The number of decimal places of the units.
+     * @return This writer, for chaining.
+     */
+    public ReportWriter appendQuantity(long units, int scale) {
+        Quantities.appendTo(this.line, units, scale);
+        return this;
+    }
+
+    /**
+     * Writes the current line followed by a line separator, and starts a new line.
+     *
+     * @throws UncheckedIOException if the line cannot be written.
+     */
+    public void endLine() {
+        this.line.append(System.lineSeparator());
+        int length = this.line.length();
+        if (length > this.chars.length) {
+            this.chars = new char[Math.max(length, this.chars.length * 2)];
+        }
+        // Writer.append(CharSequence) would convert the builder to a new String for every line.
+        this.line.getChars(0, length, this.chars, 0);
+        try {
+            this.out.write(this.chars, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.line.setLength(0);
+        }
+    }
+
+    /**
+     * Writes a complete line of text.
+     *
+     * @param text The text of the line.
+     */
+    public void println(String text) {
+        append(text).endLine();
+    }
+
+    /**
+     * Flushes everything written so far to the destination, unless the writer holds flushes back for
+     * batch output.
+     *
+     * @throws UncheckedIOException if the destination cannot be written.
+     */
+    @Override
+    public void flush() {
+        if (this.flushReports) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Flushes everything written so far to the destination, even if the writer holds flushes back.
+     *
+     * @throws UncheckedIOException if the destination cannot be written.
+     */
+    public void flushBatch() {
+        try {
+            this.out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes and closes the destination.
+     *
+     * @throws IOException if the destination cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    /**
+     * Appends a number from 0 to 99 as exactly two digits.
+     *
+     * @param value The number to append.
+     * @return This writer, for chaining.
+     */
+    private ReportWriter appendTwoDigits(int value) {
+        this.line.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+        return this;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * The outcome of one stock movement applied to a ProductShelf: the change, the resulting quantity
+ * and the shelf version it produced. Versions increase by one with every movement of a shelf, so
+ * listeners that receive movements out of order, for example from several threads, can still tell
+ * which resulting quantity is the latest.
+ */
+final class StockMovement {
+    // The change in quantity, in the shelf's 10^-scale units.
+    private final long delta;
+    // The quantity on the shelf right after the movement.
+    private final long quantity;
+    // The shelf version produced by the movement.
+    private final long version;
+
+    /**
+     * Constructs a StockMovement.
+     *
+     * @param delta    The change in quantity.
+     * @param quantity The quantity on the shelf right after the movement.
+     * @param version  The shelf version produced by the movement.
+     */
+    public StockMovement(long delta, long quantity, long version) {
+        this.delta = delta;
+        this.quantity = quantity;
+        this.version = version;
+    }
+
+    /**
+     * Gets the change in quantity: positive for deliveries, negative for sales and shrinkage.
+     *
+     * @return The change in the shelf's 10^-scale units.
+     */
+    public long getDelta() {
+        return this.delta;
+    }
+
+    /**
+     * Gets the quantity on the shelf right after the movement.
+     *
+     * @return The resulting quantity in the shelf's 10^-scale units.
+     */
+    public long getQuantity() {
+        return this.quantity;
+    }
+
+    /**
+     * Gets the shelf version produced by the movement.
+     *
+     * @return The version, starting at 1 for the first movement of a shelf.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+}
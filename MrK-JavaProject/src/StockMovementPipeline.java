@@ -0,0 +1,442 @@
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ingests stock movement events, such as till scans, deliveries and shrinkage, at high rates and applies
+ * them to a ProductService in batches.
+ *
+ * Products are split into shards by ID. Each shard has a bounded StockMovementRing and one writer thread,
+ * so producers only ever enqueue into a lock-free ring and never wait for a shelf or the database,
+ * and all events of one product are applied by the same thread in the order they were queued.
+ * The writer drains up to BATCH_SIZE events at a time and adds up the deltas of each product in the
+ * batch, so a product scanned a hundred times in a burst costs one shelf update and one listener
+ * notification instead of a hundred.
+ *
+ * When a ring is full, offer drops the event and counts it, while submit waits for room; either way the
+ * producer learns at once that the pipeline is behind. Events that wait in a ring for longer than the
+ * lateness threshold are still applied, but counted as late. When the shelf cannot take a product's net
+ * movement, because the product does not exist or has too little stock, the product's events are applied
+ * one at a time in the order they were queued, and only those the shelf cannot take are counted as
+ * rejected. A movement that fails with any other exception, such as a log write that failed after the shelf
+ * had already changed or a read-only service, is not applied again: its events are counted as failed, so
+ * stock is never counted twice and one bad movement never stops a writer.
+ */
+class StockMovementPipeline implements Closeable {
+    // Largest number of events a writer drains and coalesces at a time.
+    public static final int BATCH_SIZE = 1024;
+    // Time a writer parks when its ring is empty, in case a producer's wake-up is missed.
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Time a producer parks in submit while the ring is full.
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // Service the movements are applied to.
+    private final ProductService service;
+    // Shards, indexed by the hash of the product ID.
+    private final Shard[] shards;
+    // Time after which an event that is still queued counts as late.
+    private final long lateAfterNanos;
+    // Set when the pipeline is closed; the writers then drain their rings and stop.
+    private volatile boolean closed;
+
+    // Events accepted into a ring.
+    private final LongAdder accepted = new LongAdder();
+    // Events turned away because their ring was full or the pipeline was closed.
+    private final LongAdder dropped = new LongAdder();
+    // Events applied after waiting longer than the lateness threshold.
+    private final LongAdder late = new LongAdder();
+    // Events merged into another event of the same product in the same batch.
+    private final LongAdder coalesced = new LongAdder();
+    // Net movements and single events applied to shelves.
+    private final LongAdder applied = new LongAdder();
+    // Events the service rejected.
+    private final LongAdder rejected = new LongAdder();
+    // Events whose movement failed for a reason other than the product or its stock.
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * What became of a movement handed to the service.
+     */
+    private enum Outcome {
+        // The shelf took the movement.
+        APPLIED,
+        // The product does not exist or its shelf has too little stock; the shelf is unchanged.
+        REJECTED,
+        // The movement failed otherwise, and the shelf may or may not have changed.
+        FAILED
+    }
+
+    /**
+     * Constructs a StockMovementPipeline and starts its writer threads.
+     *
+     * @param service        The service to apply the movements to.
+     * @param shardCount     The number of shards, each with its own ring and writer thread.
+     * @param ringCapacity   The number of events each ring can hold. Must be a power of two.
+     * @param lateAfterMillis The time after which a queued event counts as late.
+     * @throws IllegalArgumentException if the shard count is not positive or the capacity is not a power of two.
+     */
+    public StockMovementPipeline(ProductService service, int shardCount, int ringCapacity, long lateAfterMillis) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("A stock movement pipeline needs at least one shard.");
+        }
+        this.service = service;
+        this.lateAfterNanos = TimeUnit.MILLISECONDS.toNanos(lateAfterMillis);
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            this.shards[i] = new Shard(new StockMovementRing(ringCapacity));
+        }
+        for (int i = 0; i < shardCount; i++) {
+            Shard shard = this.shards[i];
+            shard.writer = new Thread(() -> runWriter(shard), "stock-movement-writer-" + i);
+            shard.writer.setDaemon(true);
+            shard.writer.start();
+        }
+    }
+
+    /**
+     * Queues a movement without waiting. If the shard's ring is full, the event is dropped and counted.
+     *
+     * @param productId The ID of the product whose shelf quantity changes.
+     * @param delta     The change in quantity in the shelf's 10^-scale units.
+     * @return true if the event was queued; false if it was dropped.
+     */
+    public boolean offer(int productId, long delta) {
+        Shard shard = shardOf(productId);
+        if (!this.closed && shard.ring.offer(productId, delta, System.nanoTime())) {
+            this.accepted.increment();
+            shard.wake();
+            return true;
+        }
+        this.dropped.increment();
+        return false;
+    }
+
+    /**
+     * Queues a movement, waiting for room while the shard's ring is full. This applies backpressure to
+     * producers that must not lose events, such as a file import.
+     *
+     * @param productId The ID of the product whose shelf quantity changes.
+     * @param delta     The change in quantity in the shelf's 10^-scale units.
+     * @throws InterruptedException  if the thread is interrupted while waiting.
+     * @throws IllegalStateException if the pipeline is closed.
+     */
+    public void submit(int productId, long delta) throws InterruptedException {
+        Shard shard = shardOf(productId);
+        while (true) {
+            if (this.closed) {
+                throw new IllegalStateException("The stock movement pipeline is closed.");
+            }
+            if (shard.ring.offer(productId, delta, System.nanoTime())) {
+                this.accepted.increment();
+                shard.wake();
+                return;
+            }
+            shard.wake();
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of events accepted into the rings.
+     *
+     * @return The number of accepted events.
+     */
+    public long getAcceptedCount() {
+        return this.accepted.sum();
+    }
+
+    /**
+     * Gets the number of events dropped because a ring was full or the pipeline was closed.
+     *
+     * @return The number of dropped events.
+     */
+    public long getDroppedCount() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Gets the number of events that waited longer than the lateness threshold before being applied.
+     *
+     * @return The number of late events.
+     */
+    public long getLateCount() {
+        return this.late.sum();
+    }
+
+    /**
+     * Gets the number of events merged into another event of the same product.
+     *
+     * @return The number of coalesced events.
+     */
+    public long getCoalescedCount() {
+        return this.coalesced.sum();
+    }
+
+    /**
+     * Gets the number of net movements applied to shelves, counting each event of a product whose net
+     * movement was rejected and that was then applied on its own.
+     *
+     * @return The number of shelf updates.
+     */
+    public long getAppliedCount() {
+        return this.applied.sum();
+    }
+
+    /**
+     * Gets the number of events the service rejected, because the product does not exist or its shelf had
+     * too little stock.
+     *
+     * @return The number of rejected events.
+     */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Gets the number of events whose movement failed for another reason, such as a log write that failed
+     * or a read-only service. Such a movement may have changed the shelf without being saved.
+     *
+     * @return The number of failed events.
+     */
+    public long getFailedCount() {
+        return this.failed.sum();
+    }
+
+    /**
+     * Gets the number of events waiting in the rings.
+     *
+     * @return The approximate number of queued events.
+     */
+    public int getPendingCount() {
+        int pending = 0;
+        for (Shard shard : this.shards) {
+            pending += shard.ring.size();
+        }
+        return pending;
+    }
+
+    /**
+     * Stops accepting events, waits for the writers to apply everything already queued and stops them.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        for (Shard shard : this.shards) {
+            LockSupport.unpark(shard.writer);
+        }
+        for (Shard shard : this.shards) {
+            try {
+                shard.writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the shard of a product, so that all events of a product go through the same ring.
+     *
+     * @param productId The product ID.
+     * @return The product's shard.
+     */
+    private Shard shardOf(int productId) {
+        int h = productId * 0x9E3779B9;
+        return this.shards[Math.floorMod(h ^ (h >>> 16), this.shards.length)];
+    }
+
+    /**
+     * Body of a writer thread: drains its ring in batches until the pipeline is closed and the ring is empty.
+     *
+     * @param shard The shard the thread writes for.
+     */
+    private void runWriter(Shard shard) {
+        Batch batch = new Batch();
+        while (true) {
+            int count = shard.ring.drainTo(batch.productIds, batch.deltas, batch.offeredNanos, BATCH_SIZE);
+            if (count > 0) {
+                apply(batch, count);
+                continue;
+            }
+            if (this.closed) {
+                if (shard.ring.size() == 0) {
+                    return;
+                }
+                continue;
+            }
+            shard.parked = true;
+            if (shard.ring.size() == 0 && !this.closed) { // Checked again after announcing the park.
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            shard.parked = false;
+        }
+    }
+
+    /**
+     * Adds up the deltas of each product in a drained batch and applies one movement per product. When the
+     * net movement of a product is rejected, its events are applied one by one instead; when it fails, they
+     * are all counted as failed.
+     *
+     * @param batch The drained events.
+     * @param count The number of events in the batch.
+     */
+    private void apply(Batch batch, int count) {
+        long now = System.nanoTime();
+        int lateEvents = 0;
+        for (int i = 0; i < count; i++) {
+            if (now - batch.offeredNanos[i] > this.lateAfterNanos) {
+                lateEvents++;
+            }
+        }
+        int products = batch.coalesce(count);
+        for (int i = 0; i < products; i++) {
+            long delta = batch.netDeltas[i];
+            if (delta == 0) {
+                continue; // Movements that cancel out leave the shelf as it was.
+            }
+            Outcome outcome = applyMovement(batch.netProductIds[i], delta);
+            if (outcome == Outcome.APPLIED) {
+                this.applied.increment();
+            } else if (outcome == Outcome.FAILED) {
+                this.failed.add(batch.eventCounts[i]);
+            } else if (batch.eventCounts[i] == 1) {
+                this.rejected.increment();
+            } else {
+                applyEach(batch, count, batch.netProductIds[i]);
+            }
+        }
+        this.late.add(lateEvents);
+        this.coalesced.add(count - products);
+    }
+
+    /**
+     * Applies the events of one product in a batch one at a time, in the order they were queued, after
+     * their net movement was rejected. Each event the service takes is applied; the others are rejected,
+     * or failed if they failed otherwise.
+     *
+     * @param batch     The drained events.
+     * @param count     The number of events in the batch.
+     * @param productId The ID of the product.
+     */
+    private void applyEach(Batch batch, int count, int productId) {
+        for (int i = 0; i < count; i++) {
+            if (batch.productIds[i] != productId) {
+                continue;
+            }
+            Outcome outcome = applyMovement(productId, batch.deltas[i]);
+            if (outcome == Outcome.APPLIED) {
+                this.applied.increment();
+            } else if (outcome == Outcome.REJECTED) {
+                this.rejected.increment();
+            } else {
+                this.failed.increment();
+            }
+        }
+    }
+
+    /**
+     * Applies one movement to the service. Only a missing product or too little stock leaves the shelf
+     * as it was; any other exception is caught as a failure, so that it does not stop the writer thread.
+     *
+     * @param productId The product ID.
+     * @param delta     The change in quantity in the shelf's 10^-scale units.
+     * @return What became of the movement.
+     */
+    private Outcome applyMovement(int productId, long delta) {
+        try {
+            return this.service.applyStockMovement(productId, delta) != null ? Outcome.APPLIED : Outcome.REJECTED;
+        } catch (IllegalArgumentException e) {
+            return Outcome.REJECTED;
+        } catch (RuntimeException e) {
+            return Outcome.FAILED;
+        }
+    }
+
+    /**
+     * A ring and the thread that writes its events.
+     */
+    private static final class Shard {
+        // Events queued for this shard.
+        final StockMovementRing ring;
+        // Thread that applies the events.
+        Thread writer;
+        // Set while the writer is about to park or parked on an empty ring.
+        volatile boolean parked;
+
+        Shard(StockMovementRing ring) {
+            this.ring = ring;
+        }
+
+        /**
+         * Wakes the writer if it is parked on an empty ring.
+         */
+        void wake() {
+            if (this.parked) {
+                LockSupport.unpark(this.writer);
+            }
+        }
+    }
+
+    /**
+     * Scratch arrays of one writer: the drained events and their per-product sums. Reused for every batch.
+     */
+    private static final class Batch {
+        // Number of hash slots for coalescing, twice the batch size.
+        private static final int SLOTS = BATCH_SIZE * 2;
+
+        // Drained events.
+        final int[] productIds = new int[BATCH_SIZE];
+        final long[] deltas = new long[BATCH_SIZE];
+        final long[] offeredNanos = new long[BATCH_SIZE];
+        // Distinct products of the batch in order of first appearance, with their summed deltas and event counts.
+        final int[] netProductIds = new int[BATCH_SIZE];
+        final long[] netDeltas = new long[BATCH_SIZE];
+        final int[] eventCounts = new int[BATCH_SIZE];
+        // Hash slots mapping a product ID to (its index in the net arrays + 1), or 0 when empty.
+        private final int[] slots = new int[SLOTS];
+
+        /**
+         * Adds up the deltas of the drained events per product.
+         *
+         * @param count The number of drained events.
+         * @return The number of distinct products.
+         */
+        int coalesce(int count) {
+            int products = 0;
+            for (int i = 0; i < count; i++) {
+                int id = this.productIds[i];
+                int h = id * 0x9E3779B9;
+                int slot = (h ^ (h >>> 16)) & (SLOTS - 1);
+                int entry;
+                while ((entry = this.slots[slot]) != 0 && this.netProductIds[entry - 1] != id) {
+                    slot = (slot + 1) & (SLOTS - 1);
+                }
+                if (entry == 0) {
+                    this.slots[slot] = products + 1;
+                    this.netProductIds[products] = id;
+                    this.netDeltas[products] = this.deltas[i];
+                    this.eventCounts[products] = 1;
+                    products++;
+                } else {
+                    this.netDeltas[entry - 1] += this.deltas[i];
+                    this.eventCounts[entry - 1]++;
+                }
+            }
+            // Clears only the slots used by this batch.
+            for (int i = 0; i < products; i++) {
+                int id = this.netProductIds[i];
+                int h = id * 0x9E3779B9;
+                int slot = (h ^ (h >>> 16)) & (SLOTS - 1);
+                while (this.slots[slot] != 0) {
+                    this.slots[slot] = 0;
+                    slot = (slot + 1) & (SLOTS - 1);
+                }
+            }
+            return products;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free multi-producer multi-consumer queue of stock movement events,
+ * after Dmitry Vyukov's bounded MPMC queue.
+ *
+ * Events are held in preallocated primitive arrays, so enqueuing allocates nothing. Every slot has a
+ * sequence number that tells whether it is free for the producer of a given position or filled for the
+ * consumer of that position. A producer claims a position with one compare-and-set on the tail, writes
+ * the event and releases it by advancing the slot's sequence; a consumer does the same on the head.
+ * Producers and consumers only contend on their own counter, and a full queue is reported at once
+ * instead of blocking, so the caller decides whether to wait or drop the event.
+ */
+final class StockMovementRing {
+    // Gives release/acquire access to the slot sequence numbers.
+    private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // Sequence number of each slot: the position it can be written at, or that position + 1 once filled.
+    private final long[] sequences;
+    // Product ID of each queued event.
+    private final int[] productIds;
+    // Quantity change of each queued event.
+    private final long[] deltas;
+    // System.nanoTime() at which each queued event was offered.
+    private final long[] offeredNanos;
+    // Capacity - 1, for wrapping positions to slots.
+    private final int mask;
+    // Next position to write.
+    private final AtomicLong tail = new AtomicLong();
+    // Next position to read.
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Constructs an empty StockMovementRing.
+     *
+     * @param capacity The number of events the ring can hold. Must be a power of two.
+     * @throws IllegalArgumentException if the capacity is not a power of two of at least 2.
+     */
+    public StockMovementRing(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two of at least 2.");
+        }
+        this.sequences = new long[capacity];
+        this.productIds = new int[capacity];
+        this.deltas = new long[capacity];
+        this.offeredNanos = new long[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            this.sequences[i] = i;
+        }
+    }
+
+    /**
+     * Adds an event to the ring if there is room.
+     *
+     * @param productId    The product ID.
+     * @param delta        The quantity change.
+     * @param offeredNanos The System.nanoTime() at which the event was offered.
+     * @return true if the event was added; false if the ring is full.
+     */
+    public boolean offer(int productId, long delta, long offeredNanos) {
+        long position = this.tail.get();
+        while (true) {
+            int slot = (int) position & this.mask;
+            long sequence = (long) SEQUENCES.getAcquire(this.sequences, slot);
+            long difference = sequence - position;
+            if (difference == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    this.productIds[slot] = productId;
+                    this.deltas[slot] = delta;
+                    this.offeredNanos[slot] = offeredNanos;
+                    SEQUENCES.setRelease(this.sequences, slot, position + 1);
+                    return true;
+                }
+                position = this.tail.get();
+            } else if (difference < 0) {
+                return false; // The slot still holds the event of the previous lap.
+            } else {
+                position = this.tail.get(); // Another producer took this position.
+            }
+        }
+    }
+
+    /**
+     * Removes up to max events from the ring and copies them into the given arrays.
+     *
+     * @param productIds   Receives the product IDs.
+     * @param deltas       Receives the quantity changes.
+     * @param offeredNanos Receives the times the events were offered.
+     * @param max          The largest number of events to remove.
+     * @return The number of events removed, 0 if the ring was empty.
+     */
+    public int drainTo(int[] productIds, long[] deltas, long[] offeredNanos, int max) {
+        int count = 0;
+        long position = this.head.get();
+        while (count < max) {
+            int slot = (int) position & this.mask;
+            long sequence = (long) SEQUENCES.getAcquire(this.sequences, slot);
+            long difference = sequence - (position + 1);
+            if (difference == 0) {
+                if (this.head.compareAndSet(position, position + 1)) {
+                    productIds[count] = this.productIds[slot];
+                    deltas[count] = this.deltas[slot];
+                    offeredNanos[count] = this.offeredNanos[slot];
+                    count++;
+                    SEQUENCES.setRelease(this.sequences, slot, position + this.mask + 1);
+                    position++;
+                } else {
+                    position = this.head.get();
+                }
+            } else if (difference < 0) {
+                break; // The slot has not been filled yet.
+            } else {
+                position = this.head.get(); // Another consumer took this position.
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of queued events. The count is approximate while producers or consumers are active.
+     *
+     * @return The number of events in the ring.
+     */
+    public int size() {
+        long size = this.tail.get() - this.head.get();
+        return (int) Math.max(0, Math.min(size, this.mask + 1));
+    }
+
+    /**
+     * Gets the number of events the ring can hold.
+     *
+     * @return The capacity.
+     */
+    public int capacity() {
+        return this.mask + 1;
+    }
+}
@@ -0,0 +1,425 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * The catalog of a chain of stores, sharded by store ID.
+ *
+ * Every store is a shard with its own Database and ProductService, so it has its own indexes, its own
+ * write lock and its own refill set, and work in one store never contends with work in another.
+ * Chain-wide reports fan out to all stores in parallel on a fork/join pool and merge the per-store
+ * results, so they scale with the number of cores as the number of stores grows.
+ *
+ * The catalog is a library for now: the application runs a single store, and neither the menu, the
+ * batch mode nor the HTTP API selects a store by ID. Its stores are held in memory only, as a DurableStore
+ * persists one Database; bench/StoreCatalogScaling measures the chain-wide reports.
+ */
+class StoreCatalog {
+    // Stores by store ID.
+    private final Map<Integer, ProductService> stores = new ConcurrentHashMap<>();
+    // Database of each store by store ID, for wiring per-store listeners and counting products.
+    private final Map<Integer, Database> databases = new ConcurrentHashMap<>();
+    // Writer shared by the stores for their messages and reports.
+    private final ReportWriter report;
+    // Clock shared by the stores.
+    private final Clock clock;
+    // Pool the chain-wide reports run on.
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs an empty StoreCatalog whose chain-wide reports run on the common fork/join pool.
+     *
+     * @param report The writer the stores write their messages and reports to.
+     * @param clock  The clock the stores' date-based reports use.
+     */
+    public StoreCatalog(ReportWriter report, Clock clock) {
+        this(report, clock, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs an empty StoreCatalog whose chain-wide reports run on a given fork/join pool.
+     *
+     * @param report The writer the stores write their messages and reports to.
+     * @param clock  The clock the stores' date-based reports use.
+     * @param pool   The pool to run chain-wide reports on.
+     */
+    public StoreCatalog(ReportWriter report, Clock clock, ForkJoinPool pool) {
+        this.report = report;
+        this.clock = clock;
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the service of a store, creating the store with an empty database if it does not exist yet.
+     *
+     * @param storeId The store ID.
+     * @return The store's service.
+     */
+    public ProductService openStore(int storeId) {
+        return this.stores.computeIfAbsent(storeId, id -> {
+            Database database = new Database();
+            this.databases.put(id, database);
+            return new ProductService(database, this.report, this.clock);
+        });
+    }
+
+    /**
+     * Gets the database of an existing store, for example to attach a pricing engine or scheduler to it.
+     *
+     * @param storeId The store ID.
+     * @return The store's database, or null if there is no store with that ID.
+     */
+    public Database getDatabase(int storeId) {
+        return this.databases.get(storeId);
+    }
+
+    /**
+     * Gets the service of an existing store.
+     *
+     * @param storeId The store ID.
+     * @return The store's service, or null if there is no store with that ID.
+     */
+    public ProductService getStore(int storeId) {
+        return this.stores.get(storeId);
+    }
+
+    /**
+     * Gets the IDs of all stores.
+     *
+     * @return The store IDs in ascending order.
+     */
+    public int[] getStoreIds() {
+        int[] ids = new int[this.stores.size()];
+        int count = 0;
+        for (Integer id : this.stores.keySet()) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2 + 1); // A store was opened while copying.
+            }
+            ids[count++] = id;
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Gets the number of stores.
+     *
+     * @return The number of stores.
+     */
+    public int getStoreCount() {
+        return this.stores.size();
+    }
+
+    /**
+     * Runs a query against every store in parallel and collects the results by store.
+     *
+     * @param query The query to run against each store's service.
+     * @param <T>   The type of the per-store result.
+     * @return The result of every store, ordered by store ID.
+     */
+    public <T> SortedMap<Integer, T> queryAllStores(Function<ProductService, T> query) {
+        int[] storeIds = getStoreIds();
+        ProductService[] services = new ProductService[storeIds.length];
+        for (int i = 0; i < storeIds.length; i++) {
+            services[i] = this.stores.get(storeIds[i]);
+        }
+        Object[] results = new Object[storeIds.length];
+        this.pool.invoke(new StoreQuery(services, results, query, 0, services.length));
+
+        SortedMap<Integer, T> byStore = new TreeMap<>();
+        for (int i = 0; i < storeIds.length; i++) {
+            @SuppressWarnings("unchecked")
+            T result = (T) results[i];
+            byStore.put(storeIds[i], result);
+        }
+        return byStore;
+    }
+
+    /**
+     * Finds the expired products of every store.
+     *
+     * @param today The current date.
+     * @return The expired products of each store, ordered by store ID and then by expiry date.
+     */
+    public SortedMap<Integer, List<Product>> findExpiredProducts(LocalDate today) {
+        return queryAllStores(service -> service.findExpiredProducts(today));
+    }
+
+    /**
+     * Finds the products in their markdown period in every store.
+     *
+     * @param today The current date.
+     * @return The products in markdown in each store, ordered by store ID and then by markdown date.
+     */
+    public SortedMap<Integer, List<Product>> findProductsInMarkDown(LocalDate today) {
+        return queryAllStores(service -> service.findProductsInMarkDown(today));
+    }
+
+    /**
+     * Gets the number of products across all stores.
+     *
+     * @return The total number of products.
+     */
+    public long getProductCount() {
+        long count = 0;
+        for (Database database : this.databases.values()) {
+            count += database.getProductCount();
+        }
+        return count;
+    }
+
+    /**
+     * Adds up, for every product, the quantity needed to refill its shelves across all stores.
+     * Each store totals its own refill set, and the sorted per-store totals are merged pairwise
+     * in parallel, so the merge runs on primitive arrays without boxing product IDs or quantities.
+     *
+     * @return The chain-wide refill totals, ordered by product ID.
+     */
+    public RefillTotals totalRefillQuantities() {
+        int[] storeIds = getStoreIds();
+        ProductService[] services = new ProductService[storeIds.length];
+        for (int i = 0; i < storeIds.length; i++) {
+            services[i] = this.stores.get(storeIds[i]);
+        }
+        return this.pool.invoke(new RefillMerge(services, 0, services.length));
+    }
+
+    /**
+     * Refill quantities per product ID, held in parallel primitive arrays sorted by product ID.
+     * When stores keep a product at different scales, its total uses the largest of them.
+     */
+    static class RefillTotals {
+        // Product IDs in ascending order.
+        private final int[] productIds;
+        // Total refill quantity of each product, in 10^-scale units.
+        private final long[] quantities;
+        // Scale of each total.
+        private final byte[] scales;
+        // Number of products.
+        private final int size;
+
+        /**
+         * Constructs RefillTotals from filled arrays.
+         *
+         * @param productIds The product IDs in ascending order.
+         * @param quantities The total of each product.
+         * @param scales     The scale of each total.
+         * @param size       The number of products.
+         */
+        private RefillTotals(int[] productIds, long[] quantities, byte[] scales, int size) {
+            this.productIds = productIds;
+            this.quantities = quantities;
+            this.scales = scales;
+            this.size = size;
+        }
+
+        /**
+         * Totals the refill quantities of one store.
+         *
+         * @param service The store's service.
+         * @return The store's totals.
+         */
+        private static RefillTotals of(ProductService service) {
+            List<Product> products = service.findProductsToRefill(); // Already ordered by product ID.
+            int[] ids = new int[products.size()];
+            long[] quantities = new long[products.size()];
+            byte[] scales = new byte[products.size()];
+            int size = 0;
+            for (Product product : products) {
+                ProductShelf shelf = product.getProductShelf();
+                long quantity = ProductShelfService.quantityToRefill(shelf);
+                if (quantity > 0) {
+                    ids[size] = product.getId();
+                    quantities[size] = quantity;
+                    scales[size] = (byte) shelf.getScale();
+                    size++;
+                }
+            }
+            return new RefillTotals(ids, quantities, scales, size);
+        }
+
+        /**
+         * Merges two sets of totals, adding the quantities of products present in both.
+         *
+         * @param a The first totals.
+         * @param b The second totals.
+         * @return The merged totals.
+         */
+        private static RefillTotals merge(RefillTotals a, RefillTotals b) {
+            int capacity = a.size + b.size;
+            int[] ids = new int[capacity];
+            long[] quantities = new long[capacity];
+            byte[] scales = new byte[capacity];
+            int i = 0;
+            int j = 0;
+            int size = 0;
+            while (i < a.size || j < b.size) {
+                if (j == b.size || (i < a.size && a.productIds[i] < b.productIds[j])) {
+                    ids[size] = a.productIds[i];
+                    quantities[size] = a.quantities[i];
+                    scales[size++] = a.scales[i++];
+                } else if (i == a.size || b.productIds[j] < a.productIds[i]) {
+                    ids[size] = b.productIds[j];
+                    quantities[size] = b.quantities[j];
+                    scales[size++] = b.scales[j++];
+                } else {
+                    int scale = Math.max(a.scales[i], b.scales[j]);
+                    ids[size] = a.productIds[i];
+                    quantities[size] = Math.addExact(Quantities.rescale(a.quantities[i], a.scales[i], scale),
+                            Quantities.rescale(b.quantities[j], b.scales[j], scale));
+                    scales[size++] = (byte) scale;
+                    i++;
+                    j++;
+                }
+            }
+            return new RefillTotals(ids, quantities, scales, size);
+        }
+
+        /**
+         * Gets the number of products that need refilling in at least one store.
+         *
+         * @return The number of products.
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Gets the product ID at a position.
+         *
+         * @param index The position, from 0 to size() - 1.
+         * @return The product ID.
+         */
+        public int getProductId(int index) {
+            return this.productIds[index];
+        }
+
+        /**
+         * Gets the total refill quantity at a position.
+         *
+         * @param index The position, from 0 to size() - 1.
+         * @return The total quantity in 10^-scale units.
+         */
+        public long getQuantity(int index) {
+            return this.quantities[index];
+        }
+
+        /**
+         * Gets the scale of the total at a position.
+         *
+         * @param index The position, from 0 to size() - 1.
+         * @return The number of decimal places of the total.
+         */
+        public int getScale(int index) {
+            return this.scales[index];
+        }
+    }
+
+    /**
+     * Runs a query against a range of stores, splitting the range in half until one store is left.
+     */
+    private static class StoreQuery extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        // Services of all stores.
+        private final ProductService[] services;
+        // Result of each store, filled in by the tasks.
+        private final Object[] results;
+        // Query to run.
+        private final Function<ProductService, ?> query;
+        // Index of the first store of the range.
+        private final int from;
+        // Index after the last store of the range.
+        private final int to;
+
+        /**
+         * Constructs a StoreQuery.
+         *
+         * @param services The services of all stores.
+         * @param results  The array receiving the result of each store.
+         * @param query    The query to run.
+         * @param from     The index of the first store of the range.
+         * @param to       The index after the last store of the range.
+         */
+        StoreQuery(ProductService[] services, Object[] results, Function<ProductService, ?> query, int from, int to) {
+            this.services = services;
+            this.results = results;
+            this.query = query;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Runs the query against the range of stores.
+         *
+         * @return Nothing.
+         */
+        @Override
+        protected Void compute() {
+            if (this.to - this.from > 1) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new StoreQuery(this.services, this.results, this.query, this.from, middle),
+                        new StoreQuery(this.services, this.results, this.query, middle, this.to));
+            } else if (this.to > this.from) {
+                this.results[this.from] = this.query.apply(this.services[this.from]);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Totals the refill quantities of a range of stores, splitting the range in half and merging the halves.
+     */
+    private static class RefillMerge extends RecursiveTask<RefillTotals> {
+        private static final long serialVersionUID = 1L;
+
+        // Services of all stores.
+        private final ProductService[] services;
+        // Index of the first store of the range.
+        private final int from;
+        // Index after the last store of the range.
+        private final int to;
+
+        /**
+         * Constructs a RefillMerge.
+         *
+         * @param services The services of all stores.
+         * @param from     The index of the first store of the range.
+         * @param to       The index after the last store of the range.
+         */
+        RefillMerge(ProductService[] services, int from, int to) {
+            this.services = services;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Totals the range of stores.
+         *
+         * @return The merged totals of the range.
+         */
+        @Override
+        protected RefillTotals compute() {
+            if (this.to - this.from == 0) {
+                return new RefillTotals(new int[0], new long[0], new byte[0], 0);
+            }
+            if (this.to - this.from == 1) {
+                return RefillTotals.of(this.services[this.from]);
+            }
+            int middle = (this.from + this.to) >>> 1;
+            RefillMerge left = new RefillMerge(this.services, this.from, middle);
+            left.fork();
+            RefillTotals right = new RefillMerge(this.services, middle, this.to).compute();
+            return RefillTotals.merge(left.join(), right);
+        }
+    }
+}
@@ -0,0 +1,614 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of product mutations with group commit.
+ *
+ * Appending an entry only copies it into an in-memory batch and assigns it a log sequence number (LSN).
+ * A background thread writes the batch to the current segment file and forces it to disk with one fsync
+ * once the batch reaches commitBatchBytes or its oldest entry has waited commitDelayMillis, whichever
+ * comes first. Callers that need durability wait for their LSN with awaitDurable, so many concurrent
+ * writers share a single fsync.
+ *
+ * The log is split into segment files named after the first LSN they may contain. Only the committing
+ * thread writes, forces, closes and opens segments, so a rotation is carried out by that thread between
+ * two batches: the batch it takes when the rotation is requested is the last one written to the old
+ * segment, and the next segment is named after the LSN that follows it. Layout of an entry
+ * (all numbers big-endian):
+ * <pre>
+ *   size  field
+ *      4  payload length
+ *      8  LSN
+ *      1  entry type
+ *      n  payload
+ *      4  CRC32 of the LSN, type and payload
+ * </pre>
+ */
+class WriteAheadLog implements WriteAheadLogMXBean, Closeable {
+    // Entry type of a created product. The payload is a ProductRecord.
+    public static final byte CREATE = 1;
+    // Entry type of a stock movement. The payload is the product ID, the delta and the resulting quantity.
+    public static final byte STOCK = 2;
+    // Entry type of a barcode assigned to a product. The payload is the product ID and the GTIN.
+    public static final byte BARCODE = 3;
+
+    // Bytes of an entry other than its payload.
+    private static final int ENTRY_OVERHEAD = 4 + 8 + 1 + 4;
+    // Prefix of segment file names.
+    private static final String SEGMENT_PREFIX = "wal-";
+    // Suffix of segment file names.
+    private static final String SEGMENT_SUFFIX = ".log";
+    // Appended to the name of a segment whose only contents were torn by a crash.
+    private static final String TORN_SUFFIX = ".torn";
+
+    /**
+     * Receives the entries of the log during replay.
+     */
+    interface EntryHandler {
+
+        /**
+         * Called for each valid entry, in LSN order.
+         *
+         * @param lsn     The log sequence number of the entry.
+         * @param type    The entry type.
+         * @param payload The payload, positioned at its first byte.
+         */
+        void entry(long lsn, byte type, ByteBuffer payload);
+    }
+
+    // Directory holding the segment files.
+    private final Path directory;
+    // Maximum time an entry waits in the batch before it is committed.
+    private final long commitDelayNanos;
+    // Batch size in bytes that triggers a commit without waiting for the delay.
+    private final int commitBatchBytes;
+
+    // Guards the batch, the current segment and the LSN counters.
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when entries are added to the batch, or on rotation and close.
+    private final Condition batchReady = this.lock.newCondition();
+    // Signalled when the durable LSN advances, a rotation completes or a commit fails.
+    private final Condition committed = this.lock.newCondition();
+
+    // Checksum calculator reused for every appended entry.
+    private final CRC32 crc = new CRC32();
+    // Entries appended but not yet written. Swapped with spare by the committing thread.
+    private ByteBuffer batch;
+    // Second buffer, written to disk while new entries fill the batch.
+    private ByteBuffer spare;
+    // Time the oldest entry in the batch was appended.
+    private long batchStartNanos;
+    // Number of entries in the batch.
+    private int batchEntries;
+    // Segment file currently written to. Only used by the committing thread once it has started.
+    private FileChannel segment;
+    // LSN assigned to the last appended entry.
+    private long lastLsn;
+    // Highest LSN that has been forced to disk.
+    private long durableLsn;
+    // Set when a commit fails; all later waits fail with it.
+    private IOException failure;
+    // Set while a close waits for the batch to be committed without delay.
+    private boolean flushRequested;
+    // Number of rotations requested so far. A rotation is pending while it exceeds rotationsDone.
+    private long rotationsRequested;
+    // Number of the last rotation request the committing thread has carried out.
+    private long rotationsDone;
+    // LSN of the last entry written to the segment closed by the last rotation.
+    private long rotatedLsn;
+    // Set when the log is closed.
+    private boolean closed;
+    // Background thread that commits batches.
+    private final Thread committer;
+
+    // Number of group commits, i.e. fsync calls.
+    private long commitCount;
+    // Number of entries committed.
+    private long committedEntries;
+    // Total time spent writing and forcing batches.
+    private long totalCommitNanos;
+    // Longest time spent writing and forcing one batch.
+    private long maxCommitNanos;
+
+    /**
+     * Opens the log in a directory. Existing segments are left for replay, and new entries are
+     * written to a fresh segment starting after the given LSN.
+     *
+     * @param directory        The directory holding the segment files.
+     * @param lastLsn          The highest LSN already used, for example as found by replay.
+     * @param commitDelayMillis The maximum time an entry waits before its batch is committed.
+     * @param commitBatchBytes The batch size in bytes that triggers an immediate commit.
+     * @throws IOException if the directory or the new segment cannot be created.
+     */
+    public WriteAheadLog(Path directory, long lastLsn, long commitDelayMillis, int commitBatchBytes) throws IOException {
+        if (commitDelayMillis < 0 || commitBatchBytes <= 0) {
+            throw new IllegalArgumentException("Commit delay cannot be negative and batch size must be positive.");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.commitDelayNanos = TimeUnit.MILLISECONDS.toNanos(commitDelayMillis);
+        this.commitBatchBytes = commitBatchBytes;
+        this.batch = ByteBuffer.allocate(commitBatchBytes * 2);
+        this.spare = ByteBuffer.allocate(commitBatchBytes * 2);
+        this.lastLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        this.segment = openSegment(lastLsn + 1);
+        this.committer = new Thread(this::runCommitter, "wal-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Appends an entry to the current batch without waiting for it to be committed.
+     *
+     * @param type    The entry type.
+     * @param payload The payload, read from its position to its limit.
+     * @return The LSN assigned to the entry.
+     * @throws IOException if an earlier commit failed or the log is closed.
+     */
+    public long append(byte type, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        this.lock.lock();
+        try {
+            checkOpen();
+            if (this.batch.remaining() < length + ENTRY_OVERHEAD) {
+                growBatch(length + ENTRY_OVERHEAD);
+            }
+            long lsn = ++this.lastLsn;
+            int start = this.batch.position();
+            this.batch.putInt(length).putLong(lsn).put(type).put(payload);
+            this.crc.reset();
+            this.crc.update(this.batch.array(), start + 4, 8 + 1 + length);
+            this.batch.putInt((int) this.crc.getValue());
+            if (this.batchEntries++ == 0) {
+                this.batchStartNanos = System.nanoTime();
+            }
+            this.batchReady.signal();
+            return lsn;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every entry up to the given LSN has been forced to disk.
+     *
+     * @param lsn The LSN to wait for.
+     * @throws IOException if the commit failed, the log was closed first, or the thread was interrupted.
+     */
+    public void awaitDurable(long lsn) throws IOException {
+        this.lock.lock();
+        try {
+            while (this.durableLsn < lsn) {
+                if (this.failure != null) {
+                    throw new IOException("Write-ahead log commit failed.", this.failure);
+                }
+                if (this.closed) {
+                    throw new IOException("Write-ahead log is closed.");
+                }
+                this.committed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the write-ahead log.");
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Commits everything appended so far and starts a new segment. Segments written before the
+     * rotation only hold entries up to the returned LSN, so they can be deleted with deleteSegmentsUpTo
+     * once a snapshot covers that LSN. Appends go on while the rotation waits for the committing thread;
+     * the entries appended after it took its last batch for the old segment go to the new one.
+     *
+     * @return The LSN of the last entry in the old segments, at least the last LSN appended before the call.
+     * @throws IOException if the commit or the new segment fails, the log is closed, or the thread is interrupted.
+     */
+    public long rotate() throws IOException {
+        this.lock.lock();
+        try {
+            checkOpen();
+            long request = ++this.rotationsRequested;
+            this.batchReady.signal();
+            while (this.rotationsDone < request) {
+                checkOpen();
+                this.committed.await();
+            }
+            return this.rotatedLsn;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the write-ahead log to rotate.");
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments that only hold entries up to the given LSN. The current segment is never deleted.
+     *
+     * @param lsn The LSN covered by a snapshot.
+     * @throws IOException if a segment cannot be deleted.
+     */
+    public void deleteSegmentsUpTo(long lsn) throws IOException {
+        List<Path> segments = listSegments(this.directory);
+        // A segment holds LSNs from its own first LSN up to the first LSN of the next segment.
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstLsnOf(segments.get(i + 1)) <= lsn + 1) {
+                Files.delete(segments.get(i));
+            }
+        }
+    }
+
+    /**
+     * Reads every valid entry in the segments of a directory, in LSN order. Reading a segment stops
+     * at the first torn or corrupt entry, which can only be the unfinished tail of a crash.
+     *
+     * @param directory The directory holding the segment files.
+     * @param afterLsn  Entries with an LSN up to this value are skipped.
+     * @param handler   Receives the entries.
+     * @return The highest LSN found, or afterLsn if there were no newer entries.
+     * @throws IOException if a segment cannot be read.
+     */
+    public static long replay(Path directory, long afterLsn, EntryHandler handler) throws IOException {
+        long lastLsn = afterLsn;
+        if (!Files.isDirectory(directory)) {
+            return lastLsn;
+        }
+        CRC32 crc = new CRC32();
+        for (Path path : listSegments(directory)) {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+            while (data.remaining() >= ENTRY_OVERHEAD) {
+                int start = data.position();
+                int length = data.getInt();
+                if (length < 0 || data.remaining() < length + ENTRY_OVERHEAD - 4) {
+                    break;
+                }
+                crc.reset();
+                crc.update(data.array(), start + 4, 8 + 1 + length);
+                long lsn = data.getLong();
+                byte type = data.get();
+                ByteBuffer payload = data.slice().limit(length);
+                data.position(data.position() + length);
+                if (data.getInt() != (int) crc.getValue()) {
+                    break;
+                }
+                if (lsn > lastLsn) {
+                    handler.entry(lsn, type, payload);
+                    lastLsn = lsn;
+                }
+            }
+        }
+        return lastLsn;
+    }
+
+    /**
+     * Gets the number of group commits performed, each ending in one fsync.
+     *
+     * @return The number of commits.
+     */
+    @Override
+    public long getCommitCount() {
+        this.lock.lock();
+        try {
+            return this.commitCount;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of entries committed.
+     *
+     * @return The number of committed entries.
+     */
+    @Override
+    public long getCommittedEntries() {
+        this.lock.lock();
+        try {
+            return this.committedEntries;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the average number of entries per group commit.
+     *
+     * @return The average batch size, or 0 if nothing has been committed.
+     */
+    @Override
+    public double getAverageBatchSize() {
+        this.lock.lock();
+        try {
+            return this.commitCount == 0 ? 0 : (double) this.committedEntries / this.commitCount;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the average time spent writing and forcing one batch.
+     *
+     * @return The average commit latency in microseconds, or 0 if nothing has been committed.
+     */
+    @Override
+    public double getAverageCommitMicros() {
+        this.lock.lock();
+        try {
+            return this.commitCount == 0 ? 0 : this.totalCommitNanos / 1000.0 / this.commitCount;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the longest time spent writing and forcing one batch.
+     *
+     * @return The maximum commit latency in microseconds.
+     */
+    @Override
+    public double getMaxCommitMicros() {
+        this.lock.lock();
+        try {
+            return this.maxCommitNanos / 1000.0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Summarizes the commit metrics of the log.
+     *
+     * @return A one-line description of the metrics.
+     */
+    @Override
+    public String toString() {
+        return String.format("WAL: %d commits, %d entries, %.1f entries/commit, avg %.1f us, max %.1f us",
+                getCommitCount(), getCommittedEntries(), getAverageBatchSize(),
+                getAverageCommitMicros(), getMaxCommitMicros());
+    }
+
+    /**
+     * Commits everything appended so far, stops the committing thread and closes the current segment.
+     *
+     * @throws IOException if the final commit fails.
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            flush();
+            this.closed = true;
+            this.batchReady.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.segment.close();
+    }
+
+    /**
+     * Body of the committing thread: waits for a batch to fill up or age, or for a rotation, then writes
+     * and forces the batch and, for a rotation, closes the segment and opens the next one.
+     */
+    private void runCommitter() {
+        while (true) {
+            ByteBuffer toWrite;
+            int entries;
+            long lsn;
+            long rotation;
+            this.lock.lock();
+            try {
+                while (!batchDue()) {
+                    if (this.closed) {
+                        return;
+                    }
+                    if (this.batchEntries == 0) {
+                        this.batchReady.awaitUninterruptibly();
+                    } else {
+                        long waited = System.nanoTime() - this.batchStartNanos;
+                        awaitBatch(this.commitDelayNanos - waited);
+                    }
+                }
+                toWrite = this.batch;
+                this.batch = this.spare;
+                this.spare = toWrite;
+                entries = this.batchEntries;
+                this.batchEntries = 0;
+                lsn = this.lastLsn;
+                rotation = this.rotationsRequested;
+            } finally {
+                this.lock.unlock();
+            }
+
+            long start = System.nanoTime();
+            IOException error = null;
+            try {
+                toWrite.flip();
+                while (toWrite.hasRemaining()) {
+                    this.segment.write(toWrite);
+                }
+                if (entries > 0) {
+                    this.segment.force(false);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            toWrite.clear();
+            long elapsed = System.nanoTime() - start;
+            boolean rotating = rotation > this.rotationsDone;
+            if (error == null && rotating) {
+                try {
+                    this.segment.close();
+                    this.segment = openSegment(lsn + 1);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+
+            this.lock.lock();
+            try {
+                if (error != null) {
+                    this.failure = error;
+                } else {
+                    this.durableLsn = lsn;
+                    if (entries > 0) {
+                        this.commitCount++;
+                        this.committedEntries += entries;
+                        this.totalCommitNanos += elapsed;
+                        this.maxCommitNanos = Math.max(this.maxCommitNanos, elapsed);
+                    }
+                    if (rotating) {
+                        this.rotatedLsn = lsn;
+                        this.rotationsDone = rotation;
+                    }
+                }
+                this.committed.signalAll();
+                if (error != null) {
+                    return;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the batch should be committed now. Must be called with the lock held.
+     *
+     * @return true if a rotation is pending, or the batch is full enough or old enough, or a flush was requested.
+     */
+    private boolean batchDue() {
+        return this.rotationsRequested > this.rotationsDone
+                || this.batchEntries > 0
+                && (this.flushRequested
+                    || this.batch.position() >= this.commitBatchBytes
+                    || System.nanoTime() - this.batchStartNanos >= this.commitDelayNanos);
+    }
+
+    /**
+     * Waits for more entries or a flush request, but no longer than the given time.
+     * Must be called with the lock held.
+     *
+     * @param nanos The maximum time to wait.
+     */
+    private void awaitBatch(long nanos) {
+        try {
+            this.batchReady.awaitNanos(Math.max(nanos, 1));
+        } catch (InterruptedException e) {
+            // Nothing interrupts the committer; it keeps serving until the log is closed.
+        }
+    }
+
+    /**
+     * Asks the committing thread to commit everything appended so far and waits for it.
+     * Must be called with the lock held; it is released while waiting.
+     *
+     * @throws IOException if the commit fails.
+     */
+    private void flush() throws IOException {
+        this.flushRequested = true;
+        this.batchReady.signal();
+        try {
+            awaitDurable(this.lastLsn);
+        } finally {
+            this.flushRequested = false;
+        }
+    }
+
+    /**
+     * Grows the batch buffer so it can take at least the given number of extra bytes.
+     *
+     * @param needed The number of bytes that must fit.
+     */
+    private void growBatch(int needed) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(this.batch.capacity() * 2, this.batch.position() + needed));
+        this.batch.flip();
+        larger.put(this.batch);
+        this.batch = larger;
+    }
+
+    /**
+     * Fails if the log cannot accept entries. Must be called with the lock held.
+     *
+     * @throws IOException if an earlier commit failed or the log is closed.
+     */
+    private void checkOpen() throws IOException {
+        if (this.failure != null) {
+            throw new IOException("Write-ahead log commit failed.", this.failure);
+        }
+        if (this.closed) {
+            throw new IOException("Write-ahead log is closed.");
+        }
+    }
+
+    /**
+     * Creates a new segment file.
+     *
+     * A non-empty file can only exist under the name if a crash tore the first entry written to it:
+     * had replay found a valid entry there, the log would have been opened after a later LSN. New entries
+     * appended behind the torn bytes would be invisible to the next replay, which stops at the first
+     * invalid entry of a segment, so the file is renamed out of the way, where replay does not look.
+     *
+     * @param firstLsn The first LSN the segment may contain.
+     * @return The channel of the new segment.
+     * @throws IOException if the file cannot be created.
+     */
+    private FileChannel openSegment(long firstLsn) throws IOException {
+        Path path = this.directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+        if (Files.exists(path) && Files.size(path) > 0) {
+            Files.move(path, path.resolveSibling(path.getFileName() + TORN_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Lists the segment files of a directory ordered by their first LSN.
+     *
+     * @param directory The directory holding the segment files.
+     * @return The segment paths in LSN order.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort((a, b) -> Long.compare(firstLsnOf(a), firstLsnOf(b)));
+        return segments;
+    }
+
+    /**
+     * Extracts the first LSN from the name of a segment file.
+     *
+     * @param segment The segment path.
+     * @return The first LSN the segment may contain.
+     */
+    private static long firstLsnOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * The JMX view of the group commit metrics of a WriteAheadLog, registered under "mrk:type=WriteAheadLog".
+ * The interface is public because JMX only accepts public MXBean interfaces.
+ */
+public interface WriteAheadLogMXBean {
+
+    /**
+     * Gets the number of group commits performed, each ending in one fsync.
+     *
+     * @return The number of commits.
+     */
+    long getCommitCount();
+
+    /**
+     * Gets the number of entries committed.
+     *
+     * @return The number of committed entries.
+     */
+    long getCommittedEntries();
+
+    /**
+     * Gets the average number of entries per group commit.
+     *
+     * @return The average batch size.
+     */
+    double getAverageBatchSize();
+
+    /**
+     * Gets the average time spent writing and forcing one batch.
+     *
+     * @return The average commit latency in microseconds.
+     */
+    double getAverageCommitMicros();
+
+    /**
+     * Gets the longest time spent writing and forcing one batch.
+     *
+     * @return The maximum commit latency in microseconds.
+     */
+    double getMaxCommitMicros();
+}
@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of BatchCommandRunner: batched moves mean the same as the same lines run one at a time.
+ */
+class BatchCommandRunnerTest {
+
+    /**
+     * Runs the same moves with and without a report between them and checks that both end with the same
+     * quantity and report the same rejected line.
+     *
+     * @throws IOException never, as the script is read from a string.
+     */
+    @Test
+    void batchedMovesDoNotDependOnOtherCommands() throws IOException {
+        String together = run("create 1 Milk\nmove 1 -10\nmove 1 10\n");
+        String apart = run("create 1 Milk\nmove 1 -10\nshow 1\nmove 1 10\n");
+        assertTrue(together.contains("Line 2: Product ID: 1. Stock movement of -10 exceeds"), together);
+        assertTrue(apart.contains("Line 2: Product ID: 1. Stock movement of -10 exceeds"), apart);
+        assertTrue(together.contains("1 stock movements applied, 1 errors."), together);
+        assertTrue(apart.contains("1 stock movements applied, 1 errors."), apart);
+    }
+
+    /**
+     * Checks the quantity a batch of moves leaves on the shelf.
+     *
+     * @throws IOException never, as the script is read from a string.
+     */
+    @Test
+    void batchedMovesApplyInLineOrder() throws IOException {
+        Database database = new Database();
+        ProductService service = new ProductService(database, new ReportWriter(new StringWriter()));
+        long errors = new BatchCommandRunner(service, new ReportWriter(new StringWriter()))
+                .run(new StringReader("create 1 Milk\nmove 1 -10\nmove 1 10\nmove 1 -14\n"));
+        assertEquals(1, errors);
+        assertEquals(ProductShelf.DEFAULT_CURRENT + 10 - 14, database.getProduct(1).getProductShelf().getCurrent());
+    }
+
+    /**
+     * Runs a script against a new service.
+     *
+     * @param script The commands.
+     * @return Everything the run wrote.
+     * @throws IOException never, as the script is read from a string.
+     */
+    private static String run(String script) throws IOException {
+        StringWriter output = new StringWriter();
+        ReportWriter report = new ReportWriter(output);
+        new BatchCommandRunner(new ProductService(new Database(), report), report).run(new StringReader(script));
+        return output.toString();
+    }
+}
@@ -0,0 +1,135 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of DurableStore: recovery from the snapshot and the log tail written while tills kept working.
+ */
+class DurableStoreTest {
+    // Number of products in the catalog.
+    private static final int PRODUCTS = 500;
+    // Number of threads recording stock movements at once, like tills.
+    private static final int TILLS = 4;
+    // Number of movements each till records.
+    private static final int MOVEMENTS_PER_TILL = 2_000;
+    // Number of logged changes between snapshots, small so that many snapshots rotate the log meanwhile.
+    private static final int SNAPSHOT_INTERVAL = 100;
+
+    // Data directory of the store under test, deleted after each test.
+    @TempDir
+    Path directory;
+
+    /**
+     * Creates products, records stock movements from several threads while snapshots are written in
+     * the background, and checks that a reopened store recovers every product, quantity and barcode.
+     *
+     * @throws Exception if the store fails or a thread is interrupted.
+     */
+    @Test
+    void recoversChangesLoggedDuringSnapshots() throws Exception {
+        Database database = new Database();
+        DurableStore store = new DurableStore(this.directory, database, 1, 4096, SNAPSHOT_INTERVAL);
+        ProductService service = new ProductService(database, new ReportWriter(new StringWriter()));
+        service.addChangeListener(store);
+        LocalDate expiry = LocalDate.of(2030, 1, 31);
+        for (int id = 0; id < PRODUCTS; id++) {
+            assertNotNull(service.addProduct(id, "Product " + id, expiry, expiry.minusDays(6), 100));
+        }
+        for (int id = 0; id < PRODUCTS; id += 10) {
+            assertNull(service.assignBarcode(database.getProduct(id), Gtin.parse(barcode(id))));
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> tills = new ArrayList<>();
+        for (int t = 0; t < TILLS; t++) {
+            int till = t;
+            tills.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < MOVEMENTS_PER_TILL; i++) {
+                        int id = (i * 7 + till * 131) % PRODUCTS;
+                        // Each till alternates deliveries and sales of a product, starting with a delivery,
+                        // so no shelf runs out
+                        service.applyStockMovement(id, i / PRODUCTS % 2 == 0 ? 3 : -2);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        tills.forEach(Thread::start);
+        for (Thread till : tills) {
+            till.join();
+        }
+        store.close();
+        if (failure.get() != null) {
+            throw new AssertionError("A stock movement failed", failure.get());
+        }
+        assertTrue(store.getSnapshotCount() > 0);
+        assertNull(store.getSnapshotFailure());
+
+        Database recovered = new Database();
+        new DurableStore(this.directory, recovered, 1, 4096, SNAPSHOT_INTERVAL).close();
+        assertEquals(PRODUCTS, recovered.getProductCount());
+        for (Product product : database.getProducts()) {
+            Product copy = recovered.getProduct(product.getId());
+            assertNotNull(copy, "Product " + product.getId() + " was not recovered");
+            assertEquals(product.getProductName(), copy.getProductName());
+            assertEquals(product.getExpiryDate(), copy.getExpiryDate());
+            assertEquals(product.getProductShelf().getCurrent(), copy.getProductShelf().getCurrent(),
+                    "Quantity of product " + product.getId());
+        }
+        for (int id = 0; id < PRODUCTS; id += 10) {
+            assertSame(recovered.getProduct(id), recovered.getProductByBarcode(Gtin.parse(barcode(id))));
+        }
+    }
+
+    /**
+     * Reopens a store that never wrote a snapshot and checks that the log alone recovers the catalog.
+     *
+     * @throws IOException if the store fails.
+     */
+    @Test
+    void recoversFromLogWithoutSnapshot() throws IOException {
+        Database database = new Database();
+        DurableStore store = new DurableStore(this.directory, database, 0, 4096, 1_000_000);
+        ProductService service = new ProductService(database, new ReportWriter(new StringWriter()));
+        service.addChangeListener(store);
+        LocalDate expiry = LocalDate.of(2030, 1, 31);
+        service.addProduct(1, "Milk", expiry, expiry.minusDays(6), 100);
+        service.addProduct(2, "Bread", expiry, expiry.minusDays(6), 100);
+        service.applyStockMovement(1, 4);
+        service.applyStockMovement(2, -3);
+        store.close();
+        assertEquals(0, store.getSnapshotCount());
+
+        Database recovered = new Database();
+        new DurableStore(this.directory, recovered, 0, 4096, 1_000_000).close();
+        assertEquals(2, recovered.getProductCount());
+        assertEquals(ProductShelf.DEFAULT_CURRENT + 4, recovered.getProduct(1).getProductShelf().getCurrent());
+        assertEquals(ProductShelf.DEFAULT_CURRENT - 3, recovered.getProduct(2).getProductShelf().getCurrent());
+    }
+
+    /**
+     * Makes a valid EAN-13 barcode for a product ID.
+     *
+     * @param id The product ID.
+     * @return The barcode digits, with the check digit.
+     */
+    private static String barcode(int id) {
+        long payload = 400_000_000_000L + id;
+        return Long.toString(payload * 10 + Gtin.checkDigit(payload));
+    }
+}
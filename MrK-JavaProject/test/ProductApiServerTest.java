@@ -0,0 +1,51 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of ProductApiServer: what a client learns when a request fails on the server.
+ */
+class ProductApiServerTest {
+
+    /**
+     * Fails a lookup with an exception naming a file and checks that the client gets a generic 500 error
+     * without the exception.
+     *
+     * @throws IOException if the server cannot be started or reached.
+     */
+    @Test
+    void internalErrorHidesException() throws IOException {
+        Database database = new Database() {
+            @Override
+            public Product getProduct(int productId) {
+                throw new UncheckedIOException(new IOException("/var/lib/mrk/wal/wal-00000000000000000001.log is damaged"));
+            }
+        };
+        ProductService service = new ProductService(database, new ReportWriter(new StringWriter()));
+        ProductApiServer server = new ProductApiServer(service, new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/products/1");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(500, connection.getResponseCode());
+            String body;
+            try (InputStream in = connection.getErrorStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertEquals("{\"error\":\"Internal error.\"}", body.trim());
+            assertFalse(body.contains("wal"));
+        } finally {
+            server.close();
+        }
+    }
+}
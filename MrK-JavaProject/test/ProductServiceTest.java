@@ -0,0 +1,91 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of ProductService: what happens to a change when a listener cannot save it.
+ */
+class ProductServiceTest {
+    // Expiry date of the test products.
+    private static final LocalDate EXPIRY = LocalDate.of(2030, 1, 31);
+
+    /**
+     * Fails a listener on a stock movement and checks that the listeners after it still see the movement,
+     * that the service turns read-only and reports it, and that later changes are refused untouched.
+     */
+    @Test
+    void failedListenerMakesServiceReadOnly() {
+        StringWriter output = new StringWriter();
+        ProductService service = new ProductService(new Database(), new ReportWriter(output));
+        List<String> seen = new ArrayList<>();
+        service.addChangeListener(new RecordingListener(seen, true));
+        service.addChangeListener(new RecordingListener(seen, false));
+        ColumnarProductTable table = new ColumnarProductTable();
+        service.useColumnarTable(table);
+
+        assertNotNull(service.addProduct(1, "Milk", EXPIRY, EXPIRY.minusDays(6), 100));
+        assertThrows(IllegalStateException.class, () -> service.applyStockMovement(1, 2));
+        assertTrue(service.isReadOnly());
+        assertEquals(List.of("created 1", "created 1", "moved 1", "moved 1"), seen);
+        assertEquals(ProductShelf.DEFAULT_CURRENT + 2, table.getCurrent(table.rowOf(1)));
+        assertTrue(output.toString().contains("The store is read-only"));
+
+        assertFalse(service.createProduct(2, "Bread", EXPIRY, EXPIRY.minusDays(6)));
+        assertFalse(service.recordStockMovement(1, 3));
+        assertEquals(ProductShelf.DEFAULT_CURRENT + 2, service.findProductById(1).getProductShelf().getCurrent());
+        assertNull(service.findProductById(2));
+        assertEquals(4, seen.size());
+    }
+
+    /**
+     * A listener that records the changes it sees, and can be told to fail on stock movements like a
+     * DurableStore whose log write fails.
+     */
+    private static final class RecordingListener implements ProductChangeListener {
+        // Changes seen, shared by the listeners of a test.
+        private final List<String> seen;
+        // Whether stock movements fail after being recorded.
+        private final boolean failMovements;
+
+        RecordingListener(List<String> seen, boolean failMovements) {
+            this.seen = seen;
+            this.failMovements = failMovements;
+        }
+
+        /**
+         * Records a created product.
+         *
+         * @param product The product that was created.
+         */
+        @Override
+        public void productCreated(Product product) {
+            this.seen.add("created " + product.getId());
+        }
+
+        /**
+         * Records a stock movement, then fails if told to.
+         *
+         * @param product  The product whose shelf quantity changed.
+         * @param movement The applied movement.
+         */
+        @Override
+        public void stockMoved(Product product, StockMovement movement) {
+            this.seen.add("moved " + product.getId());
+            if (this.failMovements) {
+                throw new UncheckedIOException(new IOException("Write-ahead log commit failed."));
+            }
+        }
+    }
+}
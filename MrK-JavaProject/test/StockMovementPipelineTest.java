@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of StockMovementPipeline: rejected and failed movements.
+ */
+class StockMovementPipelineTest {
+    // Expiry date of the test products.
+    private static final LocalDate EXPIRY = LocalDate.of(2030, 1, 31);
+
+    /**
+     * Queues more than a shelf holds in one batch and checks that the events the shelf can take are
+     * applied one by one after the net movement is rejected.
+     */
+    @Test
+    void rejectedNetMovementIsAppliedEventByEvent() {
+        ProductService service = new ProductService(new Database(), new ReportWriter(new StringWriter()));
+        service.addProduct(1, "Milk", EXPIRY, EXPIRY.minusDays(6), 100);
+        StockMovementPipeline pipeline = new StockMovementPipeline(service, 1, 16, 1000);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(pipeline.offer(1, -1));
+        }
+        pipeline.close();
+        assertEquals(0, service.findProductById(1).getProductShelf().getCurrent());
+        assertEquals(8 - ProductShelf.DEFAULT_CURRENT, pipeline.getRejectedCount());
+        assertEquals(0, pipeline.getFailedCount());
+    }
+
+    /**
+     * Fails the log write of the first movement and checks that no event is applied again on top of it:
+     * every event counts as failed, not rejected, and the shelf holds at most the queued deliveries.
+     */
+    @Test
+    void failedMovementIsNotReplayed() {
+        ProductService service = new ProductService(new Database(), new ReportWriter(new StringWriter()));
+        service.addProduct(1, "Milk", EXPIRY, EXPIRY.minusDays(6), 100);
+        service.addChangeListener(new ProductChangeListener() {
+            @Override
+            public void productCreated(Product product) {
+            }
+
+            @Override
+            public void stockMoved(Product product, StockMovement movement) {
+                throw new UncheckedIOException(new IOException("Write-ahead log commit failed."));
+            }
+        });
+        StockMovementPipeline pipeline = new StockMovementPipeline(service, 1, 16, 1000);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(pipeline.offer(1, 1));
+        }
+        pipeline.close();
+        long current = service.findProductById(1).getProductShelf().getCurrent();
+        assertTrue(current > ProductShelf.DEFAULT_CURRENT && current <= ProductShelf.DEFAULT_CURRENT + 3, "Shelf holds " + current);
+        assertEquals(3, pipeline.getFailedCount());
+        assertEquals(0, pipeline.getRejectedCount());
+        assertEquals(0, pipeline.getAppliedCount());
+    }
+}
@@ -0,0 +1,178 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of WriteAheadLog: appends racing with rotations, segment boundaries and replay.
+ */
+class WriteAheadLogTest {
+    // Number of threads appending at once.
+    private static final int APPENDERS = 4;
+    // Number of entries each appender writes.
+    private static final int ENTRIES_PER_APPENDER = 5_000;
+    // An appender waits for its entry to be durable after this many appends.
+    private static final int AWAIT_EVERY = 50;
+
+    // Directory of the log under test, deleted after each test.
+    @TempDir
+    Path directory;
+
+    /**
+     * Rotates the log over and over while several threads append, then checks that no append failed,
+     * that every entry was written exactly once, and that every segment only holds the LSNs from its
+     * own name up to the name of the next segment.
+     *
+     * @throws Exception if the log fails or a thread is interrupted.
+     */
+    @Test
+    void rotateWhileAppending() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(this.directory, 0, 1, 4096);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> appenders = new ArrayList<>();
+        for (int t = 0; t < APPENDERS; t++) {
+            int thread = t;
+            appenders.add(new Thread(() -> {
+                ByteBuffer payload = ByteBuffer.allocate(8);
+                try {
+                    for (int i = 0; i < ENTRIES_PER_APPENDER; i++) {
+                        payload.clear();
+                        payload.putInt(thread).putInt(i).flip();
+                        long lsn = log.append(WriteAheadLog.STOCK, payload);
+                        if (i % AWAIT_EVERY == 0) {
+                            log.awaitDurable(lsn);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        appenders.forEach(Thread::start);
+
+        int rotations = 0;
+        long previous = 0;
+        while (appenders.stream().anyMatch(Thread::isAlive)) {
+            long appended = log.append(WriteAheadLog.CREATE, ByteBuffer.allocate(0));
+            long rotated = log.rotate();
+            assertTrue(rotated >= appended, "rotate returned " + rotated + " before the entry " + appended);
+            assertTrue(rotated >= previous);
+            previous = rotated;
+            rotations++;
+        }
+        for (Thread appender : appenders) {
+            appender.join();
+        }
+        log.close();
+        if (failure.get() != null) {
+            throw new AssertionError("An append failed", failure.get());
+        }
+        assertTrue(rotations > 1);
+
+        // Every entry is replayed once, in LSN order, and each appender's entries in the order appended
+        int[] next = new int[APPENDERS];
+        long[] count = new long[1];
+        long last = WriteAheadLog.replay(this.directory, 0, (lsn, type, payload) -> {
+            assertEquals(++count[0], lsn);
+            if (type == WriteAheadLog.STOCK) {
+                assertEquals(next[payload.getInt(0)]++, payload.getInt(4));
+            }
+        });
+        assertEquals(count[0], last);
+        assertEquals(APPENDERS * ENTRIES_PER_APPENDER + rotations, last);
+        assertArrayEquals(new int[] {ENTRIES_PER_APPENDER, ENTRIES_PER_APPENDER, ENTRIES_PER_APPENDER, ENTRIES_PER_APPENDER}, next);
+
+        List<Path> segments = segments(this.directory);
+        for (int i = 0; i < segments.size(); i++) {
+            long first = firstLsnOf(segments.get(i));
+            long end = i + 1 < segments.size() ? firstLsnOf(segments.get(i + 1)) : Long.MAX_VALUE;
+            for (long lsn : lsnsIn(segments.get(i))) {
+                assertTrue(lsn >= first && lsn < end,
+                        "LSN " + lsn + " is in segment " + segments.get(i).getFileName() + " ending before " + end);
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments covered by a rotation and checks that replay still finds every later entry.
+     *
+     * @throws IOException if the log fails.
+     */
+    @Test
+    void deleteSegmentsUpToRotation() throws IOException {
+        WriteAheadLog log = new WriteAheadLog(this.directory, 0, 0, 4096);
+        for (int i = 0; i < 10; i++) {
+            log.append(WriteAheadLog.CREATE, ByteBuffer.allocate(4).putInt(0, i));
+        }
+        long rotated = log.rotate();
+        assertEquals(10, rotated);
+        long lsn = 0;
+        for (int i = 10; i < 15; i++) {
+            lsn = log.append(WriteAheadLog.CREATE, ByteBuffer.allocate(4).putInt(0, i));
+        }
+        log.awaitDurable(lsn);
+        log.deleteSegmentsUpTo(rotated);
+        log.close();
+
+        List<Integer> values = new ArrayList<>();
+        long last = WriteAheadLog.replay(this.directory, rotated, (entry, type, payload) -> values.add(payload.getInt(0)));
+        assertEquals(15, last);
+        assertEquals(List.of(10, 11, 12, 13, 14), values);
+        assertEquals(1, segments(this.directory).size());
+    }
+
+    /**
+     * Lists the segment files of a directory in LSN order.
+     *
+     * @param directory The log directory.
+     * @return The segment paths.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "wal-*.log")) {
+            stream.forEach(segments::add);
+        }
+        segments.sort((a, b) -> Long.compare(firstLsnOf(a), firstLsnOf(b)));
+        return segments;
+    }
+
+    /**
+     * Reads the LSNs held by one segment, by replaying a copy of it on its own.
+     *
+     * @param segment The segment file.
+     * @return The LSNs in the segment.
+     * @throws IOException if the segment cannot be copied or read.
+     */
+    private List<Long> lsnsIn(Path segment) throws IOException {
+        Path alone = Files.createTempDirectory(this.directory.getParent(), "segment");
+        Files.copy(segment, alone.resolve(segment.getFileName()));
+        List<Long> lsns = new ArrayList<>();
+        WriteAheadLog.replay(alone, 0, (lsn, type, payload) -> lsns.add(lsn));
+        Files.delete(alone.resolve(segment.getFileName()));
+        Files.delete(alone);
+        return lsns;
+    }
+
+    /**
+     * Extracts the first LSN from the name of a segment file.
+     *
+     * @param segment The segment path.
+     * @return The LSN in its name.
+     */
+    private static long firstLsnOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("wal-".length(), name.length() - ".log".length()));
+    }
+}